@@ -36,7 +36,11 @@ import org.openrdf.sail.helpers.SailBase;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.uni_koblenz.west.splendid.config.AdmissionControlConfig;
+import de.uni_koblenz.west.splendid.config.AdmissionControlConfig.QueryClassConfig;
 import de.uni_koblenz.west.splendid.config.InitializedWithSail;
+import de.uni_koblenz.west.splendid.config.QueryEvaluationConfig;
+import de.uni_koblenz.west.splendid.evaluation.AdmissionController;
 import de.uni_koblenz.west.splendid.evaluation.FederationEvalStrategy;
 import de.uni_koblenz.west.splendid.sources.SourceSelector;
 import de.uni_koblenz.west.splendid.statistics.VoidStatistics;
@@ -60,6 +64,9 @@ public class FederationSail extends SailBase {
 	private SourceSelector selector;
 	private QueryOptimizer optimizer;
 	private EvaluationStrategy evalStrategy;
+	private QueryEvaluationConfig evalConfig = new QueryEvaluationConfig();
+	private AdmissionControlConfig admissionConfig = new AdmissionControlConfig();
+	private AdmissionController admission;
 
 	private boolean initialized = false;
 	
@@ -75,10 +82,18 @@ public class FederationSail extends SailBase {
 	
 	// --- GETTER --------------------------------------------------------------
 	
+	public AdmissionController getAdmissionController() {
+		return this.admission;
+	}
+	
 	public EvaluationStrategy getEvalStrategy() {
 		return this.evalStrategy;
 	}
 	
+	public QueryEvaluationConfig getEvaluationConfig() {
+		return this.evalConfig;
+	}
+	
 	public QueryOptimizer getFederationOptimizer() {
 		return this.optimizer;
 	}
@@ -92,6 +107,12 @@ public class FederationSail extends SailBase {
 	}
 	
 	// --- SETTER --------------------------------------------------------------
+	
+	public void setAdmissionConfig(AdmissionControlConfig admissionConfig) {
+		if (admissionConfig == null)
+			throw new IllegalArgumentException("admission config must not be NULL");
+		this.admissionConfig = admissionConfig;
+	}
 
 	public void setEvalStrategy(EvaluationStrategy evalStrategy) {
 //		if (evalStrategy == null)
@@ -99,6 +120,12 @@ public class FederationSail extends SailBase {
 		this.evalStrategy = evalStrategy;
 	}
 	
+	public void setEvaluationConfig(QueryEvaluationConfig evalConfig) {
+		if (evalConfig == null)
+			throw new IllegalArgumentException("evaluation config must not be NULL");
+		this.evalConfig = evalConfig;
+	}
+	
 	public void setFederationOptimizer(QueryOptimizer optimizer) {
 		if (optimizer == null)
 			throw new IllegalArgumentException("query optimizer must not be NULL");
@@ -170,6 +197,14 @@ public class FederationSail extends SailBase {
 			}
 		}
 		
+		// initialize admission control
+		this.admission = new AdmissionController(admissionConfig.getMaxRunningQueries(),
+				admissionConfig.getMaxQueuedQueries(), admissionConfig.getMaxQueueTime());
+		for (QueryClassConfig queryClass : admissionConfig.getQueryClasses()) {
+			this.admission.addClass(queryClass.getName(), queryClass.getWeight(),
+					queryClass.getMaxCost(), queryClass.getMaxRemoteRequests(), queryClass.getMaxQueryMemory());
+		}
+		
 		initialized = true;
 	}
 	
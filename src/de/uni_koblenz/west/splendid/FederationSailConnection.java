@@ -21,6 +21,8 @@
 package de.uni_koblenz.west.splendid;
 
 import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.EmptyIteration;
+import info.aduna.iteration.LookAheadIteration;
 
 import org.openrdf.model.Namespace;
 import org.openrdf.model.Resource;
@@ -30,6 +32,7 @@ import org.openrdf.model.Value;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.Dataset;
 import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.QueryInterruptedException;
 import org.openrdf.query.algebra.TupleExpr;
 import org.openrdf.query.algebra.evaluation.EvaluationStrategy;
 import org.openrdf.query.algebra.evaluation.QueryOptimizer;
@@ -46,8 +49,16 @@ import org.openrdf.sail.SailException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.uni_koblenz.west.splendid.config.QueryEvaluationConfig;
+import de.uni_koblenz.west.splendid.estimation.AbstractCostEstimator;
+import de.uni_koblenz.west.splendid.evaluation.AdmissionController;
+import de.uni_koblenz.west.splendid.evaluation.FederatedQueryRoot;
+import de.uni_koblenz.west.splendid.evaluation.QueryContext;
 import de.uni_koblenz.west.splendid.helpers.OperatorTreePrinter;
 import de.uni_koblenz.west.splendid.helpers.ReadOnlySailConnection;
+import de.uni_koblenz.west.splendid.optimizer.AbstractFederationOptimizer;
+import de.uni_koblenz.west.splendid.optimizer.AggregatePushdownOptimizer;
+import de.uni_koblenz.west.splendid.optimizer.LimitPushdownOptimizer;
 
 /**
  * Wraps multiple remote repositories with SPARQL endpoints into one
@@ -66,6 +77,11 @@ public class FederationSailConnection extends ReadOnlySailConnection {
 
 	private final QueryOptimizer optimizer;
 	private final EvaluationStrategy strategy;
+	private final QueryEvaluationConfig evalConfig;
+	private final AdmissionController admission;
+	
+	private int queryTimeout;
+	private volatile boolean resultIncomplete;
 	
 	/**
 	 * Create a Sail connection which wraps the members repository connections.
@@ -83,6 +99,36 @@ public class FederationSailConnection extends ReadOnlySailConnection {
 		
 		this.optimizer = sail.getFederationOptimizer();
 		this.strategy = sail.getEvalStrategy();
+		this.evalConfig = sail.getEvaluationConfig();
+		this.admission = sail.getAdmissionController();
+		this.queryTimeout = evalConfig.getQueryTimeout();
+	}
+	
+	/**
+	 * Sets the timeout for queries evaluated on this connection and
+	 * overrides the default timeout of the federation.
+	 * 
+	 * @param queryTimeout the timeout in milliseconds or 0 for no timeout.
+	 */
+	public void setQueryTimeout(int queryTimeout) {
+		if (queryTimeout < 0)
+			throw new IllegalArgumentException("query timeout must not be negative");
+		this.queryTimeout = queryTimeout;
+	}
+	
+	public int getQueryTimeout() {
+		return this.queryTimeout;
+	}
+	
+	/**
+	 * Checks if the result of the last query evaluated on this connection
+	 * is incomplete because the query timed out and partial results are
+	 * returned. The flag is valid after the result has been consumed.
+	 * 
+	 * @return true if the query result is incomplete.
+	 */
+	public boolean isResultIncomplete() {
+		return this.resultIncomplete;
 	}
 	
 	// -------------------------------------------------------------------------
@@ -113,7 +159,14 @@ public class FederationSailConnection extends ReadOnlySailConnection {
 		LOGGER.trace("Incoming query model:\n{}", OperatorTreePrinter.print(query));
 		
 		// Clone the tuple expression to allow for more aggressive optimizations
-		query = query.clone();
+		// and attach a new evaluation context to the query
+		FederatedQueryRoot root = new FederatedQueryRoot(query.clone());
+		query = root;
+		
+		// the timeout includes source selection and admission
+		final QueryContext context = root.getContext();
+		context.setTimeout(queryTimeout);
+		resultIncomplete = false;
 
 		optimizerList.add(new BindingAssigner());
 		optimizerList.add(new CompareOptimizer());
@@ -123,17 +176,100 @@ public class FederationSailConnection extends ReadOnlySailConnection {
 //		optimizerList.add(new FilterOptimizer());
 //		optimizerList.add(new QueryModelPruner());
 		optimizerList.add(this.optimizer);
+		optimizerList.add(new AggregatePushdownOptimizer(evalConfig.isDisjointSources()));
+		optimizerList.add(new LimitPushdownOptimizer());
 
 		optimizerList.optimize(query, dataset, bindings);
 		
 		if (LOGGER.isTraceEnabled())
 			LOGGER.trace("Optimized query model:\n{}", OperatorTreePrinter.print(query));
 		
+		// wait until the query can be evaluated
+		final AdmissionController.Ticket ticket;
+		try {
+			ticket = admission.admit(admission.isClassified() ? getCost(query) : 0);
+		} catch (QueryEvaluationException e) {
+			throw new SailException(e.getMessage(), e);
+		}
+		context.setMaxRemoteRequests(ticket.getMaxRemoteRequests());
+		context.setMaxMemory(ticket.getMaxQueryMemory() > 0 ? ticket.getMaxQueryMemory() : evalConfig.getMaxQueryMemory());
+		
+		final CloseableIteration<BindingSet, QueryEvaluationException> result;
 		try {
-			return strategy.evaluate(query, EmptyBindingSet.getInstance());
+			result = strategy.evaluate(query, EmptyBindingSet.getInstance());
 		} catch (QueryEvaluationException e) {
+			ticket.release();
+			if (context.isTimedOut() && evalConfig.isPartialResults()) {
+				setIncomplete(context);
+				return new EmptyIteration<BindingSet, QueryEvaluationException>();
+			}
 			throw new SailException("query evaluation failed", e);
+		} catch (RuntimeException e) {
+			ticket.release();
+			throw e;
+		}
+		
+		// closing the result at the deadline aborts all remote requests
+		context.closeOnTimeout(result);
+		
+		// the next query is admitted when the result is consumed or closed
+		return new LookAheadIteration<BindingSet, QueryEvaluationException>() {
+			@Override
+			protected BindingSet getNextElement() throws QueryEvaluationException {
+				try {
+					if (result.hasNext())
+						return result.next();
+				} catch (QueryEvaluationException e) {
+					if (!context.isTimedOut())
+						throw e;
+				} catch (RuntimeException e) {
+					if (!context.isTimedOut())
+						throw e;
+				}
+				if (!context.isTimedOut())
+					return null;
+				if (!evalConfig.isPartialResults())
+					throw new QueryInterruptedException("query timed out after " + context.getTimeout() + " ms");
+				setIncomplete(context);
+				return null;
+			}
+			@Override
+			protected void handleClose() throws QueryEvaluationException {
+				try {
+					result.close();
+				} finally {
+					ticket.release();
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Marks the result of the query as incomplete.
+	 */
+	private void setIncomplete(QueryContext context) {
+		LOGGER.warn("query timed out after " + context.getTimeout() + " ms, returning partial results");
+		resultIncomplete = true;
+	}
+	
+	/**
+	 * Returns the estimated cost of the query plan which determines the
+	 * query class used for admission control.
+	 * 
+	 * @param query the optimized query plan.
+	 * @return the estimated cost or infinity if there is no estimate.
+	 */
+	private double getCost(TupleExpr query) {
+		if (optimizer instanceof AbstractFederationOptimizer) {
+			AbstractCostEstimator costEstimator = ((AbstractFederationOptimizer) optimizer).getCostEstimator();
+			try {
+				if (costEstimator != null)
+					return costEstimator.process(query);
+			} catch (RuntimeException e) {
+				LOGGER.debug("cannot estimate cost of query plan", e);
+			}
 		}
+		return Double.POSITIVE_INFINITY;
 	}
 	
 	// Sesame 2: Overriding internal methods ==================================
@@ -22,6 +22,8 @@ package de.uni_koblenz.west.splendid;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.openrdf.model.URI;
 import org.openrdf.model.ValueFactory;
@@ -33,6 +35,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.uni_koblenz.west.splendid.config.VoidRepositoryConfig;
+import de.uni_koblenz.west.splendid.helpers.EndpointProfile;
+import de.uni_koblenz.west.splendid.helpers.ReplicaGroup;
 import de.uni_koblenz.west.splendid.statistics.VoidStatistics;
 
 /**
@@ -47,12 +51,16 @@ public class VoidRepository implements Repository {
 	protected final ValueFactory vf = new ValueFactoryImpl();
 	protected URI endpoint;
 	protected final URI voidURI;
+	protected final boolean probeCapabilities;
+	protected final List<URI> replicas;
 	
 	protected boolean initialized = false;
 	
 	public VoidRepository(VoidRepositoryConfig config) {
 		this.endpoint = config.getEndpoint();
 		this.voidURI = config.getVoidURI();
+		this.probeCapabilities = config.isProbeCapabilities();
+		this.replicas = config.getReplicas();
 	}
 	
 	public URI getEndpoint() {
@@ -95,6 +103,19 @@ public class VoidRepository implements Repository {
 			throw new RepositoryException("can not read voiD description: " + this.voidURI + e.getMessage(), e);
 		}
 		
+		// the profile selects the query dialect for the endpoint
+		if (this.probeCapabilities)
+			EndpointProfile.probe(this.endpoint.stringValue());
+		
+		// requests to the endpoint can be sent to any replica
+		if (!this.replicas.isEmpty()) {
+			List<String> replicaURLs = new ArrayList<String>();
+			for (URI replica : this.replicas) {
+				replicaURLs.add(replica.stringValue());
+			}
+			ReplicaGroup.register(this.endpoint.stringValue(), replicaURLs);
+		}
+		
 		this.initialized = true;
 	}
 
@@ -143,6 +143,27 @@ public abstract class AbstractSailConfig implements SailImplConfig {
 		}
 	}
 	
+	/**
+	 * Returns the integer value of the triple's object matching the predicate.
+	 * 
+	 * @param model the model of the configuration settings.
+	 * @param implNode the model representing a configuration setting.
+	 * @param property the predicate defining a configuration attribute.
+	 * @param defaultValue the value to return if the option is not set.
+	 * @return the integer value of the object or the default value.
+	 * @throws SailConfigException if there is no (single) integer to return.
+	 */
+	protected int getObjectInteger(Graph model, Resource implNode, URI property, int defaultValue) throws SailConfigException {
+		try {
+			return getObjectLiteral(model, implNode, property).intValue();
+		} catch (NullPointerException e) {
+			LOGGER.trace("missing option " + property + ", default is " + defaultValue);
+			return defaultValue;
+		} catch (NumberFormatException e) {
+			throw new SailConfigException("not an integer value in option " + property);
+		}
+	}
+	
 	/**
 	 * Returns the object resource of the triple matching the supplied predicate.
 	 * 
@@ -0,0 +1,272 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.config;
+
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.CLASS_NAME;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.CLASS_WEIGHT;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.MAX_COST;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.MAX_QUERY_MEMORY;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.MAX_QUEUED_QUERIES;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.MAX_QUEUE_TIME;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.MAX_REMOTE_REQUESTS;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.MAX_RUNNING_QUERIES;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.QUERY_CLASS;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.openrdf.model.Graph;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Resource;
+import org.openrdf.model.Value;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.sail.config.SailConfigException;
+
+/**
+ * Configuration settings for the admission control of federated queries.
+ * Queries are assigned to the query class with the lowest maximum cost
+ * which covers their estimated plan cost. Waiting queries are admitted
+ * in proportion to the weights of their classes.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class AdmissionControlConfig extends AbstractSailConfig {
+	
+	private int maxRunningQueries = 0;
+	private int maxQueuedQueries = 0;
+	private int maxQueueTime = 0;
+	private final List<QueryClassConfig> queryClasses = new ArrayList<QueryClassConfig>();
+	
+	public AdmissionControlConfig() {
+		super();
+	}
+	
+	public static AdmissionControlConfig create(Graph model, Resource implNode) throws SailConfigException {
+		AdmissionControlConfig config = new AdmissionControlConfig();
+		config.parse(model, implNode);
+		return config;
+	}
+	
+	/**
+	 * Returns the maximum number of queries which are evaluated at the
+	 * same time.
+	 * 
+	 * @return the maximum number of running queries or 0 for no limit.
+	 */
+	public int getMaxRunningQueries() {
+		return this.maxRunningQueries;
+	}
+	
+	/**
+	 * Returns the maximum number of queries which wait for admission.
+	 * Further queries are rejected.
+	 * 
+	 * @return the maximum number of waiting queries or 0 for no limit.
+	 */
+	public int getMaxQueuedQueries() {
+		return this.maxQueuedQueries;
+	}
+	
+	/**
+	 * Returns the time a query may wait for admission before it is rejected.
+	 * 
+	 * @return the waiting time in milliseconds or 0 for no limit.
+	 */
+	public int getMaxQueueTime() {
+		return this.maxQueueTime;
+	}
+	
+	/**
+	 * Returns the configured query classes.
+	 * 
+	 * @return the query classes, empty if all queries share a single class.
+	 */
+	public List<QueryClassConfig> getQueryClasses() {
+		return this.queryClasses;
+	}
+	
+	@Override
+	public Resource export(Graph model) {
+		ValueFactory vf = ValueFactoryImpl.getInstance();
+		
+		Resource self = super.export(model);
+		
+		model.add(self, MAX_RUNNING_QUERIES, vf.createLiteral(this.maxRunningQueries));
+		model.add(self, MAX_QUEUED_QUERIES, vf.createLiteral(this.maxQueuedQueries));
+		model.add(self, MAX_QUEUE_TIME, vf.createLiteral(this.maxQueueTime));
+		for (QueryClassConfig queryClass : this.queryClasses) {
+			model.add(self, QUERY_CLASS, queryClass.export(model));
+		}
+		
+		return self;
+	}
+
+	@Override
+	public void parse(Graph model, Resource implNode) throws SailConfigException {
+		super.parse(model, implNode);
+		
+		this.maxRunningQueries = getObjectInteger(model, implNode, MAX_RUNNING_QUERIES, this.maxRunningQueries);
+		this.maxQueuedQueries = getObjectInteger(model, implNode, MAX_QUEUED_QUERIES, this.maxQueuedQueries);
+		this.maxQueueTime = getObjectInteger(model, implNode, MAX_QUEUE_TIME, this.maxQueueTime);
+		
+		for (Value queryClass : filter(model, implNode, QUERY_CLASS)) {
+			if (!(queryClass instanceof Resource))
+				throw new SailConfigException("Found literal for query class node, expected a resource");
+			this.queryClasses.add(QueryClassConfig.create(model, (Resource) queryClass));
+		}
+	}
+	
+	@Override
+	public void validate() throws SailConfigException {
+		if (this.maxRunningQueries < 0)
+			throw new SailConfigException("maximum number of running queries must not be negative: " + MAX_RUNNING_QUERIES);
+		if (this.maxQueuedQueries < 0)
+			throw new SailConfigException("maximum number of queued queries must not be negative: " + MAX_QUEUED_QUERIES);
+		if (this.maxQueueTime < 0)
+			throw new SailConfigException("maximum queue time must not be negative: " + MAX_QUEUE_TIME);
+		
+		Set<String> names = new HashSet<String>();
+		int unbounded = 0;
+		for (QueryClassConfig queryClass : this.queryClasses) {
+			queryClass.validate();
+			if (!names.add(queryClass.getName()))
+				throw new SailConfigException("duplicate query class: " + queryClass.getName());
+			if (queryClass.getMaxCost() < 0)
+				unbounded++;
+		}
+		if (unbounded > 1)
+			throw new SailConfigException("only one query class may omit " + MAX_COST);
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Configuration settings of a query class.
+	 */
+	public static class QueryClassConfig extends AbstractSailConfig {
+		
+		private String name;
+		private int weight = 1;
+		private double maxCost = -1;
+		private int maxRemoteRequests = 0;
+		private int maxQueryMemory = 0;
+		
+		public static QueryClassConfig create(Graph model, Resource implNode) throws SailConfigException {
+			QueryClassConfig config = new QueryClassConfig();
+			config.parse(model, implNode);
+			return config;
+		}
+		
+		public String getName() {
+			return this.name;
+		}
+		
+		/**
+		 * Returns the share of admissions of this class relative to the
+		 * other classes while queries are waiting.
+		 * 
+		 * @return the weight of the class.
+		 */
+		public int getWeight() {
+			return this.weight;
+		}
+		
+		/**
+		 * Returns the highest estimated plan cost of the class's queries.
+		 * 
+		 * @return the maximum cost or -1 for no limit.
+		 */
+		public double getMaxCost() {
+			return this.maxCost;
+		}
+		
+		/**
+		 * Returns the maximum number of remote requests of a single query.
+		 * 
+		 * @return the maximum number of remote requests or 0 for no limit.
+		 */
+		public int getMaxRemoteRequests() {
+			return this.maxRemoteRequests;
+		}
+		
+		/**
+		 * Returns the memory limit of a single query.
+		 * 
+		 * @return the memory limit in megabytes or 0 for the default limit.
+		 */
+		public int getMaxQueryMemory() {
+			return this.maxQueryMemory;
+		}
+		
+		@Override
+		public Resource export(Graph model) {
+			ValueFactory vf = ValueFactoryImpl.getInstance();
+			
+			Resource self = super.export(model);
+			
+			model.add(self, CLASS_NAME, vf.createLiteral(this.name));
+			model.add(self, CLASS_WEIGHT, vf.createLiteral(this.weight));
+			if (this.maxCost >= 0)
+				model.add(self, MAX_COST, vf.createLiteral(this.maxCost));
+			model.add(self, MAX_REMOTE_REQUESTS, vf.createLiteral(this.maxRemoteRequests));
+			model.add(self, MAX_QUERY_MEMORY, vf.createLiteral(this.maxQueryMemory));
+			
+			return self;
+		}
+		
+		@Override
+		public void parse(Graph model, Resource implNode) throws SailConfigException {
+			super.parse(model, implNode);
+			
+			Literal name = getObjectLiteral(model, implNode, CLASS_NAME);
+			if (name != null)
+				this.name = name.getLabel();
+			this.weight = getObjectInteger(model, implNode, CLASS_WEIGHT, this.weight);
+			this.maxRemoteRequests = getObjectInteger(model, implNode, MAX_REMOTE_REQUESTS, this.maxRemoteRequests);
+			this.maxQueryMemory = getObjectInteger(model, implNode, MAX_QUERY_MEMORY, this.maxQueryMemory);
+			
+			Literal maxCost = getObjectLiteral(model, implNode, MAX_COST);
+			if (maxCost != null) {
+				try {
+					this.maxCost = maxCost.doubleValue();
+				} catch (NumberFormatException e) {
+					throw new SailConfigException("not a number in option " + MAX_COST);
+				}
+			}
+		}
+		
+		@Override
+		public void validate() throws SailConfigException {
+			if (this.name == null)
+				throw new SailConfigException("no name for query class specified: use " + CLASS_NAME);
+			if (this.weight < 1)
+				throw new SailConfigException("weight of query class " + this.name + " must be positive: " + CLASS_WEIGHT);
+			if (this.maxRemoteRequests < 0)
+				throw new SailConfigException("maximum number of remote requests must not be negative: " + MAX_REMOTE_REQUESTS);
+			if (this.maxQueryMemory < 0)
+				throw new SailConfigException("query memory limit must not be negative: " + MAX_QUERY_MEMORY);
+		}
+	}
+
+}
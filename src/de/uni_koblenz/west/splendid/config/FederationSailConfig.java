@@ -20,7 +20,9 @@
  */
 package de.uni_koblenz.west.splendid.config;
 
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.ADMISSION_CONTROL;
 import static de.uni_koblenz.west.splendid.config.FederationSailSchema.MEMBER;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.QUERY_EVAL;
 import static de.uni_koblenz.west.splendid.config.FederationSailSchema.QUERY_OPT;
 import static de.uni_koblenz.west.splendid.config.FederationSailSchema.SRC_SELECTION;
 
@@ -48,6 +50,8 @@ public class FederationSailConfig extends AbstractSailConfig {
 	private final List<RepositoryImplConfig> memberConfig = new ArrayList<RepositoryImplConfig>();
 	private SourceSelectorConfig selectorConfig;
 	private QueryOptimizerConfig optimizerConfig;
+	private QueryEvaluationConfig evaluationConfig;
+	private AdmissionControlConfig admissionConfig;
 	
 	/**
 	 * Returns the configuration settings of the federation members.
@@ -71,6 +75,14 @@ public class FederationSailConfig extends AbstractSailConfig {
 		return this.optimizerConfig;
 	}
 	
+	public QueryEvaluationConfig getEvaluationConfig() {
+		return this.evaluationConfig;
+	}
+	
+	public AdmissionControlConfig getAdmissionConfig() {
+		return this.admissionConfig;
+	}
+	
 	// -------------------------------------------------------------------------
 
 	/**
@@ -90,6 +102,8 @@ public class FederationSailConfig extends AbstractSailConfig {
 		
 		model.add(self, SRC_SELECTION, this.selectorConfig.export(model));
 		model.add(self, QUERY_OPT, this.optimizerConfig.export(model));
+		model.add(self, QUERY_EVAL, this.evaluationConfig.export(model));
+		model.add(self, ADMISSION_CONTROL, this.admissionConfig.export(model));
 		
 		return self;
 	}
@@ -137,6 +151,24 @@ public class FederationSailConfig extends AbstractSailConfig {
 			if (optimizerConfig.getType() == null)
 				optimizerConfig.setType(DEFAULT_OPTIMIZER_STRATEGY);
 		}
+		
+		// get query evaluation settings
+		Resource queryEvaluation = getObjectResource(model, implNode, QUERY_EVAL);
+		if (queryEvaluation == null) {
+			// using default setting
+			evaluationConfig = new QueryEvaluationConfig();
+		} else {
+			evaluationConfig = QueryEvaluationConfig.create(model, queryEvaluation);
+		}
+		
+		// get admission control settings
+		Resource admissionControl = getObjectResource(model, implNode, ADMISSION_CONTROL);
+		if (admissionControl == null) {
+			// using default setting
+			admissionConfig = new AdmissionControlConfig();
+		} else {
+			admissionConfig = AdmissionControlConfig.create(model, admissionControl);
+		}
 	}
 
 	/**
@@ -165,6 +197,8 @@ public class FederationSailConfig extends AbstractSailConfig {
 		
 		this.selectorConfig.validate();
 		this.optimizerConfig.validate();
+		this.evaluationConfig.validate();
+		this.admissionConfig.validate();
 	}
 	
 }
@@ -31,7 +31,6 @@ import org.openrdf.sail.config.SailImplConfig;
 
 import de.uni_koblenz.west.splendid.FederationSail;
 import de.uni_koblenz.west.splendid.estimation.AbstractCardinalityEstimator;
-import de.uni_koblenz.west.splendid.estimation.AbstractCostEstimator;
 import de.uni_koblenz.west.splendid.estimation.CardinalityCostEstimator;
 import de.uni_koblenz.west.splendid.estimation.ModelEvaluator;
 import de.uni_koblenz.west.splendid.estimation.SPLENDIDCardinalityEstimator;
@@ -128,6 +127,8 @@ public class FederationSailFactory implements SailFactory {
 		
 		// create evaluation strategy
 		sail.setEvalStrategy(optConfig.getEvalStrategy());
+		sail.setEvaluationConfig(cfg.getEvaluationConfig());
+		sail.setAdmissionConfig(cfg.getAdmissionConfig());
 		
 		// setup statistics
 		boolean voidPlus = true;
@@ -139,20 +140,22 @@ public class FederationSailFactory implements SailFactory {
 		
 		VoidStatistics stats = VoidStatistics.getInstance();
 		AbstractCardinalityEstimator cardEstim = new SPLENDIDCardinalityEstimator(stats, voidPlus);
-		AbstractCostEstimator costEstim = new SPLENDIDCostEstimator();
+		SPLENDIDCostEstimator costEstim = new SPLENDIDCostEstimator();
 		costEstim.setCardinalityEstimator(cardEstim);
+		costEstim.setUseMemoryCost(optConfig.isUseMergeJoin());
 //		ModelEvaluator modelEval = new TrueCardinalityEstimator(sail.getEvalStrategy());
 		
 		// Create source selector from configuration settings
 		SourceSelector selector = getSourceSelector(cfg.getSelectorConfig());
 		sail.setSourceSelector(selector);
 		
-		opt.setBuilder(new SubQueryBuilder(optConfig));
+		opt.setBuilder(new SubQueryBuilder(optConfig, stats));
 		opt.setSelector(selector);
 		opt.setCostEstimator(costEstim);
 //		opt.setModelEvaluator(cardEstim);
 		opt.setModelEvaluator(costEstim);
 //		opt.setModelEvaluator(modelEval);
+		opt.setMultiwayJoin(optConfig.isUseMultiwayJoin());
 		
 
 		return sail;
@@ -193,7 +196,7 @@ public class FederationSailFactory implements SailFactory {
 		String optimizerType = optConf.getType();
 		
 		if ("DYNAMIC_PROGRAMMING".equals(optimizerType))
-			return new DynamicProgrammingOptimizer(optConf.isUseHashJoin(), optConf.isUseBindJoin());
+			return new DynamicProgrammingOptimizer(optConf.isUseHashJoin(), optConf.isUseBindJoin(), optConf.isUseMergeJoin());
 		else if ("PATTERN_HEURISTIC".equals(optimizerType))
 			return new PatternSelectivityOptimizer();
 		
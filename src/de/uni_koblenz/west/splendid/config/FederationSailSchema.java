@@ -45,11 +45,58 @@ public class FederationSailSchema {
 	public static final URI USE_TYPE_STATS = vf.createURI(NAMESPACE + "useTypeStats");
 	public static final URI GROUP_BY_SAMEAS = vf.createURI(NAMESPACE + "groupBySameAs");
 	public static final URI GROUP_BY_SOURCE = vf.createURI(NAMESPACE + "groupBySource");
+	public static final URI GROUP_BY_PARTITION = vf.createURI(NAMESPACE + "groupByPartition");
 	public static final URI USE_BIND_JOIN = vf.createURI(NAMESPACE + "useBindJoin");
 	public static final URI USE_HASH_JOIN = vf.createURI(NAMESPACE + "useHashJoin");
+	public static final URI USE_MERGE_JOIN = vf.createURI(NAMESPACE + "useMergeJoin");
+	public static final URI USE_MULTIWAY_JOIN = vf.createURI(NAMESPACE + "useMultiwayJoin");
 	public static final URI ESTIMATOR = vf.createURI(NAMESPACE + "cardEstimator");
 	public static final URI STATISTIC = vf.createURI(NAMESPACE + "statistic");
 	public static final URI VOID_URI  = vf.createURI(NAMESPACE + "voidDescription");
+	public static final URI PROBE_CAPABILITIES = vf.createURI(NAMESPACE + "probeCapabilities");
+	public static final URI REPLICA_ENDPOINT = vf.createURI(NAMESPACE + "replicaEndpoint");
 	public static final URI EVAL_STRATEGY  = vf.createURI(NAMESPACE + "evalStrategy");
+	public static final URI QUERY_EVAL = vf.createURI(NAMESPACE + "queryEvaluation");
+	public static final URI MAX_PARALLEL_REQUESTS = vf.createURI(NAMESPACE + "maxParallelRequests");
+	public static final URI MAX_REQUESTS_PER_ENDPOINT = vf.createURI(NAMESPACE + "maxRequestsPerEndpoint");
+	public static final URI USE_PLAN_SCHEDULER = vf.createURI(NAMESPACE + "usePlanScheduler");
+	public static final URI USE_ADAPTIVE_JOIN = vf.createURI(NAMESPACE + "useAdaptiveJoin");
+	public static final URI BIND_JOIN_BATCH_SIZE = vf.createURI(NAMESPACE + "bindJoinBatchSize");
+	public static final URI BIND_JOIN_CACHE_SIZE = vf.createURI(NAMESPACE + "bindJoinCacheSize");
+	public static final URI BIND_JOIN_WINDOW_SIZE = vf.createURI(NAMESPACE + "bindJoinWindowSize");
+	public static final URI USE_SEMI_JOIN = vf.createURI(NAMESPACE + "useSemiJoin");
+	public static final URI SEMI_JOIN_CHUNK_SIZE = vf.createURI(NAMESPACE + "semiJoinChunkSize");
+	public static final URI DISJOINT_SOURCES = vf.createURI(NAMESPACE + "disjointSources");
+	public static final URI PAGE_SIZE = vf.createURI(NAMESPACE + "pageSize");
+	public static final URI PAGE_WINDOW_SIZE = vf.createURI(NAMESPACE + "pageWindowSize");
+	public static final URI SHARED_REQUEST_BUFFER_SIZE = vf.createURI(NAMESPACE + "sharedRequestBufferSize");
+	public static final URI MAX_CONNECTIONS_PER_ENDPOINT = vf.createURI(NAMESPACE + "maxConnectionsPerEndpoint");
+	public static final URI CONNECT_TIMEOUT = vf.createURI(NAMESPACE + "connectTimeout");
+	public static final URI READ_TIMEOUT = vf.createURI(NAMESPACE + "readTimeout");
+	public static final URI ACCEPT_COMPRESSION = vf.createURI(NAMESPACE + "acceptCompression");
+	public static final URI MAX_GET_QUERY_LENGTH = vf.createURI(NAMESPACE + "maxGetQueryLength");
+	public static final URI USE_ASYNC_CLIENT = vf.createURI(NAMESPACE + "useAsyncClient");
+	public static final URI ASYNC_BUFFER_SIZE = vf.createURI(NAMESPACE + "asyncBufferSize");
+	public static final URI RESULT_FORMATS = vf.createURI(NAMESPACE + "resultFormats");
+	public static final URI HEDGE_PERCENTILE = vf.createURI(NAMESPACE + "hedgePercentile");
+	public static final URI MIN_HEDGE_DELAY = vf.createURI(NAMESPACE + "minHedgeDelay");
+	public static final URI CIRCUIT_FAILURE_THRESHOLD = vf.createURI(NAMESPACE + "circuitFailureThreshold");
+	public static final URI CIRCUIT_RESET_TIMEOUT = vf.createURI(NAMESPACE + "circuitResetTimeout");
+	public static final URI DEGRADED_MODE = vf.createURI(NAMESPACE + "degradedMode");
+	public static final URI MAX_REQUEST_RATE = vf.createURI(NAMESPACE + "maxRequestRate");
+	public static final URI ADAPTIVE_CONCURRENCY = vf.createURI(NAMESPACE + "adaptiveConcurrency");
+	public static final URI ADMISSION_CONTROL = vf.createURI(NAMESPACE + "admissionControl");
+	public static final URI MAX_RUNNING_QUERIES = vf.createURI(NAMESPACE + "maxRunningQueries");
+	public static final URI MAX_QUEUED_QUERIES = vf.createURI(NAMESPACE + "maxQueuedQueries");
+	public static final URI MAX_QUEUE_TIME = vf.createURI(NAMESPACE + "maxQueueTime");
+	public static final URI QUERY_CLASS = vf.createURI(NAMESPACE + "queryClass");
+	public static final URI CLASS_NAME = vf.createURI(NAMESPACE + "className");
+	public static final URI CLASS_WEIGHT = vf.createURI(NAMESPACE + "weight");
+	public static final URI MAX_COST = vf.createURI(NAMESPACE + "maxCost");
+	public static final URI MAX_REMOTE_REQUESTS = vf.createURI(NAMESPACE + "maxRemoteRequests");
+	public static final URI MAX_QUERY_MEMORY = vf.createURI(NAMESPACE + "maxQueryMemory");
+	public static final URI MAX_TOTAL_MEMORY = vf.createURI(NAMESPACE + "maxTotalMemory");
+	public static final URI QUERY_TIMEOUT = vf.createURI(NAMESPACE + "queryTimeout");
+	public static final URI PARTIAL_RESULTS = vf.createURI(NAMESPACE + "partialResults");
 
 }
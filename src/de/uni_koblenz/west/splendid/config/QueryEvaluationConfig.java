@@ -0,0 +1,630 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.config;
+
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.ACCEPT_COMPRESSION;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.ADAPTIVE_CONCURRENCY;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.ASYNC_BUFFER_SIZE;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.BIND_JOIN_BATCH_SIZE;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.BIND_JOIN_CACHE_SIZE;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.BIND_JOIN_WINDOW_SIZE;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.CIRCUIT_FAILURE_THRESHOLD;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.CIRCUIT_RESET_TIMEOUT;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.CONNECT_TIMEOUT;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.DEGRADED_MODE;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.DISJOINT_SOURCES;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.HEDGE_PERCENTILE;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.MAX_CONNECTIONS_PER_ENDPOINT;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.MAX_GET_QUERY_LENGTH;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.MAX_PARALLEL_REQUESTS;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.MAX_QUERY_MEMORY;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.MAX_REQUEST_RATE;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.MAX_REQUESTS_PER_ENDPOINT;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.MAX_TOTAL_MEMORY;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.MIN_HEDGE_DELAY;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.PAGE_SIZE;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.PAGE_WINDOW_SIZE;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.PARTIAL_RESULTS;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.QUERY_TIMEOUT;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.READ_TIMEOUT;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.RESULT_FORMATS;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.SEMI_JOIN_CHUNK_SIZE;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.SHARED_REQUEST_BUFFER_SIZE;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.USE_ADAPTIVE_JOIN;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.USE_ASYNC_CLIENT;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.USE_PLAN_SCHEDULER;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.USE_SEMI_JOIN;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.openrdf.model.Graph;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Resource;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.sail.config.SailConfigException;
+
+/**
+ * Configuration settings for the query evaluation.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class QueryEvaluationConfig extends AbstractSailConfig {
+	
+	private static final int DEFAULT_MAX_PARALLEL_REQUESTS = 16;
+	private static final int DEFAULT_MAX_REQUESTS_PER_ENDPOINT = 8;
+	private static final int DEFAULT_BIND_JOIN_BATCH_SIZE = 20;
+	private static final int DEFAULT_BIND_JOIN_WINDOW_SIZE = 4;
+	private static final int DEFAULT_BIND_JOIN_CACHE_SIZE = 1000;
+	private static final int DEFAULT_SEMI_JOIN_CHUNK_SIZE = 100;
+	private static final int DEFAULT_PAGE_WINDOW_SIZE = 4;
+	private static final int DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT = 32;
+	private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+	private static final int DEFAULT_MAX_GET_QUERY_LENGTH = 1024;
+	private static final int DEFAULT_ASYNC_BUFFER_SIZE = 1000;
+	private static final int DEFAULT_HEDGE_PERCENTILE = 95;
+	private static final int DEFAULT_MIN_HEDGE_DELAY = 100;
+	private static final int DEFAULT_CIRCUIT_FAILURE_THRESHOLD = 5;
+	private static final int DEFAULT_CIRCUIT_RESET_TIMEOUT = 30000;
+	private static final List<String> RESULT_FORMAT_NAMES = Arrays.asList("xml", "json", "tsv");
+	
+	private int maxParallelRequests = DEFAULT_MAX_PARALLEL_REQUESTS;
+	
+	private int maxRequestsPerEndpoint = DEFAULT_MAX_REQUESTS_PER_ENDPOINT;
+	
+	private boolean usePlanScheduler = true;
+	
+	private boolean useAdaptiveJoin = false;
+	
+	private int bindJoinBatchSize = DEFAULT_BIND_JOIN_BATCH_SIZE;
+	
+	private int bindJoinCacheSize = DEFAULT_BIND_JOIN_CACHE_SIZE;
+	
+	private int bindJoinWindowSize = DEFAULT_BIND_JOIN_WINDOW_SIZE;
+	
+	private boolean useSemiJoin = false;
+	
+	private int semiJoinChunkSize = DEFAULT_SEMI_JOIN_CHUNK_SIZE;
+	
+	private boolean disjointSources = false;
+	
+	private int pageSize = 0;
+	
+	private int pageWindowSize = DEFAULT_PAGE_WINDOW_SIZE;
+	
+	private int sharedRequestBufferSize = 0;
+	
+	private int maxConnectionsPerEndpoint = DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT;
+	
+	private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+	
+	private int readTimeout = 0;
+	
+	private boolean acceptCompression = true;
+	
+	private int maxGetQueryLength = DEFAULT_MAX_GET_QUERY_LENGTH;
+	
+	private boolean useAsyncClient = false;
+	
+	private int asyncBufferSize = DEFAULT_ASYNC_BUFFER_SIZE;
+	
+	private List<String> resultFormats = Arrays.asList("xml");
+	
+	private int hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+	
+	private int minHedgeDelay = DEFAULT_MIN_HEDGE_DELAY;
+	
+	private int circuitFailureThreshold = DEFAULT_CIRCUIT_FAILURE_THRESHOLD;
+	
+	private int circuitResetTimeout = DEFAULT_CIRCUIT_RESET_TIMEOUT;
+	
+	private boolean degradedMode = false;
+	
+	private int maxRequestRate = 0;
+	
+	private boolean adaptiveConcurrency = false;
+	
+	private int maxQueryMemory = 0;
+	
+	private int maxTotalMemory = 0;
+	
+	private int queryTimeout = 0;
+	
+	private boolean partialResults = false;
+	
+	/**
+	 * Creates a configuration with default settings.
+	 */
+	public QueryEvaluationConfig() {
+		super();
+	}
+	
+	public static QueryEvaluationConfig create(Graph model, Resource implNode) throws SailConfigException {
+		QueryEvaluationConfig config = new QueryEvaluationConfig();
+		config.parse(model, implNode);
+		return config;
+	}
+	
+	/**
+	 * Returns the maximum number of remote requests which are executed
+	 * concurrently. Further requests are queued by priority.
+	 * 
+	 * @return the maximum number of concurrent remote requests.
+	 */
+	public int getMaxParallelRequests() {
+		return this.maxParallelRequests;
+	}
+	
+	/**
+	 * Returns the maximum number of remote requests which are executed
+	 * concurrently on a single endpoint. A request counts until its first
+	 * result was received, results which are still streamed are not limited.
+	 * 
+	 * @return the maximum number of concurrent requests per endpoint,
+	 *         0 if there is no limit.
+	 */
+	public int getMaxRequestsPerEndpoint() {
+		return this.maxRequestsPerEndpoint;
+	}
+	
+	/**
+	 * Returns whether independent sub queries of a query plan are started
+	 * in advance (in the order of their critical path cost).
+	 * 
+	 * @return true if the plan scheduler is used.
+	 */
+	public boolean isUsePlanScheduler() {
+		return this.usePlanScheduler;
+	}
+	
+	/**
+	 * Returns whether joins with a remote sub query may switch between
+	 * hash join and bind join if the observed cardinalities differ from
+	 * the estimated cardinalities.
+	 * 
+	 * @return true if adaptive joins are used.
+	 */
+	public boolean isUseAdaptiveJoin() {
+		return this.useAdaptiveJoin;
+	}
+	
+	/**
+	 * Returns the number of bindings which are sent in a single remote
+	 * request by a bind join.
+	 * 
+	 * @return the bind join batch size.
+	 */
+	public int getBindJoinBatchSize() {
+		return this.bindJoinBatchSize;
+	}
+	
+	/**
+	 * Returns the maximum number of join values for which a bind join
+	 * memoizes the results of its right join argument.
+	 * 
+	 * @return the bind join cache size, 0 if results are not memoized.
+	 */
+	public int getBindJoinCacheSize() {
+		return this.bindJoinCacheSize;
+	}
+	
+	/**
+	 * Returns the maximum number of batches which a bind join sends in
+	 * advance before the results of the first batch are consumed.
+	 * 
+	 * @return the bind join window size.
+	 */
+	public int getBindJoinWindowSize() {
+		return this.bindJoinWindowSize;
+	}
+	
+	/**
+	 * Returns whether hash joins with a remote sub query may push the join
+	 * values of the smaller join argument to the sources of the other one.
+	 * 
+	 * @return true if semi-joins are used.
+	 */
+	public boolean isUseSemiJoin() {
+		return this.useSemiJoin;
+	}
+	
+	/**
+	 * Returns the maximum number of join values which are sent in a single
+	 * remote request by a semi-join.
+	 * 
+	 * @return the semi-join chunk size.
+	 */
+	public int getSemiJoinChunkSize() {
+		return this.semiJoinChunkSize;
+	}
+	
+	/**
+	 * Returns whether the sources do not share any results, i.e. partial
+	 * counts and sums of several sources can be added up.
+	 * 
+	 * @return true if the sources are disjoint.
+	 */
+	public boolean isDisjointSources() {
+		return this.disjointSources;
+	}
+	
+	/**
+	 * Returns the number of results per page if large sub query results
+	 * are retrieved in pages with several parallel requests.
+	 * 
+	 * @return the page size, 0 if results are not paged.
+	 */
+	public int getPageSize() {
+		return this.pageSize;
+	}
+	
+	/**
+	 * Returns the maximum number of pages which are requested in parallel
+	 * from a single source.
+	 * 
+	 * @return the page window size.
+	 */
+	public int getPageWindowSize() {
+		return this.pageWindowSize;
+	}
+	
+	/**
+	 * Returns the maximum number of results which are buffered for
+	 * replaying a running remote request to identical requests of
+	 * concurrent queries.
+	 * 
+	 * @return the shared request buffer size, 0 if requests are not shared.
+	 */
+	public int getSharedRequestBufferSize() {
+		return this.sharedRequestBufferSize;
+	}
+	
+	/**
+	 * Returns the maximum number of pooled HTTP connections per endpoint.
+	 * Further requests wait for a free connection.
+	 * 
+	 * @return the maximum number of connections per endpoint.
+	 */
+	public int getMaxConnectionsPerEndpoint() {
+		return this.maxConnectionsPerEndpoint;
+	}
+	
+	/**
+	 * Returns the timeout for establishing an HTTP connection.
+	 * 
+	 * @return the connect timeout in milliseconds, 0 for no timeout.
+	 */
+	public int getConnectTimeout() {
+		return this.connectTimeout;
+	}
+	
+	/**
+	 * Returns the timeout for waiting on data of an HTTP response.
+	 * 
+	 * @return the read timeout in milliseconds, 0 for no timeout.
+	 */
+	public int getReadTimeout() {
+		return this.readTimeout;
+	}
+	
+	/**
+	 * Returns whether endpoints may send gzip or deflate compressed results.
+	 * 
+	 * @return true if compressed results are accepted.
+	 */
+	public boolean isAcceptCompression() {
+		return this.acceptCompression;
+	}
+	
+	/**
+	 * Returns the maximum length of an URL encoded query which is sent
+	 * with HTTP GET. Longer queries are sent with POST.
+	 * 
+	 * @return the maximum GET query length, 0 if all queries use POST.
+	 */
+	public int getMaxGetQueryLength() {
+		return this.maxGetQueryLength;
+	}
+	
+	/**
+	 * Returns whether requests to plain HTTP endpoints are sent by a
+	 * non-blocking client instead of a thread per request.
+	 * 
+	 * @return true if the asynchronous client is used.
+	 */
+	public boolean isUseAsyncClient() {
+		return this.useAsyncClient;
+	}
+	
+	/**
+	 * Returns the number of results which the asynchronous client buffers
+	 * per request before it stops reading from the connection.
+	 * 
+	 * @return the result buffer size of asynchronous requests.
+	 */
+	public int getAsyncBufferSize() {
+		return this.asyncBufferSize;
+	}
+	
+	/**
+	 * Returns the result formats which the asynchronous client accepts
+	 * in the order of preference. Endpoints which reject them are sent
+	 * requests for XML results.
+	 * 
+	 * @return the accepted result formats (xml, json, tsv).
+	 */
+	public List<String> getResultFormats() {
+		return this.resultFormats;
+	}
+	
+	/**
+	 * Returns the percentile of the recent response times of a replica
+	 * after which a request is repeated on the next replica of the source.
+	 * 
+	 * @return the hedge percentile (1-100) or 0 for no hedged requests.
+	 */
+	public int getHedgePercentile() {
+		return this.hedgePercentile;
+	}
+	
+	/**
+	 * Returns the minimum time to wait for a response before a hedged
+	 * request is sent to the next replica.
+	 * 
+	 * @return the minimum hedge delay in milliseconds.
+	 */
+	public int getMinHedgeDelay() {
+		return this.minHedgeDelay;
+	}
+	
+	/**
+	 * Returns the number of consecutive failures of an endpoint after
+	 * which further requests to the endpoint are rejected immediately.
+	 * 
+	 * @return the failure threshold or 0 if requests are never rejected.
+	 */
+	public int getCircuitFailureThreshold() {
+		return this.circuitFailureThreshold;
+	}
+	
+	/**
+	 * Returns the time after which a trial request is sent to an endpoint
+	 * whose requests are rejected.
+	 * 
+	 * @return the reset timeout in milliseconds.
+	 */
+	public int getCircuitResetTimeout() {
+		return this.circuitResetTimeout;
+	}
+	
+	/**
+	 * Checks if queries are answered without the endpoints which are
+	 * unavailable. The results may be incomplete in this case.
+	 * 
+	 * @return true if unavailable endpoints are ignored with a warning.
+	 */
+	public boolean isDegradedMode() {
+		return this.degradedMode;
+	}
+	
+	/**
+	 * Returns the maximum number of requests per second which are sent
+	 * to a single endpoint.
+	 * 
+	 * @return the request rate limit or 0 for no limit.
+	 */
+	public int getMaxRequestRate() {
+		return this.maxRequestRate;
+	}
+	
+	/**
+	 * Checks if the number of concurrent requests to an endpoint is
+	 * adapted to the endpoint's response times and throttling responses.
+	 * The number never exceeds the connection limit per endpoint.
+	 * 
+	 * @return true if the concurrency per endpoint is adaptive.
+	 */
+	public boolean isAdaptiveConcurrency() {
+		return this.adaptiveConcurrency;
+	}
+	
+	/**
+	 * Returns the memory which a single query may use for hash tables,
+	 * duplicate elimination and result caches. Query classes of the
+	 * admission control can define their own limit.
+	 * 
+	 * @return the memory limit in megabytes or 0 for no limit.
+	 */
+	public int getMaxQueryMemory() {
+		return this.maxQueryMemory;
+	}
+	
+	/**
+	 * Returns the memory which all running queries may use together.
+	 * 
+	 * @return the memory limit in megabytes or 0 for no limit.
+	 */
+	public int getMaxTotalMemory() {
+		return this.maxTotalMemory;
+	}
+	
+	/**
+	 * Returns the time after which the evaluation of a query is stopped.
+	 * A connection can override the timeout for its queries.
+	 * 
+	 * @return the timeout in milliseconds or 0 for no timeout.
+	 */
+	public int getQueryTimeout() {
+		return this.queryTimeout;
+	}
+	
+	/**
+	 * Checks if the results produced so far are returned when a query
+	 * times out instead of failing the query.
+	 * 
+	 * @return true if partial results are returned.
+	 */
+	public boolean isPartialResults() {
+		return this.partialResults;
+	}
+
+	@Override
+	public Resource export(Graph model) {
+		ValueFactory vf = ValueFactoryImpl.getInstance();
+		
+		Resource self = super.export(model);
+		
+		model.add(self, MAX_PARALLEL_REQUESTS, vf.createLiteral(this.maxParallelRequests));
+		model.add(self, MAX_REQUESTS_PER_ENDPOINT, vf.createLiteral(this.maxRequestsPerEndpoint));
+		model.add(self, USE_PLAN_SCHEDULER, vf.createLiteral(this.usePlanScheduler));
+		model.add(self, USE_ADAPTIVE_JOIN, vf.createLiteral(this.useAdaptiveJoin));
+		model.add(self, BIND_JOIN_BATCH_SIZE, vf.createLiteral(this.bindJoinBatchSize));
+		model.add(self, BIND_JOIN_CACHE_SIZE, vf.createLiteral(this.bindJoinCacheSize));
+		model.add(self, BIND_JOIN_WINDOW_SIZE, vf.createLiteral(this.bindJoinWindowSize));
+		model.add(self, USE_SEMI_JOIN, vf.createLiteral(this.useSemiJoin));
+		model.add(self, SEMI_JOIN_CHUNK_SIZE, vf.createLiteral(this.semiJoinChunkSize));
+		model.add(self, DISJOINT_SOURCES, vf.createLiteral(this.disjointSources));
+		model.add(self, PAGE_SIZE, vf.createLiteral(this.pageSize));
+		model.add(self, PAGE_WINDOW_SIZE, vf.createLiteral(this.pageWindowSize));
+		model.add(self, SHARED_REQUEST_BUFFER_SIZE, vf.createLiteral(this.sharedRequestBufferSize));
+		model.add(self, MAX_CONNECTIONS_PER_ENDPOINT, vf.createLiteral(this.maxConnectionsPerEndpoint));
+		model.add(self, CONNECT_TIMEOUT, vf.createLiteral(this.connectTimeout));
+		model.add(self, READ_TIMEOUT, vf.createLiteral(this.readTimeout));
+		model.add(self, ACCEPT_COMPRESSION, vf.createLiteral(this.acceptCompression));
+		model.add(self, MAX_GET_QUERY_LENGTH, vf.createLiteral(this.maxGetQueryLength));
+		model.add(self, USE_ASYNC_CLIENT, vf.createLiteral(this.useAsyncClient));
+		model.add(self, ASYNC_BUFFER_SIZE, vf.createLiteral(this.asyncBufferSize));
+		StringBuilder formats = new StringBuilder();
+		for (String format : this.resultFormats) {
+			formats.append(formats.length() == 0 ? "" : " ").append(format);
+		}
+		model.add(self, RESULT_FORMATS, vf.createLiteral(formats.toString()));
+		model.add(self, HEDGE_PERCENTILE, vf.createLiteral(this.hedgePercentile));
+		model.add(self, MIN_HEDGE_DELAY, vf.createLiteral(this.minHedgeDelay));
+		model.add(self, CIRCUIT_FAILURE_THRESHOLD, vf.createLiteral(this.circuitFailureThreshold));
+		model.add(self, CIRCUIT_RESET_TIMEOUT, vf.createLiteral(this.circuitResetTimeout));
+		model.add(self, DEGRADED_MODE, vf.createLiteral(this.degradedMode));
+		model.add(self, MAX_REQUEST_RATE, vf.createLiteral(this.maxRequestRate));
+		model.add(self, ADAPTIVE_CONCURRENCY, vf.createLiteral(this.adaptiveConcurrency));
+		model.add(self, MAX_QUERY_MEMORY, vf.createLiteral(this.maxQueryMemory));
+		model.add(self, MAX_TOTAL_MEMORY, vf.createLiteral(this.maxTotalMemory));
+		model.add(self, QUERY_TIMEOUT, vf.createLiteral(this.queryTimeout));
+		model.add(self, PARTIAL_RESULTS, vf.createLiteral(this.partialResults));
+		
+		return self;
+	}
+
+	@Override
+	public void parse(Graph model, Resource implNode) throws SailConfigException {
+		super.parse(model, implNode);
+		
+		this.maxParallelRequests = getObjectInteger(model, implNode, MAX_PARALLEL_REQUESTS, this.maxParallelRequests);
+		this.maxRequestsPerEndpoint = getObjectInteger(model, implNode, MAX_REQUESTS_PER_ENDPOINT, this.maxRequestsPerEndpoint);
+		this.usePlanScheduler = getObjectBoolean(model, implNode, USE_PLAN_SCHEDULER, this.usePlanScheduler);
+		this.useAdaptiveJoin = getObjectBoolean(model, implNode, USE_ADAPTIVE_JOIN, this.useAdaptiveJoin);
+		this.bindJoinBatchSize = getObjectInteger(model, implNode, BIND_JOIN_BATCH_SIZE, this.bindJoinBatchSize);
+		this.bindJoinCacheSize = getObjectInteger(model, implNode, BIND_JOIN_CACHE_SIZE, this.bindJoinCacheSize);
+		this.bindJoinWindowSize = getObjectInteger(model, implNode, BIND_JOIN_WINDOW_SIZE, this.bindJoinWindowSize);
+		this.useSemiJoin = getObjectBoolean(model, implNode, USE_SEMI_JOIN, this.useSemiJoin);
+		this.semiJoinChunkSize = getObjectInteger(model, implNode, SEMI_JOIN_CHUNK_SIZE, this.semiJoinChunkSize);
+		this.disjointSources = getObjectBoolean(model, implNode, DISJOINT_SOURCES, this.disjointSources);
+		this.pageSize = getObjectInteger(model, implNode, PAGE_SIZE, this.pageSize);
+		this.pageWindowSize = getObjectInteger(model, implNode, PAGE_WINDOW_SIZE, this.pageWindowSize);
+		this.sharedRequestBufferSize = getObjectInteger(model, implNode, SHARED_REQUEST_BUFFER_SIZE, this.sharedRequestBufferSize);
+		this.maxConnectionsPerEndpoint = getObjectInteger(model, implNode, MAX_CONNECTIONS_PER_ENDPOINT, this.maxConnectionsPerEndpoint);
+		this.connectTimeout = getObjectInteger(model, implNode, CONNECT_TIMEOUT, this.connectTimeout);
+		this.readTimeout = getObjectInteger(model, implNode, READ_TIMEOUT, this.readTimeout);
+		this.acceptCompression = getObjectBoolean(model, implNode, ACCEPT_COMPRESSION, this.acceptCompression);
+		this.maxGetQueryLength = getObjectInteger(model, implNode, MAX_GET_QUERY_LENGTH, this.maxGetQueryLength);
+		this.useAsyncClient = getObjectBoolean(model, implNode, USE_ASYNC_CLIENT, this.useAsyncClient);
+		this.asyncBufferSize = getObjectInteger(model, implNode, ASYNC_BUFFER_SIZE, this.asyncBufferSize);
+		Literal formats = getObjectLiteral(model, implNode, RESULT_FORMATS);
+		if (formats != null)
+			this.resultFormats = Arrays.asList(formats.getLabel().trim().toLowerCase().split("\\s+"));
+		this.hedgePercentile = getObjectInteger(model, implNode, HEDGE_PERCENTILE, this.hedgePercentile);
+		this.minHedgeDelay = getObjectInteger(model, implNode, MIN_HEDGE_DELAY, this.minHedgeDelay);
+		this.circuitFailureThreshold = getObjectInteger(model, implNode, CIRCUIT_FAILURE_THRESHOLD, this.circuitFailureThreshold);
+		this.circuitResetTimeout = getObjectInteger(model, implNode, CIRCUIT_RESET_TIMEOUT, this.circuitResetTimeout);
+		this.degradedMode = getObjectBoolean(model, implNode, DEGRADED_MODE, this.degradedMode);
+		this.maxRequestRate = getObjectInteger(model, implNode, MAX_REQUEST_RATE, this.maxRequestRate);
+		this.adaptiveConcurrency = getObjectBoolean(model, implNode, ADAPTIVE_CONCURRENCY, this.adaptiveConcurrency);
+		this.maxQueryMemory = getObjectInteger(model, implNode, MAX_QUERY_MEMORY, this.maxQueryMemory);
+		this.maxTotalMemory = getObjectInteger(model, implNode, MAX_TOTAL_MEMORY, this.maxTotalMemory);
+		this.queryTimeout = getObjectInteger(model, implNode, QUERY_TIMEOUT, this.queryTimeout);
+		this.partialResults = getObjectBoolean(model, implNode, PARTIAL_RESULTS, this.partialResults);
+	}
+
+	/**
+	 * Validates the evaluation settings.
+	 * There is no implementation type for the query evaluation. 
+	 */
+	@Override
+	public void validate() throws SailConfigException {
+		if (this.maxParallelRequests < 1)
+			throw new SailConfigException("need at least one parallel request: " + MAX_PARALLEL_REQUESTS);
+		if (this.maxRequestsPerEndpoint < 0)
+			throw new SailConfigException("request limit per endpoint must not be negative: " + MAX_REQUESTS_PER_ENDPOINT);
+		if (this.bindJoinBatchSize < 1)
+			throw new SailConfigException("bind join batch size must be positive: " + BIND_JOIN_BATCH_SIZE);
+		if (this.bindJoinCacheSize < 0)
+			throw new SailConfigException("bind join cache size must not be negative: " + BIND_JOIN_CACHE_SIZE);
+		if (this.bindJoinWindowSize < 1)
+			throw new SailConfigException("bind join window size must be positive: " + BIND_JOIN_WINDOW_SIZE);
+		if (this.semiJoinChunkSize < 1)
+			throw new SailConfigException("semi-join chunk size must be positive: " + SEMI_JOIN_CHUNK_SIZE);
+		if (this.pageSize < 0)
+			throw new SailConfigException("page size must not be negative: " + PAGE_SIZE);
+		if (this.pageWindowSize < 1)
+			throw new SailConfigException("page window size must be positive: " + PAGE_WINDOW_SIZE);
+		if (this.sharedRequestBufferSize < 0)
+			throw new SailConfigException("shared request buffer size must not be negative: " + SHARED_REQUEST_BUFFER_SIZE);
+		if (this.maxConnectionsPerEndpoint < 1)
+			throw new SailConfigException("connection limit per endpoint must be positive: " + MAX_CONNECTIONS_PER_ENDPOINT);
+		if (this.connectTimeout < 0 || this.readTimeout < 0)
+			throw new SailConfigException("timeouts must not be negative: " + CONNECT_TIMEOUT + ", " + READ_TIMEOUT);
+		if (this.maxGetQueryLength < 0)
+			throw new SailConfigException("maximum GET query length must not be negative: " + MAX_GET_QUERY_LENGTH);
+		if (this.asyncBufferSize < 1)
+			throw new SailConfigException("asynchronous result buffer size must be positive: " + ASYNC_BUFFER_SIZE);
+		for (String format : this.resultFormats) {
+			if (!RESULT_FORMAT_NAMES.contains(format))
+				throw new SailConfigException("unknown result format '" + format + "': " + RESULT_FORMATS);
+		}
+		if (this.hedgePercentile < 0 || this.hedgePercentile > 100)
+			throw new SailConfigException("hedge percentile must be between 0 and 100: " + HEDGE_PERCENTILE);
+		if (this.minHedgeDelay < 0)
+			throw new SailConfigException("minimum hedge delay must not be negative: " + MIN_HEDGE_DELAY);
+		if (this.circuitFailureThreshold < 0)
+			throw new SailConfigException("circuit failure threshold must not be negative: " + CIRCUIT_FAILURE_THRESHOLD);
+		if (this.circuitResetTimeout < 0)
+			throw new SailConfigException("circuit reset timeout must not be negative: " + CIRCUIT_RESET_TIMEOUT);
+		if (this.maxRequestRate < 0)
+			throw new SailConfigException("request rate limit must not be negative: " + MAX_REQUEST_RATE);
+		if (this.maxQueryMemory < 0)
+			throw new SailConfigException("query memory limit must not be negative: " + MAX_QUERY_MEMORY);
+		if (this.maxTotalMemory < 0)
+			throw new SailConfigException("total memory limit must not be negative: " + MAX_TOTAL_MEMORY);
+		if (this.queryTimeout < 0)
+			throw new SailConfigException("query timeout must not be negative: " + QUERY_TIMEOUT);
+	}
+
+}
@@ -22,11 +22,14 @@ package de.uni_koblenz.west.splendid.config;
 
 import static de.uni_koblenz.west.splendid.config.FederationSailSchema.ESTIMATOR;
 import static de.uni_koblenz.west.splendid.config.FederationSailSchema.EVAL_STRATEGY;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.GROUP_BY_PARTITION;
 import static de.uni_koblenz.west.splendid.config.FederationSailSchema.GROUP_BY_SAMEAS;
 import static de.uni_koblenz.west.splendid.config.FederationSailSchema.GROUP_BY_SOURCE;
 import static de.uni_koblenz.west.splendid.config.FederationSailSchema.OPT_TYPE;
 import static de.uni_koblenz.west.splendid.config.FederationSailSchema.USE_BIND_JOIN;
 import static de.uni_koblenz.west.splendid.config.FederationSailSchema.USE_HASH_JOIN;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.USE_MERGE_JOIN;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.USE_MULTIWAY_JOIN;
 
 import org.openrdf.model.Graph;
 import org.openrdf.model.Literal;
@@ -49,9 +52,12 @@ public class QueryOptimizerConfig extends AbstractSailConfig {
 	
 	private boolean groupBySameAs = false;
 	private boolean groupBySource = true;
+	private boolean groupByPartition = false;
 	
 	private boolean useBindJoin = true;
 	private boolean useHashJoin = true;
+	private boolean useMergeJoin = false;
+	private boolean useMultiwayJoin = false;
 	
 	private EvaluationStrategy evalStrategy;
 	
@@ -84,6 +90,10 @@ public class QueryOptimizerConfig extends AbstractSailConfig {
 	public boolean isGroupBySource() {
 		return this.groupBySource;
 	}
+	
+	public boolean isGroupByPartition() {
+		return this.groupByPartition;
+	}
 
 	
 	public boolean isUseBindJoin() {
@@ -93,6 +103,14 @@ public class QueryOptimizerConfig extends AbstractSailConfig {
 	public boolean isUseHashJoin() {
 		return this.useHashJoin;
 	}
+	
+	public boolean isUseMergeJoin() {
+		return this.useMergeJoin;
+	}
+	
+	public boolean isUseMultiwayJoin() {
+		return this.useMultiwayJoin;
+	}
 
 	@Override
 	public Resource export(Graph model) {
@@ -104,9 +122,12 @@ public class QueryOptimizerConfig extends AbstractSailConfig {
 		
 		model.add(self, GROUP_BY_SAMEAS, vf.createLiteral(this.groupBySameAs));
 		model.add(self, GROUP_BY_SOURCE, vf.createLiteral(this.groupBySource));
+		model.add(self, GROUP_BY_PARTITION, vf.createLiteral(this.groupByPartition));
 		
 		model.add(self, USE_BIND_JOIN, vf.createLiteral(this.useBindJoin));
 		model.add(self, USE_HASH_JOIN, vf.createLiteral(this.useHashJoin));
+		model.add(self, USE_MERGE_JOIN, vf.createLiteral(this.useMergeJoin));
+		model.add(self, USE_MULTIWAY_JOIN, vf.createLiteral(this.useMultiwayJoin));
 		
 		model.add(self, EVAL_STRATEGY, vf.createLiteral(this.evalStrategy.getClass().getName()));
 		
@@ -126,9 +147,12 @@ public class QueryOptimizerConfig extends AbstractSailConfig {
 		
 		this.groupBySameAs = getObjectBoolean(model, implNode, GROUP_BY_SAMEAS, this.groupBySameAs);
 		this.groupBySource = getObjectBoolean(model, implNode, GROUP_BY_SOURCE, this.groupBySource);
+		this.groupByPartition = getObjectBoolean(model, implNode, GROUP_BY_PARTITION, this.groupByPartition);
 		
 		this.useBindJoin = getObjectBoolean(model, implNode, USE_BIND_JOIN, this.useBindJoin);
 		this.useHashJoin = getObjectBoolean(model, implNode, USE_HASH_JOIN, this.useHashJoin);
+		this.useMergeJoin = getObjectBoolean(model, implNode, USE_MERGE_JOIN, this.useMergeJoin);
+		this.useMultiwayJoin = getObjectBoolean(model, implNode, USE_MULTIWAY_JOIN, this.useMultiwayJoin);
 		
 		Literal className = getObjectLiteral(model, implNode, EVAL_STRATEGY);
 		if (className != null) {
@@ -20,15 +20,20 @@
  */
 package de.uni_koblenz.west.splendid.config;
 
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.PROBE_CAPABILITIES;
+import static de.uni_koblenz.west.splendid.config.FederationSailSchema.REPLICA_ENDPOINT;
 import static de.uni_koblenz.west.splendid.config.FederationSailSchema.VOID_URI;
 import static de.uni_koblenz.west.splendid.config.VoidRepositorySchema.ENDPOINT;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 //import org.openrdf.model.Model;
 //import org.openrdf.model.util.ModelException;
 //import org.openrdf.store.StoreConfigException;
 import org.openrdf.model.Graph;
+import org.openrdf.model.Literal;
 import org.openrdf.model.Resource;
 import org.openrdf.model.Statement;
 import org.openrdf.model.URI;
@@ -46,6 +51,8 @@ public class VoidRepositoryConfig extends RepositoryImplConfigBase {
 	
 	private URI voidUri;
 	private URI endpoint;
+	private boolean probeCapabilities = true;
+	private final List<URI> replicas = new ArrayList<URI>();
 	
 	/**
 	 * Returns the location of the VOID file.
@@ -64,6 +71,26 @@ public class VoidRepositoryConfig extends RepositoryImplConfigBase {
 	public URI getEndpoint() {
 		return this.endpoint;
 	}
+	
+	/**
+	 * Returns whether the capabilities of the SPARQL endpoint are probed
+	 * when the repository is initialized.
+	 * 
+	 * @return true if the endpoint is probed.
+	 */
+	public boolean isProbeCapabilities() {
+		return this.probeCapabilities;
+	}
+	
+	/**
+	 * Returns the locations of SPARQL endpoints which mirror the data of
+	 * the SPARQL endpoint.
+	 * 
+	 * @return the locations of the replicas.
+	 */
+	public List<URI> getReplicas() {
+		return this.replicas;
+	}
 
 	// -------------------------------------------------------------------------
 	
@@ -83,6 +110,11 @@ public class VoidRepositoryConfig extends RepositoryImplConfigBase {
 		if (this.endpoint != null)
 			model.add(implNode, ENDPOINT, this.endpoint);
 		
+		model.add(implNode, PROBE_CAPABILITIES, model.getValueFactory().createLiteral(this.probeCapabilities));
+		for (URI replica : this.replicas) {
+			model.add(implNode, REPLICA_ENDPOINT, replica);
+		}
+		
 		return implNode;
 	}
 
@@ -104,6 +136,22 @@ public class VoidRepositoryConfig extends RepositoryImplConfigBase {
 		
 		this.endpoint = getObjectURI(model, implNode, ENDPOINT);
 		
+		Iterator<Statement> probe = model.match(implNode, PROBE_CAPABILITIES, null);
+		if (probe.hasNext()) {
+			Value object = probe.next().getObject();
+			if (!(object instanceof Literal))
+				throw new RepositoryConfigException("property value is not a boolean: " + PROBE_CAPABILITIES + " " + object);
+			this.probeCapabilities = ((Literal) object).booleanValue();
+		}
+		
+		this.replicas.clear();
+		Iterator<Statement> replicas = model.match(implNode, REPLICA_ENDPOINT, null);
+		while (replicas.hasNext()) {
+			Value object = replicas.next().getObject();
+			if (!(object instanceof URI))
+				throw new RepositoryConfigException("property value is not a URI: " + REPLICA_ENDPOINT + " " + object);
+			this.replicas.add((URI) object);
+		}
 	}
 
 //	/**
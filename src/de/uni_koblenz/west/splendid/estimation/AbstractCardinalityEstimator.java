@@ -24,10 +24,12 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.openrdf.query.algebra.Filter;
+import org.openrdf.query.algebra.LeftJoin;
 import org.openrdf.query.algebra.TupleExpr;
 import org.openrdf.query.algebra.UnaryTupleOperator;
 import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
 
+import de.uni_koblenz.west.splendid.model.MultiJoin;
 import de.uni_koblenz.west.splendid.model.RemoteQuery;
 
 /**
@@ -60,16 +62,39 @@ public abstract class AbstractCardinalityEstimator extends QueryModelVisitorBase
 		setIndexCard(filter, getIndexCard(filter.getArg()));
 	}
 	
+	@Override
+	public void meet(LeftJoin leftJoin) {
+		
+		// check cardinality index first
+		if (getIndexCard(leftJoin) != null)
+			return;
+		
+		leftJoin.getLeftArg().visit(this);
+		leftJoin.getRightArg().visit(this);
+		
+		// all left results are kept, assuming at most one optional match
+		setIndexCard(leftJoin, getIndexCard(leftJoin.getLeftArg()));
+	}
+	
 	@Override
 	protected void meetUnaryTupleOperator(UnaryTupleOperator node)
 			throws RuntimeException {
 		if (node instanceof RemoteQuery) {
 			meet((RemoteQuery) node);
+		} else if (node instanceof MultiJoin) {
+			meet((MultiJoin) node);
 		} else {
 			super.meetUnaryTupleOperator(node);
 		}
 	}
 	
+	protected void meet(MultiJoin node) {
+		if (getIndexCard(node) != null)
+			return;
+		node.getArg().visit(this);
+		setIndexCard(node, getIndexCard(node.getArg()));
+	}
+	
 	protected void meet(RemoteQuery node) {
 		if (getIndexCard(node) != null)
 			return;
@@ -27,6 +27,7 @@ import org.slf4j.LoggerFactory;
 
 import de.uni_koblenz.west.splendid.model.BindJoin;
 import de.uni_koblenz.west.splendid.model.HashJoin;
+import de.uni_koblenz.west.splendid.model.MergeJoin;
 import de.uni_koblenz.west.splendid.model.RemoteQuery;
 
 /**
@@ -40,11 +41,127 @@ public class SPLENDIDCostEstimator extends AbstractCostEstimator {
 	
 	private static final int C_TRANSFER_QUERY = 5;
 	private static final int C_TRANSFER_TUPLE = 1;
+	private static final double C_SORT_TUPLE = 0.01;
+	private static final int C_MEMORY_TUPLE = 1;
+	
+	// number of tuples which can be held in memory without additional cost
+	private static final int MEMORY_TUPLES = 100000;
+	
+	private boolean useMemoryCost = false;
 	
 	public String getName() {
 		return "SPLDCost";
 	}
 	
+	/**
+	 * Sets if hash joins have an additional cost for large hash tables.
+	 * The memory cost is only needed to choose between hash joins and
+	 * merge joins, which keep only few tuples in memory.
+	 * 
+	 * @param useMemoryCost true if the hash table cost is added to hash joins.
+	 */
+	public void setUseMemoryCost(boolean useMemoryCost) {
+		this.useMemoryCost = useMemoryCost;
+	}
+	
+	/**
+	 * Returns the cost for sending a sub query to one or more sources and
+	 * transferring its results.
+	 * 
+	 * @param card the result cardinality of the sub query.
+	 * @return the estimated cost.
+	 */
+	public static double getRemoteQueryCost(double card) {
+		return C_TRANSFER_QUERY + card * C_TRANSFER_TUPLE;
+	}
+	
+	/**
+	 * Returns the cost for transferring query results.
+	 * 
+	 * @param card the number of transferred tuples.
+	 * @return the estimated cost.
+	 */
+	public static double getTransferCost(double card) {
+		return card * C_TRANSFER_TUPLE;
+	}
+	
+	/**
+	 * Returns the cost of a hash join which fetches both arguments once.
+	 * 
+	 * @param leftCard the cardinality of the left join argument.
+	 * @param rightCard the cardinality of the right join argument.
+	 * @return the estimated cost.
+	 */
+	public static double getHashJoinCost(double leftCard, double rightCard) {
+		return (leftCard + rightCard) * C_TRANSFER_TUPLE + 2 * C_TRANSFER_QUERY;
+	}
+	
+	/**
+	 * Returns the additional cost of a hash join for keeping more tuples of
+	 * the left join argument in memory than the memory limit.
+	 * 
+	 * @param leftCard the cardinality of the left join argument.
+	 * @return the estimated cost.
+	 */
+	public static double getHashTableCost(double leftCard) {
+		return Math.max(0, leftCard - MEMORY_TUPLES) * C_MEMORY_TUPLE;
+	}
+	
+	/**
+	 * Returns the cost of a merge join which fetches both arguments sorted
+	 * on the join variable, i.e. the sources have to sort their results.
+	 * 
+	 * @param leftCard the cardinality of the left join argument.
+	 * @param rightCard the cardinality of the right join argument.
+	 * @return the estimated cost.
+	 */
+	public static double getMergeJoinCost(double leftCard, double rightCard) {
+		return getHashJoinCost(leftCard, rightCard) + getSortCost(leftCard) + getSortCost(rightCard);
+	}
+	
+	private static double getSortCost(double card) {
+		return card > 1 ? card * Math.log(card) / Math.log(2) * C_SORT_TUPLE : 0;
+	}
+	
+	/**
+	 * Returns the cost of a bind join which sends one query per binding of
+	 * the left join argument.
+	 * 
+	 * @param leftCard the cardinality of the left join argument.
+	 * @param joinCard the cardinality of the join result.
+	 * @return the estimated cost.
+	 */
+	public static double getBindJoinCost(double leftCard, double joinCard) {
+		return leftCard * (C_TRANSFER_TUPLE + C_TRANSFER_QUERY) + joinCard * C_TRANSFER_TUPLE;
+	}
+	
+	/**
+	 * Returns the cost of a bind join which sends the bindings of the left
+	 * join argument in batches, i.e. one query per batch.
+	 * 
+	 * @param leftCard the cardinality of the left join argument.
+	 * @param joinCard the cardinality of the join result.
+	 * @param batchSize the number of bindings per query.
+	 * @return the estimated cost.
+	 */
+	public static double getBatchedBindJoinCost(double leftCard, double joinCard, int batchSize) {
+		return Math.ceil(leftCard / batchSize) * C_TRANSFER_QUERY + (leftCard + joinCard) * C_TRANSFER_TUPLE;
+	}
+	
+	/**
+	 * Returns the cost of a semi-join which sends the join values of one
+	 * join argument in chunks to the sources of the other join argument
+	 * and transfers only the matching results.
+	 * 
+	 * @param keyCount the number of distinct join values.
+	 * @param matchCard the number of matching results.
+	 * @param chunkSize the number of join values per query.
+	 * @return the estimated cost.
+	 */
+	public static double getSemiJoinCost(double keyCount, double matchCard, int chunkSize) {
+		return Math.ceil(keyCount / chunkSize) * C_TRANSFER_QUERY + (keyCount + matchCard) * C_TRANSFER_TUPLE;
+	}
+	
 	@Override
 	public void meet(Join node) throws RuntimeException {
 		
@@ -55,6 +172,8 @@ public class SPLENDIDCostEstimator extends AbstractCostEstimator {
 			meet((HashJoin) node);
 		} else if (node instanceof BindJoin) {
 			meet((BindJoin) node);
+		} else if (node instanceof MergeJoin) {
+			meet((MergeJoin) node);
 		} else {
 			throw new IllegalArgumentException("no accepted join: " + node);
 		}
@@ -78,7 +197,9 @@ public class SPLENDIDCostEstimator extends AbstractCostEstimator {
 		Double leftCard = cardEst.process(join.getLeftArg());
 		Double rightCard = cardEst.process(join.getRightArg());
 		
-		this.cost += (leftCard + rightCard) * C_TRANSFER_TUPLE + 2 * C_TRANSFER_QUERY;
+		this.cost += getHashJoinCost(leftCard, rightCard);
+		if (useMemoryCost)
+			this.cost += getHashTableCost(leftCard);
 		
 //		LOGGER.warn("HashJoin: " + leftCard + " >< " + rightCard + " :: " + (leftCard + rightCard) * C_TRANSFER_TUPLE + 2 * C_TRANSFER_QUERY);
 	}
@@ -87,11 +208,18 @@ public class SPLENDIDCostEstimator extends AbstractCostEstimator {
 		Double leftCard = cardEst.process(join.getLeftArg());
 		Double joinCard = cardEst.process(join);
 		
-		this.cost += leftCard * (C_TRANSFER_TUPLE + C_TRANSFER_QUERY) + joinCard * C_TRANSFER_TUPLE;
+		this.cost += getBindJoinCost(leftCard, joinCard);
 		
 //		LOGGER.warn("BindJoin: " + leftCard + " >< " + joinCard + " :: " + (leftCard + joinCard) * C_TRANSFER_TUPLE + 2 * C_TRANSFER_QUERY);
 	}
 	
+	protected void meet(MergeJoin join) {
+		Double leftCard = cardEst.process(join.getLeftArg());
+		Double rightCard = cardEst.process(join.getRightArg());
+		
+		this.cost += getMergeJoinCost(leftCard, rightCard);
+	}
+	
 	protected void meet(RemoteQuery query) {
 		
 		// no explicit cost for executing the sub query
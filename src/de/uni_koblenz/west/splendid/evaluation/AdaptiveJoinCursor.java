@@ -0,0 +1,364 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
+import info.aduna.iteration.LookAheadIteration;
+import info.aduna.iteration.UnionIteration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.uni_koblenz.west.splendid.estimation.SPLENDIDCostEstimator;
+
+/**
+ * Join which switches between hash join and (batched) bind join during
+ * the evaluation if the observed cardinalities make the other join
+ * strategy cheaper.
+ * 
+ * A hash join materializes the left argument and then streams the right
+ * argument. If the right argument turns out to be much larger than expected,
+ * the right argument is closed and the remaining join is computed with a bind
+ * join for the materialized left bindings. Results of right tuples which have
+ * already been joined are skipped. The joined right tuples are reserved in the
+ * memory budget of the query; if the reservation fails (or too many tuples are
+ * tracked without a budget) the hash join is not switched anymore.
+ * 
+ * A bind join processes the left argument in batches. If the left argument
+ * turns out to be much larger than expected, the right argument is fetched
+ * completely and joined with the remaining left bindings in a hash join.
+ * 
+ * The join strategy is switched at most once.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class AdaptiveJoinCursor extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(AdaptiveJoinCursor.class);
+	
+	/** Number of right tuples between two checks of the join strategy. */
+	private static final int CHECK_INTERVAL = 100;
+	
+	/** Maximum number of joined right tuples tracked without a memory budget. */
+	private static final int MAX_TRACKED = 100000;
+	
+	public enum Mode { HASH, BIND }
+	
+	private final FederationEvalStrategy strategy;
+	private final Join join;
+	private final BindingSet bindings;
+	private final List<String> joinVars;
+	private final List<String> rightVars;
+	private final int batchSize;
+	private final int windowSize;
+	private final Map<List<Value>, List<BindingSet>> cache;
+	private final MemoryTracker memory;
+	
+	private final double leftCard;
+	private final double rightCard;
+	private final double joinCardPerLeft;
+	
+	private Mode mode;
+	private boolean switched = false;
+	
+	private CloseableIteration<BindingSet, QueryEvaluationException> leftIter;
+	private CloseableIteration<BindingSet, QueryEvaluationException> rightIter;
+	private CloseableIteration<BindingSet, QueryEvaluationException> resultIter;
+	
+	private Map<List<Value>, List<BindingSet>> hashTable;
+	private List<BindingSet> leftBindings;
+	private Set<List<Value>> joinedRight;
+	private Deque<BindingSet> joined = new ArrayDeque<BindingSet>();
+	
+	private long leftCount;
+	private long rightCount;
+	private long memorySize;
+	private long trackedSize;
+	
+	public AdaptiveJoinCursor(FederationEvalStrategy strategy, Join join, BindingSet bindings, Mode mode, int batchSize, int windowSize, int cacheSize)
+			throws QueryEvaluationException {
+		
+		this.strategy = strategy;
+		this.join = join;
+		this.bindings = bindings;
+		this.mode = mode;
+		this.batchSize = batchSize;
+		this.windowSize = windowSize;
+		this.cache = BindJoinCursor.getCache(join.getRightArg(), cacheSize);
+		this.memory = QueryContext.getMemory(join);
+		
+		Set<String> vars = new HashSet<String>(join.getLeftArg().getBindingNames());
+		vars.retainAll(join.getRightArg().getBindingNames());
+		this.joinVars = new ArrayList<String>(vars);
+		this.rightVars = new ArrayList<String>(join.getRightArg().getBindingNames());
+		
+		this.leftCard = strategy.getCardinality(join.getLeftArg());
+		this.rightCard = strategy.getCardinality(join.getRightArg());
+		this.joinCardPerLeft = strategy.getCardinality(join) / Math.max(leftCard, 1);
+		
+		this.leftIter = strategy.evaluate(join.getLeftArg(), bindings);
+		if (mode == Mode.HASH)
+			this.rightIter = strategy.evaluate(join.getRightArg(), bindings);
+	}
+
+	@Override
+	protected BindingSet getNextElement() throws QueryEvaluationException {
+		
+		while (!isClosed()) {
+			
+			if (joined.size() != 0)
+				return joined.remove();
+			
+			if (mode == Mode.HASH) {
+				if (hashTable == null)
+					buildHashTable();
+				
+				if (mode == Mode.HASH) {
+					if (!rightIter.hasNext()) {
+						stopTracking();
+						return null;
+					}
+					probe(rightIter.next());
+					if (++rightCount % CHECK_INTERVAL == 0 && !switched && isBindJoinCheaper())
+						switchToBindJoin();
+					continue;
+				}
+			}
+			
+			// bind join mode
+			if (resultIter != null) {
+				if (resultIter.hasNext()) {
+					BindingSet next = resultIter.next();
+					if (joinedRight == null || !joinedRight.contains(getKey(next, rightVars)))
+						return next;
+					continue;
+				}
+				resultIter.close();
+				resultIter = null;
+			}
+			
+			List<BindingSet> batch = nextBatch();
+			if (batch.size() == 0)
+				return null;
+			
+			if (!switched && isHashJoinCheaper()) {
+				switchToHashJoin(batch);
+				continue;
+			}
+			
+			resultIter = new BindJoinCursor(strategy, new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(batch.iterator()),
+					join.getRightArg(), batchSize, 1, cache);
+		}
+		return null;
+	}
+	
+	@Override
+	protected void handleClose() throws QueryEvaluationException {
+		try {
+			leftIter.close();
+		} finally {
+			try {
+				if (rightIter != null)
+					rightIter.close();
+			} finally {
+				try {
+					if (resultIter != null)
+						resultIter.close();
+				} finally {
+					if (memory != null)
+						memory.release(memorySize + trackedSize);
+				}
+			}
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private List<BindingSet> nextBatch() throws QueryEvaluationException {
+		List<BindingSet> batch = new ArrayList<BindingSet>(batchSize);
+		while (batch.size() < batchSize && leftIter.hasNext()) {
+			batch.add(leftIter.next());
+		}
+		leftCount += batch.size();
+		return batch;
+	}
+	
+	private void buildHashTable() throws QueryEvaluationException {
+		hashTable = new HashMap<List<Value>, List<BindingSet>>();
+		leftBindings = new ArrayList<BindingSet>();
+		
+		while (!isClosed() && leftIter.hasNext()) {
+			BindingSet next = leftIter.next();
+			if (memory != null) {
+				long bytes = MemoryTracker.sizeOf(next);
+				memory.reserve(bytes);
+				memorySize += bytes;
+			}
+			leftBindings.add(next);
+			List<Value> key = getKey(next, joinVars);
+			List<BindingSet> matches = hashTable.get(key);
+			if (matches == null) {
+				matches = new ArrayList<BindingSet>();
+				hashTable.put(key, matches);
+			}
+			matches.add(next);
+		}
+		leftCount = leftBindings.size();
+		
+		// keep track of joined right tuples until the join strategy is fixed
+		joinedRight = new HashSet<List<Value>>();
+		
+		if (isBindJoinCheaper())
+			switchToBindJoin();
+	}
+	
+	private void probe(BindingSet next) {
+		List<BindingSet> matches = hashTable.get(getKey(next, joinVars));
+		if (matches == null)
+			return;
+		// only right tuples with join results are skipped after a switch
+		if (joinedRight != null)
+			track(next);
+		for (BindingSet match : matches) {
+			QueryBindingSet result = new QueryBindingSet(match);
+			result.addAll(next);
+			joined.add(result);
+		}
+	}
+	
+	/**
+	 * Remembers a joined right tuple. If its memory cannot be reserved,
+	 * the hash join is not switched anymore.
+	 */
+	private void track(BindingSet right) {
+		List<Value> key = getKey(right, rightVars);
+		if (joinedRight.contains(key))
+			return;
+		long bytes = MemoryTracker.sizeOf(right);
+		if (memory == null ? joinedRight.size() >= MAX_TRACKED : !memory.tryReserve(bytes)) {
+			if (LOGGER.isDebugEnabled())
+				LOGGER.debug("keeping hash join, cannot track more than " + joinedRight.size() + " joined right tuples");
+			switched = true;
+			stopTracking();
+			return;
+		}
+		if (memory != null)
+			trackedSize += bytes;
+		joinedRight.add(key);
+	}
+	
+	/**
+	 * Releases the joined right tuples once the hash join is not switched anymore.
+	 */
+	private void stopTracking() {
+		joinedRight = null;
+		if (memory != null)
+			memory.release(trackedSize);
+		trackedSize = 0;
+	}
+	
+	/**
+	 * Compares the cost of fetching the remaining right tuples with
+	 * the cost of a bind join for the materialized left tuples.
+	 * The right cardinality is assumed to be at least twice the number
+	 * of right tuples seen so far.
+	 */
+	private boolean isBindJoinCheaper() {
+		double right = Math.max(rightCard, 2 * rightCount);
+		double hashCost = SPLENDIDCostEstimator.getTransferCost(right - rightCount);
+		double bindCost = SPLENDIDCostEstimator.getBatchedBindJoinCost(leftCount, leftCount * joinCardPerLeft, batchSize);
+		return bindCost < hashCost;
+	}
+	
+	/**
+	 * Compares the cost of binding the remaining left tuples with
+	 * the cost of fetching all right tuples.
+	 * The left cardinality is assumed to be at least twice the number
+	 * of left tuples seen so far.
+	 */
+	private boolean isHashJoinCheaper() {
+		double left = Math.max(leftCard, 2 * leftCount) - leftCount + batchSize;
+		double bindCost = SPLENDIDCostEstimator.getBatchedBindJoinCost(left, left * joinCardPerLeft, batchSize);
+		double hashCost = SPLENDIDCostEstimator.getRemoteQueryCost(rightCard);
+		return hashCost < bindCost;
+	}
+	
+	private void switchToBindJoin() throws QueryEvaluationException {
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("switching to bind join after " + leftCount + " left and " + rightCount + " right tuples (estimated " + leftCard + " and " + rightCard + ")");
+		
+		mode = Mode.BIND;
+		switched = true;
+		
+		rightIter.close();
+		rightIter = null;
+		hashTable = null;
+		
+		// the materialized left tuples are joined in a single pipelined bind join
+		leftIter.close();
+		leftIter = new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(new ArrayList<BindingSet>().iterator());
+		resultIter = new BindJoinCursor(strategy, new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(leftBindings.iterator()),
+				join.getRightArg(), batchSize, windowSize, cache);
+		leftBindings = null;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void switchToHashJoin(List<BindingSet> batch) throws QueryEvaluationException {
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("switching to hash join after " + leftCount + " left tuples (estimated " + leftCard + ")");
+		
+		switched = true;
+		
+		// join the current batch and all remaining left tuples
+		CloseableIteration<BindingSet, QueryEvaluationException> remaining = new UnionIteration<BindingSet, QueryEvaluationException>(
+				new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(batch.iterator()), leftIter);
+		rightIter = strategy.evaluate(join.getRightArg(), bindings);
+		resultIter = new HashJoinCursor(remaining, rightIter, new HashSet<String>(joinVars), memory);
+		
+		// remaining tuples are consumed and closed by the hash join
+		leftIter = new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(new ArrayList<BindingSet>().iterator());
+		rightIter = null;
+	}
+	
+	private static List<Value> getKey(BindingSet bindings, List<String> names) {
+		List<Value> key = new ArrayList<Value>(names.size());
+		for (String name : names) {
+			key.add(bindings.getValue(name));
+		}
+		return key;
+	}
+
+}
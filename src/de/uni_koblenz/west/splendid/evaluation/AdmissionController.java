@@ -0,0 +1,291 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.openrdf.query.QueryEvaluationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the number of federated queries which are evaluated at the same
+ * time. Further queries wait in the queue of their query class and are
+ * admitted in proportion to the class weights (stride scheduling), i.e.
+ * a burst of expensive queries cannot starve cheap interactive ones.
+ * Queries are rejected if the queue is full or if they wait too long.<br>
+ * 
+ * Queries are assigned to the class with the lowest maximum cost which
+ * covers their estimated plan cost. The class also defines the budgets of
+ * remote requests and memory of its queries.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class AdmissionController {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(AdmissionController.class);
+	
+	private static final String DEFAULT_CLASS = "default";
+	
+	private final int maxRunning;
+	private final int maxQueued;
+	private final long maxQueueTime;
+	private final List<QueryClass> classes = new ArrayList<QueryClass>();
+	
+	private int running;
+	private int queued;
+	private double virtualTime;
+	
+	/**
+	 * Creates an admission controller without query classes.
+	 * 
+	 * @param maxRunning the maximum number of running queries (0 = no limit).
+	 * @param maxQueued the maximum number of waiting queries (0 = no limit).
+	 * @param maxQueueTime the maximum waiting time in milliseconds (0 = no limit).
+	 */
+	public AdmissionController(int maxRunning, int maxQueued, long maxQueueTime) {
+		this.maxRunning = maxRunning;
+		this.maxQueued = maxQueued;
+		this.maxQueueTime = maxQueueTime;
+	}
+	
+	/**
+	 * Adds a query class.
+	 * 
+	 * @param name the name of the class.
+	 * @param weight the share of admissions while queries are waiting.
+	 * @param maxCost the highest estimated cost of the class's queries (-1 = no limit).
+	 * @param maxRemoteRequests the remote request budget of a query (0 = no limit).
+	 * @param maxQueryMemory the memory limit of a query in megabytes (0 = default limit).
+	 */
+	public synchronized void addClass(String name, int weight, double maxCost, int maxRemoteRequests, int maxQueryMemory) {
+		if (weight < 1)
+			throw new IllegalArgumentException("weight must be positive: " + weight);
+		classes.add(new QueryClass(name, weight, maxCost < 0 ? Double.POSITIVE_INFINITY : maxCost, maxRemoteRequests, maxQueryMemory));
+		// stable sort keeps the order of classes with equal cost
+		Collections.sort(classes, new Comparator<QueryClass>() {
+			@Override
+			public int compare(QueryClass c1, QueryClass c2) {
+				return Double.compare(c1.maxCost, c2.maxCost);
+			}
+		});
+	}
+	
+	/**
+	 * Checks if the plan cost is needed to select the query class.
+	 * 
+	 * @return true if there are multiple query classes.
+	 */
+	public synchronized boolean isClassified() {
+		return classes.size() > 1;
+	}
+	
+	/**
+	 * Waits until the query can be evaluated.
+	 * 
+	 * @param cost the estimated cost of the query plan.
+	 * @return the ticket which must be released when the query is done.
+	 * @throws QueryEvaluationException if the query is rejected.
+	 */
+	public synchronized Ticket admit(double cost) throws QueryEvaluationException {
+		Ticket ticket = new Ticket(classify(cost));
+		
+		if (maxRunning == 0 || (running < maxRunning && queued == 0)) {
+			start(ticket);
+			return ticket;
+		}
+		
+		if (maxQueued > 0 && queued >= maxQueued)
+			throw new QueryEvaluationException("query rejected: " + queued + " queries are waiting for admission");
+		
+		// an idle class does not save up admissions
+		QueryClass queryClass = ticket.queryClass;
+		if (queryClass.queue.isEmpty())
+			queryClass.pass = Math.max(queryClass.pass, virtualTime);
+		queryClass.queue.add(ticket);
+		queued++;
+		
+		long start = System.currentTimeMillis();
+		try {
+			while (!ticket.admitted) {
+				if (maxQueueTime == 0) {
+					wait();
+				} else {
+					long remaining = start + maxQueueTime - System.currentTimeMillis();
+					if (remaining <= 0) {
+						withdraw(ticket);
+						throw new QueryEvaluationException("query rejected: not admitted within " + maxQueueTime + " ms");
+					}
+					wait(remaining);
+				}
+			}
+		} catch (InterruptedException e) {
+			if (ticket.admitted)
+				ticket.release();
+			else
+				withdraw(ticket);
+			Thread.currentThread().interrupt();
+			throw new QueryEvaluationException("interrupted while waiting for admission", e);
+		}
+		
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("admitted " + queryClass.name + " query after " + (System.currentTimeMillis() - start) + " ms");
+		return ticket;
+	}
+	
+	/**
+	 * Returns the number of running queries.
+	 * 
+	 * @return the number of running queries.
+	 */
+	public synchronized int getRunning() {
+		return running;
+	}
+	
+	/**
+	 * Returns the number of waiting queries.
+	 * 
+	 * @return the number of waiting queries.
+	 */
+	public synchronized int getQueued() {
+		return queued;
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private QueryClass classify(double cost) {
+		if (classes.isEmpty())
+			classes.add(new QueryClass(DEFAULT_CLASS, 1, Double.POSITIVE_INFINITY, 0, 0));
+		for (QueryClass queryClass : classes) {
+			if (cost <= queryClass.maxCost)
+				return queryClass;
+		}
+		return classes.get(classes.size() - 1);
+	}
+	
+	private void start(Ticket ticket) {
+		running++;
+		ticket.admitted = true;
+	}
+	
+	private void withdraw(Ticket ticket) {
+		ticket.queryClass.queue.remove(ticket);
+		queued--;
+	}
+	
+	private synchronized void finish() {
+		running--;
+		boolean admitted = false;
+		while (queued > 0 && (maxRunning == 0 || running < maxRunning)) {
+			// the waiting class with the lowest pass is next
+			QueryClass next = null;
+			for (QueryClass queryClass : classes) {
+				if (!queryClass.queue.isEmpty() && (next == null || queryClass.pass < next.pass))
+					next = queryClass;
+			}
+			virtualTime = next.pass;
+			next.pass += 1.0 / next.weight;
+			queued--;
+			start(next.queue.removeFirst());
+			admitted = true;
+		}
+		if (admitted)
+			notifyAll();
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * The admission of a query.
+	 */
+	public class Ticket {
+		
+		private final QueryClass queryClass;
+		private boolean admitted;
+		private boolean released;
+		
+		Ticket(QueryClass queryClass) {
+			this.queryClass = queryClass;
+		}
+		
+		public String getQueryClass() {
+			return queryClass.name;
+		}
+		
+		/**
+		 * Returns the remote request budget of the query.
+		 * 
+		 * @return the maximum number of remote requests or 0 for no limit.
+		 */
+		public int getMaxRemoteRequests() {
+			return queryClass.maxRemoteRequests;
+		}
+		
+		/**
+		 * Returns the memory limit of the query.
+		 * 
+		 * @return the memory limit in megabytes or 0 for the default limit.
+		 */
+		public int getMaxQueryMemory() {
+			return queryClass.maxQueryMemory;
+		}
+		
+		/**
+		 * Releases the admission so that the next query can be started.
+		 * Subsequent calls have no effect.
+		 */
+		public void release() {
+			synchronized (AdmissionController.this) {
+				if (released)
+					return;
+				released = true;
+				finish();
+			}
+		}
+	}
+	
+	/**
+	 * A query class with its queue of waiting queries.
+	 */
+	private static class QueryClass {
+		
+		final String name;
+		final int weight;
+		final double maxCost;
+		final int maxRemoteRequests;
+		final int maxQueryMemory;
+		final LinkedList<Ticket> queue = new LinkedList<Ticket>();
+		double pass;
+		
+		QueryClass(String name, int weight, double maxCost, int maxRemoteRequests, int maxQueryMemory) {
+			this.name = name;
+			this.weight = weight;
+			this.maxCost = maxCost;
+			this.maxRemoteRequests = maxRemoteRequests;
+			this.maxQueryMemory = maxQueryMemory;
+		}
+	}
+
+}
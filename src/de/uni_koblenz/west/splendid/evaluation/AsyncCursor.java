@@ -24,6 +24,7 @@ import info.aduna.iteration.CloseableIteration;
 import info.aduna.iteration.LookAheadIteration;
 
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
@@ -47,14 +48,49 @@ public class AsyncCursor<E> extends LookAheadIteration<E, QueryEvaluationExcepti
 //	protected Cursor<E> result;
 	protected Future<CloseableIteration<E, QueryEvaluationException>> future;
 	protected CloseableIteration<E, QueryEvaluationException> result;
+	private CloseableIteration<E, QueryEvaluationException> pending;
 	
 //	public AsyncCursor(Future<Cursor<E>> future) {
 	public AsyncCursor(Future<CloseableIteration<E, QueryEvaluationException>> future) {
+		setFuture(future);
+	}
+	
+	/**
+	 * Creates a cursor whose future is set after the task has been
+	 * submitted. The task can then register its result with the cursor
+	 * before the result is complete.
+	 */
+	public AsyncCursor() {
+	}
+	
+	/**
+	 * Sets the future which provides the cursor's input data.
+	 * 
+	 * @param future the future of the submitted task.
+	 */
+	public void setFuture(Future<CloseableIteration<E, QueryEvaluationException>> future) {
 		if (future == null)
 			throw new IllegalArgumentException("future must not be null");
 		
 		this.future = future;
 	}
+	
+	/**
+	 * Registers the result which is still being computed by the task.
+	 * The result is closed when the cursor is closed, since cancelling
+	 * the task does not interrupt a blocking read.
+	 * 
+	 * @param pending the result which is not complete yet.
+	 * @throws QueryEvaluationException if closing the result fails.
+	 */
+	public void setPending(CloseableIteration<E, QueryEvaluationException> pending) throws QueryEvaluationException {
+		synchronized (this) {
+			this.pending = pending;
+			if (!isClosed())
+				return;
+		}
+		pending.close();
+	}
 
 ////	public AsyncCursor(ExecutorService executor, Callable<Cursor<E>> callable) {
 //	public AsyncCursor(ExecutorService executor, Callable<CloseableIteration<E, QueryEvaluationException>> callable) {
@@ -70,10 +106,28 @@ public class AsyncCursor<E> extends LookAheadIteration<E, QueryEvaluationExcepti
 	@Override
 //	public void close() throws StoreException {
 	protected void handleClose() throws QueryEvaluationException {
+		CloseableIteration<E, QueryEvaluationException> running;
+		synchronized (this) {
+			running = pending;
+		}
+		if (future == null) {
+			// the task has not been submitted
+		} else if (result == null && !future.cancel(true)) {
+			// the task has already finished, need to close its result
+			try {
+				result = future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				// no result to close
+			} catch (CancellationException e) {
+				// no result to close
+			}
+		}
 		if (result != null)
 			result.close();
-		else
-			future.cancel(true);
+		if (running != null && running != result)
+			running.close();
 	}
 	
 	@Override
@@ -0,0 +1,286 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Value;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.LeftJoin;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Union;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+
+import de.uni_koblenz.west.splendid.helpers.EndpointProfile.InlineData;
+import de.uni_koblenz.west.splendid.helpers.SparqlPrinter;
+
+/**
+ * Combines the evaluation of a sub query for a batch of bindings in a single
+ * SPARQL query. Each binding set yields one UNION block in which the bound
+ * variables are replaced by their values and all other variables are renamed
+ * with the index of the binding set as suffix (e.g. <tt>?x_3</tt>).
+ * The suffix identifies the binding set which has to be merged with a result.
+ * 
+ * If the endpoints support inline data, the sub query is sent only once
+ * with a VALUES (or BINDINGS) clause which contains the values of all
+ * binding sets and an additional index variable identifying the binding set.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class BatchQuery {
+	
+	private static final char SEPARATOR = '_';
+	private static final String INDEX = "_batch";
+	
+	private final List<BindingSet> bindings;
+	private final String query;
+	private final boolean indexed;
+	
+	private BatchQuery(List<BindingSet> bindings, String query, boolean indexed) {
+		this.bindings = bindings;
+		this.query = query;
+		this.indexed = indexed;
+	}
+	
+	/**
+	 * Creates a batch query for the supplied sub query and bindings.
+	 * 
+	 * @param expr the sub query.
+	 * @param bindings the list of bindings to apply to the sub query.
+	 * @return the batch query or null if the bindings contain blank nodes
+	 *         which can not be sent to a SPARQL endpoint, if the sub query
+	 *         has no variables or if it contains unions or optional parts
+	 *         (which may leave the identifying variables unbound).
+	 */
+	public static BatchQuery create(TupleExpr expr, List<BindingSet> bindings) {
+		
+		if (hasOptionalBindings(expr))
+			return null;
+		
+		StringBuilder buffer = new StringBuilder("SELECT REDUCED * WHERE {\n");
+		
+		for (int i = 0; i < bindings.size(); i++) {
+			TupleExpr block = expr.clone();
+			String filter = bind(block, bindings.get(i), i);
+			if (filter == null)
+				return null;
+			
+			if (i > 0)
+				buffer.append("} UNION ");
+			buffer.append("{\n").append(SparqlPrinter.print(block)).append(filter);
+		}
+		buffer.append("}\n}");
+		
+		return new BatchQuery(bindings, buffer.toString(), false);
+	}
+	
+	/**
+	 * Creates a batch query for the supplied sub query and bindings using
+	 * the inline data syntax of the endpoints.
+	 * 
+	 * @param expr the sub query.
+	 * @param bindings the list of bindings to apply to the sub query.
+	 * @param syntax the inline data syntax supported by the endpoints.
+	 * @return the batch query or null if it cannot be created.
+	 */
+	public static BatchQuery create(TupleExpr expr, List<BindingSet> bindings, InlineData syntax) {
+		if (syntax == InlineData.NONE)
+			return create(expr, bindings);
+		
+		// the sub query variables which are bound in any binding set
+		final Set<String> names = new LinkedHashSet<String>();
+		expr.visit(new QueryModelVisitorBase<RuntimeException>() {
+			@Override
+			public void meet(Var var) {
+				if (!var.hasValue())
+					names.add(var.getName());
+			}
+		});
+		Set<String> boundNames = new LinkedHashSet<String>();
+		for (BindingSet bindingSet : bindings) {
+			for (String name : names) {
+				if (bindingSet.hasBinding(name))
+					boundNames.add(name);
+			}
+		}
+		if (boundNames.isEmpty())
+			return null;
+		
+		StringBuilder data = new StringBuilder(syntax == InlineData.VALUES ? "VALUES (?" : "BINDINGS ?").append(INDEX);
+		for (String name : boundNames) {
+			data.append(" ?").append(name);
+		}
+		data.append(syntax == InlineData.VALUES ? ") {\n" : " {\n");
+		for (int i = 0; i < bindings.size(); i++) {
+			data.append("  (").append(i);
+			for (String name : boundNames) {
+				Value value = bindings.get(i).getValue(name);
+				if (value instanceof BNode)
+					return null;
+				data.append(' ').append(value == null ? "UNDEF" : SparqlPrinter.printValue(value));
+			}
+			data.append(")\n");
+		}
+		data.append("}\n");
+		
+		// VALUES is joined first, BINDINGS is a clause after the query pattern
+		String query;
+		if (syntax == InlineData.VALUES)
+			query = "SELECT REDUCED * WHERE {\n" + data + SparqlPrinter.print(expr) + "}";
+		else
+			query = "SELECT REDUCED * WHERE {\n" + SparqlPrinter.print(expr) + "}\n" + data;
+		
+		return new BatchQuery(bindings, query, true);
+	}
+	
+	public String getQuery() {
+		return this.query;
+	}
+	
+	/**
+	 * Maps a result of the batch query to the original variable names and
+	 * merges it with the binding set of the corresponding UNION block.
+	 * 
+	 * @param result the batch query result.
+	 * @return the merged binding set.
+	 * @throws QueryEvaluationException if the result contains no renamed variable.
+	 */
+	public BindingSet map(BindingSet result) throws QueryEvaluationException {
+		if (indexed)
+			return mapIndexed(result);
+		
+		QueryBindingSet merged = null;
+		for (Binding binding : result) {
+			String name = binding.getName();
+			int pos = name.lastIndexOf(SEPARATOR);
+			if (pos == -1)
+				continue;
+			if (merged == null) {
+				try {
+					merged = new QueryBindingSet(bindings.get(Integer.parseInt(name.substring(pos + 1))));
+				} catch (NumberFormatException e) {
+					continue;
+				}
+			}
+			merged.setBinding(name.substring(0, pos), binding.getValue());
+		}
+		if (merged == null)
+			throw new QueryEvaluationException("cannot map batch query result: " + result);
+		return merged;
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private BindingSet mapIndexed(BindingSet result) throws QueryEvaluationException {
+		Value index = result.getValue(INDEX);
+		QueryBindingSet merged;
+		try {
+			merged = new QueryBindingSet(bindings.get(((Literal) index).intValue()));
+		} catch (RuntimeException e) {
+			throw new QueryEvaluationException("cannot map batch query result: " + result);
+		}
+		for (Binding binding : result) {
+			if (!INDEX.equals(binding.getName()))
+				merged.setBinding(binding.getName(), binding.getValue());
+		}
+		return merged;
+	}
+	
+	private static boolean hasOptionalBindings(TupleExpr expr) {
+		final boolean[] found = new boolean[1];
+		expr.visit(new QueryModelVisitorBase<RuntimeException>() {
+			@Override
+			public void meet(Union union) {
+				found[0] = true;
+			}
+			@Override
+			public void meet(LeftJoin leftJoin) {
+				found[0] = true;
+			}
+		});
+		return found[0];
+	}
+	
+	/**
+	 * Replaces bound variables by their values and renames unbound variables.
+	 * If all variables are bound, the first one is kept as variable and
+	 * restricted by a filter, such that each result identifies its block.
+	 * 
+	 * @return the additional filter expression or null if the block can not
+	 *         be identified (blank node values or no variables at all).
+	 */
+	private static String bind(TupleExpr expr, BindingSet bindings, int index) {
+		
+		final List<Var> vars = new ArrayList<Var>();
+		expr.visit(new QueryModelVisitorBase<RuntimeException>() {
+			@Override
+			public void meet(Var var) {
+				if (!var.hasValue())
+					vars.add(var);
+			}
+		});
+		
+		String boundName = null;
+		Value boundValue = null;
+		boolean renamed = false;
+		
+		for (Var var : vars) {
+			Value value = bindings.getValue(var.getName());
+			if (value == null) {
+				var.setName(var.getName() + SEPARATOR + index);
+				renamed = true;
+				continue;
+			}
+			if (value instanceof BNode)
+				return null;
+			if (boundName == null) {
+				boundName = var.getName();
+				boundValue = value;
+			}
+			var.setValue(value);
+		}
+		
+		if (renamed)
+			return "";
+		if (boundName == null)
+			return null;
+		
+		// keep one variable to identify the results of this block
+		String varName = boundName + SEPARATOR + index;
+		for (Var var : vars) {
+			if (var.getName().equals(boundName)) {
+				var.setValue(null);
+				var.setName(varName);
+			}
+		}
+		return "  FILTER (sameTerm(?" + varName + ", " + SparqlPrinter.printValue(boundValue) + "))\n";
+	}
+
+}
@@ -0,0 +1,394 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.LookAheadIteration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bind join which evaluates the right join argument once for each distinct
+ * combination of join values in the left join argument.
+ * 
+ * The left bindings are processed in batches. Left bindings with the same
+ * join values share a single probe and the results of the right join
+ * argument are memoized by join values, i.e. they are reused for all
+ * following left bindings with the same join values. The memoized results
+ * are kept in the {@link QueryContext} and shared by all evaluations of
+ * the join within the query, e.g. for nested bind joins.
+ * 
+ * Several batches are sent in advance (sliding window) in order to hide
+ * the network latency. The results are joined in the order of the left
+ * bindings.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class BindJoinCursor extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(BindJoinCursor.class);
+	
+	/** Maximum number of left bindings per batch (relative to the batch size). */
+	private static final int MAX_PENDING_FACTOR = 10;
+	
+	private final FederationEvalStrategy strategy;
+	private final CloseableIteration<BindingSet, QueryEvaluationException> leftIter;
+	private final TupleExpr rightArg;
+	private final List<String> rightVars;
+	private final int batchSize;
+	private final Map<List<Value>, List<BindingSet>> cache;
+	
+	private final int windowSize;
+	
+	protected Deque<BindingSet> joined = new ArrayDeque<BindingSet>();
+	private Deque<Batch> inFlight = new ArrayDeque<Batch>();
+	private Map<List<Value>, Batch> requested = new HashMap<List<Value>, Batch>();
+	
+	private int probeCount;
+	private int cacheHits;
+	
+	/**
+	 * Creates a bind join for the left bindings and the right join argument.
+	 * 
+	 * @param strategy the evaluation strategy.
+	 * @param leftIter the left bindings.
+	 * @param rightArg the right join argument.
+	 * @param batchSize the maximum number of probes per request.
+	 * @param windowSize the maximum number of batches in flight.
+	 * @param cache the result cache to use or null if results are not memoized.
+	 */
+	public BindJoinCursor(FederationEvalStrategy strategy, CloseableIteration<BindingSet, QueryEvaluationException> leftIter,
+			TupleExpr rightArg, int batchSize, int windowSize, Map<List<Value>, List<BindingSet>> cache) {
+		this.strategy = strategy;
+		this.leftIter = leftIter;
+		this.rightArg = rightArg;
+		this.rightVars = new ArrayList<String>(rightArg.getBindingNames());
+		this.batchSize = batchSize;
+		this.windowSize = windowSize;
+		this.cache = cache;
+	}
+	
+	/**
+	 * Returns the result cache for the bind join argument. The cache is
+	 * shared within the query if the argument belongs to a query context.
+	 * 
+	 * @param rightArg the bind join argument.
+	 * @param maxSize the maximum number of cached join values.
+	 * @return the result cache or null if the size is not positive.
+	 */
+	public static Map<List<Value>, List<BindingSet>> getCache(TupleExpr rightArg, int maxSize) {
+		QueryContext context = QueryContext.getContext(rightArg);
+		if (context == null)
+			return createCache(maxSize, null);
+		return context.getResultCache(rightArg, maxSize);
+	}
+	
+	/**
+	 * Creates a result cache which keeps the results of the most recently
+	 * used join values. Results are not cached if the memory tracker
+	 * cannot spare the memory.
+	 * 
+	 * @param maxSize the maximum number of cached join values.
+	 * @param memory the memory tracker of the query or null.
+	 * @return the result cache or null if the size is not positive.
+	 */
+	@SuppressWarnings("serial")
+	public static Map<List<Value>, List<BindingSet>> createCache(final int maxSize, final MemoryTracker memory) {
+		if (maxSize <= 0)
+			return null;
+		return new LinkedHashMap<List<Value>, List<BindingSet>>(16, 0.75f, true) {
+			@Override
+			public List<BindingSet> put(List<Value> key, List<BindingSet> value) {
+				if (memory != null && !memory.tryReserve(MemoryTracker.sizeOf(value)))
+					return get(key);
+				List<BindingSet> previous = super.put(key, value);
+				if (memory != null && previous != null)
+					memory.release(MemoryTracker.sizeOf(previous));
+				return previous;
+			}
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<List<Value>, List<BindingSet>> eldest) {
+				if (size() <= maxSize)
+					return false;
+				if (memory != null)
+					memory.release(MemoryTracker.sizeOf(eldest.getValue()));
+				return true;
+			}
+		};
+	}
+
+	@Override
+	protected BindingSet getNextElement() throws QueryEvaluationException {
+		while (joined.size() == 0 && !isClosed()) {
+			
+			// keep the window of in-flight batches filled
+			while (inFlight.size() < windowSize && leftIter.hasNext()) {
+				inFlight.add(sendBatch());
+			}
+			
+			if (inFlight.size() == 0)
+				return null;
+			
+			joinBatch(inFlight.remove());
+		}
+		return joined.poll();
+	}
+	
+	@Override
+	protected void handleClose() throws QueryEvaluationException {
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("bind join sent " + probeCount + " probes, reused " + cacheHits + " results");
+		try {
+			leftIter.close();
+		} finally {
+			for (Batch batch : inFlight) {
+				close(batch);
+			}
+			inFlight.clear();
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Reads the next batch of left bindings and starts the evaluation of
+	 * the right join argument for all join values which are neither cached
+	 * nor requested by a previous batch.
+	 */
+	private Batch sendBatch() throws QueryEvaluationException {
+		Batch batch = new Batch();
+		
+		while (batch.probes.size() < batchSize && batch.pending.size() < batchSize * MAX_PENDING_FACTOR && leftIter.hasNext()) {
+			BindingSet next = leftIter.next();
+			batch.pending.add(next);
+			
+			List<Value> key = getKey(next);
+			if (batch.resolved.containsKey(key) || batch.probes.containsKey(key) || batch.deferred.containsKey(key))
+				continue;
+			List<BindingSet> results = cache == null ? null : cache.get(key);
+			if (results != null) {
+				batch.resolved.put(key, results);
+				cacheHits++;
+			} else if (requested.containsKey(key)) {
+				batch.deferred.put(key, requested.get(key));
+				cacheHits++;
+			} else {
+				batch.probes.put(key, getProbe(key));
+				requested.put(key, batch);
+			}
+		}
+		
+		if (batch.probes.size() != 0) {
+			probeCount += batch.probes.size();
+			
+			// probes which bind different join variables are sent separately,
+			// since the results of a probe with unbound join variables also
+			// contain join values of the other probes
+			Map<List<Boolean>, Request> requests = new LinkedHashMap<List<Boolean>, Request>();
+			for (List<Value> key : batch.probes.keySet()) {
+				List<Boolean> bound = new ArrayList<Boolean>(key.size());
+				for (Value value : key) {
+					bound.add(value != null);
+				}
+				Request request = requests.get(bound);
+				if (request == null) {
+					request = new Request();
+					requests.put(bound, request);
+					batch.requests.add(request);
+				}
+				request.keys.add(key);
+			}
+			try {
+				for (Request request : batch.requests) {
+					List<BindingSet> probes = new ArrayList<BindingSet>(request.keys.size());
+					for (List<Value> key : request.keys) {
+						probes.add(batch.probes.get(key));
+					}
+					request.results = strategy.evaluateBatch(rightArg, probes);
+				}
+			} catch (QueryEvaluationException e) {
+				close(batch);
+				throw e;
+			}
+		}
+		return batch;
+	}
+	
+	/**
+	 * Collects the results of the batch and joins the left bindings with
+	 * the matching results. Deferred join values have been resolved by
+	 * a previous batch.
+	 */
+	private void joinBatch(Batch batch) throws QueryEvaluationException {
+		if (batch.requests.size() != 0)
+			batch.resolved.putAll(collect(batch));
+		
+		for (Map.Entry<List<Value>, Batch> entry : batch.deferred.entrySet()) {
+			batch.resolved.put(entry.getKey(), entry.getValue().resolved.get(entry.getKey()));
+		}
+		
+		for (BindingSet left : batch.pending) {
+			join(left, batch.resolved.get(getKey(left)));
+		}
+	}
+	
+	/**
+	 * Joins the left binding with the matching results of the right join
+	 * argument.
+	 * 
+	 * @param left the left binding.
+	 * @param matches the matching results.
+	 */
+	protected void join(BindingSet left, List<BindingSet> matches) throws QueryEvaluationException {
+		for (BindingSet right : matches) {
+			QueryBindingSet result = new QueryBindingSet(left);
+			result.addAll(right);
+			joined.add(result);
+		}
+	}
+	
+	/**
+	 * Assigns the results of the right join argument (projected on its
+	 * variables) to the join values of the matching probes. The probes of
+	 * a request bind the same join variables, i.e. each result matches
+	 * exactly one probe of its request. Duplicate results are kept.
+	 */
+	private Map<List<Value>, List<BindingSet>> collect(Batch batch) throws QueryEvaluationException {
+		
+		Map<List<Value>, List<BindingSet>> matches = new LinkedHashMap<List<Value>, List<BindingSet>>();
+		for (List<Value> key : batch.probes.keySet()) {
+			matches.put(key, new ArrayList<BindingSet>());
+		}
+		
+		try {
+			for (Request request : batch.requests) {
+				while (!isClosed() && request.results.hasNext()) {
+					BindingSet next = request.results.next();
+					for (List<Value> key : request.keys) {
+						if (isMatching(key, next)) {
+							matches.get(key).add(project(next));
+							break;
+						}
+					}
+				}
+			}
+		} finally {
+			close(batch);
+		}
+		
+		// do not memoize incomplete results
+		boolean complete = !isClosed();
+		
+		Map<List<Value>, List<BindingSet>> resolved = new HashMap<List<Value>, List<BindingSet>>();
+		for (Map.Entry<List<Value>, List<BindingSet>> entry : matches.entrySet()) {
+			List<BindingSet> list = entry.getValue();
+			resolved.put(entry.getKey(), list);
+			requested.remove(entry.getKey());
+			if (cache != null && complete)
+				cache.put(entry.getKey(), list);
+		}
+		return resolved;
+	}
+	
+	/**
+	 * Returns the values of the right join argument's variables which are
+	 * bound in the left bindings (null if unbound).
+	 */
+	private List<Value> getKey(BindingSet bindings) {
+		List<Value> key = new ArrayList<Value>(rightVars.size());
+		for (String name : rightVars) {
+			key.add(bindings.getValue(name));
+		}
+		return key;
+	}
+	
+	private BindingSet getProbe(List<Value> key) {
+		QueryBindingSet probe = new QueryBindingSet();
+		for (int i = 0; i < rightVars.size(); i++) {
+			if (key.get(i) != null)
+				probe.addBinding(rightVars.get(i), key.get(i));
+		}
+		return probe;
+	}
+	
+	private BindingSet project(BindingSet bindings) {
+		QueryBindingSet projected = new QueryBindingSet();
+		for (String name : rightVars) {
+			Value value = bindings.getValue(name);
+			if (value != null)
+				projected.addBinding(name, value);
+		}
+		return projected;
+	}
+	
+	private void close(Batch batch) throws QueryEvaluationException {
+		for (Request request : batch.requests) {
+			if (request.results != null)
+				request.results.close();
+		}
+	}
+	
+	private boolean isMatching(List<Value> key, BindingSet bindings) {
+		for (int i = 0; i < rightVars.size(); i++) {
+			if (key.get(i) != null && !key.get(i).equals(bindings.getValue(rightVars.get(i))))
+				return false;
+		}
+		return true;
+	}
+
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * A batch of left bindings with the probes sent for it.
+	 */
+	private static class Batch {
+		
+		final List<BindingSet> pending = new ArrayList<BindingSet>();
+		final Map<List<Value>, BindingSet> probes = new LinkedHashMap<List<Value>, BindingSet>();
+		final Map<List<Value>, List<BindingSet>> resolved = new HashMap<List<Value>, List<BindingSet>>();
+		final Map<List<Value>, Batch> deferred = new HashMap<List<Value>, Batch>();
+		final List<Request> requests = new ArrayList<Request>();
+	}
+	
+	/**
+	 * A request for the probes of a batch which bind the same join variables.
+	 */
+	private static class Request {
+		
+		final List<List<Value>> keys = new ArrayList<List<Value>>();
+		CloseableIteration<BindingSet, QueryEvaluationException> results;
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import info.aduna.iteration.CloseableIteration;
+
+import java.util.List;
+import java.util.Map;
+
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.openrdf.query.algebra.evaluation.ValueExprEvaluationException;
+
+/**
+ * Bind left join (OPTIONAL) which evaluates the optional join argument
+ * in batches for the left bindings, like a {@link BindJoinCursor}.
+ * Left bindings without matching optional results (which satisfy the
+ * join condition) are returned unchanged.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class BindLeftJoinCursor extends BindJoinCursor {
+	
+	private final FederationEvalStrategy strategy;
+	private final ValueExpr condition;
+	
+	/**
+	 * Creates a bind left join for the left bindings and the optional join argument.
+	 * 
+	 * @param strategy the evaluation strategy.
+	 * @param leftIter the left bindings.
+	 * @param rightArg the optional join argument.
+	 * @param condition the join condition or null.
+	 * @param batchSize the maximum number of probes per request.
+	 * @param windowSize the maximum number of batches in flight.
+	 * @param cache the result cache to use or null if results are not memoized.
+	 */
+	public BindLeftJoinCursor(FederationEvalStrategy strategy, CloseableIteration<BindingSet, QueryEvaluationException> leftIter,
+			TupleExpr rightArg, ValueExpr condition, int batchSize, int windowSize, Map<List<Value>, List<BindingSet>> cache) {
+		super(strategy, leftIter, rightArg, batchSize, windowSize, cache);
+		this.strategy = strategy;
+		this.condition = condition;
+	}
+	
+	@Override
+	protected void join(BindingSet left, List<BindingSet> matches) throws QueryEvaluationException {
+		boolean matched = false;
+		for (BindingSet right : matches) {
+			QueryBindingSet result = new QueryBindingSet(left);
+			result.addAll(right);
+			if (isTrue(result)) {
+				joined.add(result);
+				matched = true;
+			}
+		}
+		if (!matched)
+			joined.add(left);
+	}
+	
+	private boolean isTrue(BindingSet bindings) throws QueryEvaluationException {
+		if (condition == null)
+			return true;
+		try {
+			return strategy.isTrue(condition, bindings);
+		} catch (ValueExprEvaluationException e) {
+			// condition failed for the bindings
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.LookAheadIteration;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+
+/**
+ * Removes duplicate bindings from a result. The memory of the bindings
+ * which have been seen is accounted for by the query's memory tracker.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class DistinctCursor extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+	
+	private final CloseableIteration<BindingSet, QueryEvaluationException> iter;
+	private final MemoryTracker memory;
+	
+	private final Set<BindingSet> seen = new HashSet<BindingSet>();
+	private long size;
+	
+	/**
+	 * Creates a cursor which removes duplicates.
+	 * 
+	 * @param iter the result with duplicates.
+	 * @param memory the memory tracker of the query or null.
+	 */
+	public DistinctCursor(CloseableIteration<BindingSet, QueryEvaluationException> iter, MemoryTracker memory) {
+		this.iter = iter;
+		this.memory = memory;
+	}
+	
+	@Override
+	protected BindingSet getNextElement() throws QueryEvaluationException {
+		while (iter.hasNext()) {
+			BindingSet next = iter.next();
+			if (seen.contains(next))
+				continue;
+			if (memory != null) {
+				long bytes = MemoryTracker.sizeOf(next);
+				memory.reserve(bytes);
+				size += bytes;
+			}
+			seen.add(next);
+			return next;
+		}
+		return null;
+	}
+	
+	@Override
+	protected void handleClose() throws QueryEvaluationException {
+		try {
+			iter.close();
+		} finally {
+			if (memory != null)
+				memory.release(size);
+		}
+	}
+
+}
@@ -0,0 +1,52 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import org.openrdf.query.algebra.QueryRoot;
+import org.openrdf.query.algebra.TupleExpr;
+
+/**
+ * Root node of a federated query plan which carries the query's
+ * evaluation context.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class FederatedQueryRoot extends QueryRoot {
+	
+	private final QueryContext context = new QueryContext();
+	
+	public FederatedQueryRoot(TupleExpr tupleExpr) {
+		super(tupleExpr);
+	}
+	
+	public QueryContext getContext() {
+		return this.context;
+	}
+	
+	/**
+	 * Creates a copy of the query plan with a new evaluation context.
+	 */
+	@Override
+	public FederatedQueryRoot clone() {
+		return new FederatedQueryRoot(getArg().clone());
+	}
+
+}
@@ -21,17 +21,22 @@
 package de.uni_koblenz.west.splendid.evaluation;
 
 import info.aduna.iteration.CloseableIteration;
-import info.aduna.iteration.DistinctIteration;
+import info.aduna.iteration.ConvertingIteration;
 import info.aduna.iteration.EmptyIteration;
+import info.aduna.iteration.IterationWrapper;
+import info.aduna.iteration.LookAheadIteration;
+import info.aduna.iteration.OffsetIteration;
 import info.aduna.iteration.UnionIteration;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 
 //import org.openrdf.cursor.Cursor;
@@ -42,30 +47,57 @@ import org.openrdf.model.Value;
 import org.openrdf.model.ValueFactory;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.AggregateOperatorBase;
+import org.openrdf.query.algebra.GroupElem;
 import org.openrdf.query.algebra.Join;
 import org.openrdf.query.algebra.LeftJoin;
+import org.openrdf.query.algebra.Order;
+import org.openrdf.query.algebra.OrderElem;
 import org.openrdf.query.algebra.QueryModelNode;
+import org.openrdf.query.algebra.SingletonSet;
+import org.openrdf.query.algebra.Slice;
 import org.openrdf.query.algebra.StatementPattern;
 import org.openrdf.query.algebra.TupleExpr;
 import org.openrdf.query.algebra.UnaryTupleOperator;
+import org.openrdf.query.algebra.evaluation.QueryOptimizer;
 import org.openrdf.query.algebra.evaluation.TripleSource;
 //import org.openrdf.query.algebra.evaluation.cursors.DistinctCursor;
 //import org.openrdf.query.algebra.evaluation.cursors.UnionCursor;
 import org.openrdf.query.algebra.evaluation.impl.EvaluationStrategyImpl;
-import org.openrdf.query.algebra.evaluation.iterator.JoinIterator;
+import org.openrdf.query.algebra.evaluation.iterator.OrderIterator;
+import org.openrdf.query.impl.EmptyBindingSet;
+import org.openrdf.query.algebra.evaluation.util.OrderComparator;
+import org.openrdf.query.algebra.evaluation.util.ValueComparator;
 import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.openrdf.sail.config.SailConfigException;
 //import org.openrdf.store.StoreException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.uni_koblenz.west.splendid.FederationSail;
+import de.uni_koblenz.west.splendid.config.InitializedWithSail;
+import de.uni_koblenz.west.splendid.config.QueryEvaluationConfig;
+import de.uni_koblenz.west.splendid.estimation.AbstractCostEstimator;
+import de.uni_koblenz.west.splendid.helpers.EndpointHealth;
+import de.uni_koblenz.west.splendid.helpers.EndpointLimiter;
+import de.uni_koblenz.west.splendid.helpers.EndpointProfile;
+import de.uni_koblenz.west.splendid.helpers.EndpointProfile.InlineData;
+import de.uni_koblenz.west.splendid.helpers.NioSparqlClient;
 import de.uni_koblenz.west.splendid.helpers.OperatorTreePrinter;
 import de.uni_koblenz.west.splendid.helpers.QueryExecutor;
+import de.uni_koblenz.west.splendid.helpers.ReplicaGroup;
+import de.uni_koblenz.west.splendid.helpers.SparqlEndpointTransport;
 import de.uni_koblenz.west.splendid.helpers.SparqlPrinter;
 import de.uni_koblenz.west.splendid.index.Graph;
 import de.uni_koblenz.west.splendid.model.BindJoin;
+import de.uni_koblenz.west.splendid.model.BindLeftJoin;
 import de.uni_koblenz.west.splendid.model.HashJoin;
+import de.uni_koblenz.west.splendid.model.HashLeftJoin;
 import de.uni_koblenz.west.splendid.model.MappedStatementPattern;
+import de.uni_koblenz.west.splendid.model.MergeJoin;
+import de.uni_koblenz.west.splendid.model.MultiJoin;
 import de.uni_koblenz.west.splendid.model.RemoteQuery;
+import de.uni_koblenz.west.splendid.optimizer.AbstractFederationOptimizer;
 
 /**
  * Implementation of the evaluation strategy for querying distributed data
@@ -77,17 +109,35 @@ import de.uni_koblenz.west.splendid.model.RemoteQuery;
  * which demands it in the constructor (in order to have access to the
  * {@link ValueFactory}). 
  * 
+ * All remote requests are executed by a bounded thread pool. If the query
+ * plan has a {@link FederatedQueryRoot}, the {@link PlanScheduler} starts
+ * all independent sub queries when the evaluation begins, prioritized by
+ * their critical path cost.
+ * 
  * @author Olaf Goerlitz
  */
-public class FederationEvalStrategy extends EvaluationStrategyImpl {
+public class FederationEvalStrategy extends EvaluationStrategyImpl implements InitializedWithSail {
 	
 	private static final Logger LOGGER = LoggerFactory.getLogger(FederationEvalStrategy.class);
 	
-	private static final ExecutorService executor = Executors.newCachedThreadPool();
-	
 	private static final boolean MULTI_THREADED = true;
 	private static final boolean COLLECT_BGP_PATTERNS = true;
 	
+	private PriorityExecutor executor = new PriorityExecutor(new QueryEvaluationConfig().getMaxParallelRequests());
+	private PlanScheduler scheduler = new PlanScheduler(null);
+	private boolean usePlanScheduler = false;
+	private boolean useAdaptiveJoin = false;
+	private int batchSize = new QueryEvaluationConfig().getBindJoinBatchSize();
+	private int windowSize = new QueryEvaluationConfig().getBindJoinWindowSize();
+	private int cacheSize = new QueryEvaluationConfig().getBindJoinCacheSize();
+	private boolean useSemiJoin = false;
+	private int chunkSize = new QueryEvaluationConfig().getSemiJoinChunkSize();
+	private int pageSize = new QueryEvaluationConfig().getPageSize();
+	private int pageWindowSize = new QueryEvaluationConfig().getPageWindowSize();
+	private SharedRequests sharedRequests = null;
+	private int hedgePercentile = new QueryEvaluationConfig().getHedgePercentile();
+	private int minHedgeDelay = new QueryEvaluationConfig().getMinHedgeDelay();
+	
 	/**
 	 * Creates a new Evaluation strategy using the supplied source finder.
 	 * 
@@ -111,8 +161,122 @@ public class FederationEvalStrategy extends EvaluationStrategyImpl {
 		});
 	}
 	
+	/**
+	 * Applies the evaluation settings of the federation and sets up the
+	 * plan scheduler with the optimizer's cardinality estimator.
+	 * 
+	 * @param sail the federation sail.
+	 */
+	@Override
+	public void init(FederationSail sail) throws SailConfigException {
+		QueryEvaluationConfig config = sail.getEvaluationConfig();
+		
+		this.executor.shutdown();
+		this.executor = new PriorityExecutor(config.getMaxParallelRequests(), config.getMaxRequestsPerEndpoint());
+		QueryExecutor.setTransport(new SparqlEndpointTransport(config.getMaxConnectionsPerEndpoint(),
+				config.getConnectTimeout(), config.getReadTimeout(), config.isAcceptCompression(), config.getMaxGetQueryLength()));
+		try {
+			QueryExecutor.setAsyncClient(!config.isUseAsyncClient() ? null : new NioSparqlClient(config.getMaxConnectionsPerEndpoint(),
+					config.getConnectTimeout(), config.getReadTimeout(), config.isAcceptCompression(), config.getMaxGetQueryLength(),
+					config.getAsyncBufferSize(), config.getResultFormats()));
+		} catch (IOException e) {
+			throw new SailConfigException("cannot create asynchronous SPARQL client", e);
+		}
+		EndpointHealth.configure(config.getCircuitFailureThreshold(), config.getCircuitResetTimeout(), config.isDegradedMode());
+		EndpointLimiter.configure(config.getMaxRequestRate(), config.getMaxConnectionsPerEndpoint(), config.isAdaptiveConcurrency());
+		MemoryTracker.configure(config.getMaxTotalMemory());
+		
+		QueryOptimizer optimizer = sail.getFederationOptimizer();
+		AbstractCostEstimator costEstimator = null;
+		if (optimizer instanceof AbstractFederationOptimizer)
+			costEstimator = ((AbstractFederationOptimizer) optimizer).getCostEstimator();
+		this.scheduler = new PlanScheduler(costEstimator == null ? null : costEstimator.getCardinalityEstimator(), config.isUseSemiJoin());
+		
+		this.usePlanScheduler = config.isUsePlanScheduler();
+		this.useAdaptiveJoin = config.isUseAdaptiveJoin();
+		this.batchSize = config.getBindJoinBatchSize();
+		this.windowSize = config.getBindJoinWindowSize();
+		this.cacheSize = config.getBindJoinCacheSize();
+		this.useSemiJoin = config.isUseSemiJoin();
+		this.chunkSize = config.getSemiJoinChunkSize();
+		this.pageSize = config.getPageSize();
+		this.pageWindowSize = config.getPageWindowSize();
+		this.hedgePercentile = config.getHedgePercentile();
+		this.minHedgeDelay = config.getMinHedgeDelay();
+		
+		this.sharedRequests = null;
+		if (config.getSharedRequestBufferSize() > 0) {
+			this.sharedRequests = new SharedRequests(config.getSharedRequestBufferSize()) {
+				@Override
+				protected CloseableIteration<BindingSet, QueryEvaluationException> send(Graph source, String query, BindingSet bindings, double priority, long deadline) {
+					return sendRequest(source, query, bindings, priority, deadline);
+				}
+			};
+		}
+	}
+	
+	/**
+	 * Returns the estimated cardinality of the expression.
+	 * 
+	 * @param expr the expression to estimate.
+	 * @return the estimated cardinality.
+	 */
+	public double getCardinality(TupleExpr expr) {
+		return scheduler.getCardinality(expr);
+	}
+	
 	// -------------------------------------------------------------------------
 	
+	@Override
+	public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(
+			TupleExpr expr, BindingSet bindings) throws QueryEvaluationException {
+		if (expr instanceof FederatedQueryRoot) {
+			return evaluate((FederatedQueryRoot) expr, bindings);
+		}
+		return super.evaluate(expr, bindings);
+	}
+	
+	/**
+	 * Evaluates the query plan after starting all independent sub queries.
+	 * Closing the result closes all sub query results that were not used.
+	 * 
+	 * @param root the root of the query plan.
+	 * @param bindings the query bindings.
+	 * @return the query result.
+	 */
+	public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(
+			FederatedQueryRoot root, BindingSet bindings) throws QueryEvaluationException {
+		
+		final QueryContext context = root.getContext();
+		
+		CloseableIteration<BindingSet, QueryEvaluationException> result;
+		try {
+			if (usePlanScheduler) {
+				for (TupleExpr unit : scheduler.schedule(root.getArg(), context)) {
+					context.addPrefetched(unit, bindings, sendSparqlQuery(unit, bindings, context));
+				}
+			}
+			result = evaluate(root.getArg(), bindings);
+		} catch (QueryEvaluationException e) {
+			context.close();
+			throw e;
+		} catch (RuntimeException e) {
+			context.close();
+			throw e;
+		}
+		
+		return new IterationWrapper<BindingSet, QueryEvaluationException>(result) {
+			@Override
+			protected void handleClose() throws QueryEvaluationException {
+				try {
+					super.handleClose();
+				} finally {
+					context.close();
+				}
+			}
+		};
+	}
+	
 //	/**
 //	 * Evaluates the left join with the specified set of variable bindings as input.
 //	 * IMPORTANT: left joins (optional parts) are currently not evaluated.
@@ -133,19 +297,78 @@ public class FederationEvalStrategy extends EvaluationStrategyImpl {
 //		return super.evaluate(leftJoin.getLeftArg(), bindings);
 //	}
 	
+	/**
+	 * Evaluates the left join (OPTIONAL) with a hash left join or a
+	 * batched bind left join as chosen by the optimizer. Other left joins
+	 * are evaluated with nested loops.
+	 */
+	@Override
+	public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(
+			LeftJoin leftJoin, BindingSet bindings) throws QueryEvaluationException {
+		
+		// optional variables which are bound outside of the left join
+		// require the generic evaluation
+		Set<String> problemVars = new HashSet<String>(leftJoin.getRightArg().getBindingNames());
+		problemVars.removeAll(leftJoin.getLeftArg().getBindingNames());
+		problemVars.retainAll(bindings.getBindingNames());
+		if (problemVars.size() != 0)
+			return super.evaluate(leftJoin, bindings);
+		
+		if (leftJoin instanceof HashLeftJoin) {
+			Set<String> joinVars = new HashSet<String>(leftJoin.getLeftArg().getBindingNames());
+			joinVars.retainAll(leftJoin.getRightArg().getBindingNames());
+			CloseableIteration<BindingSet, QueryEvaluationException> leftIter = evaluate(leftJoin.getLeftArg(), bindings);
+			CloseableIteration<BindingSet, QueryEvaluationException> rightIter = evaluate(leftJoin.getRightArg(), bindings);
+			return new HashLeftJoinCursor(this, leftIter, rightIter, joinVars, leftJoin.getCondition(), QueryContext.getMemory(leftJoin));
+		}
+		if (leftJoin instanceof BindLeftJoin) {
+			return new BindLeftJoinCursor(this, evaluate(leftJoin.getLeftArg(), bindings), leftJoin.getRightArg(), leftJoin.getCondition(),
+					batchSize, windowSize, BindJoinCursor.getCache(leftJoin.getRightArg(), cacheSize));
+		}
+		return super.evaluate(leftJoin, bindings);
+	}
+	
 	public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(
 			BindJoin join, BindingSet bindings) throws QueryEvaluationException {
-		return new JoinIterator(this, join, bindings);
+		if (useAdaptiveJoin && isRemoteUnit(join.getRightArg()))
+			return new AdaptiveJoinCursor(this, join, bindings, AdaptiveJoinCursor.Mode.BIND, batchSize, windowSize, cacheSize);
+		return new BindJoinCursor(this, evaluate(join.getLeftArg(), bindings), join.getRightArg(), batchSize, windowSize, BindJoinCursor.getCache(join.getRightArg(), cacheSize));
 //		throw new UnsupportedOperationException("bind join not supported");
 	}
 	
+	/**
+	 * Evaluates the merge join on the results of both arguments, which are
+	 * requested sorted on the join variable.
+	 */
+	public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(
+			MergeJoin join, BindingSet bindings) throws QueryEvaluationException {
+		CloseableIteration<BindingSet, QueryEvaluationException> leftIter = evaluate(join.getLeftArg(), bindings);
+		try {
+			return new MergeJoinCursor(leftIter, evaluate(join.getRightArg(), bindings), join.getJoinVar());
+		} catch (QueryEvaluationException e) {
+			leftIter.close();
+			throw e;
+		}
+	}
+	
 	public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(
 			HashJoin join, BindingSet bindings) throws QueryEvaluationException {
 		// eval query if all sub operators are applied on same source
 		// TODO optimize with caching
 		Set<Graph> sources = new SourceCollector().getSources(join);
 		if (COLLECT_BGP_PATTERNS && sources.size() == 1)
-			return sendSparqlQuery(join, sources, bindings);
+			return sendSparqlQuery(join, bindings, QueryContext.getContext(join));
+		
+		// restrict a remote join argument with the values of the other one
+		// (the plan scheduler does not prefetch the reduced argument)
+		if (useSemiJoin) {
+			TupleExpr reduced = scheduler.getSemiJoinReducedArg(join);
+			if (reduced != null)
+				return new SemiJoinCursor(this, join, bindings, reduced == join.getRightArg(), chunkSize);
+		}
+		
+		if (useAdaptiveJoin && isRemoteUnit(join.getRightArg()))
+			return new AdaptiveJoinCursor(this, join, bindings, AdaptiveJoinCursor.Mode.HASH, batchSize, windowSize, cacheSize);
 	
 //		assert join.getNumberOfArguments() > 0;
 		
@@ -192,7 +415,7 @@ public class FederationEvalStrategy extends EvaluationStrategyImpl {
 //				}
 //			}
 //			
-			joinCursor = new HashJoinCursor(joinCursor, argCursor, joinVars);
+			joinCursor = new HashJoinCursor(joinCursor, argCursor, joinVars, QueryContext.getMemory(join));
 			resultVars.addAll(joinArg.getBindingNames());
 
 			// TODO: can constants vars be removed here?
@@ -223,6 +446,9 @@ public class FederationEvalStrategy extends EvaluationStrategyImpl {
 		if (join instanceof HashJoin) {
 			return evaluate((HashJoin) join, bindings);
 		}
+		if (join instanceof MergeJoin) {
+			return evaluate((MergeJoin) join, bindings);
+		}
 		
 		throw new IllegalArgumentException("join type not supported: " + join);
 	}
@@ -261,22 +487,335 @@ public class FederationEvalStrategy extends EvaluationStrategyImpl {
 			throws QueryEvaluationException {
 		if (expr instanceof RemoteQuery) {
 			return this.evaluate((RemoteQuery) expr, bindings);
+		} else if (expr instanceof MultiJoin) {
+			return this.evaluate((MultiJoin) expr, bindings);
 		} else {
 			return super.evaluate(expr, bindings);
 		}
 	}
 	
+	/**
+	 * Evaluates the multiway join on the results of all join arguments,
+	 * which are requested independently of each other.
+	 */
+	public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(MultiJoin join, BindingSet bindings) throws QueryEvaluationException {
+		List<CloseableIteration<BindingSet, QueryEvaluationException>> inputs = new ArrayList<CloseableIteration<BindingSet, QueryEvaluationException>>();
+		List<Set<String>> inputVars = new ArrayList<Set<String>>();
+		try {
+			for (TupleExpr arg : join.getJoinArgs()) {
+				inputs.add(evaluate(arg, bindings));
+				inputVars.add(MultiJoin.getVarNames(arg));
+			}
+		} catch (QueryEvaluationException e) {
+			for (CloseableIteration<BindingSet, QueryEvaluationException> input : inputs) {
+				input.close();
+			}
+			throw e;
+		}
+		return new LeapfrogJoinCursor(inputs, inputVars, bindings, this, join.getConditions(), QueryContext.getMemory(join));
+	}
+	
+	/**
+	 * Evaluates the slice such that all remote requests of the sub tree
+	 * are closed as soon as the limit is reached.
+	 */
+	@Override
+	public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(
+			Slice slice, BindingSet bindings) throws QueryEvaluationException {
+		
+		CloseableIteration<BindingSet, QueryEvaluationException> result = evaluate(slice.getArg(), bindings);
+		if (slice.hasOffset())
+			result = new OffsetIteration<BindingSet, QueryEvaluationException>(result, slice.getOffset());
+		if (slice.hasLimit())
+			result = new LimitCursor(result, slice.getLimit());
+		return result;
+	}
+	
 	public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(RemoteQuery query, BindingSet bindings) throws QueryEvaluationException {
 		// evaluate query on SPARQL endpoint
 		// 1. pattern group on single source OR
 		// 2. single pattern on multiple sources
 //		return this.evaluate(query.getArg(), bindings);
-		return this.sendSparqlQuery(query.getArg(), query.getSources(), bindings);
+		return this.sendSparqlQuery(query, bindings, QueryContext.getContext(query));
+	}
+	
+	/**
+	 * Evaluates the expression for a batch of input bindings. A remote sub
+	 * query is sent as a single query with one union block (or one row of
+	 * inline data) per input binding to reduce the number of remote requests.
+	 * Other expressions are evaluated once for each input binding.
+	 * 
+	 * @param expr the expression to evaluate.
+	 * @param bindings the input bindings.
+	 * @return the joined results for all input bindings.
+	 */
+	public CloseableIteration<BindingSet, QueryEvaluationException> evaluateBatch(
+			TupleExpr expr, List<BindingSet> bindings) throws QueryEvaluationException {
+		
+		List<CloseableIteration<BindingSet, QueryEvaluationException>> results = null;
+		if (bindings.size() > 1 && isRemoteUnit(expr))
+			results = sendBatchQueries(expr, bindings);
+		
+		if (results == null) {
+			results = new ArrayList<CloseableIteration<BindingSet, QueryEvaluationException>>(bindings.size());
+			for (BindingSet binding : bindings) {
+				results.add(evaluate(expr, binding));
+			}
+			return new UnionIteration<BindingSet, QueryEvaluationException>(results);
+		}
+		if (results.size() == 1)
+			return results.get(0);
+		return new DistinctCursor(new UnionIteration<BindingSet, QueryEvaluationException>(results), QueryContext.getMemory(expr));
+	}
+	
+	/**
+	 * Evaluates a remote sub query with an additional filter condition.
+	 * 
+	 * @param expr the remote sub query to evaluate.
+	 * @param filter the filter expression.
+	 * @param bindings the input bindings.
+	 * @return the filtered results.
+	 */
+	public CloseableIteration<BindingSet, QueryEvaluationException> evaluateFiltered(
+			TupleExpr expr, String filter, BindingSet bindings) throws QueryEvaluationException {
+		
+		Set<Graph> sources = getSources(expr);
+		if (sources.size() == 0) {
+			LOGGER.warn("Cannot find any source for: " + OperatorTreePrinter.print(expr));
+			return new EmptyIteration<BindingSet, QueryEvaluationException>();
+		}
+		
+		QueryContext context = QueryContext.getContext(expr);
+		double priority = 0;
+		if (context != null) {
+			priority = context.getPriority(expr);
+			context.addRemoteRequests(sources.size());
+		}
+		
+		String query = "SELECT REDUCED * WHERE {" + SparqlPrinter.print(getQueryExpr(expr)) + "FILTER (" + filter + ")\n}";
+		return sendQuery(query, sources, bindings, priority, context);
 	}
 	
 	// -------------------------------------------------------------------------
 	
+	/**
+	 * Sends the batch queries of a remote sub query. The sources are grouped
+	 * by the inline data syntax of their profiles and the batch is split if
+	 * the query exceeds the maximum query length of a source.
+	 * 
+	 * @return the mapped results or null if the batch query cannot be created.
+	 */
+	private List<CloseableIteration<BindingSet, QueryEvaluationException>> sendBatchQueries(TupleExpr expr, List<BindingSet> bindings) throws QueryEvaluationException {
+		
+		Map<InlineData, Set<Graph>> groups = new EnumMap<InlineData, Set<Graph>>(InlineData.class);
+		for (Graph source : getSources(expr)) {
+			InlineData syntax = EndpointProfile.get(source.toString()).getInlineData();
+			Set<Graph> group = groups.get(syntax);
+			if (group == null) {
+				group = new HashSet<Graph>();
+				groups.put(syntax, group);
+			}
+			group.add(source);
+		}
+		
+		TupleExpr queryExpr = getQueryExpr(expr);
+		Map<InlineData, BatchQuery> batches = new EnumMap<InlineData, BatchQuery>(InlineData.class);
+		for (InlineData syntax : groups.keySet()) {
+			BatchQuery batch = BatchQuery.create(queryExpr, bindings, syntax);
+			if (batch == null)
+				return null;
+			batches.put(syntax, batch);
+		}
+		
+		QueryContext context = QueryContext.getContext(expr);
+		double priority = context == null ? 0 : context.getPriority(expr);
+		
+		List<CloseableIteration<BindingSet, QueryEvaluationException>> results = new ArrayList<CloseableIteration<BindingSet, QueryEvaluationException>>();
+		for (InlineData syntax : groups.keySet()) {
+			sendBatchQuery(queryExpr, batches.get(syntax), bindings, syntax, groups.get(syntax), priority, context, results);
+		}
+		return results;
+	}
+	
+	private void sendBatchQuery(TupleExpr expr, final BatchQuery batch, List<BindingSet> bindings, InlineData syntax, Set<Graph> sources,
+			double priority, QueryContext context, List<CloseableIteration<BindingSet, QueryEvaluationException>> results) throws QueryEvaluationException {
+		
+		int maxLength = 0;
+		for (Graph source : sources) {
+			int length = EndpointProfile.get(source.toString()).getMaxQueryLength();
+			if (length > 0 && (maxLength == 0 || length < maxLength))
+				maxLength = length;
+		}
+		
+		// split the batch if it is too long
+		if (maxLength > 0 && batch.getQuery().length() > maxLength && bindings.size() > 1) {
+			List<BindingSet> first = bindings.subList(0, bindings.size() / 2);
+			List<BindingSet> second = bindings.subList(bindings.size() / 2, bindings.size());
+			sendBatchQuery(expr, BatchQuery.create(expr, first, syntax), first, syntax, sources, priority, context, results);
+			sendBatchQuery(expr, BatchQuery.create(expr, second, syntax), second, syntax, sources, priority, context, results);
+			return;
+		}
+		
+		if (context != null)
+			context.addRemoteRequests(sources.size());
+		CloseableIteration<BindingSet, QueryEvaluationException> result = sendQuery(batch.getQuery(), sources, EmptyBindingSet.getInstance(), priority, context);
+		results.add(new ConvertingIteration<BindingSet, BindingSet, QueryEvaluationException>(result) {
+			@Override
+			protected BindingSet convert(BindingSet sourceObject) throws QueryEvaluationException {
+				return batch.map(sourceObject);
+			}
+		});
+	}
+	
+	/**
+	 * Checks if the expression is evaluated by a single remote sub query
+	 * per source.
+	 */
+	private boolean isRemoteUnit(TupleExpr expr) {
+		return expr instanceof RemoteQuery || (expr instanceof HashJoin && PlanScheduler.isSingleSourceJoin((HashJoin) expr));
+	}
+	
+	private TupleExpr getQueryExpr(TupleExpr expr) {
+		return expr instanceof RemoteQuery ? ((RemoteQuery) expr).getArg() : expr;
+	}
+	
+	private Set<Graph> getSources(TupleExpr expr) {
+		if (expr instanceof RemoteQuery)
+			return ((RemoteQuery) expr).getSources();
+		return new SourceCollector().getSources(expr);
+	}
+	
+	/**
+	 * Sends a remote sub query (or a single source hash join) unless its
+	 * results have already been requested by the plan scheduler.
+	 * The requests are counted against the query's budget.
+	 */
+	private CloseableIteration<BindingSet, QueryEvaluationException> sendSparqlQuery(TupleExpr expr, BindingSet bindings, QueryContext context) throws QueryEvaluationException {
+		double priority = 0;
+		if (context != null) {
+			CloseableIteration<BindingSet, QueryEvaluationException> result = context.takePrefetched(expr, bindings);
+			if (result != null)
+				return result;
+			priority = context.getPriority(expr);
+			context.addRemoteRequests(getSources(expr).size());
+		}
+		
+		if (expr instanceof RemoteQuery) {
+			RemoteQuery query = (RemoteQuery) expr;
+			if (query.getAggregates() != null)
+				return sendAggregateQuery(query, bindings, priority);
+			if (query.getOrder() != null)
+				return sendSortedQuery(query, bindings, priority);
+			if (pageSize > 0 && query.getLimit() < 0 && bindings.size() == 0) {
+				double card = getCardinality(query);
+				if (card > pageSize)
+					return sendPagedQuery(query, bindings, priority, (long) Math.ceil(card / pageSize));
+			}
+			return sendSparqlQuery(query.getArg(), query.getSources(), bindings, priority, query.getLimit());
+		}
+		return sendSparqlQuery(expr, getSources(expr), bindings, priority);
+	}
+	
+	/**
+	 * Sends the sorted sub query to all sources and merges the sorted results.
+	 * The results of a top-k sub query are sorted locally since endpoints may
+	 * sort values differently, e.g. values of different types.
+	 */
+	private CloseableIteration<BindingSet, QueryEvaluationException> sendSortedQuery(RemoteQuery query, BindingSet bindings, double priority) {
+		
+		StringBuffer orderBy = new StringBuffer();
+		for (OrderElem elem : query.getOrder()) {
+			orderBy.append(elem.isAscending() ? " ASC(" : " DESC(").append(SparqlPrinter.print(elem.getExpr())).append(")");
+		}
+		String sparql = "SELECT DISTINCT * WHERE {" + SparqlPrinter.print(query.getArg()) + "}\nORDER BY" + orderBy;
+		if (query.getLimit() >= 0)
+			sparql += "\nLIMIT " + query.getLimit();
+		
+		Order order = new Order(new SingletonSet(), query.getOrder());
+		Comparator<BindingSet> comparator = new OrderComparator(this, order, new ValueComparator());
+		
+		if (query.getLimit() >= 0) {
+			CloseableIteration<BindingSet, QueryEvaluationException> cursor = sendQuery(sparql, query.getSources(), bindings, priority, null, QueryContext.getContext(query));
+			return new OrderIterator(cursor, comparator, query.getLimit(), false);
+		}
+		return sendQuery(sparql, query.getSources(), bindings, priority, comparator, QueryContext.getContext(query));
+	}
+	
+	/**
+	 * Retrieves the large sub query result of each source in pages which
+	 * are requested in parallel. The pages are defined with LIMIT and
+	 * OFFSET over an ORDER BY on all variables, which is a stable order
+	 * for the distinct results.
+	 */
+	private CloseableIteration<BindingSet, QueryEvaluationException> sendPagedQuery(RemoteQuery query, BindingSet bindings, double priority, long expectedPages) {
+		
+		Set<Graph> sources = query.getSources();
+		String sparql = PagedQueryCursor.createQuery(query.getArg());
+		if (sparql == null || sources.size() == 0)
+			return sendSparqlQuery(query.getArg(), sources, bindings, priority);
+		
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("Sending paged SPARQL query (" + expectedPages + " pages of " + pageSize + ") to '" + sources + " with bindings " + bindings + "\n" + sparql);
+		
+		List<CloseableIteration<BindingSet, QueryEvaluationException>> cursors = new ArrayList<CloseableIteration<BindingSet, QueryEvaluationException>>(sources.size());
+		for (Graph source : sources) {
+			cursors.add(new PagedQueryCursor(this, source, sparql, bindings, priority, getDeadline(query), pageSize, pageWindowSize, expectedPages));
+		}
+		
+		CloseableIteration<BindingSet, QueryEvaluationException> cursor;
+		if (cursors.size() > 1)
+			cursor = new UnionIteration<BindingSet, QueryEvaluationException>(cursors);
+		else
+			cursor = cursors.get(0);
+		return new DistinctCursor(cursor, QueryContext.getMemory(query));
+	}
+	
+	/**
+	 * Sends the aggregate sub query to all sources. The partial aggregates
+	 * of the sources are not merged, i.e. the same group can occur several
+	 * times with equal or different aggregate values.
+	 */
+	private CloseableIteration<BindingSet, QueryEvaluationException> sendAggregateQuery(RemoteQuery query, BindingSet bindings, double priority) {
+		
+		StringBuffer select = new StringBuffer();
+		StringBuffer groupBy = new StringBuffer();
+		for (String name : query.getGroupBindingNames()) {
+			select.append(" ?").append(name);
+			groupBy.append(" ?").append(name);
+		}
+		for (GroupElem elem : query.getAggregates()) {
+			AggregateOperatorBase aggregate = (AggregateOperatorBase) elem.getOperator();
+			select.append(" (").append(aggregate.getClass().getSimpleName().toUpperCase()).append("(");
+			if (aggregate.isDistinct())
+				select.append("DISTINCT ");
+			select.append(aggregate.getArg() == null ? "*" : SparqlPrinter.print(aggregate.getArg()));
+			select.append(") AS ?").append(elem.getName()).append(")");
+		}
+		
+		// aggregate the same (distinct) results as a local group operator
+		String sparql = "SELECT" + select + " WHERE {\nSELECT DISTINCT * WHERE {" + SparqlPrinter.print(query.getArg()) + "}\n}";
+		if (groupBy.length() != 0)
+			sparql += "\nGROUP BY" + groupBy;
+		
+		Set<Graph> sources = query.getSources();
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("Sending SPARQL query to '" + sources + " with bindings " + bindings + "\n" + sparql);
+		
+		List<CloseableIteration<BindingSet, QueryEvaluationException>> cursors = sendRequests(sparql, sources, bindings, priority, getDeadline(query));
+		if (cursors.size() == 1)
+			return cursors.get(0);
+		return new UnionIteration<BindingSet, QueryEvaluationException>(cursors);
+	}
+	
 	private CloseableIteration<BindingSet, QueryEvaluationException> sendSparqlQuery(TupleExpr expr, Set<Graph> sources, BindingSet bindings) {
+		return sendSparqlQuery(expr, sources, bindings, 0);
+	}
+	
+	private CloseableIteration<BindingSet, QueryEvaluationException> sendSparqlQuery(TupleExpr expr, Set<Graph> sources, BindingSet bindings, double priority) {
+		return sendSparqlQuery(expr, sources, bindings, priority, -1);
+	}
+	
+	private CloseableIteration<BindingSet, QueryEvaluationException> sendSparqlQuery(TupleExpr expr, Set<Graph> sources, BindingSet bindings, double priority, long limit) {
 		
 		// check if there are any sources to query
 		if (sources.size() == 0) {
@@ -289,23 +828,39 @@ public class FederationEvalStrategy extends EvaluationStrategyImpl {
 		
 		// TODO: need to know actual projection and join variables to reduce transmitted data
 		
+		// a limited query must return distinct results for each source
+		QueryContext context = QueryContext.getContext(expr);
+		if (limit >= 0)
+			return sendQuery("SELECT DISTINCT * WHERE {" + SparqlPrinter.print(expr) + "}\nLIMIT " + limit, sources, bindings, priority, context);
+		return sendQuery("SELECT REDUCED * WHERE {" + SparqlPrinter.print(expr) + "}", sources, bindings, priority, context);
+	}
+	
+	private CloseableIteration<BindingSet, QueryEvaluationException> sendQuery(String query, Set<Graph> sources, BindingSet bindings, double priority, QueryContext context) {
+		return sendQuery(query, sources, bindings, priority, null, context);
+	}
+	
+	/**
+	 * Sends the query to all sources and removes duplicates from the
+	 * combined results. The memory for the duplicate elimination is
+	 * accounted for by the query's memory tracker and the requests must
+	 * be answered before the query's deadline.
+	 */
+	private CloseableIteration<BindingSet, QueryEvaluationException> sendQuery(String query, Set<Graph> sources, BindingSet bindings, double priority,
+			Comparator<BindingSet> order, QueryContext context) {
+		
 		CloseableIteration<BindingSet, QueryEvaluationException> cursor;
-		List<CloseableIteration<BindingSet, QueryEvaluationException>> cursors = new ArrayList<CloseableIteration<BindingSet, QueryEvaluationException>>(sources.size());
-		final String query = "SELECT REDUCED * WHERE {" + SparqlPrinter.print(expr) + "}";
 		
 		if (LOGGER.isDebugEnabled())
 			LOGGER.debug("Sending SPARQL query to '" + sources + " with bindings " + bindings + "\n" + query);
 		
-		for (final Graph rep : sources) {
-			if (MULTI_THREADED)
-				cursors.add(getMultiThread(rep, query, bindings));
-			else
-				cursors.add(QueryExecutor.eval(rep.toString(), query, bindings));
-		}
-		
+		long deadline = context == null ? 0 : context.getDeadline();
+		List<CloseableIteration<BindingSet, QueryEvaluationException>> cursors = sendRequests(query, sources, bindings, priority, deadline);
 
 		// create union if multiple sources are involved
-		if (cursors.size() > 1) {
+		// (or merge the sorted results, which removes duplicates)
+		if (order != null) {
+			return new SortedMergeCursor(cursors, order);
+		} else if (cursors.size() > 1) {
 //			cursor = new UnionCursor<BindingSet>(cursors);
 			cursor = new UnionIteration<BindingSet, QueryEvaluationException>(cursors);
 		} else {
@@ -315,27 +870,153 @@ public class FederationEvalStrategy extends EvaluationStrategyImpl {
 		// Filter any duplicates
 //		cursor = new DistinctCursor<BindingSet>(cursor);
 		// TODO: check if this is bad for performance
-		cursor = new DistinctIteration<BindingSet, QueryEvaluationException>(cursor);
+		cursor = new DistinctCursor(cursor, context == null ? null : context.getMemory());
 
 		return cursor;
 		
 	}
 	
+	/**
+	 * Sends the query to each source.
+	 */
+	private List<CloseableIteration<BindingSet, QueryEvaluationException>> sendRequests(String query, Set<Graph> sources, BindingSet bindings, double priority, long deadline) {
+		List<CloseableIteration<BindingSet, QueryEvaluationException>> cursors = new ArrayList<CloseableIteration<BindingSet, QueryEvaluationException>>(sources.size());
+		for (final Graph rep : sources) {
+			if (MULTI_THREADED)
+				cursors.add(getMultiThread(rep, query, bindings, priority, deadline));
+			else
+				cursors.add(QueryExecutor.eval(rep.toString(), query, bindings));
+		}
+		return cursors;
+	}
+	
+	/**
+	 * Returns the deadline of the query which contains the expression.
+	 */
+	private long getDeadline(TupleExpr expr) {
+		QueryContext context = QueryContext.getContext(expr);
+		return context == null ? 0 : context.getDeadline();
+	}
+	
 //	public Cursor<BindingSet> getMultiThread(final Graph source, final String query) {
 	public CloseableIteration<BindingSet, QueryEvaluationException> getMultiThread(final Graph source, final String query, final BindingSet bindings) {
+		return getMultiThread(source, query, bindings, 0, 0);
+	}
+	
+	/**
+	 * Sends the query to the source in a separate thread. An identical
+	 * request which is still running for another query is shared if
+	 * shared requests are enabled. The source must respond before the
+	 * deadline.
+	 */
+	public CloseableIteration<BindingSet, QueryEvaluationException> getMultiThread(final Graph source, final String query, final BindingSet bindings, double priority, long deadline) {
+		if (sharedRequests != null)
+			return sharedRequests.get(source, query, bindings, priority, deadline);
+		return sendRequest(source, query, bindings, priority, deadline);
+	}
+	
+	/**
+	 * Sends the query to the source. In degraded mode a source which is
+	 * unavailable or fails while sending results is skipped with a warning.
+	 * Other errors, e.g. of malformed queries, are passed on.
+	 */
+	private CloseableIteration<BindingSet, QueryEvaluationException> sendRequest(final Graph source, final String query, final BindingSet bindings, double priority, long deadline) {
+		if (!EndpointHealth.isDegradedMode())
+			return send(source, query, bindings, priority, deadline);
+		
+		final CloseableIteration<BindingSet, QueryEvaluationException> result;
+		try {
+			result = send(source, query, bindings, priority, deadline);
+		} catch (RuntimeException e) {
+			if (!EndpointHealth.isUnavailable(source.toString(), e))
+				throw e;
+			LOGGER.warn("ignoring source " + source + ", results may be incomplete: " + e.getMessage());
+			return new EmptyIteration<BindingSet, QueryEvaluationException>();
+		}
+		return new LookAheadIteration<BindingSet, QueryEvaluationException>() {
+			@Override
+			protected BindingSet getNextElement() throws QueryEvaluationException {
+				try {
+					return result.hasNext() ? result.next() : null;
+				} catch (RuntimeException e) {
+					if (!EndpointHealth.isUnavailable(source.toString(), e))
+						throw e;
+					LOGGER.warn("results of source " + source + " are incomplete: " + e.getMessage());
+				} catch (QueryEvaluationException e) {
+					if (!EndpointHealth.isUnavailable(source.toString(), e))
+						throw e;
+					LOGGER.warn("results of source " + source + " are incomplete: " + e.getMessage());
+				}
+				return null;
+			}
+			@Override
+			protected void handleClose() throws QueryEvaluationException {
+				result.close();
+			}
+		};
+	}
+	
+	private CloseableIteration<BindingSet, QueryEvaluationException> send(final Graph source, final String query, final BindingSet bindings,
+			final double priority, final long deadline) {
+		ReplicaGroup replicas = ReplicaGroup.get(source.toString());
+		if (replicas != null)
+			return sendHedgedRequest(replicas, query, bindings, priority, deadline);
+		
+		// asynchronous requests do not need a thread of their own
+		if (QueryExecutor.isAsync(source.toString()))
+			return QueryExecutor.eval(source.toString(), query, bindings, priority, deadline);
+		
+		final AsyncCursor<BindingSet> cursor = new AsyncCursor<BindingSet>();
 //		Callable<Cursor<BindingSet>> callable = new Callable<Cursor<BindingSet>>() {
 		Callable<CloseableIteration<BindingSet, QueryEvaluationException>>  callable = new Callable<CloseableIteration<BindingSet, QueryEvaluationException>>() {
 //			@Override public Cursor<BindingSet> call() {
-			@Override public CloseableIteration<BindingSet, QueryEvaluationException> call() {
+			@Override public CloseableIteration<BindingSet, QueryEvaluationException> call() throws QueryEvaluationException {
 //				return QueryExecutor.evalQuery(repository, query);
-				return QueryExecutor.eval(source.toString(), query, bindings);
+				CloseableIteration<BindingSet, QueryEvaluationException> result = QueryExecutor.eval(source.toString(), query, bindings, priority, deadline);
+				// closing the cursor aborts the request while it waits for the response
+				cursor.setPending(result);
+				// send the request now, the result is evaluated lazily otherwise
+				result.hasNext();
+				// the result is not used if the request was cancelled meanwhile
+				if (Thread.currentThread().isInterrupted())
+					result.close();
+				return result;
 			}
 		};
 //		Future<Cursor<BindingSet>> future = executor.submit(callable);
-		Future<CloseableIteration<BindingSet, QueryEvaluationException>> future = executor.submit(callable);
-		return new AsyncCursor<BindingSet>(future);
+		cursor.setFuture(executor.submit(callable, priority, source.toString()));
+		return cursor;
 	}	
 	
+	/**
+	 * Sends the query to the fastest replica of a source. The request is
+	 * repeated on the next replica if the response takes longer than the
+	 * hedge percentile of the replica's recent response times.
+	 */
+	private CloseableIteration<BindingSet, QueryEvaluationException> sendHedgedRequest(ReplicaGroup replicas, final String query, final BindingSet bindings,
+			final double priority, final long deadline) {
+		List<String> endpoints = replicas.getReplicas();
+		long delay = hedgePercentile == 0 ? -1 : replicas.getPercentile(endpoints.get(0), hedgePercentile);
+		if (delay >= 0)
+			delay = Math.max(delay, minHedgeDelay);
+		
+		HedgedRequest request = new HedgedRequest(replicas, endpoints, delay) {
+			@Override
+			protected CloseableIteration<BindingSet, QueryEvaluationException> evaluate(String endpoint) throws QueryEvaluationException {
+				CloseableIteration<BindingSet, QueryEvaluationException> result = QueryExecutor.eval(endpoint, query, bindings, priority, deadline);
+				// wait for the response
+				result.hasNext();
+				return result;
+			}
+			@Override
+			protected Future<CloseableIteration<BindingSet, QueryEvaluationException>> submit(
+					Callable<CloseableIteration<BindingSet, QueryEvaluationException>> task, String endpoint) {
+				return executor.submit(task, priority, endpoint);
+			}
+		};
+		return new AsyncCursor<BindingSet>(request.start());
+	}
+	
 //	public Cursor<BindingSet> fetchArgResults(final TupleExpr joinArg, final BindingSet bindings) {
 	public CloseableIteration<BindingSet, QueryEvaluationException>  fetchArgResults(final TupleExpr joinArg, final BindingSet bindings) {
 //		Callable<Cursor<BindingSet>> callable = new Callable<Cursor<BindingSet>>() {
@@ -30,6 +30,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Set;
 
+import org.openrdf.model.Value;
 import org.openrdf.query.Binding;
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.QueryEvaluationException;
@@ -39,6 +40,9 @@ import org.openrdf.query.algebra.evaluation.QueryBindingSet;
  * Hash join on two result sets.
  * First the bindings of the left join argument are put in a hash table.
  * Then the bindings of the right argument are matched.
+ * Bindings with unbound join variables are compatible with any binding
+ * and are checked separately.
+ * The memory of the hash table is accounted for by the query's memory tracker.
  * 
  * @author Olaf Goerlitz
  */
@@ -50,43 +54,52 @@ public class HashJoinCursor extends LookAheadIteration<BindingSet, QueryEvaluati
 	
 	protected Deque<BindingSet> joinedBindings = new ArrayDeque<BindingSet>();
 	protected HashMap<List<Binding>, List<BindingSet>> joinHashMap;
+	protected List<BindingSet> unboundBindings;
+	
+	private final MemoryTracker memory;
+	private long memorySize;
 	
 	private volatile boolean closed;
 	
-	public HashJoinCursor(CloseableIteration<BindingSet, QueryEvaluationException> leftIter, CloseableIteration<BindingSet, QueryEvaluationException> rightIter, Set<String> joinVars)
-		throws QueryEvaluationException {
+	public HashJoinCursor(CloseableIteration<BindingSet, QueryEvaluationException> leftIter, CloseableIteration<BindingSet, QueryEvaluationException> rightIter, Set<String> joinVars,
+			MemoryTracker memory) throws QueryEvaluationException {
 
 		this.leftIter = leftIter;
 		this.rightIter = rightIter;
 		this.joinBindingNames = new ArrayList<String>(joinVars);
+		this.memory = memory;
 	}
 	
-	private void buildHashMap() {
+	private void buildHashMap() throws QueryEvaluationException {
 		
-		try {
-			this.joinHashMap = new HashMap<List<Binding>, List<BindingSet>>();
+		this.joinHashMap = new HashMap<List<Binding>, List<BindingSet>>();
+		this.unboundBindings = new ArrayList<BindingSet>();
+		
+		// populate hash map with left side results
+		while (!closed && leftIter.hasNext()) {
+			BindingSet next = leftIter.next();
 			
-			// populate hash map with left side results
-			while (!closed && leftIter.hasNext()) {
-				BindingSet next = leftIter.next();
-				
-				// compile join bindings of current binding set
-				// (cross product will result in empty bindings list)
-				List<Binding> joinBindings = new ArrayList<Binding>();
-				for (String bindingName : this.joinBindingNames) {
-					joinBindings.add(next.getBinding(bindingName));
-				}
+			if (memory != null) {
+				long bytes = MemoryTracker.sizeOf(next);
+				memory.reserve(bytes);
+				memorySize += bytes;
+			}
+			
+			// compile join bindings of current binding set
+			// (cross product will result in empty bindings list)
+			List<Binding> joinBindings = getJoinBindings(next);
+			if (joinBindings == null) {
+				unboundBindings.add(next);
+				continue;
+			}
 
-				// add join bindings to hash map
-				List<BindingSet> bindings = joinHashMap.get(joinBindings);
-				if (bindings == null) {
-					bindings = new ArrayList<BindingSet>();
-					joinHashMap.put(joinBindings, bindings);
-				}
-				bindings.add(next);
+			// add join bindings to hash map
+			List<BindingSet> bindings = joinHashMap.get(joinBindings);
+			if (bindings == null) {
+				bindings = new ArrayList<BindingSet>();
+				joinHashMap.put(joinBindings, bindings);
 			}
-		} catch (QueryEvaluationException e) {
-			e.printStackTrace();
+			bindings.add(next);
 		}
 	}
 	
@@ -98,8 +111,13 @@ public class HashJoinCursor extends LookAheadIteration<BindingSet, QueryEvaluati
 		closed = true;
 
 		// close left side cursor
-		leftIter.close();
-		rightIter.close();
+		try {
+			leftIter.close();
+			rightIter.close();
+		} finally {
+			if (memory != null)
+				memory.release(memorySize);
+		}
 	}
 
 	@Override
@@ -112,39 +130,68 @@ public class HashJoinCursor extends LookAheadIteration<BindingSet, QueryEvaluati
 		if (joinedBindings.size() != 0)
 			return joinedBindings.remove();
 		
-		if (!rightIter.hasNext())
-			return null;
-		
 		// or generate next join bindings
 		// get next original binding set until join partner is found
-		List<BindingSet> bindings = null;
-		BindingSet next = null;
-
-		while (bindings == null) {
+		while (joinedBindings.size() == 0) {
 
 			if (!rightIter.hasNext())
 				return null;
 
-			next = rightIter.next();
+			BindingSet next = rightIter.next();
 			
-			// compile join bindings of current binding set
-			// (cross product will result in empty bindings list)
-			List<Binding> joinBindings = new ArrayList<Binding>();
-			for (String bindingName : this.joinBindingNames) {
-				joinBindings.add(next.getBinding(bindingName));
+			List<Binding> joinBindings = getJoinBindings(next);
+			if (joinBindings == null) {
+				// compare with all left bindings
+				for (List<BindingSet> bindings : joinHashMap.values()) {
+					join(next, bindings, true);
+				}
+			} else {
+				List<BindingSet> bindings = joinHashMap.get(joinBindings);
+				if (bindings != null)
+					join(next, bindings, false);
 			}
-			
-			bindings = joinHashMap.get(joinBindings);
-		}			
+			join(next, unboundBindings, true);
+		}
 		
-		// create all join combinations
+		return joinedBindings.remove();
+	}
+	
+	/**
+	 * Creates all join combinations of the right binding with the left
+	 * bindings, which are checked for compatibility if requested.
+	 */
+	private void join(BindingSet next, List<BindingSet> bindings, boolean check) {
 		for (BindingSet binding : bindings) {
+			if (check && !isCompatible(next, binding))
+				continue;
 			QueryBindingSet set = new QueryBindingSet(next);
 			set.addAll(binding);
 			joinedBindings.add(set);
 		}
-		
-		return joinedBindings.remove();
+	}
+	
+	private boolean isCompatible(BindingSet left, BindingSet right) {
+		for (String name : joinBindingNames) {
+			Value value = left.getValue(name);
+			if (value != null && right.hasBinding(name) && !value.equals(right.getValue(name)))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the bindings of the join variables or null if any of them
+	 * is unbound.
+	 */
+	private List<Binding> getJoinBindings(BindingSet bindings) {
+		List<Binding> joinBindings = new ArrayList<Binding>(joinBindingNames.size());
+		for (String bindingName : joinBindingNames) {
+			Binding binding = bindings.getBinding(bindingName);
+			if (binding == null)
+				return null;
+			joinBindings.add(binding);
+		}
+		return joinBindings;
 	}
 
 }
@@ -0,0 +1,223 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.LookAheadIteration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.evaluation.EvaluationStrategy;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.openrdf.query.algebra.evaluation.ValueExprEvaluationException;
+
+/**
+ * Hash left join (OPTIONAL) on two result sets.
+ * First the bindings of the optional (right) join argument are put in a
+ * hash table. Then the bindings of the left argument are matched and
+ * returned unchanged if there is no matching optional binding.
+ * 
+ * Optional bindings with unbound join variables are compatible with
+ * any left binding and are checked separately, as are left bindings
+ * with unbound join variables.
+ * The memory of the hash table is accounted for by the query's memory tracker.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class HashLeftJoinCursor extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+	
+	private final EvaluationStrategy strategy;
+	private final CloseableIteration<BindingSet, QueryEvaluationException> leftIter;
+	private final CloseableIteration<BindingSet, QueryEvaluationException> rightIter;
+	private final List<String> joinBindingNames;
+	private final ValueExpr condition;
+	
+	private Deque<BindingSet> joinedBindings = new ArrayDeque<BindingSet>();
+	private Map<List<Value>, List<BindingSet>> joinHashMap;
+	private List<BindingSet> unboundBindings;
+	
+	private final MemoryTracker memory;
+	private long memorySize;
+	
+	/**
+	 * Creates a hash left join for the two result sets.
+	 * 
+	 * @param strategy the evaluation strategy for the join condition.
+	 * @param leftIter the left bindings.
+	 * @param rightIter the optional bindings.
+	 * @param joinVars the variables of both join arguments.
+	 * @param condition the join condition or null.
+	 * @param memory the memory tracker of the query or null.
+	 */
+	public HashLeftJoinCursor(EvaluationStrategy strategy, CloseableIteration<BindingSet, QueryEvaluationException> leftIter,
+			CloseableIteration<BindingSet, QueryEvaluationException> rightIter, Set<String> joinVars, ValueExpr condition, MemoryTracker memory) {
+		this.strategy = strategy;
+		this.leftIter = leftIter;
+		this.rightIter = rightIter;
+		this.joinBindingNames = new ArrayList<String>(joinVars);
+		this.condition = condition;
+		this.memory = memory;
+	}
+	
+	@Override
+	protected BindingSet getNextElement() throws QueryEvaluationException {
+		
+		if (joinHashMap == null)
+			buildHashMap();
+		
+		while (joinedBindings.size() == 0 && !isClosed()) {
+			if (!leftIter.hasNext())
+				return null;
+			join(leftIter.next());
+		}
+		return joinedBindings.poll();
+	}
+	
+	@Override
+	protected void handleClose() throws QueryEvaluationException {
+		try {
+			leftIter.close();
+		} finally {
+			try {
+				rightIter.close();
+			} finally {
+				if (memory != null)
+					memory.release(memorySize);
+			}
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private void buildHashMap() throws QueryEvaluationException {
+		joinHashMap = new HashMap<List<Value>, List<BindingSet>>();
+		unboundBindings = new ArrayList<BindingSet>();
+		
+		try {
+			while (!isClosed() && rightIter.hasNext()) {
+				BindingSet next = rightIter.next();
+				if (memory != null) {
+					long bytes = MemoryTracker.sizeOf(next);
+					memory.reserve(bytes);
+					memorySize += bytes;
+				}
+				List<Value> key = getKey(next);
+				if (key == null) {
+					unboundBindings.add(next);
+					continue;
+				}
+				List<BindingSet> bindings = joinHashMap.get(key);
+				if (bindings == null) {
+					bindings = new ArrayList<BindingSet>();
+					joinHashMap.put(key, bindings);
+				}
+				bindings.add(next);
+			}
+		} finally {
+			rightIter.close();
+		}
+	}
+	
+	/**
+	 * Joins the left binding with all compatible optional bindings which
+	 * satisfy the join condition or returns the left binding otherwise.
+	 */
+	private void join(BindingSet left) throws QueryEvaluationException {
+		boolean matched = false;
+		
+		List<Value> key = getKey(left);
+		if (key == null) {
+			// compare with all optional bindings
+			for (List<BindingSet> bindings : joinHashMap.values()) {
+				matched |= join(left, bindings);
+			}
+		} else {
+			List<BindingSet> bindings = joinHashMap.get(key);
+			if (bindings != null)
+				matched |= join(left, bindings);
+		}
+		matched |= join(left, unboundBindings);
+		
+		if (!matched)
+			joinedBindings.add(left);
+	}
+	
+	private boolean join(BindingSet left, List<BindingSet> bindings) throws QueryEvaluationException {
+		boolean matched = false;
+		for (BindingSet right : bindings) {
+			if (!isCompatible(left, right))
+				continue;
+			QueryBindingSet result = new QueryBindingSet(left);
+			result.addAll(right);
+			if (isTrue(result)) {
+				joinedBindings.add(result);
+				matched = true;
+			}
+		}
+		return matched;
+	}
+	
+	private boolean isTrue(BindingSet bindings) throws QueryEvaluationException {
+		if (condition == null)
+			return true;
+		try {
+			return strategy.isTrue(condition, bindings);
+		} catch (ValueExprEvaluationException e) {
+			// condition failed for the bindings
+			return false;
+		}
+	}
+	
+	private boolean isCompatible(BindingSet left, BindingSet right) {
+		for (String name : joinBindingNames) {
+			Value value = left.getValue(name);
+			if (value != null && right.hasBinding(name) && !value.equals(right.getValue(name)))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the values of the join variables or null if any of them
+	 * is unbound.
+	 */
+	private List<Value> getKey(BindingSet bindings) {
+		List<Value> key = new ArrayList<Value>(joinBindingNames.size());
+		for (String name : joinBindingNames) {
+			Value value = bindings.getValue(name);
+			if (value == null)
+				return null;
+			key.add(value);
+		}
+		return key;
+	}
+
+}
@@ -0,0 +1,254 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import info.aduna.iteration.CloseableIteration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.uni_koblenz.west.splendid.helpers.EndpointHealth;
+import de.uni_koblenz.west.splendid.helpers.ReplicaGroup;
+
+/**
+ * A remote request to a source with several replicas.
+ * 
+ * The request is sent to the fastest replica first. If it has not
+ * responded after the hedge delay, a duplicate request is sent to the next
+ * replica. The first response is used and the other request is cancelled.
+ * If a request fails, the failure is recorded for the replica and the
+ * next replica is tried immediately.
+ * 
+ * @author Olaf Goerlitz
+ */
+public abstract class HedgedRequest implements Future<CloseableIteration<BindingSet, QueryEvaluationException>> {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(HedgedRequest.class);
+	
+	private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "hedged request timer");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	
+	private final ReplicaGroup group;
+	private final List<String> replicas;
+	private final long hedgeDelay;
+	
+	private final List<Future<CloseableIteration<BindingSet, QueryEvaluationException>>> attempts = new ArrayList<Future<CloseableIteration<BindingSet, QueryEvaluationException>>>();
+	private int failed;
+	private boolean done;
+	private boolean cancelled;
+	private CloseableIteration<BindingSet, QueryEvaluationException> result;
+	private Throwable failure;
+	
+	/**
+	 * Creates a hedged request.
+	 * 
+	 * @param group the replica group which records the response times.
+	 * @param replicas the replicas in the order in which they are tried.
+	 * @param hedgeDelay the time in milliseconds after which the next
+	 *        replica is requested, or -1 for no hedging.
+	 */
+	public HedgedRequest(ReplicaGroup group, List<String> replicas, long hedgeDelay) {
+		if (replicas.isEmpty())
+			throw new IllegalArgumentException("no replica to request");
+		this.group = group;
+		this.replicas = replicas;
+		this.hedgeDelay = hedgeDelay;
+	}
+	
+	/**
+	 * Sends the request to the first replica.
+	 * 
+	 * @return this request.
+	 */
+	public HedgedRequest start() {
+		sendNext();
+		return this;
+	}
+	
+	/**
+	 * Evaluates the query on a replica and waits for the response.
+	 * 
+	 * @param endpoint the URL of the replica.
+	 * @return the result.
+	 */
+	protected abstract CloseableIteration<BindingSet, QueryEvaluationException> evaluate(String endpoint) throws QueryEvaluationException;
+	
+	/**
+	 * Executes the request to a replica in a separate thread.
+	 * 
+	 * @param task the request.
+	 * @param endpoint the URL of the replica.
+	 * @return the future of the request.
+	 */
+	protected abstract Future<CloseableIteration<BindingSet, QueryEvaluationException>> submit(
+			Callable<CloseableIteration<BindingSet, QueryEvaluationException>> task, String endpoint);
+	
+	// -------------------------------------------------------------------------
+	
+	private synchronized void hedge() {
+		if (done || attempts.size() != 1)
+			return;
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("no response from " + replicas.get(0) + " after " + hedgeDelay + "ms, hedging with " + replicas.get(1));
+		sendNext();
+	}
+	
+	private synchronized void sendNext() {
+		final int index = attempts.size();
+		final String endpoint = replicas.get(index);
+		attempts.add(submit(new Callable<CloseableIteration<BindingSet, QueryEvaluationException>>() {
+			@Override
+			public CloseableIteration<BindingSet, QueryEvaluationException> call() throws Exception {
+				// the hedge delay starts when the request is actually sent
+				if (index == 0 && hedgeDelay >= 0 && replicas.size() > 1) {
+					timer.schedule(new Runnable() {
+						@Override
+						public void run() {
+							hedge();
+						}
+					}, hedgeDelay, TimeUnit.MILLISECONDS);
+				}
+				long start = System.currentTimeMillis();
+				CloseableIteration<BindingSet, QueryEvaluationException> response;
+				try {
+					response = evaluate(endpoint);
+				} catch (Exception e) {
+					failed(endpoint, e);
+					throw e;
+				}
+				group.record(endpoint, System.currentTimeMillis() - start);
+				completed(index, response);
+				return response;
+			}
+		}, endpoint));
+	}
+	
+	private void completed(int index, CloseableIteration<BindingSet, QueryEvaluationException> response) throws QueryEvaluationException {
+		synchronized (this) {
+			if (!done) {
+				done = true;
+				result = response;
+				// cancel the other requests
+				for (int i = 0; i < attempts.size(); i++) {
+					if (i != index)
+						attempts.get(i).cancel(true);
+				}
+				notifyAll();
+				return;
+			}
+		}
+		// another replica was faster or the request was cancelled
+		response.close();
+	}
+	
+	private synchronized void failed(String endpoint, Exception e) {
+		LOGGER.debug("request to replica " + endpoint + " failed: " + e.getMessage());
+		failed++;
+		// a cancelled request is not a failure of the replica
+		if (done)
+			return;
+		if (EndpointHealth.isFailure(e))
+			group.recordFailure(endpoint);
+		if (attempts.size() < replicas.size()) {
+			// fail over to the next replica
+			sendNext();
+		} else if (failed == attempts.size()) {
+			done = true;
+			failure = e;
+			notifyAll();
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	@Override
+	public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+		if (done)
+			return false;
+		done = true;
+		cancelled = true;
+		for (Future<?> attempt : attempts) {
+			attempt.cancel(mayInterruptIfRunning);
+		}
+		notifyAll();
+		return true;
+	}
+	
+	@Override
+	public synchronized boolean isCancelled() {
+		return cancelled;
+	}
+	
+	@Override
+	public synchronized boolean isDone() {
+		return done;
+	}
+	
+	@Override
+	public synchronized CloseableIteration<BindingSet, QueryEvaluationException> get() throws InterruptedException, ExecutionException {
+		while (!done) {
+			wait();
+		}
+		return getResult();
+	}
+	
+	@Override
+	public synchronized CloseableIteration<BindingSet, QueryEvaluationException> get(long timeout, TimeUnit unit)
+			throws InterruptedException, ExecutionException, TimeoutException {
+		long end = System.currentTimeMillis() + unit.toMillis(timeout);
+		while (!done) {
+			long remaining = end - System.currentTimeMillis();
+			if (remaining <= 0)
+				throw new TimeoutException();
+			wait(remaining);
+		}
+		return getResult();
+	}
+	
+	private CloseableIteration<BindingSet, QueryEvaluationException> getResult() throws ExecutionException {
+		if (cancelled)
+			throw new CancellationException();
+		if (failure != null)
+			throw new ExecutionException(failure);
+		return result;
+	}
+
+}
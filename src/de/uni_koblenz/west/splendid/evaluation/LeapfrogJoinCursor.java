@@ -0,0 +1,434 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.LookAheadIteration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.evaluation.EvaluationStrategy;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.openrdf.query.algebra.evaluation.ValueExprEvaluationException;
+
+/**
+ * Multiway join of several result sets based on the leapfrog triejoin.
+ * All results are materialized and dictionary encoded first. Then the
+ * join variables are bound one after the other by intersecting the sorted
+ * values of all inputs which contain the variable. No intermediate join
+ * results are created, which bounds the effort for cyclic joins by the
+ * size of the worst case join result.
+ * 
+ * All variables of an input must be bound in each of its results.
+ * The memory of the encoded results is reserved in the query's budget.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class LeapfrogJoinCursor extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+	
+	// rough heap footprint of an encoded row and a dictionary entry
+	private static final int ROW_SIZE = 24;
+	private static final int ENTRY_SIZE = 48;
+	
+	private final List<CloseableIteration<BindingSet, QueryEvaluationException>> inputs;
+	private final List<Set<String>> inputVars;
+	private final BindingSet bindings;
+	private final EvaluationStrategy strategy;
+	private final List<ValueExpr> conditions;
+	private final MemoryTracker memory;
+	private long memorySize;
+	
+	// dictionary encoding of the values
+	private final Map<Value, Integer> valueIds = new HashMap<Value, Integer>();
+	private final List<Value> values = new ArrayList<Value>();
+	
+	// join variables in binding order
+	private String[] vars;
+	
+	// sorted encoded results and the column of each join variable per input
+	private int[][][] tuples;
+	private int[][] columns;
+	
+	// inputs containing the join variable and their positions per depth
+	private int[][] varInputs;
+	private int[][] positions;
+	
+	// result range of each input per depth
+	private int[][] lo;
+	private int[][] hi;
+	
+	private int[] keys;
+	private int depth = -1;
+	private boolean finished;
+	
+	private BindingSet result;
+	private long repeat;
+	
+	/**
+	 * Creates a multiway join for the result sets.
+	 * 
+	 * @param inputs the results of the join arguments.
+	 * @param inputVars the variables of the join arguments.
+	 * @param bindings the input bindings.
+	 * @param strategy the evaluation strategy for the filter conditions.
+	 * @param conditions the filter conditions to apply on the join results.
+	 * @param memory the memory tracker of the query or null.
+	 */
+	public LeapfrogJoinCursor(List<CloseableIteration<BindingSet, QueryEvaluationException>> inputs, List<Set<String>> inputVars,
+			BindingSet bindings, EvaluationStrategy strategy, List<ValueExpr> conditions, MemoryTracker memory) {
+		if (inputs.size() != inputVars.size())
+			throw new IllegalArgumentException("need the variables of each join input");
+		this.inputs = inputs;
+		this.inputVars = inputVars;
+		this.bindings = bindings;
+		this.strategy = strategy;
+		this.conditions = conditions;
+		this.memory = memory;
+	}
+	
+	@Override
+	protected BindingSet getNextElement() throws QueryEvaluationException {
+		
+		if (tuples == null)
+			materialize();
+		
+		while (!isClosed()) {
+			if (repeat > 0) {
+				repeat--;
+				return result;
+			}
+			if (!advance())
+				return null;
+			result = createResult();
+			if (isTrue(result))
+				repeat = getMultiplicity();
+		}
+		return null;
+	}
+	
+	@Override
+	protected void handleClose() throws QueryEvaluationException {
+		QueryEvaluationException error = null;
+		for (CloseableIteration<BindingSet, QueryEvaluationException> input : inputs) {
+			try {
+				input.close();
+			} catch (QueryEvaluationException e) {
+				error = e;
+			}
+		}
+		if (memory != null) {
+			memory.release(memorySize);
+			memorySize = 0;
+		}
+		if (error != null)
+			throw error;
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Reads and encodes all input results and sorts them in the order of
+	 * the join variables.
+	 */
+	private void materialize() throws QueryEvaluationException {
+		
+		int inputCount = inputs.size();
+		
+		// bind the variables first which occur in most inputs
+		final Map<String, Integer> varCount = new HashMap<String, Integer>();
+		for (Set<String> names : inputVars) {
+			for (String name : names) {
+				Integer count = varCount.get(name);
+				varCount.put(name, count == null ? 1 : count + 1);
+			}
+		}
+		List<String> varList = new ArrayList<String>(varCount.keySet());
+		Collections.sort(varList, new Comparator<String>() {
+			@Override
+			public int compare(String v1, String v2) {
+				int diff = varCount.get(v2) - varCount.get(v1);
+				return diff != 0 ? diff : v1.compareTo(v2);
+			}
+		});
+		vars = varList.toArray(new String[varList.size()]);
+		
+		// the columns of each input follow the order of the join variables
+		columns = new int[inputCount][vars.length];
+		tuples = new int[inputCount][][];
+		for (int i = 0; i < inputCount; i++) {
+			Arrays.fill(columns[i], -1);
+			List<String> names = new ArrayList<String>();
+			for (int v = 0; v < vars.length; v++) {
+				if (inputVars.get(i).contains(vars[v])) {
+					columns[i][v] = names.size();
+					names.add(vars[v]);
+				}
+			}
+			tuples[i] = encode(inputs.get(i), names);
+		}
+		
+		varInputs = new int[vars.length][];
+		for (int v = 0; v < vars.length; v++) {
+			List<Integer> containing = new ArrayList<Integer>();
+			for (int i = 0; i < inputCount; i++) {
+				if (columns[i][v] >= 0)
+					containing.add(i);
+			}
+			varInputs[v] = new int[containing.size()];
+			for (int j = 0; j < containing.size(); j++) {
+				varInputs[v][j] = containing.get(j);
+			}
+		}
+		
+		positions = new int[vars.length][];
+		for (int v = 0; v < vars.length; v++) {
+			positions[v] = new int[varInputs[v].length];
+		}
+		lo = new int[vars.length + 1][inputCount];
+		hi = new int[vars.length + 1][inputCount];
+		for (int i = 0; i < inputCount; i++) {
+			hi[0][i] = tuples[i].length;
+		}
+		keys = new int[vars.length];
+	}
+	
+	private int[][] encode(CloseableIteration<BindingSet, QueryEvaluationException> input, List<String> names) throws QueryEvaluationException {
+		List<int[]> rows = new ArrayList<int[]>();
+		try {
+			while (!isClosed() && input.hasNext()) {
+				BindingSet next = input.next();
+				int[] row = new int[names.size()];
+				long bytes = ROW_SIZE + 4 * row.length;
+				for (int c = 0; c < row.length; c++) {
+					Value value = next.getValue(names.get(c));
+					if (value == null)
+						throw new QueryEvaluationException("multiway join input has unbound variable ?" + names.get(c));
+					Integer id = valueIds.get(value);
+					if (id == null) {
+						id = values.size();
+						valueIds.put(value, id);
+						values.add(value);
+						bytes += ENTRY_SIZE + MemoryTracker.sizeOf(value);
+					}
+					row[c] = id;
+				}
+				if (memory != null) {
+					memory.reserve(bytes);
+					memorySize += bytes;
+				}
+				rows.add(row);
+			}
+		} finally {
+			input.close();
+		}
+		
+		int[][] sorted = rows.toArray(new int[rows.size()][]);
+		Arrays.sort(sorted, new Comparator<int[]>() {
+			@Override
+			public int compare(int[] r1, int[] r2) {
+				for (int c = 0; c < r1.length; c++) {
+					if (r1[c] != r2[c])
+						return r1[c] < r2[c] ? -1 : 1;
+				}
+				return 0;
+			}
+		});
+		return sorted;
+	}
+	
+	/**
+	 * Moves to the next combination of values of all join variables.
+	 * 
+	 * @return false if there are no more join results.
+	 */
+	private boolean advance() {
+		if (finished)
+			return false;
+		
+		// all inputs are joined by a cross product
+		if (vars.length == 0) {
+			finished = true;
+			return true;
+		}
+		
+		boolean found;
+		if (depth < 0) {
+			depth = 0;
+			found = open(0);
+		} else {
+			found = next(depth);
+		}
+		
+		while (true) {
+			if (found) {
+				narrow(depth);
+				if (depth == vars.length - 1)
+					return true;
+				depth++;
+				found = open(depth);
+			} else {
+				depth--;
+				if (depth < 0) {
+					finished = true;
+					return false;
+				}
+				found = next(depth);
+			}
+		}
+	}
+	
+	/**
+	 * Positions the inputs containing the variable at the start of their
+	 * current range and seeks the first common value.
+	 */
+	private boolean open(int d) {
+		int[] containing = varInputs[d];
+		for (int j = 0; j < containing.length; j++) {
+			int i = containing[j];
+			if (lo[d][i] >= hi[d][i])
+				return false;
+			positions[d][j] = lo[d][i];
+		}
+		return search(d);
+	}
+	
+	/**
+	 * Seeks the next common value after the current one.
+	 */
+	private boolean next(int d) {
+		int i = varInputs[d][0];
+		positions[d][0] = seek(i, columns[i][d], positions[d][0], hi[d][i], keys[d] + 1);
+		if (positions[d][0] >= hi[d][i])
+			return false;
+		return search(d);
+	}
+	
+	/**
+	 * Leapfrogs the inputs containing the variable until all are positioned
+	 * at the same value.
+	 */
+	private boolean search(int d) {
+		int[] containing = varInputs[d];
+		while (true) {
+			int max = Integer.MIN_VALUE;
+			for (int j = 0; j < containing.length; j++) {
+				max = Math.max(max, key(d, j));
+			}
+			boolean equal = true;
+			for (int j = 0; j < containing.length; j++) {
+				int i = containing[j];
+				if (key(d, j) < max) {
+					positions[d][j] = seek(i, columns[i][d], positions[d][j], hi[d][i], max);
+					if (positions[d][j] >= hi[d][i])
+						return false;
+					equal &= key(d, j) == max;
+				}
+			}
+			if (equal) {
+				keys[d] = max;
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Restricts the range of each input to the current value of the variable.
+	 */
+	private void narrow(int d) {
+		for (int i = 0; i < tuples.length; i++) {
+			lo[d + 1][i] = lo[d][i];
+			hi[d + 1][i] = hi[d][i];
+		}
+		int[] containing = varInputs[d];
+		for (int j = 0; j < containing.length; j++) {
+			int i = containing[j];
+			lo[d + 1][i] = positions[d][j];
+			hi[d + 1][i] = seek(i, columns[i][d], positions[d][j], hi[d][i], keys[d] + 1);
+		}
+	}
+	
+	private int key(int d, int j) {
+		int i = varInputs[d][j];
+		return tuples[i][positions[d][j]][columns[i][d]];
+	}
+	
+	/**
+	 * Returns the first position in the range whose value in the column is
+	 * not smaller than the key. The values of the column are sorted within
+	 * the range since all preceding columns have fixed values.
+	 */
+	private int seek(int input, int column, int from, int to, int key) {
+		int[][] rows = tuples[input];
+		while (from < to) {
+			int mid = (from + to) >>> 1;
+			if (rows[mid][column] < key)
+				from = mid + 1;
+			else
+				to = mid;
+		}
+		return from;
+	}
+	
+	private BindingSet createResult() {
+		QueryBindingSet joined = new QueryBindingSet(bindings);
+		for (int d = 0; d < vars.length; d++) {
+			joined.setBinding(vars[d], values.get(keys[d]));
+		}
+		return joined;
+	}
+	
+	/**
+	 * Returns the number of join results with the current values, i.e.
+	 * the product of the number of duplicates in each input.
+	 */
+	private long getMultiplicity() {
+		long count = 1;
+		for (int i = 0; i < tuples.length; i++) {
+			count *= hi[vars.length][i] - lo[vars.length][i];
+		}
+		return count;
+	}
+	
+	private boolean isTrue(BindingSet joined) throws QueryEvaluationException {
+		for (ValueExpr condition : conditions) {
+			try {
+				if (!strategy.isTrue(condition, joined))
+					return false;
+			} catch (ValueExprEvaluationException e) {
+				// condition failed for the bindings
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,68 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.LookAheadIteration;
+
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+
+/**
+ * Returns a limited number of results and closes the underlying results
+ * as soon as the limit is reached. Closing the results stops all remote
+ * requests which are still active for the operator tree.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class LimitCursor extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+	
+	private final CloseableIteration<BindingSet, QueryEvaluationException> iter;
+	private final long limit;
+	
+	private long count;
+	
+	public LimitCursor(CloseableIteration<BindingSet, QueryEvaluationException> iter, long limit) {
+		if (iter == null)
+			throw new IllegalArgumentException("iteration must not be null");
+		this.iter = iter;
+		this.limit = limit;
+	}
+
+	@Override
+	protected BindingSet getNextElement() throws QueryEvaluationException {
+		if (count >= limit || !iter.hasNext()) {
+			iter.close();
+			return null;
+		}
+		
+		BindingSet next = iter.next();
+		if (++count >= limit)
+			iter.close();
+		return next;
+	}
+	
+	@Override
+	protected void handleClose() throws QueryEvaluationException {
+		iter.close();
+	}
+
+}
@@ -0,0 +1,240 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Value;
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Accounts for the memory which a federated query uses for hash tables,
+ * duplicate elimination and result caches. Operators reserve the
+ * estimated size of the bindings they keep and release it when they are
+ * closed. A query is aborted if it exceeds its own limit or if all
+ * queries together exceed the global limit.<br>
+ * 
+ * Memory is taken from the global pool in chunks to avoid contention
+ * between concurrent queries.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class MemoryTracker {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(MemoryTracker.class);
+	
+	private static final long MB = 1024 * 1024;
+	private static final long CHUNK_SIZE = 256 * 1024;
+	
+	// rough heap footprint of the binding set and value objects
+	private static final int BINDING_SET_SIZE = 64;
+	private static final int BINDING_SIZE = 48;
+	private static final int VALUE_SIZE = 40;
+	
+	private static final AtomicLong globalReserved = new AtomicLong();
+	private static volatile long globalLimit = 0;
+	
+	private final long limit;
+	private long used;
+	private long peak;
+	private long reserved;
+	private boolean closed;
+	
+	/**
+	 * Sets the memory limit of all queries together.
+	 * 
+	 * @param maxMemory the global limit in megabytes (0 = no limit).
+	 */
+	public static void configure(int maxMemory) {
+		globalLimit = maxMemory * MB;
+	}
+	
+	/**
+	 * Returns the memory reserved by all running queries.
+	 * 
+	 * @return the reserved memory in bytes.
+	 */
+	public static long getGlobalReserved() {
+		return globalReserved.get();
+	}
+	
+	/**
+	 * Returns the estimated heap size of a binding set.
+	 * 
+	 * @param bindings the binding set.
+	 * @return the estimated size in bytes.
+	 */
+	public static long sizeOf(BindingSet bindings) {
+		long size = BINDING_SET_SIZE;
+		for (Binding binding : bindings) {
+			size += BINDING_SIZE + sizeOf(binding.getValue());
+		}
+		return size;
+	}
+	
+	/**
+	 * Returns the estimated heap size of a list of binding sets.
+	 * 
+	 * @param bindings the binding sets.
+	 * @return the estimated size in bytes.
+	 */
+	public static long sizeOf(Collection<BindingSet> bindings) {
+		long size = BINDING_SET_SIZE;
+		for (BindingSet binding : bindings) {
+			size += sizeOf(binding);
+		}
+		return size;
+	}
+	
+	/**
+	 * Returns the estimated heap size of a value.
+	 * 
+	 * @param value the value.
+	 * @return the estimated size in bytes.
+	 */
+	public static long sizeOf(Value value) {
+		if (value instanceof Literal) {
+			Literal literal = (Literal) value;
+			return 2 * VALUE_SIZE + 2 * literal.getLabel().length() + (literal.getLanguage() == null ? 0 : VALUE_SIZE);
+		}
+		if (value instanceof BNode)
+			return VALUE_SIZE + 2 * ((BNode) value).getID().length();
+		return VALUE_SIZE + 2 * value.stringValue().length();
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Creates a memory tracker for a query.
+	 * 
+	 * @param maxMemory the query's limit in megabytes (0 = no limit).
+	 */
+	public MemoryTracker(int maxMemory) {
+		this.limit = maxMemory * MB;
+	}
+	
+	/**
+	 * Reserves memory for data which the query has to keep.
+	 * 
+	 * @param bytes the estimated size of the data.
+	 * @throws QueryEvaluationException if a memory limit is exceeded.
+	 */
+	public synchronized void reserve(long bytes) throws QueryEvaluationException {
+		if (limit > 0 && used + bytes > limit)
+			throw new QueryEvaluationException("query exceeds its memory limit of " + (limit / MB) + " MB");
+		if (!grant(bytes))
+			throw new QueryEvaluationException("queries exceed the memory limit of " + (globalLimit / MB) + " MB");
+		used += bytes;
+		peak = Math.max(peak, used);
+	}
+	
+	/**
+	 * Reserves memory for data which the query can do without, e.g. cached
+	 * results which can be requested again. Such data may use at most half
+	 * of the query's limit so that it does not crowd out data which the
+	 * query has to keep.
+	 * 
+	 * @param bytes the estimated size of the data.
+	 * @return true if the memory was reserved, false if a limit would be exceeded.
+	 */
+	public synchronized boolean tryReserve(long bytes) {
+		if ((limit > 0 && used + bytes > limit / 2) || !grant(bytes))
+			return false;
+		used += bytes;
+		peak = Math.max(peak, used);
+		return true;
+	}
+	
+	/**
+	 * Releases reserved memory.
+	 * 
+	 * @param bytes the size of the released data.
+	 */
+	public synchronized void release(long bytes) {
+		used = Math.max(0, used - bytes);
+		// keep one chunk for further reservations
+		if (!closed && reserved - used > 2 * CHUNK_SIZE) {
+			long surplus = reserved - used - CHUNK_SIZE;
+			reserved -= surplus;
+			globalReserved.addAndGet(-surplus);
+		}
+	}
+	
+	/**
+	 * Returns the memory used by the query.
+	 * 
+	 * @return the used memory in bytes.
+	 */
+	public synchronized long getUsed() {
+		return used;
+	}
+	
+	/**
+	 * Returns the highest memory usage of the query.
+	 * 
+	 * @return the peak memory usage in bytes.
+	 */
+	public synchronized long getPeak() {
+		return peak;
+	}
+	
+	/**
+	 * Returns all memory of the query to the global pool.
+	 */
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		globalReserved.addAndGet(-reserved);
+		reserved = 0;
+		if (LOGGER.isDebugEnabled() && peak > 0)
+			LOGGER.debug("query used up to " + (peak / 1024) + " KB");
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Takes memory from the global pool if the reserved chunks are used up.
+	 */
+	private boolean grant(long bytes) {
+		if (closed)
+			return true;
+		long missing = used + bytes - reserved;
+		if (missing <= 0)
+			return true;
+		long chunks = ((missing + CHUNK_SIZE - 1) / CHUNK_SIZE) * CHUNK_SIZE;
+		long total = globalReserved.addAndGet(chunks);
+		if (globalLimit > 0 && total > globalLimit) {
+			globalReserved.addAndGet(-chunks);
+			return false;
+		}
+		reserved += chunks;
+		return true;
+	}
+
+}
@@ -0,0 +1,171 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.LookAheadIteration;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.openrdf.query.algebra.evaluation.util.ValueComparator;
+
+/**
+ * Merge join on two result sets which are sorted on the join variable.
+ * Both inputs are read in parallel and only the bindings of the right
+ * argument with the current join value are kept in memory.
+ * 
+ * Bindings with an unbound join variable have no join partner.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class MergeJoinCursor extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+	
+	private final CloseableIteration<BindingSet, QueryEvaluationException> leftIter;
+	private final CloseableIteration<BindingSet, QueryEvaluationException> rightIter;
+	private final String joinVar;
+	private final ValueComparator comparator = new ValueComparator();
+	
+	private Deque<BindingSet> joinedBindings = new ArrayDeque<BindingSet>();
+	
+	// right bindings with the current join value
+	private List<BindingSet> block = new ArrayList<BindingSet>();
+	private Value blockValue;
+	
+	private BindingSet nextRight;
+	private Value lastLeftValue;
+	private Value lastRightValue;
+	
+	/**
+	 * Creates a merge join for the two sorted result sets.
+	 * 
+	 * @param leftIter the left bindings sorted on the join variable.
+	 * @param rightIter the right bindings sorted on the join variable.
+	 * @param joinVar the join variable.
+	 */
+	public MergeJoinCursor(CloseableIteration<BindingSet, QueryEvaluationException> leftIter,
+			CloseableIteration<BindingSet, QueryEvaluationException> rightIter, String joinVar) {
+		this.leftIter = leftIter;
+		this.rightIter = rightIter;
+		this.joinVar = joinVar;
+	}
+	
+	@Override
+	protected BindingSet getNextElement() throws QueryEvaluationException {
+		while (joinedBindings.size() == 0 && !isClosed()) {
+			if (!joinNext())
+				return null;
+		}
+		return joinedBindings.poll();
+	}
+	
+	@Override
+	protected void handleClose() throws QueryEvaluationException {
+		try {
+			leftIter.close();
+		} finally {
+			rightIter.close();
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Joins the next left binding with the matching right bindings.
+	 * 
+	 * @return false if there are no more join results.
+	 */
+	private boolean joinNext() throws QueryEvaluationException {
+		
+		BindingSet left = next(leftIter, true);
+		if (left == null)
+			return false;
+		Value value = left.getValue(joinVar);
+		
+		// the current right bindings may have the same or a greater join value
+		if (blockValue != null) {
+			int cmp = comparator.compare(value, blockValue);
+			if (cmp == 0)
+				join(left);
+			if (cmp <= 0)
+				return true;
+		}
+		
+		// skip right bindings with smaller join values
+		if (nextRight == null)
+			nextRight = next(rightIter, false);
+		while (nextRight != null && comparator.compare(nextRight.getValue(joinVar), value) < 0) {
+			nextRight = next(rightIter, false);
+		}
+		if (nextRight == null)
+			return false;
+		
+		// collect all right bindings with the same join value
+		block.clear();
+		blockValue = nextRight.getValue(joinVar);
+		while (nextRight != null && comparator.compare(nextRight.getValue(joinVar), blockValue) == 0) {
+			block.add(nextRight);
+			nextRight = next(rightIter, false);
+		}
+		
+		if (comparator.compare(value, blockValue) == 0)
+			join(left);
+		return true;
+	}
+	
+	private void join(BindingSet left) {
+		for (BindingSet right : block) {
+			QueryBindingSet result = new QueryBindingSet(left);
+			result.addAll(right);
+			joinedBindings.add(result);
+		}
+	}
+	
+	/**
+	 * Returns the next binding with a bound join variable and checks
+	 * that the bindings are sorted on the join variable.
+	 */
+	private BindingSet next(CloseableIteration<BindingSet, QueryEvaluationException> iter, boolean isLeft) throws QueryEvaluationException {
+		while (!isClosed() && iter.hasNext()) {
+			BindingSet next = iter.next();
+			Value value = next.getValue(joinVar);
+			if (value == null)
+				continue;
+			
+			Value last = isLeft ? lastLeftValue : lastRightValue;
+			if (last != null && comparator.compare(value, last) < 0)
+				throw new QueryEvaluationException("merge join input is not sorted on ?" + joinVar + ": " + value + " after " + last);
+			if (isLeft)
+				lastLeftValue = value;
+			else
+				lastRightValue = value;
+			return next;
+		}
+		return null;
+	}
+
+}
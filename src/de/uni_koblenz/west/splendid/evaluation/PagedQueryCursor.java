@@ -0,0 +1,184 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.LookAheadIteration;
+
+import java.util.LinkedList;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.helpers.StatementPatternCollector;
+
+import de.uni_koblenz.west.splendid.helpers.SparqlPrinter;
+import de.uni_koblenz.west.splendid.index.Graph;
+
+/**
+ * Retrieves the results of a sub query from a single source in pages.
+ * Each page is a separate remote request with LIMIT and OFFSET over a
+ * stable ORDER BY. A window of pages is requested in parallel and the
+ * pages are returned in order. The retrieval stops with the first page
+ * which is not complete.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class PagedQueryCursor extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+	
+	private final FederationEvalStrategy strategy;
+	private final Graph source;
+	private final String query;
+	private final BindingSet bindings;
+	private final double priority;
+	private final long deadline;
+	private final int pageSize;
+	private final int windowSize;
+	private final long expectedPages;
+	
+	private final LinkedList<CloseableIteration<BindingSet, QueryEvaluationException>> pages = new LinkedList<CloseableIteration<BindingSet, QueryEvaluationException>>();
+	
+	private CloseableIteration<BindingSet, QueryEvaluationException> page;
+	private long nextPage;
+	private int count;
+	private boolean lastPage;
+	
+	/**
+	 * Creates a paged retrieval of the query results.
+	 * 
+	 * @param strategy the evaluation strategy which sends the requests.
+	 * @param source the source to query.
+	 * @param query the query with a stable ORDER BY.
+	 * @param bindings the bindings of the query.
+	 * @param priority the priority of the requests.
+	 * @param deadline the time when the query times out, 0 for none.
+	 * @param pageSize the number of results per page.
+	 * @param windowSize the maximum number of pages requested in parallel.
+	 * @param expectedPages the estimated number of pages.
+	 */
+	public PagedQueryCursor(FederationEvalStrategy strategy, Graph source, String query, BindingSet bindings,
+			double priority, long deadline, int pageSize, int windowSize, long expectedPages) {
+		if (pageSize < 1 || windowSize < 1)
+			throw new IllegalArgumentException("page size and window size must be positive");
+		this.strategy = strategy;
+		this.source = source;
+		this.query = query;
+		this.bindings = bindings;
+		this.priority = priority;
+		this.deadline = deadline;
+		this.pageSize = pageSize;
+		this.windowSize = windowSize;
+		this.expectedPages = expectedPages;
+		requestPages();
+	}
+	
+	/**
+	 * Creates the query for the paged retrieval of the expression's results.
+	 * The ORDER BY covers all variables, including the anonymous variables
+	 * which are not projected, so that the order is stable.
+	 * 
+	 * @param expr the expression to retrieve.
+	 * @return the query or null if the expression has no variables.
+	 */
+	public static String createQuery(TupleExpr expr) {
+		Set<String> varNames = new TreeSet<String>();
+		Set<String> anonNames = new TreeSet<String>();
+		for (StatementPattern pattern : StatementPatternCollector.process(expr)) {
+			for (Var var : pattern.getVarList()) {
+				if (var.hasValue())
+					continue;
+				if (var.isAnonymous())
+					anonNames.add(SparqlPrinter.getAnonymousName(var));
+				else
+					varNames.add(var.getName());
+			}
+		}
+		if (varNames.isEmpty())
+			return null;
+		
+		StringBuffer projection = new StringBuffer();
+		for (String name : varNames) {
+			projection.append(" ?").append(name);
+		}
+		StringBuffer orderBy = new StringBuffer(projection);
+		for (String name : anonNames) {
+			orderBy.append(" ?").append(name);
+		}
+		return "SELECT DISTINCT" + projection + " WHERE {" + SparqlPrinter.print(expr, true) + "}\nORDER BY" + orderBy;
+	}
+	
+	/**
+	 * Fills the window with page requests. Pages beyond the estimated
+	 * number of pages are requested one after the other.
+	 */
+	private void requestPages() {
+		while (pages.size() < windowSize && (nextPage < expectedPages || pages.isEmpty())) {
+			String sparql = query + "\nLIMIT " + pageSize + " OFFSET " + (nextPage * pageSize);
+			pages.add(strategy.getMultiThread(source, sparql, bindings, priority, deadline));
+			nextPage++;
+		}
+	}
+
+	@Override
+	protected BindingSet getNextElement() throws QueryEvaluationException {
+		while (true) {
+			if (page != null) {
+				if (page.hasNext()) {
+					count++;
+					return page.next();
+				}
+				page.close();
+				page = null;
+				
+				// an incomplete page is the last one
+				if (count < pageSize)
+					lastPage = true;
+			}
+			
+			if (lastPage) {
+				closePages();
+				return null;
+			}
+			
+			page = pages.poll();
+			count = 0;
+			requestPages();
+		}
+	}
+	
+	private void closePages() throws QueryEvaluationException {
+		while (!pages.isEmpty()) {
+			pages.poll().close();
+		}
+	}
+	
+	@Override
+	protected void handleClose() throws QueryEvaluationException {
+		if (page != null)
+			page.close();
+		closePages();
+	}
+
+}
@@ -0,0 +1,252 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.openrdf.query.algebra.BinaryTupleOperator;
+import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.LeftJoin;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.UnaryTupleOperator;
+import org.openrdf.query.algebra.helpers.StatementPatternCollector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.uni_koblenz.west.splendid.estimation.ModelEvaluator;
+import de.uni_koblenz.west.splendid.estimation.SPLENDIDCostEstimator;
+import de.uni_koblenz.west.splendid.helpers.OperatorTreePrinter;
+import de.uni_koblenz.west.splendid.index.Graph;
+import de.uni_koblenz.west.splendid.model.BindJoin;
+import de.uni_koblenz.west.splendid.model.HashJoin;
+import de.uni_koblenz.west.splendid.model.HashLeftJoin;
+import de.uni_koblenz.west.splendid.model.MappedStatementPattern;
+import de.uni_koblenz.west.splendid.model.MergeJoin;
+import de.uni_koblenz.west.splendid.model.MultiJoin;
+import de.uni_koblenz.west.splendid.model.RemoteQuery;
+
+/**
+ * Analyzes an optimized query plan and determines the remote sub queries
+ * which do not depend on the results of other sub queries. These sub
+ * queries can be started as soon as the query is evaluated.
+ * 
+ * The right argument of a bind join (and of a left join) depends on the
+ * bindings of the left argument. Hence, its sub queries are not independent.
+ * Instead, their cost adds to the critical path of the sub queries in the
+ * left argument which is used as scheduling priority. The same applies to
+ * the larger argument of a hash join which is reduced by a semi-join with
+ * the join values of the smaller argument.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class PlanScheduler {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(PlanScheduler.class);
+	
+	private static final double DEFAULT_CARD = 1000;
+	
+	private final ModelEvaluator cardEstimator;
+	
+	private final boolean semiJoins;
+	
+	/**
+	 * Creates a new plan scheduler.
+	 * 
+	 * @param cardEstimator the cardinality estimator to use or null if
+	 *        all sub queries should have the same cardinality.
+	 */
+	public PlanScheduler(ModelEvaluator cardEstimator) {
+		this(cardEstimator, false);
+	}
+	
+	/**
+	 * Creates a new plan scheduler.
+	 * 
+	 * @param cardEstimator the cardinality estimator to use or null if
+	 *        all sub queries should have the same cardinality.
+	 * @param semiJoins whether hash joins with a remote argument are
+	 *        evaluated as semi-joins.
+	 */
+	public PlanScheduler(ModelEvaluator cardEstimator, boolean semiJoins) {
+		this.cardEstimator = cardEstimator;
+		this.semiJoins = semiJoins;
+	}
+	
+	/**
+	 * Returns all independent sub queries of the query plan, ordered by
+	 * their critical path cost (highest first). The priority of all remote
+	 * sub queries is stored in the query context.
+	 * 
+	 * @param plan the query plan.
+	 * @param context the query context.
+	 * @return the independent sub queries.
+	 */
+	public List<TupleExpr> schedule(TupleExpr plan, final QueryContext context) {
+		
+		List<TupleExpr> units = new ArrayList<TupleExpr>();
+		collect(plan, 0, true, units, context);
+		
+		Collections.sort(units, new Comparator<TupleExpr>() {
+			@Override
+			public int compare(TupleExpr expr1, TupleExpr expr2) {
+				return Double.compare(context.getPriority(expr2), context.getPriority(expr1));
+			}
+		});
+		
+		if (LOGGER.isDebugEnabled()) {
+			for (TupleExpr unit : units)
+				LOGGER.debug("scheduled sub query (priority " + context.getPriority(unit) + "):\n" + OperatorTreePrinter.print(unit));
+		}
+		
+		return units;
+	}
+	
+	/**
+	 * Checks if a (hash) join is evaluated as a single remote query.
+	 * 
+	 * @param join the join.
+	 * @return true if all patterns of the join have the same single source.
+	 */
+	public static boolean isSingleSourceJoin(HashJoin join) {
+		Set<Graph> sources = new HashSet<Graph>();
+		for (StatementPattern pattern : StatementPatternCollector.process(join)) {
+			if (!(pattern instanceof MappedStatementPattern))
+				return false;
+			sources.addAll(((MappedStatementPattern) pattern).getSources());
+		}
+		return sources.size() == 1;
+	}
+	
+	/**
+	 * Returns the argument of a hash join which is reduced by a semi-join.
+	 * A remote argument is reduced with the join values of the other
+	 * argument. If both arguments are remote the larger one is reduced.
+	 * 
+	 * @param join the join.
+	 * @return the reduced argument or null if no semi-join is applied.
+	 */
+	public TupleExpr getSemiJoinReducedArg(HashJoin join) {
+		if (!semiJoins)
+			return null;
+		boolean leftRemote = isRemoteUnit(join.getLeftArg());
+		boolean rightRemote = isRemoteUnit(join.getRightArg());
+		if (!leftRemote && !rightRemote)
+			return null;
+		if (rightRemote && (!leftRemote || getCardinality(join.getLeftArg()) <= getCardinality(join.getRightArg())))
+			return join.getRightArg();
+		return join.getLeftArg();
+	}
+	
+	private static boolean isRemoteUnit(TupleExpr expr) {
+		return expr instanceof RemoteQuery || (expr instanceof HashJoin && isSingleSourceJoin((HashJoin) expr));
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Traverses the plan and collects the remote sub queries.
+	 * 
+	 * @param expr the current plan node.
+	 * @param waiting the cost of operations waiting for the node's results.
+	 * @param independent whether the node can be evaluated immediately.
+	 * @param units the list of independent sub queries.
+	 * @param context the query context.
+	 */
+	private void collect(TupleExpr expr, double waiting, boolean independent, List<TupleExpr> units, QueryContext context) {
+		
+		if (isRemoteUnit(expr)) {
+			context.setPriority(expr, waiting + SPLENDIDCostEstimator.getRemoteQueryCost(getCardinality(expr)));
+			if (independent)
+				units.add(expr);
+			return;
+		}
+		
+		// all arguments of a multiway join are evaluated independently
+		if (expr instanceof MultiJoin) {
+			for (TupleExpr arg : ((MultiJoin) expr).getJoinArgs()) {
+				collect(arg, waiting, independent, units, context);
+			}
+			return;
+		}
+		
+		// the right argument is evaluated for each binding of the left argument
+		// (unless both arguments of a left join are evaluated independently)
+		if (expr instanceof BindJoin || (expr instanceof LeftJoin && !(expr instanceof HashLeftJoin)) || (expr instanceof Join && !(expr instanceof HashJoin) && !(expr instanceof MergeJoin))) {
+			BinaryTupleOperator join = (BinaryTupleOperator) expr;
+			double leftCard = getCardinality(join.getLeftArg());
+			double rightCost = SPLENDIDCostEstimator.getBindJoinCost(leftCard, getCardinality(join));
+			collect(join.getLeftArg(), waiting + rightCost, independent, units, context);
+			collect(join.getRightArg(), waiting, false, units, context);
+			return;
+		}
+		
+		// the reduced argument of a semi-join waits for the join values of the other argument
+		if (expr instanceof HashJoin) {
+			HashJoin join = (HashJoin) expr;
+			TupleExpr reduced = getSemiJoinReducedArg(join);
+			if (reduced != null) {
+				TupleExpr other = (reduced == join.getLeftArg()) ? join.getRightArg() : join.getLeftArg();
+				double reducedCost = SPLENDIDCostEstimator.getRemoteQueryCost(getCardinality(reduced));
+				collect(other, waiting + reducedCost, independent, units, context);
+				collect(reduced, waiting, false, units, context);
+				return;
+			}
+		}
+		
+		if (expr instanceof BinaryTupleOperator) {
+			collect(((BinaryTupleOperator) expr).getLeftArg(), waiting, independent, units, context);
+			collect(((BinaryTupleOperator) expr).getRightArg(), waiting, independent, units, context);
+			return;
+		}
+		
+		if (expr instanceof UnaryTupleOperator) {
+			collect(((UnaryTupleOperator) expr).getArg(), waiting, independent, units, context);
+		}
+	}
+	
+	/**
+	 * Returns the estimated cardinality of the expression or a default
+	 * cardinality if it cannot be estimated.
+	 * 
+	 * @param expr the expression to estimate.
+	 * @return the estimated cardinality.
+	 */
+	public double getCardinality(TupleExpr expr) {
+		if (cardEstimator == null)
+			return DEFAULT_CARD;
+		try {
+			Double card = cardEstimator.process(expr);
+			return card == null ? DEFAULT_CARD : card;
+		} catch (RuntimeException e) {
+			// operator is not supported by the cardinality estimator
+			if (LOGGER.isTraceEnabled())
+				LOGGER.trace("cannot estimate cardinality: " + e.getMessage());
+			return DEFAULT_CARD;
+		}
+	}
+	
+}
@@ -0,0 +1,211 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Executes remote requests with a bounded number of threads.
+ * Waiting tasks are ordered by priority (highest first) and then by
+ * submission order. 
+ * 
+ * Tasks can be assigned to an endpoint in order to limit the number of
+ * concurrent requests per endpoint. Tasks exceeding the limit are held
+ * back until a running task of the same endpoint has finished.
+ * 
+ * The limit only bounds the request starts: a request task returns when
+ * the first result has been received and the rest of the result is read
+ * later by the consumer. Holding the endpoint's slot until the result is
+ * consumed could block a join which reads two results of the same endpoint
+ * at the same time.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class PriorityExecutor extends ThreadPoolExecutor {
+	
+	private static final AtomicInteger POOL_COUNT = new AtomicInteger();
+	
+	private final AtomicLong sequence = new AtomicLong();
+	
+	private final int maxPerEndpoint;
+	private final Map<String, EndpointQueue> endpoints = new HashMap<String, EndpointQueue>();
+	
+	public PriorityExecutor(int maxThreads) {
+		this(maxThreads, 0);
+	}
+	
+	/**
+	 * Creates an executor with a limit for concurrent requests per endpoint.
+	 * 
+	 * @param maxThreads the maximum number of concurrent tasks.
+	 * @param maxPerEndpoint the maximum number of concurrent tasks per
+	 *        endpoint or 0 if there is no limit.
+	 */
+	public PriorityExecutor(int maxThreads, int maxPerEndpoint) {
+		super(maxThreads, maxThreads, 60L, TimeUnit.SECONDS,
+				new PriorityBlockingQueue<Runnable>(), new DaemonThreadFactory());
+		allowCoreThreadTimeOut(true);
+		this.maxPerEndpoint = maxPerEndpoint;
+	}
+	
+	/**
+	 * Submits a task with the supplied priority.
+	 * 
+	 * @param task the task to execute.
+	 * @param priority the task priority, higher values are executed first.
+	 * @return the future of the task.
+	 */
+	public <T> Future<T> submit(Callable<T> task, double priority) {
+		if (task == null)
+			throw new NullPointerException();
+		PriorityTask<T> future = new PriorityTask<T>(task, priority, sequence.getAndIncrement());
+		execute(future);
+		return future;
+	}
+	
+	/**
+	 * Submits a task for an endpoint with the supplied priority.
+	 * The task is held back if the endpoint's limit of concurrent
+	 * tasks is reached.
+	 * 
+	 * @param task the task to execute.
+	 * @param priority the task priority, higher values are executed first.
+	 * @param endpoint the endpoint which is accessed by the task.
+	 * @return the future of the task.
+	 */
+	public <T> Future<T> submit(Callable<T> task, double priority, String endpoint) {
+		if (task == null)
+			throw new NullPointerException();
+		if (maxPerEndpoint <= 0 || endpoint == null)
+			return submit(task, priority);
+		
+		PriorityTask<T> future = new PriorityTask<T>(task, priority, sequence.getAndIncrement());
+		future.endpoint = endpoint;
+		synchronized (endpoints) {
+			EndpointQueue queue = endpoints.get(endpoint);
+			if (queue == null) {
+				queue = new EndpointQueue();
+				endpoints.put(endpoint, queue);
+			}
+			if (queue.running >= maxPerEndpoint) {
+				queue.waiting.add(future);
+				return future;
+			}
+			queue.running++;
+		}
+		execute(future);
+		return future;
+	}
+	
+	/**
+	 * Starts the next waiting task of the endpoint when a task has finished,
+	 * i.e. the request has been sent and its first result was received.
+	 */
+	@Override
+	protected void afterExecute(Runnable r, Throwable t) {
+		super.afterExecute(r, t);
+		if (!(r instanceof PriorityTask) || ((PriorityTask<?>) r).endpoint == null)
+			return;
+		
+		String endpoint = ((PriorityTask<?>) r).endpoint;
+		PriorityTask<?> next;
+		synchronized (endpoints) {
+			EndpointQueue queue = endpoints.get(endpoint);
+			next = queue.waiting.poll();
+			if (next == null) {
+				if (--queue.running == 0)
+					endpoints.remove(endpoint);
+				return;
+			}
+		}
+		execute(next);
+	}
+	
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+		return new PriorityTask<T>(callable, 0, sequence.getAndIncrement());
+	}
+
+	@Override
+	protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+		return new PriorityTask<T>(runnable, value, 0, sequence.getAndIncrement());
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	static class PriorityTask<T> extends FutureTask<T> implements Comparable<PriorityTask<?>> {
+		
+		private final double priority;
+		private final long sequence;
+		private String endpoint;
+		
+		public PriorityTask(Callable<T> callable, double priority, long sequence) {
+			super(callable);
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+		
+		public PriorityTask(Runnable runnable, T value, double priority, long sequence) {
+			super(runnable, value);
+			this.priority = priority;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(PriorityTask<?> other) {
+			if (this.priority != other.priority)
+				return this.priority > other.priority ? -1 : 1;
+			return this.sequence < other.sequence ? -1 : (this.sequence == other.sequence ? 0 : 1);
+		}
+	}
+	
+	static class EndpointQueue {
+		
+		int running;
+		final PriorityQueue<PriorityTask<?>> waiting = new PriorityQueue<PriorityTask<?>>();
+	}
+	
+	static class DaemonThreadFactory implements ThreadFactory {
+		
+		private final String prefix = "splendid-" + POOL_COUNT.incrementAndGet() + "-";
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+}
@@ -0,0 +1,334 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import info.aduna.iteration.CloseableIteration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.QueryInterruptedException;
+import org.openrdf.query.algebra.QueryModelNode;
+import org.openrdf.query.algebra.TupleExpr;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the evaluation state of a single federated query, i.e. the
+ * scheduling priorities of the query plan's remote sub queries, the
+ * results of sub queries which have been started in advance, the
+ * memoized results of bind joins, the budgets of remote requests
+ * and memory, and the deadline of the query.
+ * The context is attached to the plan by a {@link FederatedQueryRoot}.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class QueryContext {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(QueryContext.class);
+	
+	private static Timer timer;
+	
+	private final Map<TupleExpr, Double> priorities = new IdentityHashMap<TupleExpr, Double>();
+	private final Map<TupleExpr, Prefetch> prefetched = new IdentityHashMap<TupleExpr, Prefetch>();
+	private final Map<TupleExpr, Map<List<Value>, List<BindingSet>>> resultCaches = new IdentityHashMap<TupleExpr, Map<List<Value>, List<BindingSet>>>();
+	
+	private MemoryTracker memory = new MemoryTracker(0);
+	private int maxRemoteRequests;
+	private int remoteRequests;
+	private long timeout;
+	private long deadline;
+	private TimerTask watchdog;
+	private volatile boolean timedOut;
+	private boolean closed;
+	
+	/**
+	 * Returns the context of the query which contains the supplied node.
+	 * 
+	 * @param node a node of the query plan.
+	 * @return the query context or null if the plan has no context attached.
+	 */
+	public static QueryContext getContext(QueryModelNode node) {
+		while (node != null) {
+			if (node instanceof FederatedQueryRoot)
+				return ((FederatedQueryRoot) node).getContext();
+			node = node.getParentNode();
+		}
+		return null;
+	}
+	
+	/**
+	 * Returns the memory tracker of the query which contains the supplied node.
+	 * 
+	 * @param node a node of the query plan.
+	 * @return the memory tracker or null if the plan has no context attached.
+	 */
+	public static MemoryTracker getMemory(QueryModelNode node) {
+		QueryContext context = getContext(node);
+		return context == null ? null : context.getMemory();
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	public synchronized double getPriority(TupleExpr expr) {
+		Double priority = priorities.get(expr);
+		return priority == null ? 0 : priority;
+	}
+	
+	public synchronized void setPriority(TupleExpr expr, double priority) {
+		priorities.put(expr, priority);
+	}
+	
+	/**
+	 * Registers the results of a sub query which was started in advance.
+	 * 
+	 * @param expr the sub query.
+	 * @param bindings the bindings used for evaluating the sub query.
+	 * @param result the sub query results.
+	 */
+	public void addPrefetched(TupleExpr expr, BindingSet bindings, CloseableIteration<BindingSet, QueryEvaluationException> result) {
+		synchronized (this) {
+			if (!closed) {
+				prefetched.put(expr, new Prefetch(bindings, result));
+				return;
+			}
+		}
+		close(result);
+	}
+	
+	/**
+	 * Returns the results of a sub query which was started in advance.
+	 * The results can be taken only once.
+	 * 
+	 * @param expr the sub query.
+	 * @param bindings the bindings to use for evaluating the sub query.
+	 * @return the sub query results or null if there are no matching results.
+	 */
+	public synchronized CloseableIteration<BindingSet, QueryEvaluationException> takePrefetched(TupleExpr expr, BindingSet bindings) {
+		Prefetch prefetch = prefetched.get(expr);
+		if (prefetch == null || !prefetch.bindings.equals(bindings))
+			return null;
+		prefetched.remove(expr);
+		return prefetch.result;
+	}
+	
+	/**
+	 * Returns the result cache for the bind join argument. All evaluations
+	 * of the same argument within the query share the cache. The cache is
+	 * synchronized since the evaluations may run in different threads.
+	 * 
+	 * @param expr the bind join argument.
+	 * @param maxSize the maximum number of cached join values.
+	 * @return the result cache or null if the size is not positive.
+	 */
+	public synchronized Map<List<Value>, List<BindingSet>> getResultCache(TupleExpr expr, int maxSize) {
+		if (!resultCaches.containsKey(expr)) {
+			Map<List<Value>, List<BindingSet>> cache = BindJoinCursor.createCache(maxSize, memory);
+			resultCaches.put(expr, cache == null ? null : Collections.synchronizedMap(cache));
+		}
+		return resultCaches.get(expr);
+	}
+	
+	/**
+	 * Sets the maximum number of remote requests of the query.
+	 * 
+	 * @param maxRemoteRequests the maximum number of requests or 0 for no limit.
+	 */
+	public synchronized void setMaxRemoteRequests(int maxRemoteRequests) {
+		this.maxRemoteRequests = maxRemoteRequests;
+	}
+	
+	/**
+	 * Counts remote requests against the budget of the query.
+	 * 
+	 * @param count the number of requests to be sent.
+	 * @throws QueryEvaluationException if the budget is exceeded or the
+	 *         query has timed out.
+	 */
+	public synchronized void addRemoteRequests(int count) throws QueryEvaluationException {
+		checkDeadline();
+		remoteRequests += count;
+		if (maxRemoteRequests > 0 && remoteRequests > maxRemoteRequests)
+			throw new QueryEvaluationException("query exceeds its budget of " + maxRemoteRequests + " remote requests");
+	}
+	
+	public synchronized int getRemoteRequests() {
+		return remoteRequests;
+	}
+	
+	/**
+	 * Sets the memory limit of the query. Must be called before the
+	 * evaluation starts.
+	 * 
+	 * @param maxMemory the limit in megabytes or 0 for no limit.
+	 */
+	public synchronized void setMaxMemory(int maxMemory) {
+		memory = new MemoryTracker(maxMemory);
+	}
+	
+	public synchronized MemoryTracker getMemory() {
+		return memory;
+	}
+	
+	/**
+	 * Sets the timeout of the query. The deadline starts immediately,
+	 * i.e. source selection and optimization count towards the timeout.
+	 * 
+	 * @param timeout the timeout in milliseconds or 0 for no timeout.
+	 */
+	public synchronized void setTimeout(long timeout) {
+		this.timeout = timeout;
+		this.deadline = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+	}
+	
+	public synchronized long getTimeout() {
+		return timeout;
+	}
+	
+	/**
+	 * Returns the time when the query times out. Remote requests must be
+	 * answered before the deadline.
+	 * 
+	 * @return the deadline in milliseconds or 0 if the query has no timeout.
+	 */
+	public synchronized long getDeadline() {
+		return deadline;
+	}
+	
+	/**
+	 * Returns the time left until the query times out.
+	 * 
+	 * @return the remaining time in milliseconds, 0 if the query has
+	 *         timed out, or -1 if the query has no timeout.
+	 */
+	public synchronized long getRemainingTime() {
+		if (deadline == 0)
+			return -1;
+		return Math.max(0, deadline - System.currentTimeMillis());
+	}
+	
+	public boolean isExpired() {
+		return getRemainingTime() == 0;
+	}
+	
+	/**
+	 * Checks if the evaluation of the query was stopped by the timeout.
+	 * 
+	 * @return true if the query results are incomplete.
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+	
+	/**
+	 * Checks if the query has timed out before more work is started.
+	 * 
+	 * @throws QueryInterruptedException if the query has timed out.
+	 */
+	public void checkDeadline() throws QueryInterruptedException {
+		if (isExpired()) {
+			timedOut = true;
+			throw new QueryInterruptedException("query timed out after " + getTimeout() + " ms");
+		}
+	}
+	
+	/**
+	 * Closes the query result when the query times out. Closing the result
+	 * cancels all pending sub queries and aborts their remote requests.
+	 * 
+	 * @param result the query result.
+	 */
+	public void closeOnTimeout(final CloseableIteration<?, ? extends Exception> result) {
+		TimerTask task = new TimerTask() {
+			@Override
+			public void run() {
+				LOGGER.debug("query timed out after {} ms", getTimeout());
+				timedOut = true;
+				try {
+					result.close();
+				} catch (Exception e) {
+					LOGGER.warn("failed to close timed out query", e);
+				}
+			}
+		};
+		synchronized (this) {
+			if (deadline == 0 || closed)
+				return;
+			watchdog = task;
+			getTimer().schedule(task, Math.max(0, deadline - System.currentTimeMillis()));
+		}
+	}
+	
+	private static synchronized Timer getTimer() {
+		if (timer == null)
+			timer = new Timer("query-timeout", true);
+		return timer;
+	}
+	
+	/**
+	 * Closes all sub query results which have not been consumed.
+	 */
+	public void close() {
+		List<Prefetch> unused;
+		synchronized (this) {
+			closed = true;
+			if (watchdog != null)
+				watchdog.cancel();
+			unused = new ArrayList<Prefetch>(prefetched.values());
+			prefetched.clear();
+			resultCaches.clear();
+		}
+		for (Prefetch prefetch : unused) {
+			close(prefetch.result);
+		}
+		getMemory().close();
+	}
+	
+	private void close(CloseableIteration<BindingSet, QueryEvaluationException> result) {
+		try {
+			result.close();
+		} catch (QueryEvaluationException e) {
+			LOGGER.warn("failed to close sub query result", e);
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private static class Prefetch {
+		
+		final BindingSet bindings;
+		final CloseableIteration<BindingSet, QueryEvaluationException> result;
+		
+		Prefetch(BindingSet bindings, CloseableIteration<BindingSet, QueryEvaluationException> result) {
+			this.bindings = bindings;
+			this.result = result;
+		}
+	}
+
+}
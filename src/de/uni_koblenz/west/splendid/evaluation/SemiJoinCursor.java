@@ -0,0 +1,267 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
+import info.aduna.iteration.LookAheadIteration;
+import info.aduna.iteration.UnionIteration;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.TupleExpr;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.uni_koblenz.west.splendid.estimation.SPLENDIDCostEstimator;
+import de.uni_koblenz.west.splendid.helpers.SparqlPrinter;
+import de.uni_koblenz.west.splendid.model.HashJoin;
+
+/**
+ * Hash join which reduces the transferred results of one join argument
+ * with the join values of the other join argument (semi-join reduction).
+ * 
+ * The smaller join argument is materialized first. Then its distinct join
+ * values are pushed to the sources of the other join argument as a FILTER
+ * restriction. Large value sets are split into several requests which are
+ * sent in parallel. If the cost model estimates that fetching the complete
+ * join argument is cheaper, no restriction is applied. The materialized
+ * results and join values are reserved in the query's memory budget until
+ * they are handed over to the hash join.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class SemiJoinCursor extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(SemiJoinCursor.class);
+	
+	// rough heap footprint of a join value list in the key set
+	private static final int KEY_SIZE = 64;
+	
+	private final FederationEvalStrategy strategy;
+	private final BindingSet bindings;
+	private final List<String> joinVars;
+	private final int chunkSize;
+	private final MemoryTracker memory;
+	private long memorySize;
+	
+	private final TupleExpr smallArg;
+	private final TupleExpr largeArg;
+	private final double smallCard;
+	private final double largeCard;
+	private final double joinCard;
+	
+	private CloseableIteration<BindingSet, QueryEvaluationException> smallIter;
+	private CloseableIteration<BindingSet, QueryEvaluationException> joinIter;
+	
+	/**
+	 * Creates a semi-join which reduces the right join argument with the
+	 * join values of the left join argument or vice versa.
+	 * 
+	 * @param strategy the evaluation strategy.
+	 * @param join the join to evaluate.
+	 * @param bindings the input bindings.
+	 * @param reduceRight whether the right join argument is reduced.
+	 * @param chunkSize the maximum number of join values per request.
+	 */
+	public SemiJoinCursor(FederationEvalStrategy strategy, HashJoin join, BindingSet bindings, boolean reduceRight, int chunkSize)
+			throws QueryEvaluationException {
+		
+		this.strategy = strategy;
+		this.bindings = bindings;
+		this.chunkSize = chunkSize;
+		this.memory = QueryContext.getMemory(join);
+		
+		this.smallArg = reduceRight ? join.getLeftArg() : join.getRightArg();
+		this.largeArg = reduceRight ? join.getRightArg() : join.getLeftArg();
+		
+		Set<String> vars = new HashSet<String>(smallArg.getBindingNames());
+		vars.retainAll(largeArg.getBindingNames());
+		this.joinVars = new ArrayList<String>(vars);
+		
+		this.smallCard = strategy.getCardinality(smallArg);
+		this.largeCard = strategy.getCardinality(largeArg);
+		this.joinCard = strategy.getCardinality(join);
+		
+		this.smallIter = strategy.evaluate(smallArg, bindings);
+	}
+	
+	@Override
+	protected BindingSet getNextElement() throws QueryEvaluationException {
+		if (joinIter == null)
+			joinIter = createJoin();
+		if (!isClosed() && joinIter.hasNext())
+			return joinIter.next();
+		return null;
+	}
+	
+	@Override
+	protected void handleClose() throws QueryEvaluationException {
+		try {
+			smallIter.close();
+		} finally {
+			try {
+				if (joinIter != null)
+					joinIter.close();
+			} finally {
+				releaseMemory();
+			}
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private CloseableIteration<BindingSet, QueryEvaluationException> createJoin() throws QueryEvaluationException {
+		
+		// materialize the smaller join argument and collect its join values
+		List<BindingSet> smallResults = new ArrayList<BindingSet>();
+		Set<List<Value>> keys = new LinkedHashSet<List<Value>>();
+		boolean pushable = joinVars.size() != 0;
+		
+		while (!isClosed() && smallIter.hasNext()) {
+			BindingSet next = smallIter.next();
+			reserveMemory(MemoryTracker.sizeOf(next));
+			smallResults.add(next);
+			if (!pushable)
+				continue;
+			List<Value> key = new ArrayList<Value>(joinVars.size());
+			for (String name : joinVars) {
+				Value value = next.getValue(name);
+				// unbound values and blank nodes cannot be used as restriction
+				if (value == null || value instanceof BNode) {
+					pushable = false;
+					break;
+				}
+				key.add(value);
+			}
+			if (pushable && keys.add(key)) {
+				long bytes = KEY_SIZE;
+				for (Value value : key) {
+					bytes += MemoryTracker.sizeOf(value);
+				}
+				reserveMemory(bytes);
+			}
+		}
+		smallIter.close();
+		smallIter = new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(smallResults.iterator());
+		
+		CloseableIteration<BindingSet, QueryEvaluationException> largeIter;
+		if (pushable && isSemiJoinCheaper(smallResults.size(), keys.size())) {
+			largeIter = evaluateReduced(new ArrayList<List<Value>>(keys));
+		} else {
+			largeIter = strategy.evaluate(largeArg, bindings);
+		}
+		
+		CloseableIteration<BindingSet, QueryEvaluationException> result = new HashJoinCursor(smallIter, largeIter, new HashSet<String>(joinVars), QueryContext.getMemory(largeArg));
+		smallIter = new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(new ArrayList<BindingSet>().iterator());
+		// the hash join reserves the memory of the materialized results itself
+		releaseMemory();
+		return result;
+	}
+	
+	private void reserveMemory(long bytes) throws QueryEvaluationException {
+		if (memory != null) {
+			memory.reserve(bytes);
+			memorySize += bytes;
+		}
+	}
+	
+	private void releaseMemory() {
+		if (memory != null) {
+			memory.release(memorySize);
+			memorySize = 0;
+		}
+	}
+	
+	/**
+	 * Compares the cost of fetching the complete join argument with the cost
+	 * of sending the join values and fetching only the matching results.
+	 * The number of matching results is extrapolated from the join
+	 * cardinality and the actual size of the smaller join argument.
+	 */
+	private boolean isSemiJoinCheaper(int smallCount, int keyCount) {
+		double matchCard = Math.min(largeCard, joinCard * smallCount / Math.max(smallCard, 1));
+		double fullCost = SPLENDIDCostEstimator.getRemoteQueryCost(largeCard);
+		double semiJoinCost = SPLENDIDCostEstimator.getSemiJoinCost(keyCount, matchCard, chunkSize);
+		
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("semi-join with " + keyCount + " join values: cost " + semiJoinCost + ", full transfer: cost " + fullCost);
+		
+		return semiJoinCost < fullCost;
+	}
+	
+	@SuppressWarnings("unchecked")
+	private CloseableIteration<BindingSet, QueryEvaluationException> evaluateReduced(List<List<Value>> keys) throws QueryEvaluationException {
+		if (keys.size() == 0)
+			return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(new ArrayList<BindingSet>().iterator());
+		
+		List<CloseableIteration<BindingSet, QueryEvaluationException>> results = new ArrayList<CloseableIteration<BindingSet, QueryEvaluationException>>();
+		for (int i = 0; i < keys.size(); i += chunkSize) {
+			String filter = createFilter(joinVars, keys.subList(i, Math.min(i + chunkSize, keys.size())));
+			results.add(strategy.evaluateFiltered(largeArg, filter, bindings));
+		}
+		return new UnionIteration<BindingSet, QueryEvaluationException>(results);
+	}
+	
+	/**
+	 * Creates a filter expression which matches only the supplied values.
+	 * A single join variable is restricted with IN, multiple join
+	 * variables are restricted with a disjunction of sameTerm conditions.
+	 * 
+	 * @param vars the join variables.
+	 * @param keys the join values (in the order of the join variables).
+	 * @return the filter expression.
+	 */
+	public static String createFilter(List<String> vars, List<List<Value>> keys) {
+		StringBuffer buffer = new StringBuffer();
+		if (vars.size() == 1) {
+			buffer.append("?").append(vars.get(0)).append(" IN (");
+			for (int i = 0; i < keys.size(); i++) {
+				if (i != 0)
+					buffer.append(", ");
+				buffer.append(SparqlPrinter.printValue(keys.get(i).get(0)));
+			}
+			return buffer.append(")").toString();
+		}
+		
+		for (int i = 0; i < keys.size(); i++) {
+			if (i != 0)
+				buffer.append(" || ");
+			buffer.append("(");
+			for (int j = 0; j < vars.size(); j++) {
+				if (j != 0)
+					buffer.append(" && ");
+				buffer.append("sameTerm(?").append(vars.get(j)).append(", ").append(SparqlPrinter.printValue(keys.get(i).get(j))).append(")");
+			}
+			buffer.append(")");
+		}
+		return buffer.toString();
+	}
+
+}
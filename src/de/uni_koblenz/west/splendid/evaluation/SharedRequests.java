@@ -0,0 +1,348 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.LookAheadIteration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.uni_koblenz.west.splendid.index.Graph;
+
+/**
+ * Shares identical remote requests of concurrently running queries.
+ * A request with the same source, query, and bindings as a running
+ * request is not sent again but attached to the running request. The
+ * results of the running request are buffered and replayed to all
+ * attached consumers. Once the buffer exceeds its maximum size, the
+ * request does not accept new consumers and buffered results are
+ * released as soon as all consumers have read them. A request is only
+ * shared with queries which do not time out later than the query which
+ * sent the request.
+ * 
+ * The buffer does not grow beyond its maximum size if a consumer lags
+ * behind. A consumer which has not read any result yet is detached and
+ * sends its own request. Otherwise the leading consumer waits until the
+ * lagging consumers read the buffered results, at most until its
+ * deadline. It does not wait for consumers read by the same thread.
+ * 
+ * @author Olaf Goerlitz
+ */
+public abstract class SharedRequests {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(SharedRequests.class);
+	
+	private final Map<List<Object>, SharedRequest> running = new HashMap<List<Object>, SharedRequest>();
+	private final int bufferSize;
+	
+	/**
+	 * Creates a registry of shared requests.
+	 * 
+	 * @param bufferSize the maximum number of buffered results for replaying
+	 *        a running request to new consumers.
+	 */
+	public SharedRequests(int bufferSize) {
+		if (bufferSize < 1)
+			throw new IllegalArgumentException("buffer size must be positive");
+		this.bufferSize = bufferSize;
+	}
+	
+	/**
+	 * Sends a new remote request.
+	 * 
+	 * @param source the source to query.
+	 * @param query the query to send.
+	 * @param bindings the bindings of the query.
+	 * @param priority the priority of the request.
+	 * @param deadline the time when the query times out, 0 for none.
+	 * @return the request results.
+	 */
+	protected abstract CloseableIteration<BindingSet, QueryEvaluationException> send(Graph source, String query, BindingSet bindings, double priority, long deadline);
+	
+	/**
+	 * Returns the results of the request. The results of an identical
+	 * running request are used if it still accepts new consumers.
+	 * 
+	 * @param source the source to query.
+	 * @param query the query to send.
+	 * @param bindings the bindings of the query.
+	 * @param priority the priority of the request.
+	 * @param deadline the time when the query times out, 0 for none.
+	 * @return the request results.
+	 */
+	public CloseableIteration<BindingSet, QueryEvaluationException> get(Graph source, String query, BindingSet bindings, double priority, long deadline) {
+		List<Object> key = Arrays.<Object>asList(source.toString(), query, bindings);
+		
+		SharedRequest request;
+		synchronized (this) {
+			request = running.get(key);
+		}
+		if (request != null) {
+			CloseableIteration<BindingSet, QueryEvaluationException> consumer = request.attach(deadline);
+			if (consumer != null) {
+				if (LOGGER.isDebugEnabled())
+					LOGGER.debug("attached to running request on " + source + ":\n" + query);
+				return consumer;
+			}
+		}
+		
+		request = new SharedRequest(key, source, priority, send(source, query, bindings, priority, deadline), deadline);
+		synchronized (this) {
+			running.put(key, request);
+		}
+		return request.attach(deadline);
+	}
+	
+	/**
+	 * Returns the number of running requests which accept new consumers.
+	 * 
+	 * @return the number of shareable requests.
+	 */
+	public synchronized int size() {
+		return running.size();
+	}
+	
+	private synchronized void remove(SharedRequest request) {
+		if (running.get(request.key) == request)
+			running.remove(request.key);
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * A running request whose results are read by several consumers.
+	 * The consumer which needs a result that has not been buffered yet
+	 * reads it from the request.
+	 */
+	private class SharedRequest {
+		
+		final List<Object> key;
+		final Graph source;
+		final double priority;
+		final CloseableIteration<BindingSet, QueryEvaluationException> result;
+		final List<Consumer> consumers = new ArrayList<Consumer>();
+		final List<BindingSet> buffer = new ArrayList<BindingSet>();
+		final long deadline;
+		
+		// number of results which have been released from the buffer
+		int offset;
+		boolean shareable = true;
+		boolean exhausted;
+		QueryEvaluationException failure;
+		
+		SharedRequest(List<Object> key, Graph source, double priority, CloseableIteration<BindingSet, QueryEvaluationException> result, long deadline) {
+			this.key = key;
+			this.source = source;
+			this.priority = priority;
+			this.result = result;
+			this.deadline = deadline;
+		}
+		
+		synchronized Consumer attach(long deadline) {
+			if (!shareable)
+				return null;
+			// the request is aborted at its own deadline
+			if (this.deadline > 0 && (deadline == 0 || deadline > this.deadline))
+				return null;
+			Consumer consumer = new Consumer(this, deadline);
+			consumers.add(consumer);
+			return consumer;
+		}
+		
+		/**
+		 * Returns the next result for the consumer or null if there are no
+		 * more results or the consumer has been detached.
+		 */
+		synchronized BindingSet next(Consumer consumer) throws QueryEvaluationException {
+			if (consumer.detached)
+				return null;
+			consumer.reader = Thread.currentThread();
+			while (consumer.position - offset >= buffer.size()) {
+				if (failure != null)
+					throw failure;
+				if (exhausted)
+					return null;
+				if (buffer.size() >= bufferSize && waitForLaggards(consumer))
+					continue;
+				try {
+					if (result.hasNext()) {
+						buffer.add(result.next());
+					} else {
+						exhausted = true;
+						stopSharing();
+						result.close();
+					}
+				} catch (QueryEvaluationException e) {
+					failure = e;
+					stopSharing();
+					result.close();
+				}
+			}
+			BindingSet next = buffer.get(consumer.position - offset);
+			consumer.position++;
+			
+			if (buffer.size() > bufferSize)
+				stopSharing();
+			if (!shareable) {
+				release();
+				notifyAll();
+			}
+			return next;
+		}
+		
+		/**
+		 * Sends the request again for a detached consumer.
+		 */
+		CloseableIteration<BindingSet, QueryEvaluationException> resend(Consumer consumer) {
+			return send(source, (String) key.get(1), (BindingSet) key.get(2), priority, consumer.deadline);
+		}
+		
+		synchronized void close(Consumer consumer) throws QueryEvaluationException {
+			if (!consumers.remove(consumer))
+				return;
+			notifyAll();
+			if (consumers.isEmpty()) {
+				stopSharing();
+				buffer.clear();
+				if (!exhausted)
+					result.close();
+			}
+		}
+		
+		/**
+		 * Makes room in the full buffer before the consumer reads the next
+		 * result of the request. Consumers which have not read any result
+		 * are detached. The consumer waits if other threads still have to
+		 * read the buffered results.
+		 * 
+		 * @return true if the consumer has waited, false if it may read
+		 *         the next result.
+		 */
+		private boolean waitForLaggards(Consumer consumer) {
+			stopSharing();
+			for (Iterator<Consumer> it = consumers.iterator(); it.hasNext(); ) {
+				Consumer other = it.next();
+				if (other.position == 0 && other.reader == null) {
+					other.detached = true;
+					it.remove();
+				}
+			}
+			release();
+			if (buffer.size() < bufferSize)
+				return false;
+			
+			boolean lagging = false;
+			for (Consumer other : consumers) {
+				if (other != consumer && other.position == offset && other.reader != Thread.currentThread())
+					lagging = true;
+			}
+			if (!lagging)
+				return false;
+			
+			long remaining = consumer.deadline > 0 ? consumer.deadline - System.currentTimeMillis() : 0;
+			if (consumer.deadline > 0 && remaining <= 0)
+				return false;
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			return true;
+		}
+		
+		/**
+		 * Removes buffered results which have been read by all consumers.
+		 */
+		private void release() {
+			int min = Integer.MAX_VALUE;
+			for (Consumer consumer : consumers) {
+				min = Math.min(min, consumer.position);
+			}
+			if (min > offset && min != Integer.MAX_VALUE) {
+				buffer.subList(0, Math.min(min - offset, buffer.size())).clear();
+				offset = min;
+			}
+		}
+		
+		private void stopSharing() {
+			if (shareable) {
+				shareable = false;
+				remove(this);
+			}
+		}
+	}
+	
+	/**
+	 * A consumer of a shared request.
+	 */
+	private class Consumer extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+		
+		final SharedRequest request;
+		final long deadline;
+		int position;
+		Thread reader;
+		boolean detached;
+		
+		// the own request of a detached consumer
+		CloseableIteration<BindingSet, QueryEvaluationException> own;
+		
+		Consumer(SharedRequest request, long deadline) {
+			this.request = request;
+			this.deadline = deadline;
+		}
+
+		@Override
+		protected BindingSet getNextElement() throws QueryEvaluationException {
+			if (own == null) {
+				BindingSet next = request.next(this);
+				if (next != null || !isDetached())
+					return next;
+				own = request.resend(this);
+			}
+			return own.hasNext() ? own.next() : null;
+		}
+		
+		@Override
+		protected void handleClose() throws QueryEvaluationException {
+			if (own != null)
+				own.close();
+			request.close(this);
+		}
+		
+		private boolean isDetached() {
+			synchronized (request) {
+				return detached;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.evaluation;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.LookAheadIteration;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+
+/**
+ * Merges sorted results of several sources into a single sorted result
+ * (k-way merge). The next result of each source is kept in a heap.
+ * 
+ * Duplicate results are removed. Since duplicates have equal sort keys,
+ * only the results with the current sort key have to be remembered.
+ * The evaluation fails if the results of a source are not sorted.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class SortedMergeCursor extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+	
+	private final List<CloseableIteration<BindingSet, QueryEvaluationException>> iters;
+	private final PriorityQueue<Head> heap;
+	private final Comparator<BindingSet> comparator;
+	
+	// results with the same sort key as the last result
+	private final Set<BindingSet> group = new HashSet<BindingSet>();
+	private BindingSet last;
+	
+	private boolean initialized;
+	
+	/**
+	 * Creates a merge of the sorted source results.
+	 * 
+	 * @param iters the sorted source results.
+	 * @param comparator the sort order of the source results.
+	 */
+	public SortedMergeCursor(List<CloseableIteration<BindingSet, QueryEvaluationException>> iters, final Comparator<BindingSet> comparator) {
+		if (iters == null || comparator == null)
+			throw new IllegalArgumentException("iterations and comparator must not be null");
+		
+		this.iters = new ArrayList<CloseableIteration<BindingSet, QueryEvaluationException>>(iters);
+		this.comparator = comparator;
+		this.heap = new PriorityQueue<Head>(Math.max(iters.size(), 1), new Comparator<Head>() {
+			@Override
+			public int compare(Head h1, Head h2) {
+				int result = comparator.compare(h1.bindings, h2.bindings);
+				// keep the source order for equal results
+				return result != 0 ? result : h1.index - h2.index;
+			}
+		});
+	}
+
+	@Override
+	protected BindingSet getNextElement() throws QueryEvaluationException {
+		if (!initialized) {
+			initialized = true;
+			for (int i = 0; i < iters.size(); i++) {
+				advance(i, null);
+			}
+		}
+		
+		Head head;
+		while ((head = heap.poll()) != null) {
+			advance(head.index, head.bindings);
+			if (last == null || comparator.compare(last, head.bindings) != 0)
+				group.clear();
+			if (group.add(head.bindings)) {
+				last = head.bindings;
+				return last;
+			}
+		}
+		return null;
+	}
+	
+	@Override
+	protected void handleClose() throws QueryEvaluationException {
+		QueryEvaluationException error = null;
+		for (CloseableIteration<BindingSet, QueryEvaluationException> iter : iters) {
+			try {
+				iter.close();
+			} catch (QueryEvaluationException e) {
+				error = e;
+			}
+		}
+		heap.clear();
+		group.clear();
+		if (error != null)
+			throw error;
+	}
+	
+	/**
+	 * Adds the next result of the source to the heap and checks that the
+	 * results of the source are sorted.
+	 */
+	private void advance(int index, BindingSet previous) throws QueryEvaluationException {
+		CloseableIteration<BindingSet, QueryEvaluationException> iter = iters.get(index);
+		if (!iter.hasNext()) {
+			iter.close();
+			return;
+		}
+		BindingSet next = iter.next();
+		if (previous != null && comparator.compare(previous, next) > 0)
+			throw new QueryEvaluationException("source results are not sorted: " + next + " after " + previous);
+		heap.add(new Head(next, index));
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private static class Head {
+		
+		final BindingSet bindings;
+		final int index;
+		
+		Head(BindingSet bindings, int index) {
+			this.bindings = bindings;
+			this.index = index;
+		}
+	}
+
+}
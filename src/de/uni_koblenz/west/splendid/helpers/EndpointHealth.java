@@ -0,0 +1,241 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.helpers;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The health of a SPARQL endpoint, i.e. its recent error rate and
+ * response time, and a circuit breaker which rejects requests to an
+ * endpoint that failed repeatedly.
+ * 
+ * The circuit opens after a number of consecutive failures. Requests are
+ * rejected immediately while it is open. After the reset timeout a single
+ * trial request is let through; the circuit closes again if it succeeds
+ * and stays open otherwise. Only connection problems and server errors
+ * count as failures, rejected queries do not.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class EndpointHealth {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(EndpointHealth.class);
+	
+	/**
+	 * The state of the circuit breaker.
+	 */
+	public enum State {
+		/** requests are sent */
+		CLOSED,
+		/** requests are rejected */
+		OPEN,
+		/** a trial request is sent */
+		HALF_OPEN
+	}
+	
+	// weight of the latest measurement in the moving averages
+	private static final double ALPHA = 0.2;
+	
+	private static final ConcurrentMap<String, EndpointHealth> endpoints = new ConcurrentHashMap<String, EndpointHealth>();
+	
+	private static volatile int failureThreshold = 5;
+	private static volatile long resetTimeout = 30000;
+	private static volatile boolean degradedMode = false;
+	
+	private final String endpoint;
+	private State state = State.CLOSED;
+	private int failures;
+	private long openedAt;
+	private long trialStartedAt;
+	private double errorRate;
+	private double latency = -1;
+	
+	private EndpointHealth(String endpoint) {
+		this.endpoint = endpoint;
+	}
+	
+	/**
+	 * Configures the circuit breakers of all endpoints.
+	 * 
+	 * @param failureThreshold the number of consecutive failures which
+	 *        open the circuit, 0 if requests are never rejected.
+	 * @param resetTimeout the time in milliseconds before a trial request
+	 *        is sent to an endpoint with an open circuit.
+	 * @param degradedMode true if queries are answered without the
+	 *        endpoints which failed.
+	 */
+	public static void configure(int failureThreshold, long resetTimeout, boolean degradedMode) {
+		if (failureThreshold < 0 || resetTimeout < 0)
+			throw new IllegalArgumentException("failure threshold and reset timeout must not be negative");
+		EndpointHealth.failureThreshold = failureThreshold;
+		EndpointHealth.resetTimeout = resetTimeout;
+		EndpointHealth.degradedMode = degradedMode;
+	}
+	
+	/**
+	 * Checks if queries are answered without the endpoints which failed.
+	 * The results may be incomplete in this case.
+	 * 
+	 * @return true if failed endpoints are ignored.
+	 */
+	public static boolean isDegradedMode() {
+		return degradedMode;
+	}
+	
+	/**
+	 * Returns the health of the endpoint.
+	 * 
+	 * @param endpoint the URL of the SPARQL endpoint.
+	 * @return the health of the endpoint.
+	 */
+	public static EndpointHealth get(String endpoint) {
+		EndpointHealth health = endpoints.get(endpoint);
+		if (health == null) {
+			EndpointHealth created = new EndpointHealth(endpoint);
+			health = endpoints.putIfAbsent(endpoint, created);
+			if (health == null)
+				health = created;
+		}
+		return health;
+	}
+	
+	/**
+	 * Checks if the error is caused by an unavailable or failing endpoint,
+	 * i.e. a network problem or a server error.
+	 * 
+	 * @param error the error of a request.
+	 * @return true if the error is an endpoint failure.
+	 */
+	public static boolean isFailure(Throwable error) {
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			if (cause instanceof IOException)
+				return true;
+			String message = cause.getMessage();
+			if (message != null && message.startsWith("HTTP 5"))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Checks if a request failed because the endpoint is unavailable,
+	 * i.e. the error is an endpoint failure or the request has been
+	 * rejected since the endpoint's circuit is not closed. Other errors,
+	 * like malformed queries, are not caused by the endpoint.
+	 * 
+	 * @param endpoint the URL of the SPARQL endpoint.
+	 * @param error the error of a request.
+	 * @return true if the endpoint is unavailable.
+	 */
+	public static boolean isUnavailable(String endpoint, Throwable error) {
+		return isFailure(error) || get(endpoint).getState() != State.CLOSED;
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Checks if a request may be sent to the endpoint. A trial request
+	 * is granted if the circuit has been open long enough.
+	 * 
+	 * @return true if the request may be sent, false if it is rejected.
+	 */
+	public synchronized boolean allowRequest() {
+		if (state == State.CLOSED || failureThreshold == 0)
+			return true;
+		long now = System.currentTimeMillis();
+		if (state == State.OPEN) {
+			if (now - openedAt < resetTimeout)
+				return false;
+			state = State.HALF_OPEN;
+		}
+		// allow only one trial request, unless it never finished
+		if (trialStartedAt != 0 && now - trialStartedAt < resetTimeout)
+			return false;
+		trialStartedAt = now;
+		return true;
+	}
+	
+	/**
+	 * Records a successful request.
+	 * 
+	 * @param time the response time in milliseconds.
+	 */
+	public synchronized void success(long time) {
+		errorRate = (1 - ALPHA) * errorRate;
+		latency = latency < 0 ? time : ALPHA * time + (1 - ALPHA) * latency;
+		failures = 0;
+		if (state != State.CLOSED) {
+			LOGGER.info("endpoint " + endpoint + " is available again");
+			state = State.CLOSED;
+			trialStartedAt = 0;
+		}
+	}
+	
+	/**
+	 * Records a failed request.
+	 */
+	public synchronized void failure() {
+		errorRate = ALPHA + (1 - ALPHA) * errorRate;
+		failures++;
+		if (failureThreshold == 0)
+			return;
+		if (state == State.HALF_OPEN || (state == State.CLOSED && failures >= failureThreshold)) {
+			if (state == State.CLOSED)
+				LOGGER.warn("endpoint " + endpoint + " failed " + failures + " times, rejecting requests for " + resetTimeout + "ms");
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+			trialStartedAt = 0;
+		}
+	}
+	
+	public synchronized State getState() {
+		return state;
+	}
+	
+	/**
+	 * Returns the moving average of the failed requests.
+	 * 
+	 * @return the error rate (0-1).
+	 */
+	public synchronized double getErrorRate() {
+		return errorRate;
+	}
+	
+	/**
+	 * Returns the moving average of the response times.
+	 * 
+	 * @return the response time in milliseconds or -1 if unknown.
+	 */
+	public synchronized double getLatency() {
+		return latency;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return endpoint + " [" + state + ", error rate " + Math.round(errorRate * 100) + "%, latency " + Math.round(latency) + "ms]";
+	}
+
+}
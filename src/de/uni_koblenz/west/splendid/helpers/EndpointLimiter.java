@@ -0,0 +1,338 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.helpers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Limits the requests which are sent to a SPARQL endpoint.
+ * 
+ * A token bucket limits the request rate to a fixed number of requests
+ * per second with bursts of up to one second. The number of concurrent
+ * requests is adapted to the endpoint's load (AIMD): the limit grows by
+ * one request per round trip while the response times are stable and it
+ * is halved if the endpoint throttles requests (HTTP 429 or 503) or if
+ * the recent response times are much higher than the long-term average.
+ * 
+ * A request holds its permit until the endpoint starts to respond, so
+ * that reading a large result does not block other requests. Requests
+ * which are rejected with HTTP 429 are repeated a few times if the
+ * requests are limited.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class EndpointLimiter {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(EndpointLimiter.class);
+	
+	/**
+	 * The number of times a request is repeated if the endpoint
+	 * rejects it because of too many requests.
+	 */
+	public static final int MAX_RETRIES = 3;
+	
+	// response times above this multiple of the baseline indicate overload
+	private static final double LATENCY_TOLERANCE = 2.0;
+	// response times below this difference to the baseline are just noise
+	private static final long LATENCY_SLACK = 20;
+	// weight of the latest response time in the recent and long-term average
+	private static final double ALPHA = 0.2;
+	private static final double BASELINE_ALPHA = 0.02;
+	private static final int MIN_SAMPLES = 10;
+	private static final long MIN_DECREASE_INTERVAL = 100;
+	
+	private static final ConcurrentMap<String, EndpointLimiter> endpoints = new ConcurrentHashMap<String, EndpointLimiter>();
+	
+	private static volatile int maxRate = 0;
+	private static volatile int maxConcurrency = 32;
+	private static volatile boolean adaptive = false;
+	
+	private final String endpoint;
+	
+	// token bucket
+	private double tokens;
+	private long refilled = System.currentTimeMillis();
+	
+	// adaptive concurrency
+	private double limit = maxConcurrency;
+	private int inFlight;
+	private int samples;
+	private double baseline = -1;
+	private double latency = -1;
+	private long decreased;
+	
+	private EndpointLimiter(String endpoint) {
+		this.endpoint = endpoint;
+		this.tokens = maxRate;
+	}
+	
+	/**
+	 * Configures the limits of all endpoints.
+	 * 
+	 * @param maxRate the maximum number of requests per second, 0 for no limit.
+	 * @param maxConcurrency the upper bound of the concurrent requests.
+	 * @param adaptive true if the concurrent requests are adapted to the endpoint's load.
+	 */
+	public static void configure(int maxRate, int maxConcurrency, boolean adaptive) {
+		if (maxRate < 0 || maxConcurrency < 1)
+			throw new IllegalArgumentException("rate must not be negative and concurrency must be positive");
+		EndpointLimiter.maxRate = maxRate;
+		EndpointLimiter.maxConcurrency = maxConcurrency;
+		EndpointLimiter.adaptive = adaptive;
+		endpoints.clear();
+	}
+	
+	/**
+	 * Returns the limiter of the endpoint.
+	 * 
+	 * @param endpoint the URL of the SPARQL endpoint.
+	 * @return the limiter of the endpoint.
+	 */
+	public static EndpointLimiter get(String endpoint) {
+		EndpointLimiter limiter = endpoints.get(endpoint);
+		if (limiter == null) {
+			EndpointLimiter created = new EndpointLimiter(endpoint);
+			limiter = endpoints.putIfAbsent(endpoint, created);
+			if (limiter == null)
+				limiter = created;
+		}
+		return limiter;
+	}
+	
+	/**
+	 * Checks if the requests to the endpoints are limited.
+	 * 
+	 * @return true if the request rate or concurrency is limited.
+	 */
+	public static boolean isLimited() {
+		return adaptive || maxRate > 0;
+	}
+	
+	/**
+	 * Checks if the error indicates that the endpoint throttles requests.
+	 * 
+	 * @param error the error of a request.
+	 * @return true if the endpoint responded with HTTP 429 or 503.
+	 */
+	public static boolean isThrottled(Throwable error) {
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			String message = cause.getMessage();
+			if (message != null && (message.startsWith("HTTP 429") || message.startsWith("HTTP 503")))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Checks if the request can be repeated because the endpoint rejected
+	 * it due to too many requests.
+	 * 
+	 * @param error the error of a request.
+	 * @return true if the endpoint responded with HTTP 429.
+	 */
+	public static boolean isRetryable(Throwable error) {
+		for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+			String message = cause.getMessage();
+			if (message != null && message.startsWith("HTTP 429"))
+				return true;
+		}
+		return false;
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Waits until a request may be sent to the endpoint.
+	 * The permit has to be released with {@link #release()}.
+	 * 
+	 * @return true if the request may be sent, false if the thread was interrupted.
+	 */
+	public boolean acquire() {
+		return acquire(0, null);
+	}
+	
+	/**
+	 * Waits until a request may be sent to the endpoint, at most until the
+	 * deadline or until the request is cancelled. A cancelled request has
+	 * to call {@link #wakeUp()} to end the wait.
+	 * The permit has to be released with {@link #release()}.
+	 * 
+	 * @param deadline the time in milliseconds when the request times out, 0 for none.
+	 * @param cancelled the flag which is set when the request is cancelled or null.
+	 * @return true if the request may be sent, false if the thread was
+	 *         interrupted, the deadline has passed, or the request was cancelled.
+	 */
+	public boolean acquire(long deadline, AtomicBoolean cancelled) {
+		long wait;
+		synchronized (this) {
+			while (adaptive && inFlight >= (int) limit) {
+				if (cancelled != null && cancelled.get())
+					return false;
+				long remaining = deadline > 0 ? deadline - System.currentTimeMillis() : 0;
+				if (deadline > 0 && remaining <= 0)
+					return false;
+				try {
+					wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+			inFlight++;
+			wait = reserveToken();
+		}
+		if (deadline > 0 && System.currentTimeMillis() + wait > deadline) {
+			release();
+			return false;
+		}
+		if (wait > 0) {
+			try {
+				Thread.sleep(wait);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				release();
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Gets a permit for a request if one is available immediately.
+	 * The permit has to be released with {@link #release()}.
+	 * 
+	 * @return true if the request may be sent, false if it has to wait.
+	 */
+	public synchronized boolean tryAcquire() {
+		if (adaptive && inFlight >= (int) limit)
+			return false;
+		if (maxRate > 0) {
+			refill();
+			if (tokens < 1)
+				return false;
+			tokens--;
+		}
+		inFlight++;
+		return true;
+	}
+	
+	/**
+	 * Wakes up the requests which wait for a permit, so that cancelled
+	 * requests stop waiting.
+	 */
+	public synchronized void wakeUp() {
+		notifyAll();
+	}
+	
+	/**
+	 * Releases the permit of a request.
+	 */
+	public synchronized void release() {
+		inFlight--;
+		notifyAll();
+	}
+	
+	/**
+	 * Records the response time of a request. The concurrency limit grows
+	 * unless the recent response times are much higher than usual.
+	 * Has to be called before the request's permit is released.
+	 * 
+	 * @param time the time in milliseconds until the endpoint responded.
+	 */
+	public synchronized void success(long time) {
+		samples++;
+		latency = latency < 0 ? time : ALPHA * time + (1 - ALPHA) * latency;
+		baseline = baseline < 0 ? time : BASELINE_ALPHA * time + (1 - BASELINE_ALPHA) * baseline;
+		
+		if (samples >= MIN_SAMPLES && latency > LATENCY_TOLERANCE * baseline + LATENCY_SLACK) {
+			decrease("response time increased to " + Math.round(latency) + "ms");
+		} else if (limit < maxConcurrency && inFlight >= (int) limit) {
+			// grow only if the limit is actually reached
+			limit = Math.min(maxConcurrency, limit + 1 / limit);
+			notifyAll();
+		}
+	}
+	
+	/**
+	 * Records that the endpoint rejected a request because of its load.
+	 */
+	public synchronized void throttled() {
+		decrease("requests are throttled");
+	}
+	
+	/**
+	 * Returns the current number of concurrent requests which may be sent.
+	 * 
+	 * @return the concurrency limit.
+	 */
+	public synchronized int getLimit() {
+		return adaptive ? (int) limit : maxConcurrency;
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return endpoint + " [" + inFlight + "/" + getLimit() + " requests]";
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Halves the concurrency limit, at most once per round trip.
+	 * The limit is based on the requests in flight because it may not
+	 * have been reached yet.
+	 */
+	private void decrease(String reason) {
+		if (!adaptive)
+			return;
+		long now = System.currentTimeMillis();
+		if (now - decreased < Math.max(MIN_DECREASE_INTERVAL, latency))
+			return;
+		decreased = now;
+		limit = Math.max(1, Math.min(limit, inFlight) / 2);
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug(reason + " for " + endpoint + ", limiting to " + (int) limit + " concurrent requests");
+	}
+	
+	private void refill() {
+		long now = System.currentTimeMillis();
+		tokens = Math.min(maxRate, tokens + (now - refilled) * maxRate / 1000.0);
+		refilled = now;
+	}
+	
+	/**
+	 * Takes a token and returns the time to wait until it is available.
+	 * Tokens may be reserved in advance so that waiting requests are
+	 * sent in order.
+	 */
+	private long reserveToken() {
+		if (maxRate == 0)
+			return 0;
+		refill();
+		tokens--;
+		return tokens >= 0 ? 0 : (long) Math.ceil(-tokens * 1000 / maxRate);
+	}
+
+}
@@ -0,0 +1,238 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.helpers;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openrdf.OpenRDFException;
+import org.openrdf.model.Literal;
+import org.openrdf.model.Value;
+import org.openrdf.query.TupleQueryResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The SPARQL capabilities of an endpoint which determine how remote
+ * queries are generated for it.
+ * 
+ * Profiles are created by probing an endpoint with small test queries
+ * and are cached per endpoint. Each probe query must be answered within
+ * the probe timeout. Endpoints which have not been probed get a
+ * conservative default profile, i.e. bind join batches use UNIONs,
+ * aggregates are not pushed down and the query length is not limited.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class EndpointProfile {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(EndpointProfile.class);
+	
+	/**
+	 * The syntax for inline data of a query.
+	 */
+	public enum InlineData {
+		/** no inline data */
+		NONE,
+		/** the BINDINGS clause of early SPARQL 1.1 drafts */
+		BINDINGS,
+		/** the VALUES clause of SPARQL 1.1 */
+		VALUES
+	}
+	
+	private static final int[] PROBED_QUERY_LENGTHS = { 16384, 131072 };
+	private static final int MIN_QUERY_LENGTH = 4096;
+	private static final long PROBE_TIMEOUT = 10000;
+	
+	private static final ConcurrentMap<String, EndpointProfile> profiles = new ConcurrentHashMap<String, EndpointProfile>();
+	
+	private final String endpoint;
+	private final boolean probed;
+	private long timeout;
+	private InlineData inlineData = InlineData.NONE;
+	private boolean aggregatesSupported = false;
+	private int maxQueryLength = 0;
+	private long latency = -1;
+	
+	private EndpointProfile(String endpoint, boolean probed) {
+		this.endpoint = endpoint;
+		this.probed = probed;
+	}
+	
+	/**
+	 * Returns the profile of the endpoint.
+	 * 
+	 * @param endpoint the URL of the SPARQL endpoint.
+	 * @return the probed profile or the default profile.
+	 */
+	public static EndpointProfile get(String endpoint) {
+		EndpointProfile profile = profiles.get(endpoint);
+		if (profile == null) {
+			EndpointProfile created = new EndpointProfile(endpoint, false);
+			profile = profiles.putIfAbsent(endpoint, created);
+			if (profile == null)
+				profile = created;
+		}
+		return profile;
+	}
+	
+	/**
+	 * Probes the capabilities of the endpoint and caches its profile.
+	 * Capabilities which cannot be confirmed are not used.
+	 * 
+	 * @param endpoint the URL of the SPARQL endpoint.
+	 * @return the profile of the endpoint.
+	 */
+	public static EndpointProfile probe(String endpoint) {
+		return probe(endpoint, PROBE_TIMEOUT);
+	}
+	
+	/**
+	 * Probes the capabilities of the endpoint and caches its profile.
+	 * A probe query which is not answered within the timeout fails.
+	 * 
+	 * @param endpoint the URL of the SPARQL endpoint.
+	 * @param timeout the timeout of each probe query in milliseconds.
+	 * @return the profile of the endpoint.
+	 */
+	public static EndpointProfile probe(String endpoint, long timeout) {
+		EndpointProfile profile = new EndpointProfile(endpoint, true);
+		profile.timeout = timeout;
+		
+		// the first request also establishes the connection
+		long start = System.currentTimeMillis();
+		if (!profile.test("SELECT * WHERE { }", null)) {
+			LOGGER.warn("cannot probe endpoint " + endpoint + ", using default profile");
+			return get(endpoint);
+		}
+		profile.latency = System.currentTimeMillis() - start;
+		start = System.currentTimeMillis();
+		if (profile.test("SELECT * WHERE { }", null))
+			profile.latency = Math.min(profile.latency, System.currentTimeMillis() - start);
+		
+		if (profile.test("SELECT * WHERE { VALUES (?x) { (\"v\") } }", "x"))
+			profile.inlineData = InlineData.VALUES;
+		else if (profile.test("SELECT * WHERE { }\nBINDINGS ?x { (\"v\") }", "x"))
+			profile.inlineData = InlineData.BINDINGS;
+		
+		profile.aggregatesSupported = profile.test("SELECT (COUNT(*) AS ?x) WHERE { }", "x");
+		
+		int accepted = MIN_QUERY_LENGTH;
+		for (int length : PROBED_QUERY_LENGTHS) {
+			if (!profile.test(pad("SELECT * WHERE { }", length), null)) {
+				profile.maxQueryLength = accepted;
+				break;
+			}
+			accepted = length;
+		}
+		
+		LOGGER.info("probed " + profile);
+		profiles.put(endpoint, profile);
+		return profile;
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	public boolean isProbed() {
+		return this.probed;
+	}
+	
+	/**
+	 * Returns the syntax which the endpoint supports for inline data.
+	 * 
+	 * @return the inline data syntax.
+	 */
+	public InlineData getInlineData() {
+		return this.inlineData;
+	}
+	
+	/**
+	 * Returns whether the endpoint evaluates SPARQL 1.1 aggregates.
+	 * 
+	 * @return true if aggregates are supported.
+	 */
+	public boolean isAggregatesSupported() {
+		return this.aggregatesSupported;
+	}
+	
+	/**
+	 * Returns the maximum length of a query which the endpoint accepts.
+	 * 
+	 * @return the maximum query length or 0 if it is not limited.
+	 */
+	public int getMaxQueryLength() {
+		return this.maxQueryLength;
+	}
+	
+	/**
+	 * Returns the minimal response time of a trivial query.
+	 * 
+	 * @return the latency in milliseconds or -1 if it is unknown.
+	 */
+	public long getLatency() {
+		return this.latency;
+	}
+	
+	@Override
+	public String toString() {
+		return "endpoint profile " + endpoint + " [inline data=" + inlineData + ", aggregates=" + aggregatesSupported
+				+ ", max query length=" + (maxQueryLength == 0 ? "unlimited" : maxQueryLength) + ", latency=" + latency + "ms]";
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Sends the test query and checks that its single result binds the
+	 * expected variable.
+	 */
+	private boolean test(String query, String bindingName) {
+		try {
+			long deadline = System.currentTimeMillis() + timeout;
+			TupleQueryResult result = QueryExecutor.prepareTupleQuery(query, endpoint, null, deadline).evaluate();
+			try {
+				if (!result.hasNext())
+					return false;
+				Value value = bindingName == null ? null : result.next().getValue(bindingName);
+				return bindingName == null || value instanceof Literal;
+			} finally {
+				result.close();
+			}
+		} catch (OpenRDFException e) {
+			LOGGER.debug("probe query failed on " + endpoint + ": " + e.getMessage());
+			return false;
+		} catch (RuntimeException e) {
+			LOGGER.debug("probe query failed on " + endpoint + ": " + e.getMessage());
+			return false;
+		}
+	}
+	
+	/**
+	 * Pads the query with a comment to the specified length.
+	 */
+	private static String pad(String query, int length) {
+		StringBuilder buffer = new StringBuilder(length).append(query).append("\n#");
+		while (buffer.length() < length - 1) {
+			buffer.append('x');
+		}
+		return buffer.append('\n').toString();
+	}
+
+}
@@ -0,0 +1,1117 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.helpers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.openrdf.query.Binding;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQueryResult;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking HTTP client for SPARQL endpoints.
+ * 
+ * A single I/O thread sends all requests and reads all responses with a
+ * NIO selector. The result documents are parsed incrementally as the
+ * bytes arrive and the results are buffered in a stream which is read
+ * by the query operators. If a stream buffers more results than its
+ * capacity, reading from the connection is suspended until the consumer
+ * has taken half of the buffered results (backpressure).
+ * 
+ * Requests to the same endpoint are limited to a maximum number of open
+ * connections, including suspended ones. If requests are waiting and all
+ * connections of the endpoint are suspended, the longest suspended
+ * connection is resumed without backpressure, i.e. unconsumed results
+ * cannot block other requests. Waiting requests are ordered by priority.
+ * Connections are kept alive and reused. Host names are resolved in a
+ * separate thread. Only plain HTTP endpoints are supported.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class NioSparqlClient {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(NioSparqlClient.class);
+	
+	private static final String XML_ACCEPT = SparqlResultReader.getMimeType(SparqlResultReader.XML);
+	private static final long SELECT_TIMEOUT = 100;
+	private static final long IDLE_TIMEOUT = 30000;
+	private static final int MAX_ERROR_LENGTH = 65536;
+	
+	private final int maxConnectionsPerEndpoint;
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final boolean acceptCompression;
+	private final int maxGetQueryLength;
+	private final int bufferSize;
+	private final String accept;
+	
+	private final Selector selector;
+	private final Thread thread;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(32768);
+	private final byte[] inflateBuffer = new byte[65536];
+	
+	// accessed by the I/O thread only
+	private final Map<String, Endpoint> endpoints = new HashMap<String, Endpoint>();
+	private long sequence;
+	
+	private volatile boolean running = true;
+	
+	/**
+	 * Creates a client and starts its I/O thread.
+	 * 
+	 * @param maxConnectionsPerEndpoint the maximum number of open connections per endpoint.
+	 * @param connectTimeout the connect timeout in milliseconds, 0 for no timeout.
+	 * @param readTimeout the read timeout in milliseconds, 0 for no timeout.
+	 * @param acceptCompression true if compressed responses are accepted.
+	 * @param maxGetQueryLength the maximum length of an URL encoded query
+	 *        which is sent with GET, 0 if all queries are sent with POST.
+	 * @param bufferSize the number of results buffered per request.
+	 * @param resultFormats the accepted result formats (xml, json, tsv)
+	 *        in the order of preference.
+	 * @throws IOException if the selector cannot be opened.
+	 */
+	public NioSparqlClient(int maxConnectionsPerEndpoint, int connectTimeout, int readTimeout,
+			boolean acceptCompression, int maxGetQueryLength, int bufferSize, List<String> resultFormats) throws IOException {
+		if (maxConnectionsPerEndpoint < 1 || bufferSize < 1)
+			throw new IllegalArgumentException("connection limit and buffer size must be positive");
+		if (resultFormats.isEmpty())
+			throw new IllegalArgumentException("no result format specified");
+		
+		this.maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.acceptCompression = acceptCompression;
+		this.maxGetQueryLength = maxGetQueryLength;
+		this.bufferSize = bufferSize;
+		
+		// prefer the formats by decreasing quality values
+		StringBuilder accept = new StringBuilder();
+		for (int i = 0; i < resultFormats.size(); i++) {
+			if (i > 0)
+				accept.append(", ");
+			accept.append(SparqlResultReader.getMimeType(resultFormats.get(i)));
+			if (i > 0)
+				accept.append(";q=").append(Math.max(1, 10 - i) / 10.0);
+		}
+		this.accept = accept.toString();
+		
+		this.selector = Selector.open();
+		this.thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				loop();
+			}
+		}, "SPARQL NIO client");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+	
+	/**
+	 * Checks if the endpoint can be accessed by this client.
+	 * 
+	 * @param endpoint the URL of the endpoint.
+	 * @return true if the endpoint uses plain HTTP.
+	 */
+	public static boolean supports(String endpoint) {
+		return endpoint.startsWith("http://");
+	}
+	
+	/**
+	 * Sends a query to the endpoint. The request is sent asynchronously
+	 * and the results are available from the returned stream.
+	 * 
+	 * @param endpoint the URL of the endpoint.
+	 * @param query the SPARQL query.
+	 * @param bindings the bindings to insert into the query, may be null.
+	 * @param priority the priority of the request, higher values are sent first.
+	 * @return the result stream.
+	 */
+	public TupleQueryResult send(String endpoint, String query, BindingSet bindings, double priority) {
+		return send(endpoint, query, bindings, priority, 0);
+	}
+	
+	/**
+	 * Sends a query to the endpoint which must be answered completely
+	 * before the deadline. The request fails if the deadline passes.
+	 * 
+	 * @param endpoint the URL of the endpoint.
+	 * @param query the SPARQL query.
+	 * @param bindings the bindings to insert into the query, may be null.
+	 * @param priority the priority of the request, higher values are sent first.
+	 * @param deadline the time in milliseconds when the query times out, 0 for none.
+	 * @return the result stream.
+	 */
+	public TupleQueryResult send(String endpoint, String query, BindingSet bindings, double priority, long deadline) {
+		if (!running)
+			throw new IllegalStateException("client has been shut down");
+		
+		URI uri = URI.create(endpoint);
+		final Request request = new Request(uri, SparqlEndpointTransport.insertBindings(query, bindings),
+				priority, deadline, new ResultStream(bindings), EndpointLimiter.get(endpoint));
+		
+		execute(new Runnable() {
+			@Override
+			public void run() {
+				request.sequence = sequence++;
+				Endpoint target = getEndpoint(request.uri);
+				target.pending.add(request);
+				dispatch(target);
+			}
+		});
+		return request.stream;
+	}
+	
+	/**
+	 * Stops the I/O thread and closes all connections.
+	 * Results which have not been received completely fail.
+	 */
+	public void shutdown() {
+		running = false;
+		selector.wakeup();
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private byte[] createRequest(URI uri, String query, String accept) {
+		try {
+			String encoded = URLEncoder.encode(query, "UTF-8");
+			String path = uri.getRawPath() == null || uri.getRawPath().length() == 0 ? "/" : uri.getRawPath();
+			String host = uri.getPort() < 0 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+			
+			StringBuilder request = new StringBuilder();
+			boolean get = encoded.length() <= maxGetQueryLength;
+			if (get) {
+				request.append("GET ").append(path).append('?');
+				if (uri.getRawQuery() != null)
+					request.append(uri.getRawQuery()).append('&');
+				request.append("query=").append(encoded).append(" HTTP/1.1\r\n");
+			} else {
+				request.append("POST ").append(path);
+				if (uri.getRawQuery() != null)
+					request.append('?').append(uri.getRawQuery());
+				request.append(" HTTP/1.1\r\n");
+				request.append("Content-Type: application/x-www-form-urlencoded; charset=UTF-8\r\n");
+				request.append("Content-Length: ").append(encoded.length() + 6).append("\r\n");
+			}
+			request.append("Host: ").append(host).append("\r\n");
+			request.append("Accept: ").append(accept).append("\r\n");
+			if (acceptCompression)
+				request.append("Accept-Encoding: gzip, deflate\r\n");
+			request.append("Connection: keep-alive\r\n\r\n");
+			if (!get)
+				request.append("query=").append(encoded);
+			return request.toString().getBytes("US-ASCII");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException("encoding not supported", e);
+		}
+	}
+	
+	private void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+	
+	private Endpoint getEndpoint(URI uri) {
+		int port = uri.getPort() < 0 ? 80 : uri.getPort();
+		String key = uri.getHost() + ":" + port;
+		Endpoint endpoint = endpoints.get(key);
+		if (endpoint == null) {
+			endpoint = new Endpoint(uri.getHost(), port);
+			endpoints.put(key, endpoint);
+		}
+		return endpoint;
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private void loop() {
+		while (running) {
+			try {
+				selector.select(SELECT_TIMEOUT);
+			} catch (IOException e) {
+				LOGGER.error("selector failed", e);
+				break;
+			}
+			
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				task.run();
+			}
+			
+			Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+			while (it.hasNext()) {
+				SelectionKey key = it.next();
+				it.remove();
+				Connection connection = (Connection) key.attachment();
+				if (connection == null || !key.isValid())
+					continue;
+				try {
+					if (key.isConnectable())
+						connection.finishConnect();
+					else if (key.isWritable())
+						connection.write();
+					else if (key.isReadable())
+						connection.read();
+				} catch (IOException e) {
+					connection.fail(e);
+				} catch (QueryEvaluationException e) {
+					connection.fail(e);
+				} catch (RuntimeException e) {
+					connection.fail(e);
+				}
+			}
+			
+			checkTimeouts();
+		}
+		
+		// fail all unfinished requests
+		QueryEvaluationException error = new QueryEvaluationException("SPARQL client has been shut down");
+		for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys())) {
+			if (key.attachment() instanceof Connection)
+				((Connection) key.attachment()).request.stream.fail(error);
+			close(key.channel());
+		}
+		for (Endpoint endpoint : endpoints.values()) {
+			for (Request request : endpoint.pending) {
+				request.stream.fail(error);
+			}
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			LOGGER.warn("failed to close selector", e);
+		}
+	}
+	
+	private void checkTimeouts() {
+		long now = System.currentTimeMillis();
+		for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys())) {
+			Connection connection = (Connection) key.attachment();
+			if (connection == null)
+				continue;
+			if (connection.request.isExpired(now)) {
+				connection.fail(new SocketTimeoutException("query timed out"));
+				continue;
+			}
+			if (connection.suspended)
+				continue;
+			if (connection.connecting) {
+				if (connectTimeout > 0 && now - connection.lastActivity > connectTimeout)
+					connection.fail(new SocketTimeoutException("connect timed out"));
+			} else if (readTimeout > 0 && now - connection.lastActivity > readTimeout) {
+				connection.fail(new SocketTimeoutException("read timed out"));
+			}
+		}
+		for (Endpoint endpoint : endpoints.values()) {
+			endpoint.closeIdle(now);
+			// requests may have been held back by the endpoint's limiter
+			dispatch(endpoint);
+		}
+	}
+	
+	/**
+	 * Starts waiting requests of the endpoint while the connection limit
+	 * is not reached and the endpoint's limiter grants a permit.
+	 */
+	private void dispatch(Endpoint endpoint) {
+		if (endpoint.address == null && !endpoint.pending.isEmpty()) {
+			endpoint.resolve();
+			return;
+		}
+		
+		// free a connection whose results are not consumed
+		if (endpoint.active >= maxConnectionsPerEndpoint && !endpoint.pending.isEmpty()
+				&& endpoint.suspended.size() == endpoint.active) {
+			Connection connection = endpoint.suspended.peek();
+			LOGGER.debug("resuming suspended connection to " + endpoint + " for waiting requests");
+			connection.overflow = true;
+			connection.resume();
+		}
+		
+		while (endpoint.active < maxConnectionsPerEndpoint && !endpoint.pending.isEmpty()) {
+			Request request = endpoint.pending.peek();
+			if (request.stream.isClosed()) {
+				endpoint.pending.poll();
+				continue;
+			}
+			if (request.isExpired(System.currentTimeMillis())) {
+				endpoint.pending.poll();
+				request.stream.fail(new QueryEvaluationException("query timed out before sending request to " + endpoint));
+				continue;
+			}
+			if (!request.limiter.tryAcquire())
+				break;
+			endpoint.pending.poll();
+			
+			SocketChannel channel = endpoint.idle.poll();
+			boolean reused = channel != null;
+			try {
+				if (channel == null) {
+					channel = SocketChannel.open();
+					channel.configureBlocking(false);
+					channel.socket().setTcpNoDelay(true);
+					channel.connect(endpoint.address);
+				}
+				endpoint.active++;
+				Connection connection = new Connection(endpoint, request, channel, reused);
+				connection.permit = true;
+				request.stream.connection = connection;
+				if (channel.isConnectionPending()) {
+					connection.connecting = true;
+					channel.register(selector, SelectionKey.OP_CONNECT, connection);
+				} else {
+					channel.register(selector, SelectionKey.OP_WRITE, connection);
+				}
+			} catch (IOException e) {
+				close(channel);
+				request.limiter.release();
+				request.stream.fail(new QueryEvaluationException("cannot connect to " + endpoint, e));
+				// the address may have changed
+				endpoint.address = null;
+				break;
+			}
+		}
+	}
+	
+	private static void close(java.nio.channels.Channel channel) {
+		if (channel == null)
+			return;
+		try {
+			channel.close();
+		} catch (IOException e) {
+			LOGGER.warn("failed to close channel", e);
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * The requests and idle connections of an endpoint.
+	 */
+	private class Endpoint {
+		
+		final String host;
+		final int port;
+		final PriorityQueue<Request> pending = new PriorityQueue<Request>();
+		final LinkedList<SocketChannel> idle = new LinkedList<SocketChannel>();
+		final LinkedList<Long> idleSince = new LinkedList<Long>();
+		final LinkedList<Connection> suspended = new LinkedList<Connection>();
+		int active;
+		InetSocketAddress address;
+		boolean resolving;
+		String accept = NioSparqlClient.this.accept;
+		
+		Endpoint(String host, int port) {
+			this.host = host;
+			this.port = port;
+		}
+		
+		/**
+		 * Resolves the host name in a separate thread, since the lookup
+		 * would block the I/O thread. Waiting requests are dispatched or
+		 * fail when the lookup has finished.
+		 */
+		void resolve() {
+			if (resolving)
+				return;
+			resolving = true;
+			Thread resolver = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					final InetSocketAddress resolved = new InetSocketAddress(host, port);
+					execute(new Runnable() {
+						@Override
+						public void run() {
+							resolving = false;
+							if (resolved.isUnresolved()) {
+								QueryEvaluationException error = new QueryEvaluationException("cannot resolve host of " + Endpoint.this);
+								Request request;
+								while ((request = pending.poll()) != null) {
+									request.stream.fail(error);
+								}
+								return;
+							}
+							address = resolved;
+							dispatch(Endpoint.this);
+						}
+					});
+				}
+			}, "SPARQL NIO resolver");
+			resolver.setDaemon(true);
+			resolver.start();
+		}
+		
+		void release(SocketChannel channel) {
+			idle.addFirst(channel);
+			idleSince.addFirst(System.currentTimeMillis());
+		}
+		
+		void closeIdle(long now) {
+			while (!idle.isEmpty() && now - idleSince.getLast() > IDLE_TIMEOUT) {
+				close(idle.removeLast());
+				idleSince.removeLast();
+			}
+		}
+		
+		void closeAllIdle() {
+			for (SocketChannel channel : idle) {
+				close(channel);
+			}
+			idle.clear();
+			idleSince.clear();
+		}
+		
+		@Override
+		public String toString() {
+			return host + ":" + port;
+		}
+	}
+	
+	/**
+	 * A request which waits for a connection.
+	 */
+	private static class Request implements Comparable<Request> {
+		
+		final URI uri;
+		final String query;
+		final double priority;
+		final long deadline;
+		final ResultStream stream;
+		final EndpointLimiter limiter;
+		long sequence;
+		int retries;
+		
+		Request(URI uri, String query, double priority, long deadline, ResultStream stream, EndpointLimiter limiter) {
+			this.uri = uri;
+			this.query = query;
+			this.priority = priority;
+			this.deadline = deadline;
+			this.stream = stream;
+			this.limiter = limiter;
+		}
+		
+		boolean isExpired(long now) {
+			return deadline > 0 && now >= deadline;
+		}
+
+		@Override
+		public int compareTo(Request other) {
+			if (this.priority != other.priority)
+				return this.priority > other.priority ? -1 : 1;
+			return this.sequence < other.sequence ? -1 : (this.sequence == other.sequence ? 0 : 1);
+		}
+	}
+	
+	/**
+	 * A connection which sends a request and reads its response.
+	 * All methods are called by the I/O thread.
+	 */
+	private class Connection {
+		
+		final Endpoint endpoint;
+		final Request request;
+		final SocketChannel channel;
+		final boolean reused;
+		final ByteBuffer out;
+		
+		boolean connecting;
+		boolean suspended;
+		boolean overflow;
+		boolean finished;
+		boolean permit;
+		final long started = System.currentTimeMillis();
+		long lastActivity = started;
+		long received;
+		
+		// response head
+		final ByteArrayOutputStream head = new ByteArrayOutputStream();
+		boolean headComplete;
+		int status;
+		boolean keepAlive;
+		boolean chunked;
+		long remaining = -1;
+		
+		// chunked transfer coding
+		final StringBuilder chunkLine = new StringBuilder();
+		long chunkRemaining;
+		boolean chunkData;
+		boolean chunkTrailer;
+		
+		// content coding
+		Inflater inflater;
+		boolean gzipHeader;
+		final ByteArrayOutputStream gzipBytes = new ByteArrayOutputStream();
+		
+		SparqlResultReader reader;
+		final ByteArrayOutputStream error = new ByteArrayOutputStream();
+		
+		Connection(Endpoint endpoint, Request request, SocketChannel channel, boolean reused) {
+			this.endpoint = endpoint;
+			this.request = request;
+			this.channel = channel;
+			this.reused = reused;
+			this.out = ByteBuffer.wrap(createRequest(request.uri, request.query, endpoint.accept));
+		}
+		
+		void finishConnect() throws IOException {
+			channel.finishConnect();
+			connecting = false;
+			lastActivity = System.currentTimeMillis();
+			channel.register(selector, SelectionKey.OP_WRITE, this);
+		}
+		
+		void write() throws IOException {
+			channel.write(out);
+			lastActivity = System.currentTimeMillis();
+			if (!out.hasRemaining())
+				channel.register(selector, SelectionKey.OP_READ, this);
+		}
+		
+		void read() throws IOException, QueryEvaluationException {
+			readBuffer.clear();
+			int count = channel.read(readBuffer);
+			if (count < 0) {
+				if (headComplete && remaining < 0 && !chunked) {
+					// response is delimited by closing the connection
+					keepAlive = false;
+					complete();
+				} else if (reused && received == 0) {
+					retry();
+				} else {
+					throw new IOException("connection closed by " + endpoint);
+				}
+				return;
+			}
+			lastActivity = System.currentTimeMillis();
+			received += count;
+			readBuffer.flip();
+			while (readBuffer.hasRemaining() && !finished) {
+				if (!headComplete)
+					readHead();
+				else if (chunked)
+					readChunked();
+				else
+					readIdentity();
+			}
+		}
+		
+		private void readHead() throws IOException, QueryEvaluationException {
+			while (readBuffer.hasRemaining()) {
+				head.write(readBuffer.get());
+				int size = head.size();
+				if (size >= 4) {
+					byte[] bytes = head.toByteArray();
+					if (bytes[size - 4] == '\r' && bytes[size - 3] == '\n' && bytes[size - 2] == '\r' && bytes[size - 1] == '\n') {
+						parseHead(new String(bytes, "ISO-8859-1"));
+						return;
+					}
+				}
+			}
+		}
+		
+		private void parseHead(String text) throws IOException, QueryEvaluationException {
+			String[] lines = text.split("\r\n");
+			String[] statusLine = lines[0].split(" ", 3);
+			if (statusLine.length < 2 || !statusLine[0].startsWith("HTTP/"))
+				throw new IOException("invalid HTTP response from " + endpoint + ": " + lines[0]);
+			status = Integer.parseInt(statusLine[1]);
+			if (status == 100) {
+				head.reset();
+				return;
+			}
+			
+			// the endpoint has responded, other requests may be sent
+			if (status == 429 || status == 503)
+				request.limiter.throttled();
+			else if (status < 300)
+				request.limiter.success(System.currentTimeMillis() - started);
+			releasePermit();
+			if (status == 429 && EndpointLimiter.isLimited() && request.retries++ < EndpointLimiter.MAX_RETRIES) {
+				LOGGER.debug("too many requests for " + endpoint + ", repeating request");
+				requeue();
+				return;
+			}
+			if ((status == 406 || status == 415) && !XML_ACCEPT.equals(endpoint.accept)) {
+				// the endpoint does not support the preferred formats
+				LOGGER.debug("falling back to XML results for " + endpoint);
+				endpoint.accept = XML_ACCEPT;
+				requeue();
+				return;
+			}
+			
+			keepAlive = !"HTTP/1.0".equals(statusLine[0]);
+			String encoding = null;
+			String contentType = null;
+			for (int i = 1; i < lines.length; i++) {
+				int colon = lines[i].indexOf(':');
+				if (colon < 0)
+					continue;
+				String name = lines[i].substring(0, colon).trim().toLowerCase();
+				String value = lines[i].substring(colon + 1).trim();
+				if ("content-length".equals(name))
+					remaining = Long.parseLong(value);
+				else if ("transfer-encoding".equals(name))
+					chunked = value.toLowerCase().contains("chunked");
+				else if ("content-type".equals(name))
+					contentType = value;
+				else if ("content-encoding".equals(name))
+					encoding = value.toLowerCase();
+				else if ("connection".equals(name))
+					keepAlive = value.toLowerCase().contains("keep-alive") || (keepAlive && !value.toLowerCase().contains("close"));
+			}
+			if ("gzip".equals(encoding) || "x-gzip".equals(encoding)) {
+				inflater = new Inflater(true);
+				gzipHeader = true;
+			} else if ("deflate".equals(encoding)) {
+				inflater = new Inflater();
+			}
+			reader = SparqlResultReader.create(contentType);
+			if (reader == null)
+				reader = new SparqlXmlResultReader();
+			
+			headComplete = true;
+			if (chunked)
+				remaining = -1;
+			else if (remaining == 0 || status == 204 || status == 304)
+				complete();
+		}
+		
+		private void readIdentity() throws IOException, QueryEvaluationException {
+			int length = readBuffer.remaining();
+			if (remaining >= 0)
+				length = (int) Math.min(length, remaining);
+			body(readBuffer.array(), readBuffer.position(), length);
+			readBuffer.position(readBuffer.position() + length);
+			if (remaining >= 0) {
+				remaining -= length;
+				if (remaining == 0)
+					complete();
+			}
+		}
+		
+		private void readChunked() throws IOException, QueryEvaluationException {
+			if (chunkData) {
+				int length = (int) Math.min(readBuffer.remaining(), chunkRemaining);
+				body(readBuffer.array(), readBuffer.position(), length);
+				readBuffer.position(readBuffer.position() + length);
+				chunkRemaining -= length;
+				if (chunkRemaining == 0)
+					chunkData = false;
+				return;
+			}
+			
+			// read the line with the chunk size, the CRLF after the data, or the trailer
+			while (readBuffer.hasRemaining()) {
+				char c = (char) readBuffer.get();
+				if (c != '\n') {
+					if (c != '\r')
+						chunkLine.append(c);
+					continue;
+				}
+				String line = chunkLine.toString().trim();
+				chunkLine.setLength(0);
+				if (chunkTrailer) {
+					if (line.length() == 0)
+						complete();
+					return;
+				}
+				if (line.length() == 0)
+					continue;
+				int extension = line.indexOf(';');
+				chunkRemaining = Long.parseLong(extension < 0 ? line : line.substring(0, extension).trim(), 16);
+				if (chunkRemaining == 0)
+					chunkTrailer = true;
+				else
+					chunkData = true;
+				return;
+			}
+		}
+		
+		private void body(byte[] bytes, int offset, int length) throws IOException, QueryEvaluationException {
+			if (length == 0)
+				return;
+			if (inflater == null) {
+				content(bytes, offset, length);
+				return;
+			}
+			
+			if (gzipHeader) {
+				gzipBytes.write(bytes, offset, length);
+				byte[] buffered = gzipBytes.toByteArray();
+				int headerLength = getGzipHeaderLength(buffered);
+				if (headerLength < 0)
+					return;
+				gzipHeader = false;
+				gzipBytes.reset();
+				bytes = buffered;
+				offset = headerLength;
+				length = buffered.length - headerLength;
+			}
+			
+			if (inflater.finished())
+				return;
+			inflater.setInput(bytes, offset, length);
+			try {
+				while (!inflater.needsInput() && !inflater.finished()) {
+					int count = inflater.inflate(inflateBuffer);
+					if (count == 0 && inflater.needsDictionary())
+						throw new IOException("invalid compressed response from " + endpoint);
+					content(inflateBuffer, 0, count);
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("invalid compressed response from " + endpoint + ": " + e.getMessage());
+			}
+		}
+		
+		/**
+		 * Returns the length of the gzip header or -1 if it is incomplete.
+		 */
+		private int getGzipHeaderLength(byte[] bytes) throws IOException {
+			if (bytes.length < 10)
+				return -1;
+			if ((bytes[0] & 0xff) != 0x1f || (bytes[1] & 0xff) != 0x8b)
+				throw new IOException("invalid gzip response from " + endpoint);
+			int flags = bytes[3] & 0xff;
+			int pos = 10;
+			if ((flags & 4) != 0) {
+				if (bytes.length < pos + 2)
+					return -1;
+				pos += 2 + ((bytes[pos] & 0xff) | ((bytes[pos + 1] & 0xff) << 8));
+			}
+			for (int flag = 8; flag <= 16; flag <<= 1) {
+				if ((flags & flag) != 0) {
+					while (pos < bytes.length && bytes[pos] != 0) {
+						pos++;
+					}
+					pos++;
+				}
+			}
+			if ((flags & 2) != 0)
+				pos += 2;
+			return pos <= bytes.length ? pos : -1;
+		}
+		
+		private void content(byte[] bytes, int offset, int length) throws QueryEvaluationException {
+			if (status >= 300) {
+				if (error.size() < MAX_ERROR_LENGTH)
+					error.write(bytes, offset, Math.min(length, MAX_ERROR_LENGTH - error.size()));
+				return;
+			}
+			reader.feed(bytes, offset, length);
+			deliver();
+		}
+		
+		private void deliver() {
+			if (reader.isHeadComplete())
+				request.stream.setBindingNames(reader.getBindingNames());
+			List<BindingSet> results = reader.take();
+			if (!results.isEmpty() && request.stream.add(results) && !suspended && !overflow) {
+				// stop reading until the consumer has caught up
+				suspended = true;
+				endpoint.suspended.add(this);
+				channel.keyFor(selector).interestOps(0);
+				dispatch(endpoint);
+			}
+		}
+		
+		void resume() {
+			if (!suspended || finished)
+				return;
+			suspended = false;
+			endpoint.suspended.remove(this);
+			lastActivity = System.currentTimeMillis();
+			channel.keyFor(selector).interestOps(SelectionKey.OP_READ);
+		}
+		
+		private void complete() {
+			if (status < 300) {
+				try {
+					reader.end();
+				} catch (QueryEvaluationException e) {
+					fail(e);
+					return;
+				}
+			}
+			
+			finished = true;
+			if (status >= 300) {
+				String message;
+				try {
+					message = error.toString("UTF-8");
+				} catch (UnsupportedEncodingException e) {
+					message = error.toString();
+				}
+				request.stream.fail(new QueryEvaluationException("HTTP " + status + " from " + endpoint + ": " + message));
+			} else {
+				deliver();
+				request.stream.complete();
+			}
+			
+			release();
+			if (keepAlive && status < 300 && (inflater == null || inflater.finished())) {
+				channel.keyFor(selector).interestOps(0);
+				channel.keyFor(selector).attach(null);
+				endpoint.release(channel);
+			} else {
+				close(channel);
+			}
+			if (inflater != null)
+				inflater.end();
+			dispatch(endpoint);
+		}
+		
+		/**
+		 * Sends the request again on a new connection because a reused
+		 * connection has been closed by the endpoint in the meantime.
+		 */
+		private void retry() {
+			endpoint.closeAllIdle();
+			requeue();
+		}
+		
+		private void requeue() {
+			finished = true;
+			release();
+			close(channel);
+			endpoint.pending.add(request);
+			dispatch(endpoint);
+		}
+		
+		private void release() {
+			endpoint.active--;
+			if (suspended)
+				endpoint.suspended.remove(this);
+			suspended = false;
+			request.stream.connection = null;
+			releasePermit();
+		}
+		
+		private void releasePermit() {
+			if (permit) {
+				permit = false;
+				request.limiter.release();
+			}
+		}
+		
+		void fail(Exception e) {
+			if (finished)
+				return;
+			finished = true;
+			release();
+			close(channel);
+			if (inflater != null)
+				inflater.end();
+			QueryEvaluationException error = e instanceof QueryEvaluationException ? (QueryEvaluationException) e
+					: new QueryEvaluationException("request to " + endpoint + " failed", e);
+			request.stream.fail(error);
+			dispatch(endpoint);
+		}
+		
+		void cancel() {
+			if (finished)
+				return;
+			finished = true;
+			release();
+			close(channel);
+			if (inflater != null)
+				inflater.end();
+			dispatch(endpoint);
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * The buffered results of a request. The bindings of the request are
+	 * added to each result.
+	 */
+	private class ResultStream implements TupleQueryResult {
+		
+		private final BindingSet bindings;
+		private final LinkedList<BindingSet> buffer = new LinkedList<BindingSet>();
+		private List<String> bindingNames;
+		private boolean done;
+		private boolean closed;
+		private QueryEvaluationException failure;
+		
+		// accessed by the I/O thread only
+		Connection connection;
+		
+		ResultStream(BindingSet bindings) {
+			this.bindings = bindings;
+		}
+		
+		synchronized void setBindingNames(List<String> names) {
+			if (bindingNames != null)
+				return;
+			bindingNames = new ArrayList<String>(names);
+			if (bindings != null) {
+				for (String name : bindings.getBindingNames()) {
+					if (!bindingNames.contains(name))
+						bindingNames.add(name);
+				}
+			}
+			notifyAll();
+		}
+		
+		/**
+		 * Adds results and returns true if the buffer is full.
+		 */
+		synchronized boolean add(List<BindingSet> results) {
+			if (closed)
+				return false;
+			for (BindingSet result : results) {
+				if (bindings != null && bindings.size() > 0) {
+					QueryBindingSet extended = new QueryBindingSet(result);
+					for (Binding binding : bindings) {
+						if (!extended.hasBinding(binding.getName()))
+							extended.addBinding(binding);
+					}
+					result = extended;
+				}
+				buffer.add(result);
+			}
+			notifyAll();
+			return buffer.size() >= bufferSize;
+		}
+		
+		synchronized void complete() {
+			done = true;
+			notifyAll();
+		}
+		
+		synchronized void fail(QueryEvaluationException e) {
+			if (done)
+				return;
+			failure = e;
+			done = true;
+			notifyAll();
+		}
+		
+		synchronized boolean isClosed() {
+			return closed;
+		}
+		
+		@Override
+		public synchronized List<String> getBindingNames() {
+			try {
+				while (bindingNames == null && !done && !closed) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return bindingNames == null ? new ArrayList<String>() : bindingNames;
+		}
+		
+		@Override
+		public synchronized boolean hasNext() throws QueryEvaluationException {
+			try {
+				while (buffer.isEmpty() && !done && !closed) {
+					wait();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new QueryEvaluationException("interrupted while waiting for results");
+			}
+			if (!buffer.isEmpty())
+				return true;
+			if (failure != null && !closed)
+				throw failure;
+			return false;
+		}
+		
+		@Override
+		public BindingSet next() throws QueryEvaluationException {
+			BindingSet next;
+			boolean resume;
+			synchronized (this) {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				next = buffer.removeFirst();
+				resume = !done && buffer.size() == bufferSize / 2;
+			}
+			if (resume) {
+				execute(new Runnable() {
+					@Override
+					public void run() {
+						if (connection != null)
+							connection.resume();
+					}
+				});
+			}
+			return next;
+		}
+		
+		@Override
+		public void remove() throws QueryEvaluationException {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public void close() throws QueryEvaluationException {
+			synchronized (this) {
+				if (closed)
+					return;
+				closed = true;
+				buffer.clear();
+				notifyAll();
+				if (done)
+					return;
+			}
+			execute(new Runnable() {
+				@Override
+				public void run() {
+					if (connection != null)
+						connection.cancel();
+				}
+			});
+		}
+	}
+
+}
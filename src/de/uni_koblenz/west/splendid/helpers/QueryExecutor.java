@@ -32,9 +32,8 @@ import java.net.ConnectException;
 import java.net.URLEncoder;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 //import org.openrdf.cursor.Cursor;
 //import org.openrdf.cursor.DelegatingCursor;
@@ -46,7 +45,6 @@ import org.openrdf.query.BindingSet;
 import org.openrdf.query.BooleanQuery;
 import org.openrdf.query.MalformedQueryException;
 import org.openrdf.query.QueryEvaluationException;
-import org.openrdf.query.QueryLanguage;
 import org.openrdf.query.TupleQuery;
 import org.openrdf.query.TupleQueryResult;
 import org.openrdf.query.UnsupportedQueryLanguageException;
@@ -63,7 +61,6 @@ import org.openrdf.repository.RepositoryException;
 import org.openrdf.repository.http.HTTPRepository;
 import org.openrdf.repository.http.HTTPTupleQuery;
 import org.openrdf.repository.sparql.SPARQLConnection;
-import org.openrdf.repository.sparql.SPARQLRepository;
 import org.openrdf.sail.Sail;
 import org.openrdf.sail.SailConnection;
 import org.openrdf.sail.SailException;
@@ -71,6 +68,8 @@ import org.openrdf.sail.SailException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.uni_koblenz.west.splendid.helpers.SparqlEndpointTransport.AbortableTupleQuery;
+
 /**
  * Utility class for conveniently executing SPARQL queries.
  * 
@@ -88,9 +87,60 @@ public final class QueryExecutor {
 	
 	private static final SPARQLParser parser = new SPARQLParser();
 	
-	private static final Map<String, SPARQLRepository> httpMap = new HashMap<String, SPARQLRepository>();
-//	private static final Map<String, HTTPRepository> httpMap = new HashMap<String, HTTPRepository>();
-//	private static final Map<String, HTTPConnectionPool> httpMap = new HashMap<String, HTTPConnectionPool>();
+	private static SparqlEndpointTransport transport = new SparqlEndpointTransport();
+	private static NioSparqlClient asyncClient = null;
+	
+	/**
+	 * Sets the HTTP transport which is used for all SPARQL endpoints.
+	 * The connections of the previous transport are closed.
+	 * 
+	 * @param transport the transport to use.
+	 */
+	public static void setTransport(SparqlEndpointTransport transport) {
+		if (transport == null)
+			throw new IllegalArgumentException("transport must not be null");
+		SparqlEndpointTransport previous;
+		synchronized (QueryExecutor.class) {
+			previous = QueryExecutor.transport;
+			QueryExecutor.transport = transport;
+		}
+		previous.shutdown();
+	}
+	
+	private static synchronized SparqlEndpointTransport getTransport() {
+		return transport;
+	}
+	
+	/**
+	 * Sets the non-blocking client which is used for all plain HTTP
+	 * endpoints. The previous client is shut down.
+	 * 
+	 * @param client the client to use or null for blocking requests.
+	 */
+	public static void setAsyncClient(NioSparqlClient client) {
+		NioSparqlClient previous;
+		synchronized (QueryExecutor.class) {
+			previous = QueryExecutor.asyncClient;
+			QueryExecutor.asyncClient = client;
+		}
+		if (previous != null)
+			previous.shutdown();
+	}
+	
+	/**
+	 * Checks if requests to the endpoint are sent asynchronously,
+	 * i.e. without blocking a thread until the results arrive.
+	 * 
+	 * @param endpoint the SPARQL endpoint.
+	 * @return true if the endpoint is accessed asynchronously.
+	 */
+	public static synchronized boolean isAsync(String endpoint) {
+		return asyncClient != null && NioSparqlClient.supports(endpoint);
+	}
+	
+	private static synchronized NioSparqlClient getAsyncClient() {
+		return asyncClient;
+	}
 	
 	/**
 	 * Returns the size of the supplied result set.
@@ -174,7 +224,7 @@ public final class QueryExecutor {
 			try {
 				TupleQuery tupleQuery = con.prepareTupleQuery(SPARQL, query);
 //				return asList(wrapResult(tupleQuery, rep.toString()));
-				return asList(wrapResult(tupleQuery, rep.toString(), query));
+				return asList(wrapResult(tupleQuery, rep.toString(), query, 0));
 			} catch (IllegalArgumentException e) {
 				LOGGER.error("not a tuple query:\n" + query, e);
 			} catch (MalformedQueryException e) {
@@ -200,11 +250,43 @@ public final class QueryExecutor {
 	}
 	
 	public static boolean ask(String target, String triplePattern) {
+		return ask(target, triplePattern, 0);
+	}
+	
+	/**
+	 * Asks a SPARQL endpoint if it has results for the triple pattern.
+	 * 
+	 * @param target the SPARQL endpoint.
+	 * @param triplePattern the triple pattern.
+	 * @param deadline the time in milliseconds when the query times out, 0 for none.
+	 * @return true if the endpoint has results for the pattern.
+	 */
+	public static boolean ask(String target, String triplePattern, long deadline) {
 		String query = "ASK { " + triplePattern + " }";
+		EndpointHealth health = EndpointHealth.get(target);
+		if (!health.allowRequest())
+			throw new RuntimeException("endpoint " + target + " is unavailable");
+		EndpointLimiter limiter = EndpointLimiter.get(target);
+		if (!limiter.acquire(deadline, null))
+			throw new RuntimeException("no permit to query " + target + " before the query timed out");
 		try {
+			long start = System.currentTimeMillis();
 			try {
-				return prepareBooleanQuery(query, target).evaluate();
+				boolean result = prepareBooleanQuery(query, target, deadline).evaluate();
+				long time = System.currentTimeMillis() - start;
+				health.success(time);
+				limiter.success(time);
+				return result;
 			} catch (QueryEvaluationException e) {  // Sesame 3: StoreException
+				// an answer missing the query's deadline is no endpoint failure
+				boolean expired = deadline > 0 && System.currentTimeMillis() >= deadline;
+				if (EndpointHealth.isFailure(e) && !expired)
+					health.failure();
+				if (EndpointLimiter.isThrottled(e))
+					limiter.throttled();
+				if (expired)
+					throw new RuntimeException("no answer from " + target + " before the query timed out", e);
+				
 				// first check for network connection error
 				Throwable cause = e.getCause();
 				for (; cause != null; cause = cause.getCause()) {
@@ -234,6 +316,8 @@ public final class QueryExecutor {
 			LOGGER.error("failed to evaluate query on endpoint: " + target + "\n" + query, e);
 //			return EmptyCursor.getInstance();
 			return false;
+		} finally {
+			limiter.release();
 		}
 		
 	}
@@ -247,8 +331,14 @@ public final class QueryExecutor {
 	 */
 //	public static Cursor<BindingSet> eval(String endpoint, String query) {
 	public static CloseableIteration<BindingSet, QueryEvaluationException> eval(String endpoint, String query, BindingSet bindings) {
+		return evalBlocking(endpoint, query, bindings, 0);
+	}
+	
+	private static CloseableIteration<BindingSet, QueryEvaluationException> evalBlocking(String endpoint, String query, BindingSet bindings, long deadline) {
+		if (!EndpointHealth.get(endpoint).allowRequest())
+			throw new RuntimeException("endpoint " + endpoint + " is unavailable");
 		try {
-			return wrapResult(prepareTupleQuery(query, endpoint, bindings), endpoint, query);
+			return wrapResult(prepareTupleQuery(query, endpoint, bindings, deadline), endpoint, query, deadline);
 		} catch (MalformedQueryException e) {
 			LOGGER.error("Malformed query:\n" + query, e.getMessage());
 			throw new IllegalArgumentException("Malformed query:\n" + query, e);
@@ -260,29 +350,61 @@ public final class QueryExecutor {
 		}
 	}
 	
+	/**
+	 * Evaluates a given SPARQL query on the specified SPARQL endpoint.
+	 * The request is sent asynchronously if possible.
+	 * 
+	 * @param endpoint the SPARQL endpoint to use for query evaluation.
+	 * @param query the query to evaluate.
+	 * @param bindings the bindings of the query.
+	 * @param priority the priority of an asynchronous request.
+	 * @return the result.
+	 */
+	public static CloseableIteration<BindingSet, QueryEvaluationException> eval(String endpoint, String query, BindingSet bindings, double priority) {
+		return eval(endpoint, query, bindings, priority, 0);
+	}
+	
+	/**
+	 * Evaluates a given SPARQL query on the specified SPARQL endpoint.
+	 * The request is sent asynchronously if possible. The endpoint must
+	 * respond before the deadline.
+	 * 
+	 * @param endpoint the SPARQL endpoint to use for query evaluation.
+	 * @param query the query to evaluate.
+	 * @param bindings the bindings of the query.
+	 * @param priority the priority of an asynchronous request.
+	 * @param deadline the time in milliseconds when the query times out, 0 for none.
+	 * @return the result.
+	 */
+	public static CloseableIteration<BindingSet, QueryEvaluationException> eval(String endpoint, String query, BindingSet bindings, double priority, long deadline) {
+		NioSparqlClient client = getAsyncClient();
+		if (client == null || !NioSparqlClient.supports(endpoint))
+			return evalBlocking(endpoint, query, bindings, deadline);
+		
+		if (!EndpointHealth.get(endpoint).allowRequest())
+			throw new RuntimeException("endpoint " + endpoint + " is unavailable");
+		
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("query endpoint " + endpoint + " asynchronously: '" + query.replace("\n", " ") + "'");
+		return wrapResult(client.send(endpoint, query, bindings, priority, deadline), endpoint, query, deadline);
+	}
+	
 	/**
 	 * Prepares a TupleQuery for a SPARQL endpoint.
 	 */
 	public static BooleanQuery prepareBooleanQuery(String query, String endpoint)
 			throws RepositoryException, MalformedQueryException {
+		return prepareBooleanQuery(query, endpoint, 0);
+	}
+	
+	private static BooleanQuery prepareBooleanQuery(String query, String endpoint, long deadline)
+			throws RepositoryException, MalformedQueryException {
 		
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("query endpoint " + endpoint + ": '" + query.replace("\n", " ") + "'");
 		}
 		
-		try {
-			SPARQLRepository http = httpMap.get(endpoint);
-			if (http == null) {
-				http = new SPARQLRepository(endpoint);
-				httpMap.put(endpoint, http);
-			}
-			
-			return http.getConnection().prepareBooleanQuery(QueryLanguage.SPARQL, query);
-		} catch (RepositoryException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			throw e;
-		}
+		return getTransport().prepareBooleanQuery(endpoint, query, deadline);
 	}
 	
 	/**
@@ -290,6 +412,15 @@ public final class QueryExecutor {
 	 */
 	public static TupleQuery prepareTupleQuery(String query, String endpoint, BindingSet bindings)
 			throws RepositoryException, MalformedQueryException {  // SESAME 2:
+		return prepareTupleQuery(query, endpoint, bindings, 0);
+	}
+	
+	/**
+	 * Prepares a TupleQuery for a SPARQL endpoint which must respond
+	 * before the deadline.
+	 */
+	public static AbortableTupleQuery prepareTupleQuery(String query, String endpoint, BindingSet bindings, long deadline)
+			throws RepositoryException, MalformedQueryException {
 		
 		if (LOGGER.isDebugEnabled()) {
 			LOGGER.debug("query endpoint " + endpoint + ": '" + query.replace("\n", " ") + "'");
@@ -297,48 +428,13 @@ public final class QueryExecutor {
 				LOGGER.debug("with bindings: " + bindings);
 		}
 		
-		try {
-			SPARQLRepository http = httpMap.get(endpoint);
-			if (http == null) {
-				http = new SPARQLRepository(endpoint);
-				httpMap.put(endpoint, http);
-			}
-			
-			TupleQuery tq = http.getConnection().prepareTupleQuery(QueryLanguage.SPARQL, query, null);
+		AbortableTupleQuery tq = getTransport().prepareTupleQuery(endpoint, query, deadline);
+		if (bindings != null) {
 			for (Binding b : bindings) {
 				tq.setBinding(b.getName(), b.getValue());
 			}
-			return tq;
-//			return http.getConnection().prepareTupleQuery(QueryLanguage.SPARQL, query, null);
-		} catch (RepositoryException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
-			throw e;
 		}
-		
-//		SPARQLConnection con = new SPARQLConnection(repository, url, subjects)
-//		
-//		HTTPRepository http = httpMap.get(endpoint);
-//		if (http == null) {
-//			http = new HTTPRepository(endpoint);
-//			httpMap.put(endpoint, http);
-//		}
-//		return http.getConnection().prepareTupleQuery(QueryLanguage.SPARQL, query, null);
-		
-//			throws StoreException, MalformedQueryException {  // SESAME 3:
-//		HTTPConnectionPool http = httpMap.get(endpoint);
-//		if (http == null) {
-//			http = new HTTPConnectionPool(endpoint);
-//			httpMap.put(endpoint, http);
-//		}
-//		try {
-//			query = URLEncoder.encode(query, "UTF-8");
-//			http = http.location(http.getURL() + "?query=" + query);
-//			return new HTTPTupleQuery(query, new TupleQueryClient(http));
-////			return getHTTPTupleQuery(http, endpoint, query);
-//		} catch (UnsupportedEncodingException e) {
-//			throw new RuntimeException("URL encoding failed", e);
-//		}
+		return tq;
 	}
 	
 	// -------------------------------------------------------------------------
@@ -380,82 +476,234 @@ public final class QueryExecutor {
 	}
 	
 	/**
-	 * Evaluates the supplied TupleQuery.
+	 * Evaluates the supplied TupleQuery. Closing the result aborts a
+	 * request which is still waiting for the response.
 	 * 
 	 * @tupleQuery the TupleQuery to evaluate.
 	 * @target the target of the evaluation. (for debugging. TODO change to getDataset())
 	 */
 //	private static Cursor<BindingSet> wrapResult(TupleQuery tupleQuery, final String target) {
-	private static CloseableIteration<BindingSet, QueryEvaluationException> wrapResult(final TupleQuery tupleQuery, final String target, final String query) {
+	private static CloseableIteration<BindingSet, QueryEvaluationException> wrapResult(final TupleQuery tupleQuery, final String target, final String query, long deadline) {
 		
 		// Use result wrapper to catch (HTTP) communication errors.
 		// next result will be null if an error occurs.
 //		return new DelegatingCursor<BindingSet>(tupleQuery.evaluate()) {
-		return new LookAheadIteration<BindingSet, QueryEvaluationException>() {
-
-			private TupleQueryResult result;
-			
-			private BindingSet last;
-
+		return new ResultWrapper(target, query, true, deadline) {
 			@Override
-//			public BindingSet next() throws StoreException { // Sesame 3
-			public BindingSet getNextElement() { // Sesame 2
-				try {
-//					return super.next();
-					if (result == null)
-						result = tupleQuery.evaluate();
-					if (result.hasNext()) {
-						last = result.next();
-						return last;
-//						return result.next();						
+			protected TupleQueryResult evaluate() throws QueryEvaluationException {
+				return tupleQuery.evaluate();
+			}
+			@Override
+			protected void abort() {
+				// requests to SPARQL endpoints can be aborted while waiting for the response
+				if (tupleQuery instanceof AbortableTupleQuery)
+					((AbortableTupleQuery) tupleQuery).abort();
+			}
+		};
+	}
+	
+	/**
+	 * Wraps the result of an asynchronous request.
+	 * The asynchronous client applies the endpoint's request limits itself.
+	 */
+	private static CloseableIteration<BindingSet, QueryEvaluationException> wrapResult(final TupleQueryResult tupleResult, final String target, final String query, long deadline) {
+		return new ResultWrapper(target, query, false, deadline) {
+			@Override
+			protected TupleQueryResult evaluate() {
+				return tupleResult;
+			}
+		};
+	}
+	
+	/**
+	 * Result wrapper which catches (HTTP) communication errors.
+	 * The response time and failures are recorded in the endpoint's health,
+ * except for requests which are aborted or miss the query's deadline.
+	 * The request waits for a permit of the endpoint's limiter if required.
+	 */
+	private abstract static class ResultWrapper extends LookAheadIteration<BindingSet, QueryEvaluationException> {
+		
+		private final String target;
+		
+		private final String query;
+		
+		private final EndpointHealth health;
+		
+		private final EndpointLimiter limiter;
+		
+		private final long deadline;
+		
+		private long start = System.currentTimeMillis();
+		
+		private TupleQueryResult result;
+		
+		private BindingSet last;
+		
+		private boolean responded;
+		
+		private boolean permit;
+		
+		private final AtomicBoolean cancelled = new AtomicBoolean();
+		
+		private int retries;
+		
+		ResultWrapper(String target, String query, boolean limited, long deadline) {
+			this.target = target;
+			this.query = query;
+			this.health = EndpointHealth.get(target);
+			this.limiter = limited ? EndpointLimiter.get(target) : null;
+			this.deadline = deadline;
+		}
+
+		@Override
+//		public BindingSet next() throws StoreException { // Sesame 3
+		public BindingSet getNextElement() { // Sesame 2
+			try {
+//				return super.next();
+				if (result == null) {
+					if (limiter != null) {
+						if (!limiter.acquire(deadline, cancelled))
+							throw new RuntimeException("no permit to query " + target + " before the request was closed or timed out");
+						setPermit();
+						start = System.currentTimeMillis();
 					}
-					else
-						return null;
-				} catch (QueryEvaluationException e) {  // Sesame 3: StoreException
-					
-					// print information about error.
-					StringBuffer causes = new StringBuffer();
-					Throwable err = e;
-					while (err != null) {
-						causes.append(err.getClass().getName()).append(": ").append(err.getMessage()).append("\n");
-						err = err.getCause();
+					result = evaluate();
+				}
+				boolean hasNext = result.hasNext();
+				if (!responded) {
+					responded = true;
+					long time = System.currentTimeMillis() - start;
+					health.success(time);
+					if (permit) {
+						limiter.success(time);
+						releasePermit();
 					}
-					causes.append(query);
-					
-					LOGGER.error("Evaluation error: last result: " + last, e);
-					
-					// first check for network connection error
-					Throwable cause = e.getCause();
-					for (; cause != null; cause = cause.getCause()) {
-						if (cause instanceof UnknownHostException) {
-							LOGGER.error("cannot resolve endpoint " + target + ", " + cause);
-							throw new RuntimeException("cannot resolve endpoint " + target, e);
-						}
-						if (cause instanceof ConnectException) {
-							LOGGER.error("cannot connect to " + target + ", " + cause);
-							throw new RuntimeException("cannot connect to " + target, e);
-						}
-						if (cause instanceof IOException) {
-							LOGGER.error("problem with connection to " + target + ", " + cause);
-							throw new RuntimeException("problem with cannot connect to " + target, e);
-						}
+				}
+				if (hasNext) {
+					last = result.next();
+					return last;
+//					return result.next();						
+				}
+				else
+					return null;
+			} catch (QueryEvaluationException e) {  // Sesame 3: StoreException
+				
+				boolean aborted = isClosed() || (deadline > 0 && System.currentTimeMillis() >= deadline);
+				if (EndpointHealth.isFailure(e) && !aborted)
+					health.failure();
+				if (permit) {
+					if (EndpointLimiter.isThrottled(e))
+						limiter.throttled();
+					releasePermit();
+					// repeat the request if the endpoint asks for fewer requests
+					if (!responded && EndpointLimiter.isLimited() && EndpointLimiter.isRetryable(e) && retries++ < EndpointLimiter.MAX_RETRIES) {
+						LOGGER.debug("too many requests for " + target + ", repeating request");
+						closeResult();
+						return getNextElement();
 					}
-					LOGGER.error("cannot evaluate query on " + target + ", " + causes.toString(), e);
-					throw new RuntimeException("cannot evaluate query on " + target, e);
-//					return new EmptyBindingSet();
 				}
+				
+				if (aborted)
+					throw new RuntimeException("request to " + target + " has been aborted", e);
+				
+				// print information about error.
+				StringBuffer causes = new StringBuffer();
+				Throwable err = e;
+				while (err != null) {
+					causes.append(err.getClass().getName()).append(": ").append(err.getMessage()).append("\n");
+					err = err.getCause();
+				}
+				causes.append(query);
+				
+				LOGGER.error("Evaluation error: last result: " + last, e);
+				
+				// first check for network connection error
+				Throwable cause = e.getCause();
+				for (; cause != null; cause = cause.getCause()) {
+					if (cause instanceof UnknownHostException) {
+						LOGGER.error("cannot resolve endpoint " + target + ", " + cause);
+						throw new RuntimeException("cannot resolve endpoint " + target, e);
+					}
+					if (cause instanceof ConnectException) {
+						LOGGER.error("cannot connect to " + target + ", " + cause);
+						throw new RuntimeException("cannot connect to " + target, e);
+					}
+					if (cause instanceof IOException) {
+						LOGGER.error("problem with connection to " + target + ", " + cause);
+						throw new RuntimeException("problem with cannot connect to " + target, e);
+					}
+				}
+				LOGGER.error("cannot evaluate query on " + target + ", " + causes.toString(), e);
+				throw new RuntimeException("cannot evaluate query on " + target, e);
+//				return new EmptyBindingSet();
 			}
-			//				@Override // Sesame 3:
-			//				public void close() throws StoreException {
-			//					try {
-			//						super.close();
-			//					} catch (StoreException e) {
-			//						// no need to log the same exception twice
-			//						if (cause == null || !cause.equals(e.getCause()))
-			//							LOGGER.error("cannot close cursor for '" + target + "': " + e.getCause());
-			//					}
-			//				}
-		};
+		}
+		
+		/**
+		 * Closing the query result aborts the HTTP request.
+		 */
+		@Override
+		protected void handleClose() throws QueryEvaluationException {
+			// stop waiting for a permit
+			cancelled.set(true);
+			if (limiter != null)
+				limiter.wakeUp();
+			abort();
+			releasePermit();
+			if (result != null)
+				result.close();
+		}
+		
+		private void closeResult() {
+			if (result != null) {
+				try {
+					result.close();
+				} catch (QueryEvaluationException e) {
+					// the request failed already
+				}
+				result = null;
+			}
+		}
+		
+		/**
+		 * Takes the acquired permit unless the result has been closed meanwhile.
+		 */
+		private synchronized void setPermit() {
+			if (isClosed()) {
+				limiter.release();
+				throw new RuntimeException("request to " + target + " has been aborted");
+			}
+			permit = true;
+		}
+		
+		private synchronized void releasePermit() {
+			if (permit) {
+				permit = false;
+				limiter.release();
+			}
+		}
+		
+		//				@Override // Sesame 3:
+		//				public void close() throws StoreException {
+		//					try {
+		//						super.close();
+		//					} catch (StoreException e) {
+		//						// no need to log the same exception twice
+		//						if (cause == null || !cause.equals(e.getCause()))
+		//							LOGGER.error("cannot close cursor for '" + target + "': " + e.getCause());
+		//					}
+		//				}
+		
+		/**
+		 * Evaluates the query when the first result is requested.
+		 */
+		protected abstract TupleQueryResult evaluate() throws QueryEvaluationException;
+		
+		/**
+		 * Aborts a request which has not returned its result yet.
+		 */
+		protected void abort() {
+		}
 	}
 
 }
@@ -0,0 +1,232 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.helpers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The replicas of a SPARQL endpoint which serve the same data.
+ * 
+ * The response times of the replicas are tracked in a sliding window.
+ * Requests are sent to the replica with the lowest mean response time,
+ * replicas without measurements are tried first. A failed request counts
+ * as a penalty response time, and replicas whose circuit is open are
+ * tried last.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class ReplicaGroup {
+	
+	private static final int WINDOW_SIZE = 100;
+	private static final int MIN_SAMPLES = 10;
+	private static final long FAILURE_PENALTY = 10000;
+	
+	private static final Map<String, ReplicaGroup> groups = new ConcurrentHashMap<String, ReplicaGroup>();
+	
+	private final List<String> endpoints;
+	private final Map<String, Latency> latencies = new HashMap<String, Latency>();
+	
+	private ReplicaGroup(List<String> endpoints) {
+		this.endpoints = endpoints;
+		for (String endpoint : endpoints) {
+			latencies.put(endpoint, new Latency());
+		}
+	}
+	
+	/**
+	 * Registers the replicas of an endpoint.
+	 * 
+	 * @param endpoint the URL of the endpoint.
+	 * @param replicas the URLs of the replicas.
+	 */
+	public static void register(String endpoint, List<String> replicas) {
+		List<String> endpoints = new ArrayList<String>();
+		endpoints.add(endpoint);
+		for (String replica : replicas) {
+			if (!endpoints.contains(replica))
+				endpoints.add(replica);
+		}
+		if (endpoints.size() > 1)
+			groups.put(endpoint, new ReplicaGroup(endpoints));
+		else
+			groups.remove(endpoint);
+	}
+	
+	/**
+	 * Returns the replica group of an endpoint.
+	 * 
+	 * @param endpoint the URL of the endpoint.
+	 * @return the replica group or null if the endpoint has no replicas.
+	 */
+	public static ReplicaGroup get(String endpoint) {
+		return groups.get(endpoint);
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Returns all replicas ordered by their mean response time. Replicas
+	 * whose circuit is open are moved to the end.
+	 * 
+	 * @return the ordered replica URLs.
+	 */
+	public synchronized List<String> getReplicas() {
+		String[] ordered = endpoints.toArray(new String[endpoints.size()]);
+		// stable sort keeps the configured order for equal times
+		Arrays.sort(ordered, new Comparator<String>() {
+			@Override
+			public int compare(String e1, String e2) {
+				boolean open1 = EndpointHealth.get(e1).getState() == EndpointHealth.State.OPEN;
+				boolean open2 = EndpointHealth.get(e2).getState() == EndpointHealth.State.OPEN;
+				if (open1 != open2)
+					return open1 ? 1 : -1;
+				return Double.compare(latencies.get(e1).getMean(), latencies.get(e2).getMean());
+			}
+		});
+		return Collections.unmodifiableList(Arrays.asList(ordered));
+	}
+	
+	/**
+	 * Records the response time of a request to a replica.
+	 * 
+	 * @param endpoint the URL of the replica.
+	 * @param time the response time in milliseconds.
+	 */
+	public synchronized void record(String endpoint, long time) {
+		Latency latency = latencies.get(endpoint);
+		if (latency != null)
+			latency.add(time, false);
+	}
+	
+	/**
+	 * Records a failed request to a replica. The failure counts as a
+	 * penalty response time for the ordering of the replicas, but it is
+	 * not used for the percentiles.
+	 * 
+	 * @param endpoint the URL of the replica.
+	 */
+	public synchronized void recordFailure(String endpoint) {
+		Latency latency = latencies.get(endpoint);
+		if (latency != null)
+			latency.add(FAILURE_PENALTY, true);
+	}
+	
+	/**
+	 * Returns a percentile of the recent response times of a replica.
+	 * The response times of all replicas are used if the replica itself
+	 * has not been measured often enough.
+	 * 
+	 * @param endpoint the URL of the replica.
+	 * @param percentile the percentile (1-100).
+	 * @return the response time in milliseconds or -1 if there are
+	 *         not enough measurements.
+	 */
+	public synchronized long getPercentile(String endpoint, int percentile) {
+		Latency latency = latencies.get(endpoint);
+		if (latency == null)
+			return -1;
+		long[] sorted;
+		if (latency.getSuccesses() >= MIN_SAMPLES) {
+			sorted = new long[latency.getSuccesses()];
+			latency.copySuccesses(sorted, 0);
+		} else {
+			int total = 0;
+			for (Latency other : latencies.values()) {
+				total += other.getSuccesses();
+			}
+			if (total < MIN_SAMPLES)
+				return -1;
+			sorted = new long[total];
+			int pos = 0;
+			for (Latency other : latencies.values()) {
+				pos = other.copySuccesses(sorted, pos);
+			}
+		}
+		int size = sorted.length;
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+		return sorted[Math.max(0, Math.min(size - 1, index))];
+	}
+	
+	@Override
+	public String toString() {
+		return "replicas " + endpoints;
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * The recent response times of a replica, including failure penalties.
+	 */
+	private static class Latency {
+		
+		final long[] times = new long[WINDOW_SIZE];
+		final boolean[] failed = new boolean[WINDOW_SIZE];
+		int count;
+		int failures;
+		int next;
+		long sum;
+		
+		void add(long time, boolean failure) {
+			if (count == WINDOW_SIZE) {
+				sum -= times[next];
+				if (failed[next])
+					failures--;
+			} else {
+				count++;
+			}
+			times[next] = time;
+			failed[next] = failure;
+			if (failure)
+				failures++;
+			sum += time;
+			next = (next + 1) % WINDOW_SIZE;
+		}
+		
+		int getSuccesses() {
+			return count - failures;
+		}
+		
+		/**
+		 * Copies the response times of successful requests into the array
+		 * and returns the position after the last copied value.
+		 */
+		int copySuccesses(long[] target, int pos) {
+			for (int i = 0; i < count; i++) {
+				if (!failed[i])
+					target[pos++] = times[i];
+			}
+			return pos;
+		}
+		
+		double getMean() {
+			return count == 0 ? 0 : (double) sum / count;
+		}
+	}
+
+}
@@ -0,0 +1,514 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.helpers;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.params.HttpClientParams;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.openrdf.model.Literal;
+import org.openrdf.model.URI;
+import org.openrdf.model.Value;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.BooleanQuery;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.QueryInterruptedException;
+import org.openrdf.repository.sparql.query.SPARQLBooleanQuery;
+import org.openrdf.repository.sparql.query.SPARQLTupleQuery;
+
+/**
+ * HTTP transport for SPARQL endpoints. All requests share a pool of
+ * persistent connections with a limited number of connections per
+ * endpoint. If all connections of an endpoint are in use, a request waits
+ * for a connection until the query's deadline. Results which have not been
+ * consumed yet keep their connection, but only up to one connection less
+ * than the limit: further responses are read completely when they arrive,
+ * so that waiting requests do not depend on the consumption of results.
+ * Short queries are sent with GET, long queries with POST.
+ * Compressed responses (gzip, deflate) are decompressed while the
+ * results are parsed.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class SparqlEndpointTransport {
+	
+	private static final int DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT = 32;
+	private static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+	private static final int DEFAULT_MAX_GET_QUERY_LENGTH = 1024;
+	
+	private final MultiThreadedHttpConnectionManager manager;
+	private final HttpClient client;
+	private final int maxConnectionsPerEndpoint;
+	private final boolean acceptCompression;
+	private final int maxGetQueryLength;
+	
+	// number of streamed responses per host
+	private final Map<HostConfiguration, Integer> streams = new HashMap<HostConfiguration, Integer>();
+	
+	/**
+	 * Creates a transport with default settings.
+	 */
+	public SparqlEndpointTransport() {
+		this(DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT, DEFAULT_CONNECT_TIMEOUT, 0, true, DEFAULT_MAX_GET_QUERY_LENGTH);
+	}
+	
+	/**
+	 * Creates a transport with the supplied settings.
+	 * 
+	 * @param maxConnectionsPerEndpoint the maximum number of connections per endpoint.
+	 * @param connectTimeout the connect timeout in milliseconds, 0 for no timeout.
+	 * @param readTimeout the read timeout in milliseconds, 0 for no timeout.
+	 * @param acceptCompression true if compressed responses are accepted.
+	 * @param maxGetQueryLength the maximum length of an URL encoded query
+	 *        which is sent with GET, 0 if all queries are sent with POST.
+	 */
+	public SparqlEndpointTransport(int maxConnectionsPerEndpoint, int connectTimeout, int readTimeout,
+			boolean acceptCompression, int maxGetQueryLength) {
+		
+		HttpConnectionManagerParams params = new HttpConnectionManagerParams();
+		params.setDefaultMaxConnectionsPerHost(maxConnectionsPerEndpoint);
+		params.setMaxTotalConnections(Integer.MAX_VALUE);
+		params.setConnectionTimeout(connectTimeout);
+		params.setSoTimeout(readTimeout);
+		params.setStaleCheckingEnabled(true);
+		params.setTcpNoDelay(true);
+		
+		this.manager = new MultiThreadedHttpConnectionManager();
+		this.manager.setParams(params);
+		this.client = new HttpClient(manager);
+		this.maxConnectionsPerEndpoint = maxConnectionsPerEndpoint;
+		this.acceptCompression = acceptCompression;
+		this.maxGetQueryLength = maxGetQueryLength;
+	}
+	
+	/**
+	 * Prepares a tuple query for a SPARQL endpoint.
+	 * 
+	 * @param endpoint the URL of the SPARQL endpoint.
+	 * @param query the SPARQL query.
+	 * @return the tuple query.
+	 */
+	public AbortableTupleQuery prepareTupleQuery(String endpoint, String query) {
+		return prepareTupleQuery(endpoint, query, 0);
+	}
+	
+	/**
+	 * Prepares a tuple query for a SPARQL endpoint which must respond
+	 * before the supplied deadline.
+	 * 
+	 * @param endpoint the URL of the SPARQL endpoint.
+	 * @param query the SPARQL query.
+	 * @param deadline the time in milliseconds when the query times out, 0 for none.
+	 * @return the tuple query.
+	 */
+	public AbortableTupleQuery prepareTupleQuery(String endpoint, String query, long deadline) {
+		return new AbortableTupleQuery(endpoint, query, deadline);
+	}
+	
+	/**
+	 * Prepares a boolean query for a SPARQL endpoint.
+	 * 
+	 * @param endpoint the URL of the SPARQL endpoint.
+	 * @param query the SPARQL query.
+	 * @return the boolean query.
+	 */
+	public BooleanQuery prepareBooleanQuery(String endpoint, final String query) {
+		return prepareBooleanQuery(endpoint, query, 0);
+	}
+	
+	/**
+	 * Prepares a boolean query for a SPARQL endpoint which must respond
+	 * before the supplied deadline.
+	 * 
+	 * @param endpoint the URL of the SPARQL endpoint.
+	 * @param query the SPARQL query.
+	 * @param deadline the time in milliseconds when the query times out, 0 for none.
+	 * @return the boolean query.
+	 */
+	public BooleanQuery prepareBooleanQuery(String endpoint, final String query, final long deadline) {
+		return new SPARQLBooleanQuery(client, endpoint, null, query) {
+			@Override
+			protected HttpMethodBase getResponse() throws HttpException, IOException, QueryEvaluationException {
+				HttpMethodBase method = createMethod(getUrl(), insertBindings(query, getBindings()), getAccept(), deadline);
+				return send(getUrl(), method, deadline);
+			}
+		};
+	}
+	
+	/**
+	 * Closes all pooled connections.
+	 */
+	public void shutdown() {
+		manager.shutdown();
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Creates the request for the query. The read timeout is limited by
+	 * the time left until the deadline.
+	 */
+	private HttpMethodBase createMethod(String endpoint, String query, String accept, long deadline)
+			throws IOException, QueryEvaluationException {
+		
+		String encoded = URLEncoder.encode(query, "UTF-8");
+		HttpMethodBase method;
+		if (encoded.length() <= maxGetQueryLength) {
+			method = new DecodingGetMethod(endpoint + (endpoint.indexOf('?') < 0 ? "?" : "&") + "query=" + encoded);
+		} else {
+			PostMethod post = new DecodingPostMethod(endpoint);
+			post.getParams().setContentCharset("UTF-8");
+			post.addParameter("query", query);
+			method = post;
+		}
+		method.addRequestHeader("Accept", accept);
+		if (acceptCompression)
+			method.addRequestHeader("Accept-Encoding", "gzip, deflate");
+		if (deadline > 0) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0)
+				throw new QueryInterruptedException("query timed out before sending request to " + endpoint);
+			method.getParams().setSoTimeout((int) Math.min(remaining, Integer.MAX_VALUE));
+		}
+		return method;
+	}
+	
+	/**
+	 * Sends the request to the endpoint and returns the response.
+	 * The request waits for a free connection of the endpoint until the deadline.
+	 */
+	private HttpMethodBase send(String endpoint, HttpMethodBase method, long deadline)
+			throws IOException, QueryEvaluationException {
+		
+		HttpClient target = client;
+		if (deadline > 0) {
+			HttpClientParams clientParams = new HttpClientParams(client.getParams());
+			clientParams.setConnectionManagerTimeout(Math.max(1, deadline - System.currentTimeMillis()));
+			target = new HttpClient(clientParams, manager);
+		}
+		
+		boolean completed = false;
+		try {
+			int status = target.executeMethod(method);
+			if (status >= 400)
+				throw new QueryEvaluationException("HTTP " + status + " from " + endpoint + ": " + method.getResponseBodyAsString());
+			
+			// keep one connection for responses which are read completely
+			HostConfiguration host = new HostConfiguration();
+			host.setHost(method.getURI());
+			Stream stream = startStream(host);
+			if (stream != null)
+				((DecodingMethod) method).setStream(stream);
+			else
+				((DecodingMethod) method).buffer();
+			completed = true;
+			return method;
+		} catch (ConnectionPoolTimeoutException e) {
+			throw new QueryInterruptedException("query timed out while waiting for a connection to " + endpoint);
+		} finally {
+			if (!completed)
+				method.abort();
+		}
+	}
+	
+	/**
+	 * Counts a streamed response unless all but one connection of the
+	 * host are used by streamed responses.
+	 * 
+	 * @return the stream or null if the response has to be read completely.
+	 */
+	private Stream startStream(HostConfiguration host) {
+		synchronized (streams) {
+			Integer count = streams.get(host);
+			int current = count == null ? 0 : count;
+			if (current >= maxConnectionsPerEndpoint - 1)
+				return null;
+			streams.put(host, current + 1);
+		}
+		return new Stream(host);
+	}
+	
+	private void endStream(HostConfiguration host) {
+		synchronized (streams) {
+			int count = streams.get(host) - 1;
+			if (count == 0)
+				streams.remove(host);
+			else
+				streams.put(host, count);
+		}
+	}
+	
+	/**
+	 * Replaces the bound variables in the query's graph pattern with their
+	 * values and removes them from the projection.
+	 * Only URIs and literals can be sent to a SPARQL endpoint.
+	 * 
+	 * @param query the SPARQL query.
+	 * @param bindings the bindings to insert, may be null.
+	 * @return the query with the inserted bindings.
+	 */
+	public static String insertBindings(String query, BindingSet bindings) {
+		if (bindings == null || bindings.size() == 0)
+			return query;
+		
+		int b = query.indexOf('{');
+		String select = query.substring(0, b);
+		String where = query.substring(b);
+		for (String name : bindings.getBindingNames()) {
+			String pattern = "[\\?\\$]" + name + "(?=\\W)";
+			select = select.replaceAll(pattern, "");
+			where = where.replaceAll(pattern, Matcher.quoteReplacement(toSparql(bindings.getValue(name))));
+		}
+		return select + where;
+	}
+	
+	private static String toSparql(Value value) {
+		StringBuilder buffer = new StringBuilder();
+		if (value instanceof URI) {
+			buffer.append("<").append(value.stringValue()).append(">");
+		} else if (value instanceof Literal) {
+			Literal literal = (Literal) value;
+			buffer.append('"').append(literal.getLabel().replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+			if (literal.getLanguage() != null)
+				buffer.append('@').append(literal.getLanguage());
+			if (literal.getDatatype() != null)
+				buffer.append("^^<").append(literal.getDatatype().stringValue()).append('>');
+		} else {
+			throw new IllegalArgumentException("BNode references not supported by SPARQL end-points");
+		}
+		return buffer.toString();
+	}
+	
+	/**
+	 * Returns the response body and decompresses it if necessary.
+	 */
+	private static InputStream decode(HttpMethodBase method, InputStream in) throws IOException {
+		Header encoding = method.getResponseHeader("Content-Encoding");
+		if (in == null || encoding == null)
+			return in;
+		String value = encoding.getValue().trim();
+		if ("gzip".equalsIgnoreCase(value) || "x-gzip".equalsIgnoreCase(value))
+			return new GZIPInputStream(in);
+		if ("deflate".equalsIgnoreCase(value))
+			return new InflaterInputStream(in);
+		return in;
+	}
+	
+	/**
+	 * A tuple query whose running request can be aborted by another
+	 * thread, e.g. when the query result is closed while the executing
+	 * thread still waits for the response.
+	 */
+	public class AbortableTupleQuery extends SPARQLTupleQuery {
+		
+		private final String query;
+		private final long deadline;
+		private HttpMethodBase method;
+		private boolean aborted;
+		
+		AbortableTupleQuery(String endpoint, String query, long deadline) {
+			super(client, endpoint, null, query);
+			this.query = query;
+			this.deadline = deadline;
+		}
+		
+		@Override
+		protected HttpMethodBase getResponse() throws HttpException, IOException, QueryEvaluationException {
+			HttpMethodBase method = createMethod(getUrl(), insertBindings(query, getBindings()), getAccept(), deadline);
+			synchronized (this) {
+				if (aborted)
+					throw new QueryEvaluationException("request to " + getUrl() + " has been aborted");
+				this.method = method;
+			}
+			return send(getUrl(), method, deadline);
+		}
+		
+		/**
+		 * Aborts the request and closes its connection.
+		 */
+		public void abort() {
+			HttpMethodBase method;
+			synchronized (this) {
+				aborted = true;
+				method = this.method;
+			}
+			if (method != null)
+				method.abort();
+		}
+	}
+	
+	/**
+	 * A response which keeps its connection until the results are consumed.
+	 */
+	private class Stream {
+		
+		private final HostConfiguration host;
+		private boolean ended;
+		
+		Stream(HostConfiguration host) {
+			this.host = host;
+		}
+		
+		synchronized void end() {
+			if (!ended) {
+				ended = true;
+				endStream(host);
+			}
+		}
+	}
+	
+	/**
+	 * A request which decompresses its response and reports when its
+	 * connection is released.
+	 */
+	private interface DecodingMethod {
+		
+		/**
+		 * Reads the complete response and releases the connection.
+		 */
+		void buffer() throws IOException;
+		
+		/**
+		 * Sets the stream which ends when the connection is released.
+		 */
+		void setStream(Stream stream);
+	}
+	
+	private static class DecodingGetMethod extends GetMethod implements DecodingMethod {
+		
+		private InputStream decoded;
+		private Stream stream;
+		private boolean released;
+		
+		DecodingGetMethod(String uri) {
+			super(uri);
+		}
+		
+		@Override
+		public synchronized InputStream getResponseBodyAsStream() throws IOException {
+			if (decoded == null)
+				decoded = decode(this, super.getResponseBodyAsStream());
+			return decoded;
+		}
+		
+		@Override
+		public synchronized void buffer() throws IOException {
+			byte[] body = getResponseBody();
+			releaseConnection();
+			decoded = body == null ? null : new ByteArrayInputStream(body);
+		}
+		
+		@Override
+		public synchronized void setStream(Stream stream) {
+			if (released)
+				stream.end();
+			else
+				this.stream = stream;
+		}
+		
+		@Override
+		public void releaseConnection() {
+			super.releaseConnection();
+			released();
+		}
+		
+		@Override
+		public void abort() {
+			super.abort();
+			released();
+		}
+		
+		private synchronized void released() {
+			released = true;
+			if (stream != null)
+				stream.end();
+		}
+	}
+	
+	private static class DecodingPostMethod extends PostMethod implements DecodingMethod {
+		
+		private InputStream decoded;
+		private Stream stream;
+		private boolean released;
+		
+		DecodingPostMethod(String uri) {
+			super(uri);
+		}
+		
+		@Override
+		public synchronized InputStream getResponseBodyAsStream() throws IOException {
+			if (decoded == null)
+				decoded = decode(this, super.getResponseBodyAsStream());
+			return decoded;
+		}
+		
+		@Override
+		public synchronized void buffer() throws IOException {
+			byte[] body = getResponseBody();
+			releaseConnection();
+			decoded = body == null ? null : new ByteArrayInputStream(body);
+		}
+		
+		@Override
+		public synchronized void setStream(Stream stream) {
+			if (released)
+				stream.end();
+			else
+				this.stream = stream;
+		}
+		
+		@Override
+		public void releaseConnection() {
+			super.releaseConnection();
+			released();
+		}
+		
+		@Override
+		public void abort() {
+			super.abort();
+			released();
+		}
+		
+		private synchronized void released() {
+			released = true;
+			if (stream != null)
+				stream.end();
+		}
+	}
+
+}
@@ -0,0 +1,246 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.helpers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openrdf.model.Value;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+
+/**
+ * Incremental parser for the SPARQL query results JSON format.
+ * The JSON tokens are processed as soon as they are complete. Only the
+ * variables in the head and the bindings of the results are evaluated.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class SparqlJsonResultReader extends SparqlResultReader {
+	
+	private static final int OTHER = 0;
+	private static final int VARS = 1;
+	private static final int BINDINGS = 2;
+	private static final int RESULT = 3;
+	private static final int VALUE = 4;
+	
+	private final List<Frame> stack = new ArrayList<Frame>();
+	private boolean started;
+	
+	private QueryBindingSet result;
+	private final Map<String, String> fields = new HashMap<String, String>();
+	
+	@Override
+	protected void parse() throws QueryEvaluationException {
+		int pos = 0;
+		int length = chars.length();
+		while (pos < length) {
+			char c = chars.charAt(pos);
+			if (Character.isWhitespace(c) || c == ':') {
+				pos++;
+			} else if (c == ',') {
+				if (!stack.isEmpty())
+					top().expectKey = top().object;
+				pos++;
+			} else if (c == '{' || c == '[') {
+				push(c == '{');
+				pos++;
+			} else if (c == '}' || c == ']') {
+				pop();
+				pos++;
+			} else if (c == '"') {
+				int end = findStringEnd(pos);
+				if (end < 0)
+					break;
+				string(unescape(pos + 1, end));
+				pos = end + 1;
+			} else {
+				// number, true, false, or null
+				int end = pos;
+				while (end < length && ",}] \t\r\n".indexOf(chars.charAt(end)) < 0) {
+					end++;
+				}
+				if (end == length)
+					break;
+				value(chars.substring(pos, end));
+				pos = end;
+			}
+		}
+		chars.delete(0, pos);
+	}
+	
+	@Override
+	protected void finish() throws QueryEvaluationException {
+		if (chars.toString().trim().length() != 0)
+			throw new QueryEvaluationException("incomplete JSON token in SPARQL result document");
+	}
+	
+	private Frame top() {
+		return stack.get(stack.size() - 1);
+	}
+	
+	private void push(boolean object) throws QueryEvaluationException {
+		if (stack.isEmpty()) {
+			if (started || !object)
+				throw new QueryEvaluationException("invalid SPARQL result document: JSON object expected");
+			started = true;
+		}
+		
+		Frame parent = stack.isEmpty() ? null : top();
+		Frame frame = new Frame(object, parent != null && parent.object ? parent.key : null);
+		if (parent != null) {
+			if (!object && "vars".equals(frame.name) && "head".equals(parent.name))
+				frame.kind = VARS;
+			else if (!object && "bindings".equals(frame.name) && "results".equals(parent.name))
+				frame.kind = BINDINGS;
+			else if (object && parent.kind == BINDINGS)
+				frame.kind = RESULT;
+			else if (object && parent.kind == RESULT)
+				frame.kind = VALUE;
+		}
+		stack.add(frame);
+		
+		if (frame.kind == RESULT) {
+			result = new QueryBindingSet();
+		} else if (frame.kind == VALUE) {
+			fields.clear();
+		} else if ("results".equals(frame.name) && stack.size() == 2) {
+			headComplete = true;
+		}
+	}
+	
+	private void pop() throws QueryEvaluationException {
+		if (stack.isEmpty())
+			throw new QueryEvaluationException("invalid SPARQL result document: unbalanced JSON brackets");
+		Frame frame = stack.remove(stack.size() - 1);
+		
+		if (frame.kind == VALUE) {
+			result.addBinding(frame.name, createValue());
+		} else if (frame.kind == RESULT) {
+			results.add(result);
+			result = null;
+		} else if ("head".equals(frame.name) && stack.size() == 1) {
+			headComplete = true;
+		}
+		if (stack.isEmpty())
+			complete = true;
+	}
+	
+	private void string(String value) {
+		if (!stack.isEmpty() && top().expectKey) {
+			top().key = value;
+			top().expectKey = false;
+		} else {
+			value(value);
+		}
+	}
+	
+	private void value(String value) {
+		if (stack.isEmpty())
+			return;
+		Frame frame = top();
+		if (frame.kind == VARS)
+			bindingNames.add(value);
+		else if (frame.kind == VALUE)
+			fields.put(frame.key, value);
+	}
+	
+	private Value createValue() throws QueryEvaluationException {
+		String type = fields.get("type");
+		String value = fields.get("value");
+		if (type == null || value == null)
+			throw new QueryEvaluationException("invalid SPARQL result document: incomplete RDF term");
+		if ("uri".equals(type))
+			return createURI(value);
+		if ("bnode".equals(type))
+			return createBNode(value);
+		return createLiteral(value, fields.get("xml:lang"), fields.get("datatype"));
+	}
+	
+	/**
+	 * Returns the position of the closing quote of a string or -1 if the
+	 * string is incomplete.
+	 */
+	private int findStringEnd(int pos) {
+		for (int i = pos + 1; i < chars.length(); i++) {
+			char c = chars.charAt(i);
+			if (c == '\\')
+				i++;
+			else if (c == '"')
+				return i;
+		}
+		return -1;
+	}
+	
+	private String unescape(int start, int end) throws QueryEvaluationException {
+		int escape = chars.indexOf("\\", start);
+		if (escape < 0 || escape >= end)
+			return chars.substring(start, end);
+		
+		StringBuilder buffer = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			char c = chars.charAt(i);
+			if (c != '\\') {
+				buffer.append(c);
+				continue;
+			}
+			c = chars.charAt(++i);
+			switch (c) {
+			case 'b': buffer.append('\b'); break;
+			case 'f': buffer.append('\f'); break;
+			case 'n': buffer.append('\n'); break;
+			case 'r': buffer.append('\r'); break;
+			case 't': buffer.append('\t'); break;
+			case 'u':
+				if (i + 4 >= end)
+					throw new QueryEvaluationException("invalid unicode escape in SPARQL result document");
+				buffer.append((char) Integer.parseInt(chars.substring(i + 1, i + 5), 16));
+				i += 4;
+				break;
+			default: buffer.append(c);
+			}
+		}
+		return buffer.toString();
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * An open JSON object or array.
+	 */
+	private static class Frame {
+		
+		final boolean object;
+		final String name;
+		int kind = OTHER;
+		String key;
+		boolean expectKey;
+		
+		Frame(boolean object, String name) {
+			this.object = object;
+			this.name = name;
+			this.expectKey = object;
+		}
+	}
+
+}
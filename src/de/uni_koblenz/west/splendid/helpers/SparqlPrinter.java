@@ -24,20 +24,41 @@ package de.uni_koblenz.west.splendid.helpers;
 //import org.openrdf.query.algebra.TupleExpr;
 import org.openrdf.model.URI;
 import org.openrdf.model.Value;
-import org.openrdf.query.algebra.BinaryTupleOperator;
+import org.openrdf.query.algebra.And;
+import org.openrdf.query.algebra.Bound;
 import org.openrdf.query.algebra.Compare;
+import org.openrdf.query.algebra.Datatype;
 import org.openrdf.query.algebra.Filter;
+import org.openrdf.query.algebra.IsBNode;
+import org.openrdf.query.algebra.IsLiteral;
+import org.openrdf.query.algebra.IsURI;
 import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.Lang;
+import org.openrdf.query.algebra.LangMatches;
+import org.openrdf.query.algebra.LeftJoin;
+import org.openrdf.query.algebra.MathExpr;
+import org.openrdf.query.algebra.Not;
+import org.openrdf.query.algebra.Or;
 import org.openrdf.query.algebra.QueryModelNode;
+import org.openrdf.query.algebra.Regex;
+import org.openrdf.query.algebra.SameTerm;
 import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.Str;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Union;
+import org.openrdf.query.algebra.UnaryValueOperator;
 import org.openrdf.query.algebra.ValueConstant;
+import org.openrdf.query.algebra.ValueExpr;
 import org.openrdf.query.algebra.Var;
 import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.openrdf.rio.ntriples.NTriplesUtil;
 
 /**
  * Generates the SPARQL representation for a query model.
  * 
- * TODO: need to extend beyond join and triple patterns.
+ * Supports triple patterns, joins, unions, optional parts and filters
+ * with common value expressions. Other operators are not supported,
+ * i.e. printing them throws an {@link UnsupportedOperationException}.
  * 
  * @author Olaf Goerlitz.
  */
@@ -47,6 +68,7 @@ public class SparqlPrinter extends QueryModelVisitorBase<RuntimeException> {
 	
 	private StringBuffer buffer = new StringBuffer();
 	private String indent = "  ";
+	private boolean nameAnonymous;
 	
 	/**
 	 * Prints the SPARQL query starting with the given query model node.
@@ -55,30 +77,111 @@ public class SparqlPrinter extends QueryModelVisitorBase<RuntimeException> {
 	 * @return the SPARQL representation of the query model.
 	 */
 	public static String print(QueryModelNode root) {
+		return print(root, false);
+	}
+	
+	/**
+	 * Prints the SPARQL query starting with the given query model node.
+	 * Anonymous variables (blank nodes) are printed as blank nodes or as
+	 * variables named by {@link #getAnonymousName(Var)}.
+	 *  
+	 * @param root the root node of the query model to print.
+	 * @param nameAnonymous true if anonymous variables are printed as variables.
+	 * @return the SPARQL representation of the query model.
+	 */
+	public static String print(QueryModelNode root, boolean nameAnonymous) {
 		synchronized (printer) {
 			printer.buffer.setLength(0);
+			printer.nameAnonymous = nameAnonymous;
 			root.visit(printer);
 			return printer.buffer.toString();
 		}
 	}
+	
+	/**
+	 * Returns a valid SPARQL variable name for an anonymous variable.
+	 * 
+	 * @param var the anonymous variable.
+	 * @return the variable name without leading '?'.
+	 */
+	public static String getAnonymousName(Var var) {
+		return "anon" + var.getName().replaceAll("[^A-Za-z0-9_]", "_");
+	}
+
+	/**
+	 * Checks if the SPARQL representation of the query model can be printed.
+	 * 
+	 * @param root the root node of the query model to check.
+	 * @return true if all operators of the query model are supported.
+	 */
+	public static boolean isPrintable(QueryModelNode root) {
+		try {
+			print(root);
+			return true;
+		} catch (UnsupportedOperationException e) {
+			return false;
+		}
+	}
+	
+	/**
+	 * Returns the SPARQL representation of an RDF value.
+	 * Literals are escaped properly.
+	 * 
+	 * @param value the value to print.
+	 * @return the SPARQL representation of the value.
+	 */
+	public static String printValue(Value value) {
+		if (value instanceof URI)
+			return "<" + value + ">";
+		return NTriplesUtil.toNTriplesString(value);
+	}
 
 	// --------------------------------------------------------------
 	
 	@Override
-//	public void meetNaryTupleOperator(NaryTupleOperator node) throws RuntimeException {
-	protected void meetBinaryTupleOperator(BinaryTupleOperator node) throws RuntimeException {
-		if (node instanceof Join) {
-			// Sesame 3.0:
-//			for (TupleExpr expr : node.getArgs()) {
-//				expr.visit(this);
-//			}
-			// Sesame 2.3.2:
+	protected void meetNode(QueryModelNode node) throws RuntimeException {
+		throw new UnsupportedOperationException("not yet implemented: " + node.getSignature());
+	}
+	
+	@Override
+	public void meetOther(QueryModelNode node) throws RuntimeException {
+		// e.g. sub queries within a single source join
+		if (node instanceof TupleExpr)
+			node.visitChildren(this);
+		else
+			super.meetOther(node);
+	}
+	
+	@Override
+	public void meet(Join node) throws RuntimeException {
+		// Sesame 3.0:
+//		for (TupleExpr expr : node.getArgs()) {
+//			expr.visit(this);
+//		}
+		// Sesame 2.3.2:
+		printGroup(node.getLeftArg(), false);
+		printGroup(node.getRightArg(), false);
+	}
+	
+	@Override
+	public void meet(Union node) throws RuntimeException {
+		printGroup(node.getLeftArg(), true);
+		buffer.append(indent).append("UNION\n");
+		printGroup(node.getRightArg(), true);
+	}
+	
+	@Override
+	public void meet(LeftJoin node) throws RuntimeException {
+		if (node.getLeftArg() instanceof Union)
+			printGroup(node.getLeftArg(), true);
+		else
 			node.getLeftArg().visit(this);
-			node.getRightArg().visit(this);
-			
-		} else {
-			throw new UnsupportedOperationException("not yet implemented");
-		}
+		
+		buffer.append(indent).append("OPTIONAL {\n");
+		node.getRightArg().visit(this);
+		if (node.hasCondition())
+			printFilter(node.getCondition());
+		buffer.append(indent).append("}\n");
 	}
 	
 	@Override
@@ -90,10 +193,7 @@ public class SparqlPrinter extends QueryModelVisitorBase<RuntimeException> {
 		node.getArg().visit(this);
 			
 		// then the applied filters conditions
-		buffer.append(indent);
-		buffer.append("FILTER (");
-		node.getCondition().visit(this);
-		buffer.append(")\n");
+		printFilter(node.getCondition());
 	}
 	
 	@Override
@@ -103,18 +203,105 @@ public class SparqlPrinter extends QueryModelVisitorBase<RuntimeException> {
 		node.getRightArg().visit(this);
 	}
 	
+	@Override
+	public void meet(MathExpr node) throws RuntimeException {
+		buffer.append("(");
+		node.getLeftArg().visit(this);
+		buffer.append(" ").append(node.getOperator().getSymbol()).append(" ");
+		node.getRightArg().visit(this);
+		buffer.append(")");
+	}
+	
+	@Override
+	public void meet(And node) throws RuntimeException {
+		buffer.append("(");
+		node.getLeftArg().visit(this);
+		buffer.append(" && ");
+		node.getRightArg().visit(this);
+		buffer.append(")");
+	}
+	
+	@Override
+	public void meet(Or node) throws RuntimeException {
+		buffer.append("(");
+		node.getLeftArg().visit(this);
+		buffer.append(" || ");
+		node.getRightArg().visit(this);
+		buffer.append(")");
+	}
+	
+	@Override
+	public void meet(Not node) throws RuntimeException {
+		buffer.append("!(");
+		node.getArg().visit(this);
+		buffer.append(")");
+	}
+	
+	@Override
+	public void meet(Bound node) throws RuntimeException {
+		buffer.append("bound(");
+		node.getArg().visit(this);
+		buffer.append(")");
+	}
+	
+	@Override
+	public void meet(SameTerm node) throws RuntimeException {
+		printFunction("sameTerm", node.getLeftArg(), node.getRightArg());
+	}
+	
+	@Override
+	public void meet(LangMatches node) throws RuntimeException {
+		printFunction("langMatches", node.getLeftArg(), node.getRightArg());
+	}
+	
+	@Override
+	public void meet(Regex node) throws RuntimeException {
+		if (node.getFlagsArg() == null)
+			printFunction("regex", node.getArg(), node.getPatternArg());
+		else
+			printFunction("regex", node.getArg(), node.getPatternArg(), node.getFlagsArg());
+	}
+	
+	@Override
+	public void meet(Str node) throws RuntimeException {
+		printFunction("str", node);
+	}
+	
+	@Override
+	public void meet(Lang node) throws RuntimeException {
+		printFunction("lang", node);
+	}
+	
+	@Override
+	public void meet(Datatype node) throws RuntimeException {
+		printFunction("datatype", node);
+	}
+	
+	@Override
+	public void meet(IsURI node) throws RuntimeException {
+		printFunction("isURI", node);
+	}
+	
+	@Override
+	public void meet(IsBNode node) throws RuntimeException {
+		printFunction("isBlank", node);
+	}
+	
+	@Override
+	public void meet(IsLiteral node) throws RuntimeException {
+		printFunction("isLiteral", node);
+	}
+	
 	@Override
 	public void meet(Var node) throws RuntimeException {
 		if (node.hasValue()) {
 			// bound variable (constant)
-			Value value = node.getValue();
-			if (value instanceof URI)
-				buffer.append("<").append(value).append(">");
-			else
-				buffer.append(value);
+			buffer.append(printValue(node.getValue()));
 		} else {
 			// unbound variable
-			if (node.isAnonymous())
+			if (node.isAnonymous() && nameAnonymous)
+				buffer.append("?").append(getAnonymousName(node));
+			else if (node.isAnonymous())
 				buffer.append("[]");
 			else
 				buffer.append("?").append(node.getName());
@@ -123,7 +310,7 @@ public class SparqlPrinter extends QueryModelVisitorBase<RuntimeException> {
 	
 	@Override
 	public void meet(ValueConstant node) throws RuntimeException {
-		buffer.append(node.getValue());
+		buffer.append(printValue(node.getValue()));
 	}
 
 	@Override
@@ -135,5 +322,41 @@ public class SparqlPrinter extends QueryModelVisitorBase<RuntimeException> {
 		}
 		buffer.append(".\n");
 	}
+	
+	// --------------------------------------------------------------
+	
+	/**
+	 * Prints a group graph pattern. Unions and optional parts are always
+	 * enclosed in braces to keep their scope within a join.
+	 */
+	private void printGroup(TupleExpr expr, boolean braces) {
+		braces = braces || expr instanceof Union || expr instanceof LeftJoin;
+		if (braces)
+			buffer.append(indent).append("{\n");
+		expr.visit(this);
+		if (braces)
+			buffer.append(indent).append("}\n");
+	}
+	
+	private void printFilter(ValueExpr condition) {
+		buffer.append(indent);
+		buffer.append("FILTER (");
+		condition.visit(this);
+		buffer.append(")\n");
+	}
+	
+	private void printFunction(String name, UnaryValueOperator node) {
+		printFunction(name, node.getArg());
+	}
+	
+	private void printFunction(String name, ValueExpr... args) {
+		buffer.append(name).append("(");
+		for (int i = 0; i < args.length; i++) {
+			if (i > 0)
+				buffer.append(", ");
+			args[i].visit(this);
+		}
+		buffer.append(")");
+	}
 
 }
@@ -0,0 +1,236 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.helpers;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openrdf.model.BNode;
+import org.openrdf.model.Literal;
+import org.openrdf.model.URI;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+
+/**
+ * Base class for incremental parsers of SPARQL query result documents.
+ * The document is supplied in chunks of bytes as they arrive from the
+ * network and all complete results can be taken after each chunk.
+ * Recurring URIs share the same value object.
+ * 
+ * @author Olaf Goerlitz
+ */
+public abstract class SparqlResultReader {
+	
+	public static final String XML = "xml";
+	public static final String JSON = "json";
+	public static final String TSV = "tsv";
+	
+	private static final int URI_CACHE_SIZE = 4096;
+	
+	private final ValueFactory vf = ValueFactoryImpl.getInstance();
+	private final Map<String, URI> uriCache = new HashMap<String, URI>();
+	
+	private final CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private ByteBuffer undecoded = ByteBuffer.allocate(0);
+	private CharBuffer decoded = CharBuffer.allocate(0);
+	
+	/** The characters which have not been parsed yet. */
+	protected final StringBuilder chars = new StringBuilder();
+	
+	protected final List<String> bindingNames = new ArrayList<String>();
+	protected List<BindingSet> results = new ArrayList<BindingSet>();
+	protected boolean headComplete;
+	protected boolean complete;
+	
+	/**
+	 * Creates a reader for the content type of a result document.
+	 * 
+	 * @param contentType the content type, may include parameters.
+	 * @return the reader or null if the content type is not supported.
+	 */
+	public static SparqlResultReader create(String contentType) {
+		String format = getFormat(contentType);
+		if (XML.equals(format))
+			return new SparqlXmlResultReader();
+		if (JSON.equals(format))
+			return new SparqlJsonResultReader();
+		if (TSV.equals(format))
+			return new SparqlTsvResultReader();
+		return null;
+	}
+	
+	/**
+	 * Returns the result format of a content type.
+	 * 
+	 * @param contentType the content type, may include parameters.
+	 * @return the result format or null if it is not supported.
+	 */
+	public static String getFormat(String contentType) {
+		if (contentType == null)
+			return null;
+		int semicolon = contentType.indexOf(';');
+		String type = (semicolon < 0 ? contentType : contentType.substring(0, semicolon)).trim().toLowerCase();
+		if ("application/sparql-results+xml".equals(type) || "application/xml".equals(type) || "text/xml".equals(type))
+			return XML;
+		if ("application/sparql-results+json".equals(type) || "application/json".equals(type))
+			return JSON;
+		if ("text/tab-separated-values".equals(type))
+			return TSV;
+		return null;
+	}
+	
+	/**
+	 * Returns the MIME type of a result format.
+	 * 
+	 * @param format the result format (xml, json, or tsv).
+	 * @return the MIME type.
+	 */
+	public static String getMimeType(String format) {
+		if (XML.equals(format))
+			return "application/sparql-results+xml";
+		if (JSON.equals(format))
+			return "application/sparql-results+json";
+		if (TSV.equals(format))
+			return "text/tab-separated-values";
+		throw new IllegalArgumentException("unknown result format: " + format);
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Parses the next chunk of the result document.
+	 * 
+	 * @param bytes the bytes of the chunk.
+	 * @param offset the offset of the chunk.
+	 * @param length the length of the chunk.
+	 * @throws QueryEvaluationException if the document is malformed.
+	 */
+	public void feed(byte[] bytes, int offset, int length) throws QueryEvaluationException {
+		ByteBuffer in;
+		if (undecoded.hasRemaining()) {
+			in = ByteBuffer.allocate(undecoded.remaining() + length);
+			in.put(undecoded).put(bytes, offset, length).flip();
+		} else {
+			in = ByteBuffer.wrap(bytes, offset, length);
+		}
+		if (decoded.capacity() < in.remaining())
+			decoded = CharBuffer.allocate(Math.max(in.remaining(), 2 * decoded.capacity()));
+		decoded.clear();
+		decoder.decode(in, decoded, false);
+		decoded.flip();
+		chars.append(decoded);
+		
+		// keep an incomplete multi-byte character for the next chunk
+		if (in.hasRemaining()) {
+			undecoded = ByteBuffer.allocate(in.remaining());
+			undecoded.put(in).flip();
+		} else if (undecoded.capacity() != 0) {
+			undecoded = ByteBuffer.allocate(0);
+		}
+		
+		parse();
+	}
+	
+	/**
+	 * Finishes the parsing of the result document.
+	 * 
+	 * @throws QueryEvaluationException if the document is incomplete.
+	 */
+	public void end() throws QueryEvaluationException {
+		parse();
+		finish();
+		if (!complete)
+			throw new QueryEvaluationException("incomplete SPARQL result document");
+	}
+	
+	/**
+	 * Returns the results which have been parsed since the last call.
+	 * 
+	 * @return the parsed results.
+	 */
+	public List<BindingSet> take() {
+		List<BindingSet> taken = results;
+		results = new ArrayList<BindingSet>();
+		return taken;
+	}
+	
+	/**
+	 * Returns whether the head with all binding names has been parsed.
+	 * 
+	 * @return true if the head has been parsed.
+	 */
+	public boolean isHeadComplete() {
+		return headComplete;
+	}
+	
+	public List<String> getBindingNames() {
+		return bindingNames;
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Processes all complete content of the character buffer and removes
+	 * it from the buffer.
+	 */
+	protected abstract void parse() throws QueryEvaluationException;
+	
+	/**
+	 * Processes the remaining content at the end of the document.
+	 */
+	protected void finish() throws QueryEvaluationException {
+	}
+	
+	protected URI createURI(String uri) {
+		URI value = uriCache.get(uri);
+		if (value == null) {
+			if (uriCache.size() >= URI_CACHE_SIZE)
+				uriCache.clear();
+			value = vf.createURI(uri);
+			uriCache.put(uri, value);
+		}
+		return value;
+	}
+	
+	protected BNode createBNode(String id) {
+		return vf.createBNode(id);
+	}
+	
+	protected Literal createLiteral(String label, String language, String datatype) {
+		if (language != null)
+			return vf.createLiteral(label, language);
+		if (datatype != null)
+			return vf.createLiteral(label, createURI(datatype));
+		return vf.createLiteral(label);
+	}
+
+}
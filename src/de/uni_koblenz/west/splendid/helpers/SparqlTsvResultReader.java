@@ -0,0 +1,179 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.helpers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openrdf.model.Value;
+import org.openrdf.model.vocabulary.XMLSchema;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+
+/**
+ * Incremental parser for the SPARQL query results TSV format.
+ * Each complete line is processed as soon as it is available. The first
+ * line contains the variables, all other lines contain RDF terms in
+ * Turtle syntax. Empty fields denote unbound variables.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class SparqlTsvResultReader extends SparqlResultReader {
+	
+	private final List<String> fields = new ArrayList<String>();
+	
+	@Override
+	protected void parse() throws QueryEvaluationException {
+		int pos = 0;
+		int newline;
+		while ((newline = chars.indexOf("\n", pos)) >= 0) {
+			int end = (newline > pos && chars.charAt(newline - 1) == '\r') ? newline - 1 : newline;
+			line(pos, end);
+			pos = newline + 1;
+		}
+		chars.delete(0, pos);
+	}
+	
+	@Override
+	protected void finish() throws QueryEvaluationException {
+		// the last line may not be terminated
+		if (chars.length() != 0) {
+			line(0, chars.length());
+			chars.setLength(0);
+		}
+		complete = headComplete;
+	}
+	
+	private void line(int start, int end) throws QueryEvaluationException {
+		split(start, end);
+		
+		if (!headComplete) {
+			for (String name : fields) {
+				if (name.startsWith("?") || name.startsWith("$"))
+					name = name.substring(1);
+				bindingNames.add(name);
+			}
+			headComplete = true;
+			return;
+		}
+		
+		// ignore empty lines, e.g. at the end of the document
+		if (start == end && bindingNames.size() != 1)
+			return;
+		
+		if (fields.size() > bindingNames.size())
+			throw new QueryEvaluationException("invalid SPARQL result document: too many fields in TSV line");
+		QueryBindingSet result = new QueryBindingSet();
+		for (int i = 0; i < fields.size(); i++) {
+			String field = fields.get(i);
+			if (field.length() != 0)
+				result.addBinding(bindingNames.get(i), parseTerm(field));
+		}
+		results.add(result);
+	}
+	
+	private void split(int start, int end) {
+		fields.clear();
+		int pos = start;
+		int tab;
+		while ((tab = chars.indexOf("\t", pos)) >= 0 && tab < end) {
+			fields.add(chars.substring(pos, tab));
+			pos = tab + 1;
+		}
+		fields.add(chars.substring(pos, end));
+	}
+	
+	private Value parseTerm(String term) throws QueryEvaluationException {
+		char c = term.charAt(0);
+		if (c == '<' && term.endsWith(">"))
+			return createURI(unescape(term, 1, term.length() - 1));
+		if (term.startsWith("_:"))
+			return createBNode(term.substring(2));
+		if (c == '"' || c == '\'')
+			return parseLiteral(term, c);
+		if ("true".equals(term) || "false".equals(term))
+			return createLiteral(term, null, XMLSchema.BOOLEAN.stringValue());
+		if (c == '+' || c == '-' || c == '.' || Character.isDigit(c)) {
+			if (term.indexOf('e') >= 0 || term.indexOf('E') >= 0)
+				return createLiteral(term, null, XMLSchema.DOUBLE.stringValue());
+			if (term.indexOf('.') >= 0)
+				return createLiteral(term, null, XMLSchema.DECIMAL.stringValue());
+			return createLiteral(term, null, XMLSchema.INTEGER.stringValue());
+		}
+		throw new QueryEvaluationException("invalid RDF term in SPARQL result document: " + term);
+	}
+	
+	private Value parseLiteral(String term, char quote) throws QueryEvaluationException {
+		// find the closing quote
+		int end = 1;
+		while (end < term.length() && term.charAt(end) != quote) {
+			if (term.charAt(end) == '\\')
+				end++;
+			end++;
+		}
+		if (end >= term.length())
+			throw new QueryEvaluationException("invalid literal in SPARQL result document: " + term);
+		
+		String label = unescape(term, 1, end);
+		String suffix = term.substring(end + 1);
+		if (suffix.length() == 0)
+			return createLiteral(label, null, null);
+		if (suffix.startsWith("@"))
+			return createLiteral(label, suffix.substring(1), null);
+		if (suffix.startsWith("^^<") && suffix.endsWith(">"))
+			return createLiteral(label, null, unescape(suffix, 3, suffix.length() - 1));
+		throw new QueryEvaluationException("invalid literal in SPARQL result document: " + term);
+	}
+	
+	private String unescape(String term, int start, int end) throws QueryEvaluationException {
+		int escape = term.indexOf('\\', start);
+		if (escape < 0 || escape >= end)
+			return term.substring(start, end);
+		
+		StringBuilder buffer = new StringBuilder(end - start);
+		for (int i = start; i < end; i++) {
+			char c = term.charAt(i);
+			if (c != '\\' || i + 1 == end) {
+				buffer.append(c);
+				continue;
+			}
+			c = term.charAt(++i);
+			switch (c) {
+			case 't': buffer.append('\t'); break;
+			case 'n': buffer.append('\n'); break;
+			case 'r': buffer.append('\r'); break;
+			case 'b': buffer.append('\b'); break;
+			case 'f': buffer.append('\f'); break;
+			case 'u':
+			case 'U':
+				int digits = (c == 'u') ? 4 : 8;
+				if (i + digits >= end)
+					throw new QueryEvaluationException("invalid unicode escape in SPARQL result document: " + term);
+				buffer.appendCodePoint(Integer.parseInt(term.substring(i + 1, i + 1 + digits), 16));
+				i += digits;
+				break;
+			default: buffer.append(c);
+			}
+		}
+		return buffer.toString();
+	}
+
+}
@@ -0,0 +1,251 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.helpers;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.openrdf.model.Value;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+
+/**
+ * Incremental parser for the SPARQL query results XML format.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class SparqlXmlResultReader extends SparqlResultReader {
+	
+	private static final Pattern ATTRIBUTE = Pattern.compile("([\\w:.-]+)\\s*=\\s*(?:\"([^\"]*)\"|'([^']*)')");
+	
+	private QueryBindingSet result;
+	private String bindingName;
+	private String valueType;
+	private String language;
+	private String datatype;
+	private StringBuilder text;
+	
+	/**
+	 * Processes all complete markup and text in the character buffer.
+	 */
+	@Override
+	protected void parse() throws QueryEvaluationException {
+		int pos = 0;
+		int length = chars.length();
+		while (pos < length) {
+			if (chars.charAt(pos) != '<') {
+				int next = chars.indexOf("<", pos);
+				if (next < 0)
+					break;
+				text(decode(chars.substring(pos, next)));
+				pos = next;
+				continue;
+			}
+			
+			int end;
+			if (startsWith(pos, "<!--")) {
+				end = chars.indexOf("-->", pos);
+				if (end < 0)
+					break;
+				pos = end + 3;
+			} else if (startsWith(pos, "<![CDATA[")) {
+				end = chars.indexOf("]]>", pos);
+				if (end < 0)
+					break;
+				text(chars.substring(pos + 9, end));
+				pos = end + 3;
+			} else if (startsWith(pos, "<?")) {
+				end = chars.indexOf("?>", pos);
+				if (end < 0)
+					break;
+				pos = end + 2;
+			} else if (length - pos < 9 && chars.indexOf(">", pos) < 0) {
+				// cannot decide on the markup type yet
+				break;
+			} else if (startsWith(pos, "<!")) {
+				end = chars.indexOf(">", pos);
+				if (end < 0)
+					break;
+				pos = end + 1;
+			} else {
+				end = findTagEnd(pos);
+				if (end < 0)
+					break;
+				tag(chars.substring(pos + 1, end));
+				pos = end + 1;
+			}
+		}
+		chars.delete(0, pos);
+	}
+	
+	private boolean startsWith(int pos, String prefix) {
+		int length = Math.min(prefix.length(), chars.length() - pos);
+		for (int i = 0; i < length; i++) {
+			if (chars.charAt(pos + i) != prefix.charAt(i))
+				return false;
+		}
+		return length == prefix.length() || chars.indexOf(">", pos) < 0;
+	}
+	
+	/**
+	 * Returns the position of the closing angle bracket of a tag, ignoring
+	 * brackets in quoted attribute values.
+	 */
+	private int findTagEnd(int pos) {
+		char quote = 0;
+		for (int i = pos + 1; i < chars.length(); i++) {
+			char c = chars.charAt(i);
+			if (quote != 0) {
+				if (c == quote)
+					quote = 0;
+			} else if (c == '"' || c == '\'') {
+				quote = c;
+			} else if (c == '>') {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private void tag(String content) throws QueryEvaluationException {
+		if (content.startsWith("/")) {
+			endElement(localName(content.substring(1).trim()));
+			return;
+		}
+		
+		boolean empty = content.endsWith("/");
+		if (empty)
+			content = content.substring(0, content.length() - 1);
+		
+		int nameEnd = 0;
+		while (nameEnd < content.length() && !Character.isWhitespace(content.charAt(nameEnd))) {
+			nameEnd++;
+		}
+		String name = localName(content.substring(0, nameEnd));
+		
+		Map<String, String> attributes = new HashMap<String, String>();
+		Matcher matcher = ATTRIBUTE.matcher(content.substring(nameEnd));
+		while (matcher.find()) {
+			String value = matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+			attributes.put(matcher.group(1), decode(value));
+		}
+		
+		startElement(name, attributes);
+		if (empty)
+			endElement(name);
+	}
+	
+	private void startElement(String name, Map<String, String> attributes) throws QueryEvaluationException {
+		if ("variable".equals(name)) {
+			bindingNames.add(attributes.get("name"));
+		} else if ("results".equals(name) || "boolean".equals(name)) {
+			headComplete = true;
+		} else if ("result".equals(name)) {
+			result = new QueryBindingSet();
+		} else if ("binding".equals(name)) {
+			bindingName = attributes.get("name");
+		} else if ("uri".equals(name) || "bnode".equals(name) || "literal".equals(name)) {
+			if (result == null || bindingName == null)
+				throw new QueryEvaluationException("value outside of a result binding: " + name);
+			valueType = name;
+			language = attributes.get("xml:lang");
+			datatype = attributes.get("datatype");
+			text = new StringBuilder();
+		}
+	}
+	
+	private void endElement(String name) throws QueryEvaluationException {
+		if (name.equals(valueType)) {
+			Value value;
+			if ("uri".equals(name))
+				value = createURI(text.toString());
+			else if ("bnode".equals(name))
+				value = createBNode(text.toString());
+			else
+				value = createLiteral(text.toString(), language, datatype);
+			result.addBinding(bindingName, value);
+			valueType = null;
+		} else if ("binding".equals(name)) {
+			bindingName = null;
+		} else if ("result".equals(name)) {
+			results.add(result);
+			result = null;
+		} else if ("head".equals(name)) {
+			headComplete = true;
+		} else if ("sparql".equals(name)) {
+			complete = true;
+		}
+	}
+	
+	private void text(String value) {
+		if (valueType != null)
+			text.append(value);
+	}
+	
+	private static String localName(String name) {
+		int colon = name.indexOf(':');
+		return colon < 0 ? name : name.substring(colon + 1);
+	}
+	
+	/**
+	 * Replaces the predefined and numeric character references.
+	 */
+	private static String decode(String value) {
+		int amp = value.indexOf('&');
+		if (amp < 0)
+			return value;
+		
+		StringBuilder buffer = new StringBuilder(value.length());
+		int pos = 0;
+		while (amp >= 0) {
+			buffer.append(value, pos, amp);
+			int semicolon = value.indexOf(';', amp);
+			if (semicolon < 0) {
+				pos = amp;
+				break;
+			}
+			String entity = value.substring(amp + 1, semicolon);
+			if ("lt".equals(entity))
+				buffer.append('<');
+			else if ("gt".equals(entity))
+				buffer.append('>');
+			else if ("amp".equals(entity))
+				buffer.append('&');
+			else if ("quot".equals(entity))
+				buffer.append('"');
+			else if ("apos".equals(entity))
+				buffer.append('\'');
+			else if (entity.startsWith("#x"))
+				buffer.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+			else if (entity.startsWith("#"))
+				buffer.appendCodePoint(Integer.parseInt(entity.substring(1)));
+			else
+				buffer.append('&').append(entity).append(';');
+			pos = semicolon + 1;
+			amp = value.indexOf('&', pos);
+		}
+		buffer.append(value, pos, value.length());
+		return buffer.toString();
+	}
+
+}
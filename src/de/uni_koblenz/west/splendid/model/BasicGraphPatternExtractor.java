@@ -113,23 +113,26 @@ public class BasicGraphPatternExtractor extends QueryModelVisitorBase<RuntimeExc
 	public void meet(Join join) throws RuntimeException {
 		
 		boolean valid = true;
+		List<TupleExpr> childBGPs = new ArrayList<TupleExpr>();
 		
 		// visit join arguments and check that all are valid BGPS
 		for (TupleExpr expr : new TupleExpr[] { join.getLeftArg(), join.getRightArg() }) {
+			lastBGPNode = null;
 			expr.visit(this);
 			if (lastBGPNode == null) {
 				// child is not a BGP -> join is not a BGP
 				valid = false;
 			} else {
-				if (!valid) {
-					// last child is a BGP but another child was not
-					this.bgpList.add(lastBGPNode);
-					lastBGPNode = null;
-				}
+				childBGPs.add(lastBGPNode);
 			}
 		}
-		if (valid)
+		if (valid) {
 			lastBGPNode = join;
+		} else {
+			// children which are BGPs while another child is not (e.g. a union)
+			this.bgpList.addAll(childBGPs);
+			lastBGPNode = null;
+		}
 	}
 	
 	// --------------------------------------------------------------
@@ -0,0 +1,69 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.model;
+
+import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.TupleExpr;
+
+/**
+ * Join of two arguments whose results are sorted on the join variable.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class MergeJoin extends Join {
+	
+	private String joinVar;
+	
+	public MergeJoin(TupleExpr leftArg, TupleExpr rightArg, String joinVar) {
+		super(leftArg, rightArg);
+		this.joinVar = joinVar;
+	}
+	
+	/**
+	 * Returns the variable on which both arguments are sorted.
+	 * 
+	 * @return the name of the join variable.
+	 */
+	public String getJoinVar() {
+		return joinVar;
+	}
+	
+	@Override
+	public String getSignature() {
+		return super.getSignature() + " (" + joinVar + ")";
+	}
+	
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof MergeJoin && super.equals(other) && joinVar.equals(((MergeJoin) other).joinVar);
+	}
+
+	@Override
+	public int hashCode() {
+		return super.hashCode() ^ "MergeJoin".hashCode() ^ joinVar.hashCode();
+	}
+
+	@Override
+	public MergeJoin clone() {
+		return (MergeJoin)super.clone();
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.openrdf.query.algebra.Filter;
+import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.QueryModelVisitor;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.UnaryTupleOperator;
+import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.helpers.StatementPatternCollector;
+
+/**
+ * Query Model Node which marks a join tree to be evaluated as one multiway
+ * join of all join arguments. The filter conditions inside the join tree
+ * are applied on the join results.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class MultiJoin extends UnaryTupleOperator {
+	
+	public MultiJoin(TupleExpr expr) {
+		super(expr);
+	}
+	
+	/**
+	 * Returns the arguments of all joins in the join tree.
+	 * 
+	 * @return the join arguments.
+	 */
+	public List<TupleExpr> getJoinArgs() {
+		List<TupleExpr> args = new ArrayList<TupleExpr>();
+		collect(getArg(), args, new ArrayList<ValueExpr>());
+		return args;
+	}
+	
+	/**
+	 * Returns the filter conditions of the join tree.
+	 * 
+	 * @return the filter conditions.
+	 */
+	public List<ValueExpr> getConditions() {
+		List<ValueExpr> conditions = new ArrayList<ValueExpr>();
+		collect(getArg(), new ArrayList<TupleExpr>(), conditions);
+		return conditions;
+	}
+	
+	/**
+	 * Returns the variables of a join argument which are not constants.
+	 * 
+	 * @param arg the join argument.
+	 * @return the variable names.
+	 */
+	public static Set<String> getVarNames(TupleExpr arg) {
+		Set<String> varNames = new LinkedHashSet<String>();
+		for (StatementPattern pattern : StatementPatternCollector.process(arg)) {
+			for (Var var : pattern.getVarList()) {
+				if (!var.hasValue())
+					varNames.add(var.getName());
+			}
+		}
+		return varNames;
+	}
+	
+	private void collect(TupleExpr expr, List<TupleExpr> args, List<ValueExpr> conditions) {
+		if (expr instanceof Join) {
+			collect(((Join) expr).getLeftArg(), args, conditions);
+			collect(((Join) expr).getRightArg(), args, conditions);
+		} else if (expr instanceof Filter) {
+			conditions.add(((Filter) expr).getCondition());
+			collect(((Filter) expr).getArg(), args, conditions);
+		} else {
+			args.add(expr);
+		}
+	}
+	
+	@Override
+	public MultiJoin clone() {
+		return (MultiJoin) super.clone();
+	}
+
+	@Override
+	public <X extends Exception> void visit(QueryModelVisitor<X> visitor) throws X {
+		visitor.meetOther(this);
+	}
+	
+}
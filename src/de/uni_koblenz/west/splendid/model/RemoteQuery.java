@@ -20,8 +20,13 @@
  */
 package de.uni_koblenz.west.splendid.model;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
+import org.openrdf.query.algebra.GroupElem;
+import org.openrdf.query.algebra.OrderElem;
 import org.openrdf.query.algebra.QueryModelVisitor;
 import org.openrdf.query.algebra.StatementPattern;
 import org.openrdf.query.algebra.TupleExpr;
@@ -38,9 +43,139 @@ import de.uni_koblenz.west.splendid.index.Graph;
  */
 public class RemoteQuery extends UnaryTupleOperator {
 	
+	private long limit = -1;
+	
+	private List<OrderElem> order;
+	
+	private Set<String> groupBindingNames;
+	private List<GroupElem> aggregates;
+	
 	public RemoteQuery(TupleExpr expr) {
 		super(expr);
 	}
+	
+	/**
+	 * Returns the maximum number of results requested from each source.
+	 * 
+	 * @return the result limit or -1 if all results are requested.
+	 */
+	public long getLimit() {
+		return limit;
+	}
+	
+	/**
+	 * Sets the maximum number of results requested from each source.
+	 * A limited query returns distinct results.
+	 * 
+	 * @param limit the result limit or -1 if all results are requested.
+	 */
+	public void setLimit(long limit) {
+		this.limit = limit;
+	}
+	
+	/**
+	 * Returns the sort order of the results requested from each source.
+	 * 
+	 * @return the order elements or null if the results are not sorted.
+	 */
+	public List<OrderElem> getOrder() {
+		return order;
+	}
+	
+	/**
+	 * Sets the sort order of the results requested from each source.
+	 * 
+	 * @param order the order elements or null if the results are not sorted.
+	 */
+	public void setOrder(List<OrderElem> order) {
+		this.order = order;
+	}
+	
+	/**
+	 * Returns the aggregates which are computed by each source.
+	 * 
+	 * @return the aggregates or null if the results are not aggregated.
+	 */
+	public List<GroupElem> getAggregates() {
+		return aggregates;
+	}
+	
+	/**
+	 * Returns the variables by which the source results are grouped.
+	 * 
+	 * @return the group variables or null if the results are not aggregated.
+	 */
+	public Set<String> getGroupBindingNames() {
+		return groupBindingNames;
+	}
+	
+	/**
+	 * Sets the aggregates which are computed by each source. An aggregated
+	 * query returns the group variables and the aggregates only.
+	 * 
+	 * @param groupBindingNames the group variables.
+	 * @param aggregates the aggregates or null if the results are not aggregated.
+	 */
+	public void setAggregates(Set<String> groupBindingNames, List<GroupElem> aggregates) {
+		this.groupBindingNames = aggregates == null ? null : new LinkedHashSet<String>(groupBindingNames);
+		this.aggregates = aggregates;
+	}
+	
+	@Override
+	public Set<String> getBindingNames() {
+		if (aggregates == null)
+			return super.getBindingNames();
+		Set<String> bindingNames = new LinkedHashSet<String>(groupBindingNames);
+		for (GroupElem elem : aggregates) {
+			bindingNames.add(elem.getName());
+		}
+		return bindingNames;
+	}
+	
+	@Override
+	public Set<String> getAssuredBindingNames() {
+		if (aggregates == null)
+			return super.getAssuredBindingNames();
+		Set<String> bindingNames = new LinkedHashSet<String>(super.getAssuredBindingNames());
+		bindingNames.retainAll(groupBindingNames);
+		return bindingNames;
+	}
+	
+	@Override
+	public String getSignature() {
+		StringBuffer signature = new StringBuffer(super.getSignature());
+		if (order != null)
+			signature.append(" (order=").append(order).append(")");
+		if (aggregates != null) {
+			signature.append(" (group=").append(groupBindingNames).append(" aggregates=");
+			for (GroupElem elem : aggregates) {
+				signature.append(" ").append(elem.getName()).append(":").append(elem.getOperator().getClass().getSimpleName());
+			}
+			signature.append(")");
+		}
+		if (limit >= 0)
+			signature.append(" (limit=").append(limit).append(")");
+		return signature.toString();
+	}
+	
+	@Override
+	public RemoteQuery clone() {
+		RemoteQuery clone = (RemoteQuery) super.clone();
+		if (order != null) {
+			clone.order = new ArrayList<OrderElem>(order.size());
+			for (OrderElem elem : order) {
+				clone.order.add(elem.clone());
+			}
+		}
+		if (aggregates != null) {
+			clone.groupBindingNames = new LinkedHashSet<String>(groupBindingNames);
+			clone.aggregates = new ArrayList<GroupElem>(aggregates.size());
+			for (GroupElem elem : aggregates) {
+				clone.aggregates.add(elem.clone());
+			}
+		}
+		return clone;
+	}
 
 	@Override
 	public <X extends Exception> void visit(QueryModelVisitor<X> visitor) throws X {
@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -31,17 +32,25 @@ import java.util.Set;
 import org.openrdf.model.vocabulary.OWL;
 import org.openrdf.query.algebra.Filter;
 import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.LeftJoin;
+import org.openrdf.query.algebra.QueryModelNode;
+import org.openrdf.query.algebra.SingletonSet;
 import org.openrdf.query.algebra.StatementPattern;
 import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Union;
 import org.openrdf.query.algebra.ValueExpr;
 import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.openrdf.query.algebra.helpers.StatementPatternCollector;
 import org.openrdf.query.algebra.helpers.VarNameCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.uni_koblenz.west.splendid.config.QueryOptimizerConfig;
 import de.uni_koblenz.west.splendid.helpers.OperatorTreePrinter;
+import de.uni_koblenz.west.splendid.helpers.SparqlPrinter;
 import de.uni_koblenz.west.splendid.index.Graph;
+import de.uni_koblenz.west.splendid.statistics.RDFStatistics;
 
 /**
  * Creates sub queries for patterns with assigned data sources. 
@@ -54,10 +63,26 @@ public class SubQueryBuilder {
 	
 	private boolean groupBySameAs;
 	private boolean groupBySource;
+	private boolean groupByPartition;
+	
+	private RDFStatistics statistics;
 	
 	public SubQueryBuilder(QueryOptimizerConfig config) {
+		this(config, null);
+	}
+	
+	/**
+	 * Creates a sub query builder which uses the statistics to find sources
+	 * which partition the subjects.
+	 * 
+	 * @param config the optimizer settings.
+	 * @param statistics the statistics of the sources.
+	 */
+	public SubQueryBuilder(QueryOptimizerConfig config, RDFStatistics statistics) {
 		this.groupBySource = config.isGroupBySource();
 		this.groupBySameAs = config.isGroupBySameAs();
+		this.groupByPartition = config.isGroupByPartition();
+		this.statistics = statistics;
 	}
 
 	/**
@@ -97,19 +122,20 @@ public class SubQueryBuilder {
 			TupleExpr baseExpr = null;
 			
 			// create a remote query if the pattern group has a single source
-			if (sources.size() == 1) {
+			// or if it is a subject star and the sources partition the subjects
+			if (sources.size() == 1 || (patternGroup.size() > 1 && isSubjectStar(patternGroup) && isSubjectPartitioned(sources))) {
 				for (MappedStatementPattern pattern : patternGroup) {
 					baseExpr = (baseExpr == null) ? pattern : new Join(baseExpr, pattern);
 				}
-				baseExpr = applyFilters(baseExpr, conditions);
-				subQueries.add(new RemoteQuery(baseExpr));
+				baseExpr = applyFilters(baseExpr, conditions, true);
+				subQueries.add(applyFilters(new RemoteQuery(baseExpr), conditions, false));
 			}
 			
 			// create individual remote queries if there is more than one source 
 			else {
 				for (MappedStatementPattern pattern : patternGroup) {
-					baseExpr = applyFilters(pattern, conditions);
-					subQueries.add(new RemoteQuery(baseExpr));
+					baseExpr = applyFilters(pattern, conditions, true);
+					subQueries.add(applyFilters(new RemoteQuery(baseExpr), conditions, false));
 				}
 			}
 		}
@@ -117,16 +143,94 @@ public class SubQueryBuilder {
 		return subQueries;
 	}
 	
-	private TupleExpr applyFilters(TupleExpr expr, List<ValueExpr> conditions) {
+	/**
+	 * Applies the filter conditions which can (not) be sent to the sources.
+	 */
+	private TupleExpr applyFilters(TupleExpr expr, List<ValueExpr> conditions, boolean remote) {
 		Set<String> varNames = VarNameCollector.process(expr);
 		for (ValueExpr condition : conditions) {
-			if (varNames.containsAll(VarNameCollector.process(condition))) {
+			if (varNames.containsAll(VarNameCollector.process(condition)) && SparqlPrinter.isPrintable(condition) == remote) {
 				expr = new Filter(expr, condition);
 			}
 		}
 		return expr;
 	}
 	
+	/**
+	 * Replaces query fragments whose patterns are all mapped to the same
+	 * single source, e.g. unions and optional parts, with a single sub query.
+	 * 
+	 * @param query the query with sub queries for all basic graph patterns.
+	 */
+	public void createExclusiveQueries(TupleExpr query) {
+		if (!groupBySource)
+			return;
+		if (getExclusiveSource(query) != null)
+			createExclusiveQuery(query);
+	}
+	
+	/**
+	 * Returns the single source of all patterns in the expression or null
+	 * if there is no such source. Exclusive fragments of an expression which
+	 * is not exclusive are replaced with a single sub query.
+	 */
+	private Graph getExclusiveSource(TupleExpr expr) {
+		
+		if (expr instanceof RemoteQuery || expr instanceof StatementPattern) {
+			Set<Graph> sources = new HashSet<Graph>();
+			for (StatementPattern pattern : StatementPatternCollector.process(expr)) {
+				if (!(pattern instanceof MappedStatementPattern))
+					return null;
+				sources.addAll(((MappedStatementPattern) pattern).getSources());
+			}
+			return sources.size() == 1 ? sources.iterator().next() : null;
+		}
+		
+		// get the exclusive sources of all child expressions
+		final List<TupleExpr> args = new ArrayList<TupleExpr>();
+		expr.visitChildren(new QueryModelVisitorBase<RuntimeException>() {
+			@Override
+			protected void meetNode(QueryModelNode node) {
+				if (node instanceof TupleExpr)
+					args.add((TupleExpr) node);
+			}
+		});
+		List<Graph> sources = new ArrayList<Graph>();
+		for (TupleExpr arg : args) {
+			sources.add(getExclusiveSource(arg));
+		}
+		
+		boolean exclusive = expr instanceof Join || expr instanceof Union || expr instanceof LeftJoin || expr instanceof Filter;
+		if (exclusive && sources.size() != 0 && !sources.contains(null) && new HashSet<Graph>(sources).size() == 1 && SparqlPrinter.isPrintable(expr))
+			return sources.get(0);
+		
+		for (int i = 0; i < args.size(); i++) {
+			if (sources.get(i) != null)
+				createExclusiveQuery(args.get(i));
+		}
+		return null;
+	}
+	
+	/**
+	 * Replaces an exclusive fragment with a single sub query.
+	 */
+	private void createExclusiveQuery(TupleExpr expr) {
+		if (expr instanceof RemoteQuery || expr instanceof StatementPattern)
+			return;
+		
+		// remove the nested sub queries
+		for (RemoteQuery query : new RemoteQueryCollector().process(expr)) {
+			query.replaceWith(query.getArg());
+		}
+		
+		RemoteQuery query = new RemoteQuery(new SingletonSet());
+		expr.replaceWith(query);
+		query.setArg(expr);
+		
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("created exclusive sub query:\n" + OperatorTreePrinter.print(query));
+	}
+	
 	public List<List<MappedStatementPattern>> getGroups(List<MappedStatementPattern> patterns) {
 		
 		// sameAs grouping example:
@@ -236,6 +340,9 @@ public class SubQueryBuilder {
 				List<MappedStatementPattern> pGroup = sourceMap.get(graphs);
 				if (graphs.size() == 1) {
 					patternGroups.add(pGroup);
+				} else if (isSubjectPartitioned(graphs)) {
+					// all triples of a subject are stored in the same source
+					patternGroups.addAll(getSubjectGroups(pGroup));
 				} else {
 					for (MappedStatementPattern pattern : pGroup) {
 						List<MappedStatementPattern> pList = new ArrayList<MappedStatementPattern>();
@@ -279,6 +386,83 @@ public class SubQueryBuilder {
 		return patternGroups;
 	}
 
+	/**
+	 * Collects all sub queries of an expression.
+	 */
+	private static class RemoteQueryCollector extends QueryModelVisitorBase<RuntimeException> {
+		
+		private List<RemoteQuery> queries = new ArrayList<RemoteQuery>();
+		
+		public List<RemoteQuery> process(TupleExpr expr) {
+			expr.visit(this);
+			return queries;
+		}
+		
+		@Override
+		public void meetOther(QueryModelNode node) throws RuntimeException {
+			if (node instanceof RemoteQuery)
+				queries.add((RemoteQuery) node);
+			super.meetOther(node);
+		}
+	}
+	
+	/**
+	 * Checks if each subject is described by a single source, i.e. the
+	 * sources have distinct URI spaces and none of them contains another.
+	 * Joins on the subject can then be evaluated by each source.
+	 * 
+	 * @param sources the sources to check.
+	 * @return true if the sources partition the subjects, false otherwise.
+	 */
+	private boolean isSubjectPartitioned(Set<Graph> sources) {
+		if (!groupByPartition || statistics == null || sources.size() < 2)
+			return false;
+		
+		List<String> uriSpaces = new ArrayList<String>();
+		for (Graph source : sources) {
+			String uriSpace = statistics.getUriSpace(source);
+			if (uriSpace == null || uriSpace.length() == 0)
+				return false;
+			for (String other : uriSpaces) {
+				if (uriSpace.startsWith(other) || other.startsWith(uriSpace))
+					return false;
+			}
+			uriSpaces.add(uriSpace);
+		}
+		return true;
+	}
+	
+	/**
+	 * Groups the patterns by their subject.
+	 */
+	private List<List<MappedStatementPattern>> getSubjectGroups(List<MappedStatementPattern> patterns) {
+		Map<String, List<MappedStatementPattern>> subjectMap = new LinkedHashMap<String, List<MappedStatementPattern>>();
+		for (MappedStatementPattern pattern : patterns) {
+			String subject = getSubject(pattern);
+			List<MappedStatementPattern> pList = subjectMap.get(subject);
+			if (pList == null) {
+				pList = new ArrayList<MappedStatementPattern>();
+				subjectMap.put(subject, pList);
+			}
+			pList.add(pattern);
+		}
+		return new ArrayList<List<MappedStatementPattern>>(subjectMap.values());
+	}
+	
+	private boolean isSubjectStar(List<MappedStatementPattern> patterns) {
+		String subject = getSubject(patterns.get(0));
+		for (MappedStatementPattern pattern : patterns) {
+			if (!subject.equals(getSubject(pattern)))
+				return false;
+		}
+		return true;
+	}
+	
+	private String getSubject(StatementPattern pattern) {
+		Var sVar = pattern.getSubjectVar();
+		return sVar.hasValue() ? "<" + sVar.getValue().stringValue() + ">" : "?" + sVar.getName();
+	}
+	
 	private boolean containsVar(StatementPattern pattern, Var var) {
 		String varName = var.getName();
 		Var sVar = pattern.getSubjectVar();
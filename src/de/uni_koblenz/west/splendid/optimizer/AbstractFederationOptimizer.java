@@ -20,24 +20,40 @@
  */
 package de.uni_koblenz.west.splendid.optimizer;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import org.openrdf.query.BindingSet;
 import org.openrdf.query.Dataset;
+import org.openrdf.query.algebra.Filter;
+import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.LeftJoin;
+import org.openrdf.query.algebra.QueryModelNode;
 import org.openrdf.query.algebra.StatementPattern;
 import org.openrdf.query.algebra.TupleExpr;
 import org.openrdf.query.algebra.ValueExpr;
 import org.openrdf.query.algebra.evaluation.QueryOptimizer;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
 import org.openrdf.query.algebra.helpers.StatementPatternCollector;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import de.uni_koblenz.west.splendid.estimation.AbstractCostEstimator;
 import de.uni_koblenz.west.splendid.estimation.ModelEvaluator;
+import de.uni_koblenz.west.splendid.estimation.SPLENDIDCostEstimator;
 import de.uni_koblenz.west.splendid.helpers.AnnotatingTreePrinter;
 import de.uni_koblenz.west.splendid.helpers.FilterConditionCollector;
 import de.uni_koblenz.west.splendid.model.BasicGraphPatternExtractor;
+import de.uni_koblenz.west.splendid.model.BindJoin;
+import de.uni_koblenz.west.splendid.model.BindLeftJoin;
+import de.uni_koblenz.west.splendid.model.HashJoin;
+import de.uni_koblenz.west.splendid.model.HashLeftJoin;
 import de.uni_koblenz.west.splendid.model.MappedStatementPattern;
+import de.uni_koblenz.west.splendid.model.MultiJoin;
+import de.uni_koblenz.west.splendid.model.RemoteQuery;
 import de.uni_koblenz.west.splendid.model.SubQueryBuilder;
 import de.uni_koblenz.west.splendid.sources.SourceSelector;
 
@@ -54,6 +70,7 @@ public abstract class AbstractFederationOptimizer implements QueryOptimizer {
 	protected SubQueryBuilder queryBuilder;
 	protected AbstractCostEstimator costEstimator;
 	protected ModelEvaluator modelEvaluator;
+	protected boolean multiwayJoin;
 	
 	/**
 	 * To be implemented by sub classes.
@@ -102,6 +119,19 @@ public abstract class AbstractFederationOptimizer implements QueryOptimizer {
 		this.modelEvaluator = modelEvaluator;
 	}
 	
+	public boolean isMultiwayJoin() {
+		return multiwayJoin;
+	}
+	
+	/**
+	 * Enables multiway joins for cyclic basic graph patterns.
+	 * 
+	 * @param multiwayJoin true if cyclic joins should be multiway joins.
+	 */
+	public void setMultiwayJoin(boolean multiwayJoin) {
+		this.multiwayJoin = multiwayJoin;
+	}
+	
 	// -------------------------------------------------------------------------
 	
 	protected List<TupleExpr> getBaseExpressions(TupleExpr expr) {
@@ -132,10 +162,215 @@ public abstract class AbstractFederationOptimizer implements QueryOptimizer {
 
 			bgp = optimizeBGP(bgp);
 			
+			if (multiwayJoin)
+				createMultiwayJoin(bgp);
+			
 			if (LOGGER.isTraceEnabled() && modelEvaluator != null)
 				LOGGER.trace("BGP after optimization:\n" + AnnotatingTreePrinter.print(bgp, modelEvaluator));
 		}
 		
+		// send fragments of a single source (e.g. unions) as one sub query
+		this.queryBuilder.createExclusiveQueries(query);
+		
+		// choose the physical operators for the optional parts and for
+		// joins of BGPs with other expressions (e.g. unions)
+		final List<LeftJoin> leftJoins = new ArrayList<LeftJoin>();
+		final List<Join> joins = new ArrayList<Join>();
+		query.visit(new QueryModelVisitorBase<RuntimeException>() {
+			@Override
+			public void meet(LeftJoin node) throws RuntimeException {
+				super.meet(node);
+				leftJoins.add(node);
+			}
+			@Override
+			public void meet(Join node) throws RuntimeException {
+				super.meet(node);
+				if (node.getClass() == Join.class)
+					joins.add(node);
+			}
+			@Override
+			public void meetOther(QueryModelNode node) throws RuntimeException {
+				// optional parts of sub queries are evaluated by the source
+				if (!(node instanceof RemoteQuery))
+					super.meetOther(node);
+			}
+		});
+		for (LeftJoin leftJoin : leftJoins) {
+			optimizeLeftJoin(leftJoin);
+		}
+		for (Join join : joins) {
+			optimizeJoin(join);
+		}
+		
+	}
+	
+	/**
+	 * Evaluates the join tree of the BGP as one multiway join if the
+	 * join arguments form a cyclic join graph. Binary joins of cyclic
+	 * patterns can create far more intermediate results than the final
+	 * join result.
+	 * 
+	 * @param bgp the optimized BGP.
+	 */
+	protected void createMultiwayJoin(TupleExpr bgp) {
+		
+		// filters are applied on the multiway join results
+		TupleExpr expr = bgp;
+		while (expr instanceof Filter) {
+			expr = ((Filter) expr).getArg();
+		}
+		if (!(expr instanceof Join))
+			return;
+		
+		MultiJoin join = new MultiJoin(expr.clone());
+		List<TupleExpr> args = join.getJoinArgs();
+		
+		// all variables of the sub queries are bound in the results
+		List<Set<String>> argVars = new ArrayList<Set<String>>();
+		for (TupleExpr arg : args) {
+			if (!(arg instanceof RemoteQuery))
+				return;
+			RemoteQuery query = (RemoteQuery) arg;
+			if (query.getLimit() >= 0 || query.getOrder() != null || query.getAggregates() != null)
+				return;
+			Set<String> varNames = MultiJoin.getVarNames(query);
+			if (!query.getAssuredBindingNames().containsAll(varNames))
+				return;
+			argVars.add(varNames);
+		}
+		
+		if (!isCyclic(argVars))
+			return;
+		
+		expr.replaceWith(join);
+		
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("using multiway join for " + args.size() + " cyclic join arguments");
+	}
+	
+	/**
+	 * Checks if the join graph is cyclic. The GYO reduction repeatedly
+	 * removes variables which occur in only one join argument and join
+	 * arguments whose variables are contained in another join argument.
+	 * The join graph is acyclic if at most one join argument remains.
+	 * 
+	 * @param argVars the variables of the join arguments.
+	 * @return true if the join graph is cyclic, false otherwise.
+	 */
+	public static boolean isCyclic(List<Set<String>> argVars) {
+		List<Set<String>> edges = new ArrayList<Set<String>>();
+		for (Set<String> vars : argVars) {
+			edges.add(new HashSet<String>(vars));
+		}
+		
+		boolean reduced = true;
+		while (reduced && edges.size() > 1) {
+			reduced = false;
+			
+			// remove variables which occur in a single join argument
+			for (Set<String> edge : edges) {
+				Iterator<String> it = edge.iterator();
+				while (it.hasNext()) {
+					String var = it.next();
+					int count = 0;
+					for (Set<String> other : edges) {
+						if (other.contains(var))
+							count++;
+					}
+					if (count == 1) {
+						it.remove();
+						reduced = true;
+					}
+				}
+			}
+			
+			// remove join arguments contained in another join argument
+			for (int i = 0; i < edges.size(); i++) {
+				for (int j = 0; j < edges.size(); j++) {
+					if (i != j && edges.get(j).containsAll(edges.get(i))) {
+						edges.remove(i--);
+						reduced = true;
+						break;
+					}
+				}
+			}
+		}
+		return edges.size() > 1;
+	}
+	
+	/**
+	 * Replaces the left join with a hash left join or a bind left join,
+	 * depending on which is estimated to be cheaper. The cost is estimated
+	 * like for inner joins with one optional match per left binding.
+	 * The bind left join is used if the cardinalities are unknown.
+	 * 
+	 * @param leftJoin the left join to replace.
+	 */
+	protected void optimizeLeftJoin(LeftJoin leftJoin) {
+		TupleExpr leftArg = leftJoin.getLeftArg();
+		TupleExpr rightArg = leftJoin.getRightArg();
+		
+		Double leftCard = getCardinality(leftArg);
+		Double rightCard = getCardinality(rightArg);
+		
+		boolean useHashJoin = false;
+		if (leftCard != null && rightCard != null)
+			useHashJoin = isHashJoinCheaper(leftCard, rightCard);
+		
+		LeftJoin join = useHashJoin ? new HashLeftJoin(leftArg, rightArg, leftJoin.getCondition()) : new BindLeftJoin(leftArg, rightArg, leftJoin.getCondition());
+		leftJoin.replaceWith(join);
+		
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("using " + (useHashJoin ? "hash" : "bind") + " left join (cardinalities " + leftCard + ", " + rightCard + ")");
+	}
+	
+	/**
+	 * Replaces a join which is not part of a BGP, e.g. the join of a BGP
+	 * with a union, with a hash join or a bind join, depending on which is
+	 * estimated to be cheaper. The hash join is used if the cardinalities
+	 * are unknown.
+	 * 
+	 * @param join the join to replace.
+	 */
+	protected void optimizeJoin(Join join) {
+		TupleExpr leftArg = join.getLeftArg();
+		TupleExpr rightArg = join.getRightArg();
+		
+		Double leftCard = getCardinality(leftArg);
+		Double rightCard = getCardinality(rightArg);
+		
+		boolean useHashJoin = true;
+		if (leftCard != null && rightCard != null)
+			useHashJoin = isHashJoinCheaper(leftCard, rightCard);
+		
+		Join newJoin = useHashJoin ? new HashJoin(leftArg, rightArg) : new BindJoin(leftArg, rightArg);
+		join.replaceWith(newJoin);
+		
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("using " + (useHashJoin ? "hash" : "bind") + " join (cardinalities " + leftCard + ", " + rightCard + ")");
+	}
+	
+	private boolean isHashJoinCheaper(double leftCard, double rightCard) {
+		double hashCost = SPLENDIDCostEstimator.getHashJoinCost(leftCard, rightCard);
+		double bindCost = SPLENDIDCostEstimator.getBindJoinCost(leftCard, Math.min(leftCard, rightCard));
+		return hashCost < bindCost;
+	}
+	
+	/**
+	 * Returns the estimated cardinality of the expression or null if it
+	 * cannot be estimated.
+	 */
+	private Double getCardinality(TupleExpr expr) {
+		if (costEstimator == null || costEstimator.getCardinalityEstimator() == null)
+			return null;
+		try {
+			return costEstimator.getCardinalityEstimator().process(expr);
+		} catch (RuntimeException e) {
+			// operator is not supported by the cardinality estimator
+			if (LOGGER.isTraceEnabled())
+				LOGGER.trace("cannot estimate cardinality: " + e.getMessage());
+			return null;
+		}
 	}
 	
 }
@@ -0,0 +1,201 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.optimizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.Dataset;
+import org.openrdf.query.algebra.AggregateOperator;
+import org.openrdf.query.algebra.AggregateOperatorBase;
+import org.openrdf.query.algebra.Count;
+import org.openrdf.query.algebra.Group;
+import org.openrdf.query.algebra.GroupElem;
+import org.openrdf.query.algebra.Max;
+import org.openrdf.query.algebra.Min;
+import org.openrdf.query.algebra.SingletonSet;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.Sum;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.evaluation.QueryOptimizer;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.openrdf.query.algebra.helpers.StatementPatternCollector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.uni_koblenz.west.splendid.evaluation.PlanScheduler;
+import de.uni_koblenz.west.splendid.helpers.EndpointProfile;
+import de.uni_koblenz.west.splendid.index.Graph;
+import de.uni_koblenz.west.splendid.model.HashJoin;
+import de.uni_koblenz.west.splendid.model.MappedStatementPattern;
+import de.uni_koblenz.west.splendid.model.RemoteQuery;
+
+/**
+ * Pushes a GROUP BY with COUNT, SUM, MIN and MAX aggregates into the
+ * remote sub query which produces all grouped results.
+ * 
+ * Each source computes partial aggregates for its groups and the local
+ * group operator combines them, i.e. partial counts and sums are added up
+ * and the minimum (maximum) of the partial minima (maxima) is selected.
+ * 
+ * Partial counts and sums of several sources can only be added up if the
+ * sources do not share results. Otherwise, only MIN and MAX are pushed
+ * to several sources. Distinct aggregates are only pushed to a single
+ * source.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class AggregatePushdownOptimizer implements QueryOptimizer {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(AggregatePushdownOptimizer.class);
+	
+	private static final String PARTIAL_PREFIX = "_partial";
+	
+	private final boolean disjointSources;
+	
+	/**
+	 * Creates an optimizer which pushes aggregates into sub queries.
+	 *
+	 * @param disjointSources true if the sources do not share results.
+	 */
+	public AggregatePushdownOptimizer(boolean disjointSources) {
+		this.disjointSources = disjointSources;
+	}
+	
+	@Override
+	public void optimize(TupleExpr query, Dataset dataset, BindingSet bindings) {
+		query.visit(new QueryModelVisitorBase<RuntimeException>() {
+			@Override
+			public void meet(Group group) throws RuntimeException {
+				super.meet(group);
+				pushAggregates(group);
+			}
+		});
+	}
+	
+	private void pushAggregates(Group group) {
+		
+		TupleExpr expr = group.getArg();
+		
+		RemoteQuery query = null;
+		boolean singleSource = true;
+		if (expr instanceof RemoteQuery) {
+			query = (RemoteQuery) expr;
+			Set<Graph> sources = query.getSources();
+			singleSource = sources == null || sources.size() <= 1;
+		} else if (expr instanceof HashJoin && PlanScheduler.isSingleSourceJoin((HashJoin) expr)) {
+			query = new RemoteQuery(new SingletonSet());
+		}
+		if (query == null || query.getLimit() >= 0 || query.getOrder() != null || query.getAggregates() != null)
+			return;
+		if (!isAggregatesSupported(expr))
+			return;
+		
+		Set<String> bindingNames = expr.getBindingNames();
+		if (!bindingNames.containsAll(group.getGroupBindingNames()))
+			return;
+		for (GroupElem elem : group.getGroupElements()) {
+			if (!isPushable(elem.getOperator(), bindingNames, singleSource))
+				return;
+		}
+		
+		// the sub query computes the partial aggregates
+		// (aggregate names are not necessarily valid SPARQL variable names)
+		List<GroupElem> partials = new ArrayList<GroupElem>();
+		for (GroupElem elem : group.getGroupElements()) {
+			partials.add(new GroupElem(PARTIAL_PREFIX + partials.size(), elem.getOperator().clone()));
+		}
+		
+		if (query.getArg() instanceof SingletonSet) {
+			expr.replaceWith(query);
+			query.setArg(expr);
+		}
+		query.setAggregates(group.getGroupBindingNames(), partials);
+		
+		// the group combines the partial aggregates of all sources
+		for (int i = 0; i < partials.size(); i++) {
+			GroupElem elem = group.getGroupElements().get(i);
+			elem.setOperator(getCombiner(elem.getOperator(), partials.get(i).getName()));
+		}
+		
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("pushed aggregates " + group.getAggregateBindingNames() + " grouped by " + group.getGroupBindingNames() + " into remote query");
+	}
+	
+	/**
+	 * Checks if the aggregate can be computed by each source, i.e. its
+	 * argument is a variable of the sub query and the partial aggregates
+	 * can be combined.
+	 */
+	private boolean isPushable(AggregateOperator operator, Set<String> bindingNames, boolean singleSource) {
+		if (!(operator instanceof Count || operator instanceof Sum || operator instanceof Min || operator instanceof Max))
+			return false;
+		
+		AggregateOperatorBase aggregate = (AggregateOperatorBase) operator;
+		if (aggregate.getArg() == null) {
+			if (!(operator instanceof Count))
+				return false;
+		} else {
+			if (!(aggregate.getArg() instanceof Var))
+				return false;
+			Var var = (Var) aggregate.getArg();
+			if (!var.hasValue() && !bindingNames.contains(var.getName()))
+				return false;
+		}
+		
+		if (singleSource)
+			return true;
+		if (operator instanceof Min || operator instanceof Max)
+			return true;
+		return disjointSources && !aggregate.isDistinct();
+	}
+	
+	/**
+	 * Checks if all sources of the sub query support SPARQL 1.1 aggregates.
+	 */
+	private boolean isAggregatesSupported(TupleExpr expr) {
+		for (StatementPattern pattern : StatementPatternCollector.process(expr)) {
+			if (!(pattern instanceof MappedStatementPattern))
+				continue;
+			for (Graph source : ((MappedStatementPattern) pattern).getSources()) {
+				if (!EndpointProfile.get(source.toString()).isAggregatesSupported())
+					return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the aggregate which combines the partial aggregates.
+	 */
+	private AggregateOperator getCombiner(AggregateOperator operator, String name) {
+		Var partial = new Var(name);
+		if (operator instanceof Min)
+			return new Min(partial);
+		if (operator instanceof Max)
+			return new Max(partial);
+		return new Sum(partial);
+	}
+
+}
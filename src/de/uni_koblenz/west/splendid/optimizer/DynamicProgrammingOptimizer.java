@@ -22,6 +22,7 @@ package de.uni_koblenz.west.splendid.optimizer;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -31,9 +32,11 @@ import java.util.Set;
 
 import org.openrdf.query.algebra.Filter;
 import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.OrderElem;
 import org.openrdf.query.algebra.StatementPattern;
 import org.openrdf.query.algebra.TupleExpr;
 import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.Var;
 import org.openrdf.query.algebra.helpers.StatementPatternCollector;
 import org.openrdf.query.algebra.helpers.VarNameCollector;
 import org.slf4j.Logger;
@@ -43,6 +46,8 @@ import de.uni_koblenz.west.splendid.helpers.FilterConditionCollector;
 import de.uni_koblenz.west.splendid.helpers.Format;
 import de.uni_koblenz.west.splendid.model.BindJoin;
 import de.uni_koblenz.west.splendid.model.HashJoin;
+import de.uni_koblenz.west.splendid.model.MergeJoin;
+import de.uni_koblenz.west.splendid.model.RemoteQuery;
 
 /**
  * @author Olaf Goerlitz
@@ -53,12 +58,18 @@ public class DynamicProgrammingOptimizer extends AbstractFederationOptimizer {
 	
 	private boolean bindJoin;
 	private boolean hashJoin;
+	private boolean mergeJoin;
 			
 	public DynamicProgrammingOptimizer(boolean hashJoin, boolean bindJoin) {
+		this(hashJoin, bindJoin, false);
+	}
+	
+	public DynamicProgrammingOptimizer(boolean hashJoin, boolean bindJoin, boolean mergeJoin) {
 		if (hashJoin == false && bindJoin == false)
 			throw new IllegalArgumentException("cannot create joins: all physical join types are disabled");
 		this.bindJoin = bindJoin;
 		this.hashJoin = hashJoin;
+		this.mergeJoin = mergeJoin;
 	}
 
 	@Override
@@ -179,9 +190,49 @@ public class DynamicProgrammingOptimizer extends AbstractFederationOptimizer {
 			right.setParentNode(join);
 			joins.add(join);
 		}
+		String joinVar = getMergeJoinVar(leftArg, rightArg);
+		if (mergeJoin && joinVar != null) {
+			// both sub queries are requested sorted on the join variable
+			RemoteQuery left = (RemoteQuery) leftArg.clone();
+			RemoteQuery right = (RemoteQuery) rightArg.clone();
+			left.setOrder(Collections.singletonList(new OrderElem(new Var(joinVar), true)));
+			right.setOrder(Collections.singletonList(new OrderElem(new Var(joinVar), true)));
+			Join join = new MergeJoin(left, right, joinVar);
+			left.setParentNode(join);
+			right.setParentNode(join);
+			joins.add(join);
+		}
 		return joins;
 	}
 	
+	/**
+	 * Returns the join variable if both join arguments are sub queries
+	 * which can be requested sorted on the join variable, or null otherwise.
+	 * The join variable must be the subject of a pattern in both sub queries
+	 * such that all join values are URIs, which are sorted the same way by
+	 * all sources.
+	 */
+	private String getMergeJoinVar(TupleExpr leftArg, TupleExpr rightArg) {
+		if (!(leftArg instanceof RemoteQuery) || !(rightArg instanceof RemoteQuery))
+			return null;
+		
+		Set<String> vars = new HashSet<String>(leftArg.getBindingNames());
+		vars.retainAll(rightArg.getBindingNames());
+		if (vars.size() != 1)
+			return null;
+		
+		String joinVar = vars.iterator().next();
+		for (TupleExpr arg : new TupleExpr[] { leftArg, rightArg }) {
+			boolean isSubject = false;
+			for (StatementPattern pattern : StatementPatternCollector.process(arg)) {
+				isSubject |= !pattern.getSubjectVar().hasValue() && joinVar.equals(pattern.getSubjectVar().getName());
+			}
+			if (!isSubject)
+				return null;
+		}
+		return joinVar;
+	}
+	
 	protected TupleExpr applyFilters(TupleExpr operator, List<ValueExpr> conditions) {
 		
 		// copy given filters and remove all which are already applied
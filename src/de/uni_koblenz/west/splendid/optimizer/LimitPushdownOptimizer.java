@@ -0,0 +1,127 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.optimizer;
+
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.Dataset;
+import org.openrdf.query.algebra.Extension;
+import org.openrdf.query.algebra.Order;
+import org.openrdf.query.algebra.OrderElem;
+import org.openrdf.query.algebra.Projection;
+import org.openrdf.query.algebra.SingletonSet;
+import org.openrdf.query.algebra.Slice;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.UnaryTupleOperator;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.evaluation.QueryOptimizer;
+import org.openrdf.query.algebra.helpers.QueryModelVisitorBase;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import de.uni_koblenz.west.splendid.evaluation.PlanScheduler;
+import de.uni_koblenz.west.splendid.model.HashJoin;
+import de.uni_koblenz.west.splendid.model.RemoteQuery;
+
+/**
+ * Pushes the LIMIT (plus OFFSET) of a query into the remote sub query
+ * which produces all query results.
+ * 
+ * The limit is only pushed through operators which neither remove nor
+ * reorder results, i.e. projections and extensions. Each source returns
+ * at most the requested number of distinct results and the original
+ * slice is still applied to the union of all source results.
+ * 
+ * An ORDER BY on variables of the remote sub query is pushed together with
+ * the limit (top-k). The local sort operator is kept, since SPARQL does not
+ * define the order of all values and endpoints may sort differently. It
+ * sorts at most the limit times the number of sources results.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class LimitPushdownOptimizer implements QueryOptimizer {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(LimitPushdownOptimizer.class);
+
+	@Override
+	public void optimize(TupleExpr query, Dataset dataset, BindingSet bindings) {
+		query.visit(new QueryModelVisitorBase<RuntimeException>() {
+			@Override
+			public void meet(Slice slice) throws RuntimeException {
+				super.meet(slice);
+				if (slice.hasLimit())
+					pushLimit(slice.getArg(), (slice.hasOffset() ? slice.getOffset() : 0) + slice.getLimit());
+			}
+		});
+	}
+	
+	private void pushLimit(TupleExpr expr, long limit) {
+		
+		// skip operators which do not change the number of results
+		while (expr instanceof Projection || expr instanceof Extension) {
+			expr = ((UnaryTupleOperator) expr).getArg();
+		}
+		
+		Order order = null;
+		if (expr instanceof Order) {
+			order = (Order) expr;
+			expr = order.getArg();
+		}
+		
+		RemoteQuery query = null;
+		if (expr instanceof RemoteQuery) {
+			query = (RemoteQuery) expr;
+		} else if (expr instanceof HashJoin && PlanScheduler.isSingleSourceJoin((HashJoin) expr)) {
+			query = new RemoteQuery(new SingletonSet());
+			expr.replaceWith(query);
+			query.setArg(expr);
+		}
+		if (query == null)
+			return;
+		
+		if (order != null) {
+			if (query.getOrder() != null || !isPushable(order, query))
+				return;
+			query.setOrder(order.getElements());
+		}
+		
+		if (query.getLimit() < 0 || limit < query.getLimit())
+			query.setLimit(limit);
+		
+		if (LOGGER.isDebugEnabled())
+			LOGGER.debug("pushed limit " + limit + (order == null ? "" : " and order " + order.getElements()) + " into remote query");
+	}
+	
+	/**
+	 * Checks if all sort keys are variables which are bound in all results
+	 * of the sub query.
+	 */
+	private boolean isPushable(Order order, RemoteQuery query) {
+		for (OrderElem elem : order.getElements()) {
+			if (!(elem.getExpr() instanceof Var))
+				return false;
+			Var var = (Var) elem.getExpr();
+			if (!var.hasValue() && !query.getAssuredBindingNames().contains(var.getName()))
+				return false;
+		}
+		return true;
+	}
+
+}
@@ -25,11 +25,14 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
+import org.openrdf.query.QueryInterruptedException;
 import org.openrdf.query.algebra.StatementPattern;
 import org.openrdf.sail.SailException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import de.uni_koblenz.west.splendid.evaluation.QueryContext;
+import de.uni_koblenz.west.splendid.helpers.EndpointHealth;
 import de.uni_koblenz.west.splendid.helpers.OperatorTreePrinter;
 import de.uni_koblenz.west.splendid.helpers.QueryExecutor;
 import de.uni_koblenz.west.splendid.index.Graph;
@@ -68,11 +71,30 @@ public class AskSelector extends SourceSelectorBase {
 			LOGGER.debug(debugAskRequest(pattern));
 		
 		String sparqlPattern = OperatorTreePrinter.print(pattern);
+		QueryContext context = QueryContext.getContext(pattern);
 		
-		// ask each source for current pattern
+		// ask each source for current pattern until the query times out
 		for (Graph source : sources) {
-			if (QueryExecutor.ask(source.toString(), sparqlPattern))
-				selectedSources.add(source);
+			if (context != null) {
+				try {
+					context.checkDeadline();
+				} catch (QueryInterruptedException e) {
+					LOGGER.debug("skipping remaining sources for " + sparqlPattern + ", " + e.getMessage());
+					break;
+				}
+			}
+			try {
+				if (QueryExecutor.ask(source.toString(), sparqlPattern, context == null ? 0 : context.getDeadline()))
+					selectedSources.add(source);
+			} catch (RuntimeException e) {
+				// a probe exceeding the deadline ends the source selection
+				if (context != null && context.isExpired())
+					continue;
+				// unavailable sources are skipped in degraded mode
+				if (!EndpointHealth.isDegradedMode() || !EndpointHealth.isUnavailable(source.toString(), e))
+					throw e;
+				LOGGER.warn("ignoring source " + source + ", results may be incomplete: " + e.getMessage());
+			}
 		}
 		return selectedSources;
 	}
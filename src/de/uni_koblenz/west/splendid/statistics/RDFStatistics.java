@@ -112,4 +112,13 @@ public interface RDFStatistics {
 	 */
 	public long getDistinctObjects(Graph g, String predicate);
 	
+	/**
+	 * Returns the URI namespace of the entities described in a data source,
+	 * i.e. the common prefix of the URIs of all subjects.
+	 * 
+	 * @param g the data source.
+	 * @return the URI namespace or null if it is unknown.
+	 */
+	public String getUriSpace(Graph g);
+	
 }
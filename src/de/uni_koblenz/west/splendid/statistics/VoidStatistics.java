@@ -154,6 +154,13 @@ public class VoidStatistics implements RDFStatistics {
 			"        void:triples ?count ." +
 			"}";
 	
+	private static final String URI_SPACE = VOID_PREFIX +
+			"SELECT ?space WHERE {" +
+			"  [] a void:Dataset ;" +
+			"     void:sparqlEndpoint <" + VAR_GRAPH + "> ;" +
+			"     void:uriSpace ?space ." +
+			"}";
+	
 	private static final ValueFactory uf = ValueFactoryImpl.getInstance();
 	private static final URI DATASET = uf.createURI(VOID2.Dataset.toString());
 	private static final URI ENDPOINT = uf.createURI(VOID2.sparqlEndpoint.toString());
@@ -334,6 +341,16 @@ public class VoidStatistics implements RDFStatistics {
 		return getCount(DISTINCT_PRED_OBJECTS, VAR_GRAPH, g.toString(), VAR_PRED, predicate);
 	}
 	
+	@Override
+	public String getUriSpace(Graph g) {
+		List<String> bindings = evalQuery(URI_SPACE.replace(VAR_GRAPH, g.toString()), "space");
+		if (bindings == null || bindings.size() == 0)
+			return null;
+		if (bindings.size() > 1)
+			LOGGER.warn("found multiple uri spaces for " + g);
+		return bindings.get(0);
+	}
+	
 	// -------------------------------------------------------------------------
 	
 	/**
@@ -0,0 +1,209 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.openrdf.query.impl.EmptyBindingSet;
+
+import de.uni_koblenz.west.splendid.evaluation.AdaptiveJoinCursor;
+import de.uni_koblenz.west.splendid.evaluation.FederationEvalStrategy;
+import de.uni_koblenz.west.splendid.model.HashJoin;
+
+/**
+ * Tests the switch between hash join and bind join for cardinalities
+ * which differ from the estimated cardinalities.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class AdaptiveJoinCursorTest {
+	
+	private static final String NS = "http://example.org/";
+	
+	private final TupleExpr leftArg = new StatementPattern(new Var("s"), new Var("p", new URIImpl(NS + "p")), new Var("l"));
+	private final TupleExpr rightArg = new StatementPattern(new Var("s"), new Var("q", new URIImpl(NS + "q")), new Var("o"));
+	private final HashJoin join = new HashJoin(leftArg, rightArg);
+	
+	@Test
+	public void testHashToBind() throws Exception {
+		List<BindingSet> left = Arrays.asList(createBindings("s", "a", "l", "1"), createBindings("s", "b", "l", "2"), createBindings("s", "c", "l", "3"));
+		
+		// the right argument is much larger than estimated and the
+		// matches of a and b are joined before the switch
+		List<BindingSet> right = new ArrayList<BindingSet>();
+		right.add(createBindings("s", "a", "o", "x"));
+		right.add(createBindings("s", "b", "o", "y"));
+		for (int i = 0; i < 200; i++) {
+			right.add(createBindings("s", "f" + i, "o", "x"));
+		}
+		right.add(createBindings("s", "c", "o", "z"));
+		right.add(createBindings("s", "a", "o", "w"));
+		
+		TestStrategy strategy = new TestStrategy(left, right, 3, 10, 3);
+		List<String> results = join(strategy, AdaptiveJoinCursor.Mode.HASH, 10);
+		
+		// all left tuples are bound in one batch, already joined right tuples are skipped
+		Assert.assertEquals(1, strategy.fullRequests);
+		Assert.assertEquals(1, strategy.batchRequests);
+		Assert.assertEquals(Arrays.asList("1 a w", "1 a x", "2 b y", "3 c z"), results);
+	}
+	
+	@Test
+	public void testBindToHash() throws Exception {
+		// the left argument is much larger than estimated
+		List<BindingSet> left = new ArrayList<BindingSet>();
+		List<String> expected = new ArrayList<String>();
+		for (int i = 0; i < 50; i++) {
+			left.add(createBindings("s", "s" + (i % 10), "l", "l" + i));
+			expected.add("l" + i + " s" + (i % 10) + " o" + (i % 10));
+		}
+		List<BindingSet> right = new ArrayList<BindingSet>();
+		for (int i = 0; i < 10; i++) {
+			right.add(createBindings("s", "s" + i, "o", "o" + i));
+		}
+		
+		TestStrategy strategy = new TestStrategy(left, right, 2, 100, 2);
+		List<String> results = join(strategy, AdaptiveJoinCursor.Mode.BIND, 5);
+		
+		// some batches are bound before the remaining left tuples are hash joined
+		Assert.assertTrue(strategy.batchRequests > 0);
+		Assert.assertTrue(strategy.batchRequests < 10);
+		Assert.assertEquals(1, strategy.fullRequests);
+		Collections.sort(expected);
+		Assert.assertEquals(expected, results);
+	}
+	
+	@Test
+	public void testNoSwitch() throws Exception {
+		List<BindingSet> left = Arrays.asList(createBindings("s", "a", "l", "1"), createBindings("s", "b", "l", "2"));
+		List<BindingSet> right = Arrays.asList(createBindings("s", "a", "o", "x"), createBindings("s", "c", "o", "z"));
+		
+		TestStrategy strategy = new TestStrategy(left, right, 2, 2, 1);
+		List<String> results = join(strategy, AdaptiveJoinCursor.Mode.HASH, 10);
+		Assert.assertEquals(1, strategy.fullRequests);
+		Assert.assertEquals(0, strategy.batchRequests);
+		Assert.assertEquals(Arrays.asList("1 a x"), results);
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private List<String> join(TestStrategy strategy, AdaptiveJoinCursor.Mode mode, int batchSize) throws QueryEvaluationException {
+		AdaptiveJoinCursor cursor = new AdaptiveJoinCursor(strategy, join, EmptyBindingSet.getInstance(), mode, batchSize, 2, 0);
+		List<String> results = new ArrayList<String>();
+		try {
+			while (cursor.hasNext()) {
+				BindingSet next = cursor.next();
+				results.add(getName(next, "l") + " " + getName(next, "s") + " " + getName(next, "o"));
+			}
+		} finally {
+			cursor.close();
+		}
+		
+		// the results of the join strategies must not overlap
+		Assert.assertEquals(results.toString(), results.size(), new HashSet<String>(results).size());
+		Collections.sort(results);
+		return results;
+	}
+	
+	private String getName(BindingSet bindings, String name) {
+		return bindings.getValue(name).stringValue().substring(NS.length());
+	}
+	
+	private static BindingSet createBindings(String... namesAndValues) {
+		QueryBindingSet bindings = new QueryBindingSet();
+		for (int i = 0; i < namesAndValues.length; i += 2) {
+			bindings.addBinding(namesAndValues[i], new URIImpl(NS + namesAndValues[i + 1]));
+		}
+		return bindings;
+	}
+	
+	/**
+	 * Returns the rows of the join arguments and the estimated cardinalities.
+	 */
+	private class TestStrategy extends FederationEvalStrategy {
+		
+		private final List<BindingSet> leftRows;
+		private final List<BindingSet> rightRows;
+		private final double leftCard;
+		private final double rightCard;
+		private final double joinCard;
+		
+		int fullRequests;
+		int batchRequests;
+		
+		public TestStrategy(List<BindingSet> leftRows, List<BindingSet> rightRows, double leftCard, double rightCard, double joinCard) {
+			super(ValueFactoryImpl.getInstance());
+			this.leftRows = leftRows;
+			this.rightRows = rightRows;
+			this.leftCard = leftCard;
+			this.rightCard = rightCard;
+			this.joinCard = joinCard;
+		}
+		
+		@Override
+		public double getCardinality(TupleExpr expr) {
+			if (expr == leftArg)
+				return leftCard;
+			if (expr == rightArg)
+				return rightCard;
+			return joinCard;
+		}
+		
+		@Override
+		public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(TupleExpr expr, BindingSet bindings) {
+			if (expr == leftArg)
+				return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(leftRows.iterator());
+			fullRequests++;
+			return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(rightRows.iterator());
+		}
+		
+		@Override
+		public CloseableIteration<BindingSet, QueryEvaluationException> evaluateBatch(TupleExpr expr, List<BindingSet> probes) {
+			batchRequests++;
+			List<BindingSet> results = new ArrayList<BindingSet>();
+			for (BindingSet probe : probes) {
+				for (BindingSet row : rightRows) {
+					if (probe.getValue("s").equals(row.getValue("s")))
+						results.add(row);
+				}
+			}
+			return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(results.iterator());
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.query.QueryEvaluationException;
+
+import de.uni_koblenz.west.splendid.evaluation.AdmissionController;
+
+/**
+ * Tests the admission of queries by the admission controller.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class AdmissionControllerTest {
+	
+	@Test
+	public void testClassification() throws Exception {
+		AdmissionController controller = new AdmissionController(0, 0, 0);
+		controller.addClass("batch", 1, -1, 0, 0);
+		controller.addClass("interactive", 4, 100, 50, 0);
+		
+		AdmissionController.Ticket ticket = controller.admit(10);
+		Assert.assertEquals("interactive", ticket.getQueryClass());
+		Assert.assertEquals(50, ticket.getMaxRemoteRequests());
+		Assert.assertEquals("batch", controller.admit(1000).getQueryClass());
+	}
+	
+	@Test
+	public void testRejection() throws Exception {
+		AdmissionController controller = new AdmissionController(1, 1, 50);
+		AdmissionController.Ticket running = controller.admit(0);
+		
+		// the second query waits until it times out
+		Thread waiting = startQuery(controller, 0, Collections.synchronizedList(new ArrayList<String>()));
+		awaitQueued(controller, 1);
+		try {
+			controller.admit(0);
+			Assert.fail("query should be rejected if the queue is full");
+		} catch (QueryEvaluationException e) {
+			// expected
+		}
+		waiting.join();
+		Assert.assertEquals(0, controller.getQueued());
+		Assert.assertEquals(1, controller.getRunning());
+		
+		running.release();
+		running.release();
+		Assert.assertEquals(0, controller.getRunning());
+	}
+	
+	@Test
+	public void testWeightedAdmission() throws Exception {
+		AdmissionController controller = new AdmissionController(1, 0, 0);
+		controller.addClass("a", 3, 10, 0, 0);
+		controller.addClass("b", 1, -1, 0, 0);
+		
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		List<Thread> threads = new ArrayList<Thread>();
+		AdmissionController.Ticket running = controller.admit(0);
+		for (int i = 0; i < 4; i++) {
+			threads.add(startQuery(controller, 1000, order));
+		}
+		for (int i = 0; i < 4; i++) {
+			threads.add(startQuery(controller, 0, order));
+		}
+		awaitQueued(controller, 8);
+		
+		running.release();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		
+		// the first four admissions include a single query of class b
+		Assert.assertEquals(8, order.size());
+		Assert.assertEquals(1, Collections.frequency(order.subList(0, 4), "b"));
+		Assert.assertEquals(0, controller.getRunning());
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private Thread startQuery(final AdmissionController controller, final double cost, final List<String> order) {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					AdmissionController.Ticket ticket = controller.admit(cost);
+					order.add(ticket.getQueryClass());
+					ticket.release();
+				} catch (QueryEvaluationException e) {
+					order.add("rejected");
+				}
+			}
+		};
+		thread.start();
+		return thread;
+	}
+	
+	private void awaitQueued(AdmissionController controller, int count) throws InterruptedException {
+		while (controller.getQueued() < count) {
+			Thread.sleep(5);
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.openrdf.query.algebra.AggregateOperatorBase;
+import org.openrdf.query.algebra.Count;
+import org.openrdf.query.algebra.Group;
+import org.openrdf.query.algebra.GroupElem;
+import org.openrdf.query.algebra.Max;
+import org.openrdf.query.algebra.Min;
+import org.openrdf.query.algebra.QueryRoot;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.Sum;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.UnaryTupleOperator;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.helpers.StatementPatternCollector;
+import org.openrdf.query.impl.EmptyBindingSet;
+import org.openrdf.query.parser.sparql.SPARQLParser;
+
+import de.uni_koblenz.west.splendid.helpers.EndpointProfile;
+import de.uni_koblenz.west.splendid.index.Graph;
+import de.uni_koblenz.west.splendid.model.MappedStatementPattern;
+import de.uni_koblenz.west.splendid.model.RemoteQuery;
+import de.uni_koblenz.west.splendid.optimizer.AggregatePushdownOptimizer;
+
+/**
+ * Tests the push down of aggregates into remote sub queries.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class AggregatePushdownOptimizerTest {
+	
+	private static final String PREFIX = "PREFIX : <http://example.org/>\n";
+	
+	private static final Graph UNPROBED = new Graph("http://example.org/unprobed/sparql");
+	
+	private static List<HttpTestServer> servers = new ArrayList<HttpTestServer>();
+	private static Graph source1;
+	private static Graph source2;
+	
+	@BeforeClass
+	public static void setUp() throws IOException {
+		source1 = createSource();
+		source2 = createSource();
+	}
+	
+	@AfterClass
+	public static void tearDown() throws IOException {
+		for (HttpTestServer server : servers) {
+			server.close();
+		}
+	}
+	
+	/**
+	 * Creates a source with a probed endpoint which supports aggregates.
+	 */
+	private static Graph createSource() throws IOException {
+		HttpTestServer server = new HttpTestServer() {
+			@Override
+			protected void respond(OutputStream out, int request, String query) throws IOException {
+				write(out, 200, createResults(1));
+			}
+		};
+		servers.add(server);
+		Assert.assertTrue(EndpointProfile.probe(server.getUrl()).isAggregatesSupported());
+		return new Graph(server.getUrl());
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	@Test
+	public void testSingleSource() throws Exception {
+		Group group = optimize("SELECT ?s (COUNT(DISTINCT ?o) AS ?c) (SUM(?o) AS ?sum) WHERE { ?s :p ?o } GROUP BY ?s", false, source1);
+		RemoteQuery query = (RemoteQuery) group.getArg();
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("s")), query.getGroupBindingNames());
+		Assert.assertEquals(2, query.getAggregates().size());
+		Assert.assertTrue(query.getAggregates().get(0).getOperator() instanceof Count);
+		Assert.assertTrue(query.getAggregates().get(0).getOperator().isDistinct());
+		
+		// the partial results of the single source are added up
+		assertCombiner(group.getGroupElements().get(0), Sum.class, "_partial0");
+		assertCombiner(group.getGroupElements().get(1), Sum.class, "_partial1");
+	}
+	
+	@Test
+	public void testOverlappingSources() throws Exception {
+		Group group = optimize("SELECT ?s (MIN(?o) AS ?min) (MAX(?o) AS ?max) WHERE { ?s :p ?o } GROUP BY ?s", false, source1, source2);
+		RemoteQuery query = (RemoteQuery) group.getArg();
+		Assert.assertEquals(2, query.getAggregates().size());
+		assertCombiner(group.getGroupElements().get(0), Min.class, "_partial0");
+		assertCombiner(group.getGroupElements().get(1), Max.class, "_partial1");
+		
+		// counts of sources which share results cannot be added up
+		group = optimize("SELECT ?s (MIN(?o) AS ?min) (COUNT(?o) AS ?c) WHERE { ?s :p ?o } GROUP BY ?s", false, source1, source2);
+		Assert.assertNull(((RemoteQuery) group.getArg()).getAggregates());
+		Assert.assertTrue(group.getGroupElements().get(1).getOperator() instanceof Count);
+	}
+	
+	@Test
+	public void testDisjointSources() throws Exception {
+		Group group = optimize("SELECT ?s (COUNT(?o) AS ?c) WHERE { ?s :p ?o } GROUP BY ?s", true, source1, source2);
+		Assert.assertEquals(1, ((RemoteQuery) group.getArg()).getAggregates().size());
+		assertCombiner(group.getGroupElements().get(0), Sum.class, "_partial0");
+		
+		// distinct values can still occur in several sources
+		group = optimize("SELECT ?s (COUNT(DISTINCT ?o) AS ?c) WHERE { ?s :p ?o } GROUP BY ?s", true, source1, source2);
+		Assert.assertNull(((RemoteQuery) group.getArg()).getAggregates());
+	}
+	
+	@Test
+	public void testEmptyGroup() throws Exception {
+		Group group = optimize("SELECT (COUNT(*) AS ?c) WHERE { ?s :p ?o }", true, source1, source2);
+		RemoteQuery query = (RemoteQuery) group.getArg();
+		Assert.assertTrue(query.getGroupBindingNames().isEmpty());
+		Assert.assertEquals(1, query.getAggregates().size());
+		Assert.assertNull(((Count) query.getAggregates().get(0).getOperator()).getArg());
+		
+		// the counts of all sources are added up to a single count
+		assertCombiner(group.getGroupElements().get(0), Sum.class, "_partial0");
+	}
+	
+	@Test
+	public void testUnsupported() throws Exception {
+		// the default profile of an unprobed endpoint has no aggregates
+		Group group = optimize("SELECT ?s (MIN(?o) AS ?min) WHERE { ?s :p ?o } GROUP BY ?s", true, source1, UNPROBED);
+		Assert.assertNull(((RemoteQuery) group.getArg()).getAggregates());
+		
+		// the aggregate argument is not a variable of the sub query
+		group = optimize("SELECT ?s (SUM(?x) AS ?sum) WHERE { ?s :p ?o } GROUP BY ?s", true, source1);
+		Assert.assertNull(((RemoteQuery) group.getArg()).getAggregates());
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Parses the query, replaces the pattern below the group operator with
+	 * a remote query on the sources and applies the optimizer.
+	 */
+	private Group optimize(String sparql, boolean disjointSources, Graph... sources) throws Exception {
+		TupleExpr query = new QueryRoot(new SPARQLParser().parseQuery(PREFIX + sparql, null).getTupleExpr());
+		TupleExpr expr = ((QueryRoot) query).getArg();
+		while (!(expr instanceof Group)) {
+			expr = ((UnaryTupleOperator) expr).getArg();
+		}
+		Group group = (Group) expr;
+		
+		TupleExpr pattern = group.getArg().clone();
+		for (StatementPattern sp : StatementPatternCollector.process(pattern)) {
+			MappedStatementPattern mapped = new MappedStatementPattern(sp, new HashSet<Graph>(Arrays.asList(sources)));
+			if (sp == pattern)
+				pattern = mapped;
+			else
+				sp.replaceWith(mapped);
+		}
+		group.setArg(new RemoteQuery(pattern));
+		
+		new AggregatePushdownOptimizer(disjointSources).optimize(query, null, EmptyBindingSet.getInstance());
+		return group;
+	}
+	
+	private void assertCombiner(GroupElem elem, Class<?> type, String partial) {
+		Assert.assertEquals(type, elem.getOperator().getClass());
+		Assert.assertEquals(partial, ((Var) ((AggregateOperatorBase) elem.getOperator()).getArg()).getName());
+	}
+
+}
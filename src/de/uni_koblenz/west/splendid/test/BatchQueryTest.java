@@ -0,0 +1,126 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.BNodeImpl;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+
+import de.uni_koblenz.west.splendid.evaluation.BatchQuery;
+import de.uni_koblenz.west.splendid.helpers.EndpointProfile.InlineData;
+
+/**
+ * Tests the batch queries of bind joins and the mapping of their results.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class BatchQueryTest {
+	
+	private static final URI A = new URIImpl("http://example.org/a");
+	private static final URI B = new URIImpl("http://example.org/b");
+	private static final URI O = new URIImpl("http://example.org/o");
+	
+	private final TupleExpr expr = new StatementPattern(new Var("s"), new Var("p", new URIImpl("http://example.org/p")), new Var("o"));
+	
+	@Test
+	public void testValues() throws Exception {
+		BatchQuery batch = BatchQuery.create(expr, getBindings(), InlineData.VALUES);
+		String query = batch.getQuery();
+		Assert.assertTrue(query, query.contains("VALUES (?_batch ?s) {"));
+		Assert.assertTrue(query, query.indexOf("VALUES") < query.indexOf("<http://example.org/p>"));
+		Assert.assertTrue(query, query.contains("(1 <http://example.org/b>)"));
+		
+		checkMapping(batch);
+	}
+	
+	@Test
+	public void testBindings() throws Exception {
+		BatchQuery batch = BatchQuery.create(expr, getBindings(), InlineData.BINDINGS);
+		String query = batch.getQuery();
+		Assert.assertTrue(query, query.contains("BINDINGS ?_batch ?s {"));
+		Assert.assertTrue(query, query.indexOf("BINDINGS") > query.indexOf("<http://example.org/p>"));
+		
+		checkMapping(batch);
+	}
+	
+	@Test
+	public void testUnion() throws Exception {
+		BatchQuery batch = BatchQuery.create(expr, getBindings(), InlineData.NONE);
+		Assert.assertTrue(batch.getQuery(), batch.getQuery().contains("UNION"));
+		
+		QueryBindingSet result = new QueryBindingSet();
+		result.addBinding("o_1", O);
+		BindingSet mapped = batch.map(result);
+		Assert.assertEquals(B, mapped.getValue("s"));
+		Assert.assertEquals(O, mapped.getValue("o"));
+	}
+	
+	@Test
+	public void testBlankNode() {
+		QueryBindingSet bindings = new QueryBindingSet();
+		bindings.addBinding("s", new BNodeImpl("b1"));
+		Assert.assertNull(BatchQuery.create(expr, Arrays.<BindingSet>asList(bindings), InlineData.VALUES));
+	}
+	
+	@Test(expected = QueryEvaluationException.class)
+	public void testInvalidIndex() throws Exception {
+		BatchQuery batch = BatchQuery.create(expr, getBindings(), InlineData.VALUES);
+		QueryBindingSet result = new QueryBindingSet();
+		result.addBinding("_batch", new LiteralImpl("5"));
+		batch.map(result);
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private List<BindingSet> getBindings() {
+		QueryBindingSet first = new QueryBindingSet();
+		first.addBinding("s", A);
+		QueryBindingSet second = new QueryBindingSet();
+		second.addBinding("s", B);
+		return Arrays.<BindingSet>asList(first, second);
+	}
+	
+	/**
+	 * Checks that a result is merged with the bindings of its batch index.
+	 */
+	private void checkMapping(BatchQuery batch) throws QueryEvaluationException {
+		QueryBindingSet result = new QueryBindingSet();
+		result.addBinding("_batch", new LiteralImpl("1"));
+		result.addBinding("o", O);
+		BindingSet mapped = batch.map(result);
+		Assert.assertEquals(B, mapped.getValue("s"));
+		Assert.assertEquals(O, mapped.getValue("o"));
+		Assert.assertFalse(mapped.hasBinding("_batch"));
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+
+import de.uni_koblenz.west.splendid.evaluation.BindJoinCursor;
+import de.uni_koblenz.west.splendid.evaluation.FederationEvalStrategy;
+
+/**
+ * Tests the bind join with probes which share join values.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class BindJoinCursorTest {
+	
+	private static final String NS = "http://example.org/";
+	
+	/** Right argument which binds the join variable s and its own variable o. */
+	private final TupleExpr rightArg = new StatementPattern(new Var("s"), new Var("p", new URIImpl(NS + "p")), new Var("o"));
+	
+	/** Results of the right argument with a duplicate row, e.g. from a union. */
+	private final List<BindingSet> rightRows = Arrays.asList(
+			createBindings("s", "a", "o", "x"),
+			createBindings("s", "a", "o", "x"),
+			createBindings("s", "a", "o", "y"),
+			createBindings("s", "b", "o", "z"));
+	
+	@Test
+	public void testDuplicates() throws Exception {
+		List<String> results = join(createBindings("s", "a", "l", "1"), createBindings("s", "b", "l", "2"), createBindings("s", "a", "l", "3"));
+		Assert.assertEquals(Arrays.asList("1 a x", "1 a x", "1 a y", "2 b z", "3 a x", "3 a x", "3 a y"), results);
+	}
+	
+	@Test
+	public void testUnboundJoinVariable() throws Exception {
+		// the probe without join value matches all results, including duplicates
+		List<String> results = join(createBindings("s", "b", "l", "1"), createBindings("l", "2"));
+		Collections.sort(results);
+		Assert.assertEquals(Arrays.asList("1 b z", "2 a x", "2 a x", "2 a y", "2 b z"), results);
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private List<String> join(BindingSet... left) throws QueryEvaluationException {
+		BindJoinCursor cursor = new BindJoinCursor(new TestStrategy(), createIter(left), rightArg, 10, 2, null);
+		List<String> results = new ArrayList<String>();
+		try {
+			while (cursor.hasNext()) {
+				BindingSet next = cursor.next();
+				results.add(getName(next, "l") + " " + getName(next, "s") + " " + getName(next, "o"));
+			}
+		} finally {
+			cursor.close();
+		}
+		return results;
+	}
+	
+	private String getName(BindingSet bindings, String name) {
+		return bindings.getValue(name).stringValue().substring(NS.length());
+	}
+	
+	private static BindingSet createBindings(String... namesAndValues) {
+		QueryBindingSet bindings = new QueryBindingSet();
+		for (int i = 0; i < namesAndValues.length; i += 2) {
+			URI value = new URIImpl(NS + namesAndValues[i + 1]);
+			bindings.addBinding(namesAndValues[i], value);
+		}
+		return bindings;
+	}
+	
+	private CloseableIteration<BindingSet, QueryEvaluationException> createIter(BindingSet... bindings) {
+		return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(Arrays.asList(bindings).iterator());
+	}
+	
+	/**
+	 * Evaluates each probe of a batch on the right rows.
+	 */
+	private class TestStrategy extends FederationEvalStrategy {
+		
+		public TestStrategy() {
+			super(ValueFactoryImpl.getInstance());
+		}
+		
+		@Override
+		public CloseableIteration<BindingSet, QueryEvaluationException> evaluateBatch(TupleExpr expr, List<BindingSet> probes) {
+			List<BindingSet> results = new ArrayList<BindingSet>();
+			for (BindingSet probe : probes) {
+				for (BindingSet row : rightRows) {
+					if (probe.getValue("s") == null || probe.getValue("s").equals(row.getValue("s")))
+						results.add(row);
+				}
+			}
+			return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(results.iterator());
+		}
+	}
+
+}
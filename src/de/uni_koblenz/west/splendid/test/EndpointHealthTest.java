@@ -0,0 +1,108 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import java.net.ConnectException;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.query.QueryEvaluationException;
+
+import de.uni_koblenz.west.splendid.helpers.EndpointHealth;
+import de.uni_koblenz.west.splendid.helpers.EndpointHealth.State;
+
+/**
+ * Tests the circuit breaker of the endpoint health.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class EndpointHealthTest {
+	
+	@After
+	public void reset() {
+		EndpointHealth.configure(5, 30000, false);
+	}
+	
+	@Test
+	public void testOpenAndClose() throws Exception {
+		EndpointHealth.configure(2, 50, false);
+		EndpointHealth health = EndpointHealth.get("http://example.org/sparql/open");
+		health.failure();
+		Assert.assertTrue(health.allowRequest());
+		health.failure();
+		Assert.assertEquals(State.OPEN, health.getState());
+		Assert.assertFalse(health.allowRequest());
+		
+		// only a single trial request after the reset timeout
+		Thread.sleep(60);
+		Assert.assertTrue(health.allowRequest());
+		Assert.assertEquals(State.HALF_OPEN, health.getState());
+		Assert.assertFalse(health.allowRequest());
+		health.success(10);
+		Assert.assertEquals(State.CLOSED, health.getState());
+		Assert.assertTrue(health.allowRequest());
+	}
+	
+	@Test
+	public void testFailedTrial() throws Exception {
+		EndpointHealth.configure(1, 50, false);
+		EndpointHealth health = EndpointHealth.get("http://example.org/sparql/trial");
+		health.failure();
+		Thread.sleep(60);
+		Assert.assertTrue(health.allowRequest());
+		health.failure();
+		Assert.assertEquals(State.OPEN, health.getState());
+		Assert.assertFalse(health.allowRequest());
+	}
+	
+	@Test
+	public void testDisabled() {
+		EndpointHealth.configure(0, 50, false);
+		EndpointHealth health = EndpointHealth.get("http://example.org/sparql/disabled");
+		for (int i = 0; i < 10; i++) {
+			health.failure();
+		}
+		Assert.assertTrue(health.allowRequest());
+		Assert.assertTrue(health.getErrorRate() > 0.5);
+	}
+	
+	@Test
+	public void testFailures() {
+		Assert.assertTrue(EndpointHealth.isFailure(new QueryEvaluationException(new ConnectException("refused"))));
+		Assert.assertTrue(EndpointHealth.isFailure(new QueryEvaluationException("HTTP 503 from http://example.org/sparql: ")));
+		Assert.assertFalse(EndpointHealth.isFailure(new QueryEvaluationException("HTTP 400 from http://example.org/sparql: bad query")));
+	}
+	
+	@Test
+	public void testUnavailable() {
+		EndpointHealth.configure(1, 30000, true);
+		String endpoint = "http://example.org/sparql/unavailable";
+		RuntimeException badQuery = new RuntimeException("cannot evaluate query", new QueryEvaluationException("HTTP 400 from " + endpoint + ": bad query"));
+		Assert.assertFalse(EndpointHealth.isUnavailable(endpoint, badQuery));
+		Assert.assertTrue(EndpointHealth.isUnavailable(endpoint, new RuntimeException("cannot connect", new ConnectException("refused"))));
+		
+		// requests are rejected while the circuit is open
+		EndpointHealth.get(endpoint).failure();
+		Assert.assertTrue(EndpointHealth.isUnavailable(endpoint, new RuntimeException("endpoint " + endpoint + " is unavailable")));
+	}
+
+}
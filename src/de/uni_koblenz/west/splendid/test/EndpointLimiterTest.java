@@ -0,0 +1,238 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import info.aduna.iteration.CloseableIteration;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.impl.EmptyBindingSet;
+
+import de.uni_koblenz.west.splendid.helpers.EndpointLimiter;
+import de.uni_koblenz.west.splendid.helpers.QueryExecutor;
+
+/**
+ * Tests the rate and concurrency limits of endpoints.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class EndpointLimiterTest {
+	
+	private static final String ENDPOINT = "http://example.org/sparql";
+	
+	private HttpTestServer server;
+	
+	@After
+	public void tearDown() throws IOException {
+		EndpointLimiter.configure(0, 32, false);
+		if (server != null)
+			server.close();
+	}
+	
+	@Test
+	public void testTokenBucket() {
+		EndpointLimiter.configure(10, 32, false);
+		EndpointLimiter limiter = EndpointLimiter.get(ENDPOINT);
+		
+		// a burst of one second is sent immediately
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < 10; i++) {
+			Assert.assertTrue(limiter.acquire());
+		}
+		Assert.assertTrue(System.currentTimeMillis() - start < 50);
+		Assert.assertFalse(limiter.tryAcquire());
+		
+		// further requests wait for the next tokens
+		Assert.assertTrue(limiter.acquire());
+		Assert.assertTrue(limiter.acquire());
+		long time = System.currentTimeMillis() - start;
+		Assert.assertTrue("waited only " + time + "ms", time >= 180);
+		Assert.assertTrue("waited " + time + "ms", time < 500);
+	}
+	
+	@Test
+	public void testDeadline() {
+		EndpointLimiter.configure(0, 1, true);
+		EndpointLimiter limiter = EndpointLimiter.get(ENDPOINT);
+		Assert.assertTrue(limiter.acquire());
+		
+		// the wait for a permit ends at the deadline
+		long start = System.currentTimeMillis();
+		Assert.assertFalse(limiter.acquire(start + 100, null));
+		long time = System.currentTimeMillis() - start;
+		Assert.assertTrue("waited " + time + "ms", time >= 90 && time < 500);
+		
+		// no permit is left over
+		limiter.release();
+		Assert.assertTrue(limiter.tryAcquire());
+		Assert.assertFalse(limiter.tryAcquire());
+	}
+	
+	@Test
+	public void testCancel() throws Exception {
+		EndpointLimiter.configure(0, 1, true);
+		final EndpointLimiter limiter = EndpointLimiter.get(ENDPOINT);
+		Assert.assertTrue(limiter.acquire());
+		
+		final AtomicBoolean cancelled = new AtomicBoolean();
+		final AtomicBoolean acquired = new AtomicBoolean(true);
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				acquired.set(limiter.acquire(0, cancelled));
+			}
+		};
+		thread.start();
+		Thread.sleep(50);
+		Assert.assertTrue(thread.isAlive());
+		
+		// a cancelled request stops waiting without a permit
+		cancelled.set(true);
+		limiter.wakeUp();
+		thread.join(1000);
+		Assert.assertFalse(thread.isAlive());
+		Assert.assertFalse(acquired.get());
+		
+		limiter.release();
+		Assert.assertTrue(limiter.tryAcquire());
+	}
+	
+	@Test
+	public void testHalvingWhenThrottled() {
+		EndpointLimiter.configure(0, 16, true);
+		EndpointLimiter limiter = EndpointLimiter.get(ENDPOINT);
+		for (int i = 0; i < 8; i++) {
+			Assert.assertTrue(limiter.tryAcquire());
+		}
+		
+		// the limit is based on the requests in flight
+		limiter.throttled();
+		Assert.assertEquals(4, limiter.getLimit());
+		Assert.assertFalse(limiter.tryAcquire());
+		
+		// at most once per round trip
+		limiter.throttled();
+		Assert.assertEquals(4, limiter.getLimit());
+		
+		Assert.assertTrue(EndpointLimiter.isThrottled(new QueryEvaluationException("HTTP 429 from " + ENDPOINT + ": Too Many Requests")));
+		Assert.assertTrue(EndpointLimiter.isThrottled(new RuntimeException(new QueryEvaluationException("HTTP 503 from " + ENDPOINT + ": busy"))));
+		Assert.assertFalse(EndpointLimiter.isThrottled(new QueryEvaluationException("HTTP 500 from " + ENDPOINT + ": error")));
+		Assert.assertTrue(EndpointLimiter.isRetryable(new QueryEvaluationException("HTTP 429 from " + ENDPOINT + ": Too Many Requests")));
+		Assert.assertFalse(EndpointLimiter.isRetryable(new QueryEvaluationException("HTTP 503 from " + ENDPOINT + ": busy")));
+	}
+	
+	@Test
+	public void testHalvingWhenLatencyRises() {
+		EndpointLimiter.configure(0, 16, true);
+		EndpointLimiter limiter = EndpointLimiter.get(ENDPOINT);
+		for (int i = 0; i < 8; i++) {
+			Assert.assertTrue(limiter.tryAcquire());
+		}
+		for (int i = 0; i < 10; i++) {
+			limiter.success(10);
+		}
+		Assert.assertEquals(16, limiter.getLimit());
+		
+		limiter.success(200);
+		Assert.assertEquals(4, limiter.getLimit());
+	}
+	
+	@Test
+	public void testAdditiveIncrease() {
+		EndpointLimiter.configure(0, 8, true);
+		EndpointLimiter limiter = EndpointLimiter.get(ENDPOINT);
+		for (int i = 0; i < 4; i++) {
+			Assert.assertTrue(limiter.tryAcquire());
+		}
+		limiter.throttled();
+		Assert.assertEquals(2, limiter.getLimit());
+		
+		// no growth while the limit is not reached
+		for (int i = 0; i < 3; i++) {
+			limiter.release();
+		}
+		for (int i = 0; i < 5; i++) {
+			limiter.success(10);
+		}
+		Assert.assertEquals(2, limiter.getLimit());
+		
+		// one request more per round trip at the limit
+		Assert.assertTrue(limiter.tryAcquire());
+		limiter.success(10);
+		limiter.success(10);
+		Assert.assertEquals(2, limiter.getLimit());
+		limiter.success(10);
+		Assert.assertEquals(3, limiter.getLimit());
+	}
+	
+	@Test
+	public void testRetryCap() throws Exception {
+		EndpointLimiter.configure(0, 4, true);
+		server = new HttpTestServer() {
+			@Override
+			protected void respond(OutputStream out, int request, String query) throws IOException {
+				write(out, 429, "Too Many Requests".getBytes("US-ASCII"));
+			}
+		};
+		CloseableIteration<BindingSet, QueryEvaluationException> result = QueryExecutor.eval(server.getUrl(), "SELECT * WHERE { ?s ?p ?o }", EmptyBindingSet.getInstance());
+		try {
+			result.hasNext();
+			Assert.fail("rejected request did not fail");
+		} catch (RuntimeException e) {
+			Assert.assertTrue(EndpointLimiter.isRetryable(e));
+		} finally {
+			result.close();
+		}
+		Assert.assertEquals(1 + EndpointLimiter.MAX_RETRIES, server.requests.get());
+	}
+	
+	@Test
+	public void testRetryAfterRejection() throws Exception {
+		EndpointLimiter.configure(0, 4, true);
+		server = new HttpTestServer() {
+			@Override
+			protected void respond(OutputStream out, int request, String query) throws IOException {
+				if (request == 1)
+					write(out, 429, "Too Many Requests".getBytes("US-ASCII"));
+				else
+					write(out, 200, createResults(3));
+			}
+		};
+		CloseableIteration<BindingSet, QueryEvaluationException> result = QueryExecutor.eval(server.getUrl(), "SELECT * WHERE { ?s ?p ?o }", EmptyBindingSet.getInstance());
+		Assert.assertEquals(3, QueryExecutor.getSize(result));
+		Assert.assertEquals(2, server.requests.get());
+		
+		// the rejection halved the limit and all permits have been released
+		EndpointLimiter limiter = EndpointLimiter.get(server.getUrl());
+		for (int i = 0; i < limiter.getLimit(); i++) {
+			Assert.assertTrue(limiter.tryAcquire());
+		}
+		Assert.assertFalse(limiter.tryAcquire());
+	}
+
+}
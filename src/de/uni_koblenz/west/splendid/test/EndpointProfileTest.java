@@ -0,0 +1,109 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.uni_koblenz.west.splendid.helpers.EndpointProfile;
+import de.uni_koblenz.west.splendid.helpers.EndpointProfile.InlineData;
+
+/**
+ * Tests the probing of endpoint capabilities.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class EndpointProfileTest {
+	
+	private HttpTestServer server;
+	
+	@After
+	public void tearDown() throws IOException {
+		if (server != null)
+			server.close();
+	}
+	
+	@Test
+	public void testDefaultProfile() {
+		EndpointProfile profile = EndpointProfile.get("http://example.org/unprobed/sparql");
+		Assert.assertFalse(profile.isProbed());
+		Assert.assertEquals(InlineData.NONE, profile.getInlineData());
+		Assert.assertFalse(profile.isAggregatesSupported());
+		Assert.assertEquals(0, profile.getMaxQueryLength());
+		Assert.assertSame(profile, EndpointProfile.get("http://example.org/unprobed/sparql"));
+	}
+	
+	@Test
+	public void testFullCapabilities() throws Exception {
+		server = new HttpTestServer() {
+			@Override
+			protected void respond(OutputStream out, int request, String query) throws IOException {
+				write(out, 200, createResults(1));
+			}
+		};
+		EndpointProfile profile = EndpointProfile.probe(server.getUrl());
+		Assert.assertTrue(profile.isProbed());
+		Assert.assertEquals(InlineData.VALUES, profile.getInlineData());
+		Assert.assertTrue(profile.isAggregatesSupported());
+		Assert.assertEquals(0, profile.getMaxQueryLength());
+		Assert.assertTrue(profile.getLatency() >= 0);
+		Assert.assertSame(profile, EndpointProfile.get(server.getUrl()));
+	}
+	
+	@Test
+	public void testLimitedCapabilities() throws Exception {
+		server = new HttpTestServer() {
+			@Override
+			protected void respond(OutputStream out, int request, String query) throws IOException {
+				if (query.contains("VALUES") || query.contains("COUNT"))
+					write(out, 400, "unsupported".getBytes("UTF-8"));
+				else if (query.length() > 10000)
+					write(out, 414, "query too long".getBytes("UTF-8"));
+				else
+					write(out, 200, createResults(1));
+			}
+		};
+		EndpointProfile profile = EndpointProfile.probe(server.getUrl());
+		Assert.assertEquals(InlineData.BINDINGS, profile.getInlineData());
+		Assert.assertFalse(profile.isAggregatesSupported());
+		Assert.assertEquals(4096, profile.getMaxQueryLength());
+	}
+	
+	@Test
+	public void testProbeTimeout() throws Exception {
+		server = new HttpTestServer() {
+			@Override
+			protected void respond(OutputStream out, int request, String query) throws IOException {
+				pause(2000);
+			}
+		};
+		long start = System.currentTimeMillis();
+		EndpointProfile profile = EndpointProfile.probe(server.getUrl(), 200);
+		Assert.assertTrue(System.currentTimeMillis() - start < 1500);
+		Assert.assertFalse(profile.isProbed());
+		Assert.assertFalse(profile.isAggregatesSupported());
+	}
+
+}
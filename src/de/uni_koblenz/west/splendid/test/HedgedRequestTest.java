@@ -0,0 +1,169 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+
+import de.uni_koblenz.west.splendid.evaluation.HedgedRequest;
+import de.uni_koblenz.west.splendid.helpers.ReplicaGroup;
+
+/**
+ * Tests hedged requests to replicated endpoints.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class HedgedRequestTest {
+	
+	private static final String FIRST = "http://example.org/first/sparql";
+	private static final String SECOND = "http://example.org/second/sparql";
+	
+	private ExecutorService executor;
+	private ReplicaGroup group;
+	private final CountDownLatch interrupted = new CountDownLatch(1);
+	
+	@Before
+	public void setUp() {
+		executor = Executors.newCachedThreadPool();
+		ReplicaGroup.register(FIRST, Arrays.asList(SECOND));
+		group = ReplicaGroup.get(FIRST);
+	}
+	
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		ReplicaGroup.register(FIRST, Arrays.<String>asList());
+	}
+	
+	@Test
+	public void testFirstResponseWins() throws Exception {
+		long start = System.currentTimeMillis();
+		HedgedRequest request = createRequest(Arrays.asList(FIRST, SECOND), 50, 2000, 0, false).start();
+		
+		Assert.assertEquals(SECOND, getEndpoint(request));
+		Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+	}
+	
+	@Test
+	public void testLoserIsCancelled() throws Exception {
+		HedgedRequest request = createRequest(Arrays.asList(FIRST, SECOND), 50, 2000, 0, false).start();
+		
+		Assert.assertEquals(SECOND, getEndpoint(request));
+		Assert.assertTrue("slow request was not cancelled", interrupted.await(1, TimeUnit.SECONDS));
+	}
+	
+	@Test
+	public void testNoHedgingBeforeDelay() throws Exception {
+		HedgedRequest request = createRequest(Arrays.asList(FIRST, SECOND), 1000, 0, 0, false).start();
+		
+		Assert.assertEquals(FIRST, getEndpoint(request));
+	}
+	
+	@Test
+	public void testFailover() throws Exception {
+		HedgedRequest request = createRequest(Arrays.asList(FIRST, SECOND), -1, 0, 0, true).start();
+		
+		Assert.assertEquals(SECOND, getEndpoint(request));
+		// the failure is recorded as penalty
+		Assert.assertEquals(Arrays.asList(SECOND, FIRST), group.getReplicas());
+	}
+	
+	@Test
+	public void testPercentile() {
+		Assert.assertEquals(-1, group.getPercentile(FIRST, 50));
+		for (int i = 1; i <= 10; i++) {
+			group.record(FIRST, i * 10);
+		}
+		Assert.assertEquals(50, group.getPercentile(FIRST, 50));
+		Assert.assertEquals(90, group.getPercentile(FIRST, 90));
+		Assert.assertEquals(100, group.getPercentile(FIRST, 100));
+		Assert.assertEquals(10, group.getPercentile(FIRST, 1));
+		
+		// failures do not change the percentiles
+		group.recordFailure(FIRST);
+		Assert.assertEquals(100, group.getPercentile(FIRST, 100));
+		
+		// a replica with too few measurements uses those of all replicas
+		group.record(SECOND, 1000);
+		Assert.assertEquals(1000, group.getPercentile(SECOND, 100));
+		Assert.assertEquals(60, group.getPercentile(SECOND, 50));
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Creates a request whose replicas respond after the given times.
+	 * The first replica fails instead if requested.
+	 */
+	private HedgedRequest createRequest(List<String> replicas, long hedgeDelay, final long firstTime, final long secondTime, final boolean firstFails) {
+		return new HedgedRequest(group, replicas, hedgeDelay) {
+			@Override
+			protected CloseableIteration<BindingSet, QueryEvaluationException> evaluate(String endpoint) throws QueryEvaluationException {
+				boolean first = FIRST.equals(endpoint);
+				if (first && firstFails)
+					throw new QueryEvaluationException("request failed", new IOException("connection refused"));
+				try {
+					Thread.sleep(first ? firstTime : secondTime);
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+					throw new QueryEvaluationException("request cancelled");
+				}
+				QueryBindingSet result = new QueryBindingSet();
+				result.addBinding("endpoint", new LiteralImpl(endpoint));
+				return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(Arrays.<BindingSet>asList(result).iterator());
+			}
+			@Override
+			protected Future<CloseableIteration<BindingSet, QueryEvaluationException>> submit(
+					Callable<CloseableIteration<BindingSet, QueryEvaluationException>> task, String endpoint) {
+				return executor.submit(task);
+			}
+		};
+	}
+	
+	private String getEndpoint(HedgedRequest request) throws Exception {
+		CloseableIteration<BindingSet, QueryEvaluationException> result = request.get(5, TimeUnit.SECONDS);
+		try {
+			return result.next().getValue("endpoint").stringValue();
+		} finally {
+			result.close();
+		}
+	}
+
+}
@@ -0,0 +1,185 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal HTTP server for tests of SPARQL clients. It reads requests
+ * on persistent connections and writes the responses of the test.
+ * 
+ * @author Olaf Goerlitz
+ */
+public abstract class HttpTestServer implements Runnable {
+	
+	final ServerSocket socket = new ServerSocket(0);
+	final AtomicInteger connections = new AtomicInteger();
+	final AtomicInteger requests = new AtomicInteger();
+	
+	public HttpTestServer() throws IOException {
+		Thread thread = new Thread(this, "test server");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Writes the response for the n-th request (starting with 1).
+	 * 
+	 * @param out the output stream of the connection.
+	 * @param request the number of the request.
+	 * @param query the SPARQL query of the request.
+	 */
+	protected abstract void respond(OutputStream out, int request, String query) throws IOException;
+	
+	public String getUrl() {
+		return "http://localhost:" + socket.getLocalPort() + "/sparql";
+	}
+	
+	public void close() throws IOException {
+		socket.close();
+	}
+	
+	@Override
+	public void run() {
+		while (!socket.isClosed()) {
+			try {
+				final Socket connection = socket.accept();
+				connections.incrementAndGet();
+				Thread handler = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						handle(connection);
+					}
+				}, "test connection");
+				handler.setDaemon(true);
+				handler.start();
+			} catch (IOException e) {
+				// server has been closed
+			}
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Creates a SPARQL XML result document with the values 0 to count-1
+	 * bound to the variable x.
+	 */
+	protected static byte[] createResults(int count) throws IOException {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?>\n<sparql xmlns=\"http://www.w3.org/2005/sparql-results#\">\n");
+		xml.append("<head><variable name=\"x\"/></head>\n<results>\n");
+		for (int i = 0; i < count; i++) {
+			xml.append("<result><binding name=\"x\"><literal>").append(i).append("</literal></binding></result>\n");
+		}
+		xml.append("</results>\n</sparql>\n");
+		return xml.toString().getBytes("UTF-8");
+	}
+	
+	/**
+	 * Creates the head of a response with SPARQL XML results.
+	 */
+	protected static byte[] head(String... headers) throws IOException {
+		StringBuilder head = new StringBuilder("HTTP/1.1 200 OK\r\nContent-Type: application/sparql-results+xml\r\n");
+		for (String header : headers) {
+			head.append(header).append("\r\n");
+		}
+		return head.append("\r\n").toString().getBytes("US-ASCII");
+	}
+	
+	/**
+	 * Writes a complete response with the status code and message body.
+	 */
+	protected static void write(OutputStream out, int status, byte[] body) throws IOException {
+		out.write(("HTTP/1.1 " + status + " Test\r\nContent-Type: " + (status < 300 ? "application/sparql-results+xml" : "text/plain")
+				+ "\r\nContent-Length: " + body.length + "\r\n\r\n").getBytes("US-ASCII"));
+		out.write(body);
+	}
+	
+	protected static void pause(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private void handle(Socket connection) {
+		try {
+			InputStream in = connection.getInputStream();
+			OutputStream out = connection.getOutputStream();
+			String query;
+			while ((query = readRequest(in)) != null) {
+				respond(out, requests.incrementAndGet(), query);
+				out.flush();
+			}
+		} catch (IOException e) {
+			// connection has been closed by the client
+		} finally {
+			try {
+				connection.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+	
+	/**
+	 * Reads the request head and body and returns the query parameter.
+	 * Returns null at the end of the stream.
+	 */
+	private String readRequest(InputStream in) throws IOException {
+		StringBuilder head = new StringBuilder();
+		while (!head.toString().endsWith("\r\n\r\n")) {
+			int c = in.read();
+			if (c < 0)
+				return null;
+			head.append((char) c);
+		}
+		String[] lines = head.toString().split("\r\n");
+		String parameters = lines[0].split(" ")[1];
+		parameters = parameters.indexOf('?') < 0 ? "" : parameters.substring(parameters.indexOf('?') + 1);
+		for (String line : lines) {
+			if (line.toLowerCase().startsWith("content-length:")) {
+				long length = Long.parseLong(line.substring(15).trim());
+				ByteArrayOutputStream body = new ByteArrayOutputStream();
+				for (long i = 0; i < length; i++) {
+					body.write(in.read());
+				}
+				parameters = body.toString("US-ASCII");
+			}
+		}
+		for (String parameter : parameters.split("&")) {
+			if (parameter.startsWith("query="))
+				return URLDecoder.decode(parameter.substring(6), "UTF-8");
+		}
+		return "";
+	}
+
+}
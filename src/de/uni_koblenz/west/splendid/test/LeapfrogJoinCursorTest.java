@@ -0,0 +1,113 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.openrdf.query.impl.EmptyBindingSet;
+
+import de.uni_koblenz.west.splendid.evaluation.LeapfrogJoinCursor;
+import de.uni_koblenz.west.splendid.optimizer.AbstractFederationOptimizer;
+
+/**
+ * Tests the multiway join of cyclic join arguments.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class LeapfrogJoinCursorTest {
+	
+	private static final String NS = "http://example.org/";
+	
+	@Test
+	public void testTriangle() throws Exception {
+		List<CloseableIteration<BindingSet, QueryEvaluationException>> inputs = new ArrayList<CloseableIteration<BindingSet, QueryEvaluationException>>();
+		List<Set<String>> inputVars = new ArrayList<Set<String>>();
+		
+		// edges a->b, b->c, c->a with triangles (1,2,3) and (2,3,4)
+		add(inputs, inputVars, "a", "b", "1 2", "2 3", "3 4", "4 5");
+		add(inputs, inputVars, "b", "c", "2 3", "3 4", "3 4", "5 1");
+		add(inputs, inputVars, "c", "a", "3 1", "4 2", "4 4");
+		
+		LeapfrogJoinCursor cursor = new LeapfrogJoinCursor(inputs, inputVars, EmptyBindingSet.getInstance(), null, Collections.<ValueExpr>emptyList(), null);
+		List<String> results = new ArrayList<String>();
+		while (cursor.hasNext()) {
+			BindingSet result = cursor.next();
+			results.add(getId(result, "a") + getId(result, "b") + getId(result, "c"));
+		}
+		cursor.close();
+		
+		// the duplicate edge 3->4 creates a duplicate result
+		Collections.sort(results);
+		Assert.assertEquals(Arrays.asList("123", "234", "234"), results);
+	}
+	
+	@Test
+	public void testCyclic() {
+		Assert.assertTrue(AbstractFederationOptimizer.isCyclic(vars("a b", "b c", "c a")));
+		Assert.assertFalse(AbstractFederationOptimizer.isCyclic(vars("a b", "b c", "c d")));
+		Assert.assertFalse(AbstractFederationOptimizer.isCyclic(vars("a b", "a c", "a d")));
+		Assert.assertFalse(AbstractFederationOptimizer.isCyclic(vars("a b c", "b c", "c a")));
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private static String getId(BindingSet bindings, String name) {
+		return bindings.getValue(name).stringValue().substring(NS.length());
+	}
+	
+	private static List<Set<String>> vars(String... args) {
+		List<Set<String>> vars = new ArrayList<Set<String>>();
+		for (String arg : args) {
+			vars.add(new HashSet<String>(Arrays.asList(arg.split(" "))));
+		}
+		return vars;
+	}
+	
+	private static void add(List<CloseableIteration<BindingSet, QueryEvaluationException>> inputs, List<Set<String>> inputVars,
+			String var1, String var2, String... rows) {
+		List<BindingSet> bindings = new ArrayList<BindingSet>();
+		for (String row : rows) {
+			String[] ids = row.split(" ");
+			QueryBindingSet b = new QueryBindingSet();
+			b.addBinding(var1, new URIImpl(NS + ids[0]));
+			b.addBinding(var2, new URIImpl(NS + ids[1]));
+			bindings.add(b);
+		}
+		inputs.add(new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(bindings.iterator()));
+		inputVars.add(new HashSet<String>(Arrays.asList(var1, var2)));
+	}
+
+}
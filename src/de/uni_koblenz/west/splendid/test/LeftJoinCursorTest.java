@@ -0,0 +1,173 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.URI;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.Compare;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.ValueConstant;
+import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+
+import de.uni_koblenz.west.splendid.evaluation.BindLeftJoinCursor;
+import de.uni_koblenz.west.splendid.evaluation.FederationEvalStrategy;
+import de.uni_koblenz.west.splendid.evaluation.HashLeftJoinCursor;
+
+/**
+ * Tests the hash left join and the bind left join with unbound join
+ * variables and join conditions. Both left joins must return the same
+ * results.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class LeftJoinCursorTest {
+	
+	private static final String NS = "http://example.org/";
+	
+	/** Optional argument which binds the join variable s and its own variable o. */
+	private final TupleExpr rightArg = new StatementPattern(new Var("s"), new Var("p", new URIImpl(NS + "p")), new Var("o"));
+	
+	@Test
+	public void testUnmatched() throws Exception {
+		List<BindingSet> right = Arrays.asList(createBindings("s", "a", "o", "x"), createBindings("s", "b", "o", "y"));
+		assertJoin(Arrays.asList("1 a x", "2 c -"), right, null, createBindings("l", "1", "s", "a"), createBindings("l", "2", "s", "c"));
+	}
+	
+	@Test
+	public void testUnboundLeft() throws Exception {
+		// the left binding without join value matches all optional bindings
+		List<BindingSet> right = Arrays.asList(createBindings("s", "a", "o", "x"), createBindings("s", "b", "o", "y"));
+		assertJoin(Arrays.asList("1 a x", "1 b y", "2 c -"), right, null, createBindings("l", "1"), createBindings("l", "2", "s", "c"));
+	}
+	
+	@Test
+	public void testUnboundRight() throws Exception {
+		// the optional binding without join value matches all left bindings
+		List<BindingSet> right = Arrays.asList(createBindings("s", "a", "o", "x"), createBindings("o", "w"));
+		assertJoin(Arrays.asList("1 a w", "1 a x", "2 c w", "3 - w", "3 a x"), right, null,
+				createBindings("l", "1", "s", "a"), createBindings("l", "2", "s", "c"), createBindings("l", "3"));
+	}
+	
+	@Test
+	public void testRejectingCondition() throws Exception {
+		// left bindings are returned unchanged if the condition rejects all matches
+		List<BindingSet> right = Arrays.asList(createBindings("s", "a", "o", "x"), createBindings("s", "b", "o", "y"));
+		ValueExpr condition = new Compare(new Var("o"), new ValueConstant(new URIImpl(NS + "none")));
+		assertJoin(Arrays.asList("1 a -", "2 b -"), right, condition, createBindings("l", "1", "s", "a"), createBindings("l", "2", "s", "b"));
+		
+		// the condition only rejects some matches
+		condition = new Compare(new Var("o"), new ValueConstant(new URIImpl(NS + "y")));
+		assertJoin(Arrays.asList("1 a -", "2 b y"), right, condition, createBindings("l", "1", "s", "a"), createBindings("l", "2", "s", "b"));
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private void assertJoin(List<String> expected, List<BindingSet> right, ValueExpr condition, BindingSet... left) throws QueryEvaluationException {
+		TestStrategy strategy = new TestStrategy(right);
+		
+		HashLeftJoinCursor hashJoin = new HashLeftJoinCursor(strategy, createIter(left), createIter(right.toArray(new BindingSet[right.size()])),
+				new HashSet<String>(Arrays.asList("s")), condition, null);
+		Assert.assertEquals("hash left join", expected, getResults(hashJoin));
+		
+		BindLeftJoinCursor bindJoin = new BindLeftJoinCursor(strategy, createIter(left), rightArg, condition, 10, 2, null);
+		Assert.assertEquals("bind left join", expected, getResults(bindJoin));
+	}
+	
+	private List<String> getResults(CloseableIteration<BindingSet, QueryEvaluationException> cursor) throws QueryEvaluationException {
+		List<String> results = new ArrayList<String>();
+		try {
+			while (cursor.hasNext()) {
+				BindingSet next = cursor.next();
+				results.add(getName(next, "l") + " " + getName(next, "s") + " " + getName(next, "o"));
+			}
+		} finally {
+			cursor.close();
+		}
+		Collections.sort(results);
+		return results;
+	}
+	
+	private String getName(BindingSet bindings, String name) {
+		if (bindings.getValue(name) == null)
+			return "-";
+		return bindings.getValue(name).stringValue().substring(NS.length());
+	}
+	
+	private static BindingSet createBindings(String... namesAndValues) {
+		QueryBindingSet bindings = new QueryBindingSet();
+		for (int i = 0; i < namesAndValues.length; i += 2) {
+			URI value = new URIImpl(NS + namesAndValues[i + 1]);
+			bindings.addBinding(namesAndValues[i], value);
+		}
+		return bindings;
+	}
+	
+	private CloseableIteration<BindingSet, QueryEvaluationException> createIter(BindingSet... bindings) {
+		return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(Arrays.asList(bindings).iterator());
+	}
+	
+	/**
+	 * Evaluates each probe of a batch on the optional rows. Like a SPARQL
+	 * endpoint, the results contain the join values of the probe.
+	 */
+	private class TestStrategy extends FederationEvalStrategy {
+		
+		private final List<BindingSet> rightRows;
+		
+		public TestStrategy(List<BindingSet> rightRows) {
+			super(ValueFactoryImpl.getInstance());
+			this.rightRows = rightRows;
+		}
+		
+		@Override
+		public CloseableIteration<BindingSet, QueryEvaluationException> evaluateBatch(TupleExpr expr, List<BindingSet> probes) {
+			List<BindingSet> results = new ArrayList<BindingSet>();
+			for (BindingSet probe : probes) {
+				for (BindingSet row : rightRows) {
+					if (probe.getValue("s") != null && row.getValue("s") != null && !probe.getValue("s").equals(row.getValue("s")))
+						continue;
+					QueryBindingSet result = new QueryBindingSet(probe);
+					result.addAll(row);
+					results.add(result);
+				}
+			}
+			return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(results.iterator());
+		}
+	}
+
+}
@@ -0,0 +1,139 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.algebra.Compare;
+import org.openrdf.query.algebra.LeftJoin;
+import org.openrdf.query.algebra.QueryRoot;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.ValueConstant;
+import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.Var;
+
+import de.uni_koblenz.west.splendid.estimation.AbstractCardinalityEstimator;
+import de.uni_koblenz.west.splendid.estimation.SPLENDIDCostEstimator;
+import de.uni_koblenz.west.splendid.model.BindLeftJoin;
+import de.uni_koblenz.west.splendid.model.HashLeftJoin;
+import de.uni_koblenz.west.splendid.model.RemoteQuery;
+import de.uni_koblenz.west.splendid.optimizer.AbstractFederationOptimizer;
+
+/**
+ * Tests the choice of the physical left join operator.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class LeftJoinOptimizerTest {
+	
+	private static final String NS = "http://example.org/";
+	
+	private final ValueExpr condition = new Compare(new Var("o"), new ValueConstant(new URIImpl(NS + "x")));
+	
+	@Test
+	public void testUnknownCardinality() {
+		LeftJoin join = optimize(new TestOptimizer(), createQuery("p"), createQuery("q"));
+		Assert.assertEquals(BindLeftJoin.class, join.getClass());
+		Assert.assertSame(condition, join.getCondition());
+	}
+	
+	@Test
+	public void testHashLeftJoin() {
+		TestOptimizer optimizer = new TestOptimizer();
+		RemoteQuery left = createQuery("p");
+		RemoteQuery right = createQuery("q");
+		optimizer.setCardinalities(left, 1000, right, 10);
+		
+		LeftJoin join = optimize(optimizer, left, right);
+		Assert.assertEquals(HashLeftJoin.class, join.getClass());
+		Assert.assertSame(left, join.getLeftArg());
+		Assert.assertSame(right, join.getRightArg());
+		Assert.assertSame(condition, join.getCondition());
+	}
+	
+	@Test
+	public void testBindLeftJoin() {
+		TestOptimizer optimizer = new TestOptimizer();
+		RemoteQuery left = createQuery("p");
+		RemoteQuery right = createQuery("q");
+		optimizer.setCardinalities(left, 1, right, 10000);
+		
+		LeftJoin join = optimize(optimizer, left, right);
+		Assert.assertEquals(BindLeftJoin.class, join.getClass());
+		Assert.assertSame(left, join.getLeftArg());
+		Assert.assertSame(condition, join.getCondition());
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private LeftJoin optimize(TestOptimizer optimizer, TupleExpr left, TupleExpr right) {
+		QueryRoot root = new QueryRoot(new LeftJoin(left, right, condition));
+		optimizer.optimizeLeftJoin((LeftJoin) root.getArg());
+		return (LeftJoin) root.getArg();
+	}
+	
+	private RemoteQuery createQuery(String predicate) {
+		return new RemoteQuery(new StatementPattern(new Var("s"), new Var(predicate, new URIImpl(NS + predicate)), new Var("o")));
+	}
+	
+	/**
+	 * Exposes the left join optimization.
+	 */
+	private static class TestOptimizer extends AbstractFederationOptimizer {
+		
+		public void setCardinalities(TupleExpr left, double leftCard, TupleExpr right, double rightCard) {
+			FixedCardinalityEstimator cardEstim = new FixedCardinalityEstimator();
+			cardEstim.set(left, leftCard);
+			cardEstim.set(right, rightCard);
+			SPLENDIDCostEstimator costEstim = new SPLENDIDCostEstimator();
+			costEstim.setCardinalityEstimator(cardEstim);
+			setCostEstimator(costEstim);
+		}
+		
+		@Override
+		public TupleExpr optimizeBGP(TupleExpr bgp) {
+			return bgp;
+		}
+		
+		@Override
+		public void optimizeLeftJoin(LeftJoin leftJoin) {
+			super.optimizeLeftJoin(leftJoin);
+		}
+	}
+	
+	/**
+	 * Returns the cardinalities which were set for the sub queries.
+	 */
+	private static class FixedCardinalityEstimator extends AbstractCardinalityEstimator {
+		
+		public void set(TupleExpr expr, double card) {
+			setIndexCard(expr, card);
+		}
+		
+		@Override
+		public String getName() {
+			return "Fixed";
+		}
+	}
+
+}
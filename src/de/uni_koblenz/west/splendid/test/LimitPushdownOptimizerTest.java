@@ -0,0 +1,176 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.Distinct;
+import org.openrdf.query.algebra.Extension;
+import org.openrdf.query.algebra.Filter;
+import org.openrdf.query.algebra.Order;
+import org.openrdf.query.algebra.Projection;
+import org.openrdf.query.algebra.QueryRoot;
+import org.openrdf.query.algebra.Reduced;
+import org.openrdf.query.algebra.Slice;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.UnaryTupleOperator;
+import org.openrdf.query.impl.EmptyBindingSet;
+import org.openrdf.query.parser.sparql.SPARQLParser;
+
+import de.uni_koblenz.west.splendid.evaluation.LimitCursor;
+import de.uni_koblenz.west.splendid.model.RemoteQuery;
+import de.uni_koblenz.west.splendid.optimizer.LimitPushdownOptimizer;
+
+/**
+ * Tests the push down of LIMIT and ORDER BY into remote sub queries and
+ * the early close of limited results.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class LimitPushdownOptimizerTest {
+	
+	private static final String PREFIX = "PREFIX : <http://example.org/>\n";
+	
+	@Test
+	public void testProjection() throws Exception {
+		// each source returns the offset plus the limit
+		TupleExpr query = optimize("SELECT ?s WHERE { ?s :p ?o } LIMIT 5 OFFSET 3");
+		RemoteQuery remote = getRemoteQuery(query);
+		Assert.assertEquals(8, remote.getLimit());
+		Assert.assertNull(remote.getOrder());
+		
+		// the slice is still applied to the union of all source results
+		Slice slice = (Slice) ((QueryRoot) query).getArg();
+		Assert.assertEquals(5, slice.getLimit());
+		Assert.assertEquals(3, slice.getOffset());
+	}
+	
+	@Test
+	public void testExtension() throws Exception {
+		TupleExpr query = optimize("SELECT ?s (str(?o) AS ?x) WHERE { ?s :p ?o } LIMIT 5");
+		Assert.assertTrue(getRemoteQuery(query).getParentNode() instanceof Extension);
+		Assert.assertEquals(5, getRemoteQuery(query).getLimit());
+	}
+	
+	@Test
+	public void testFilter() throws Exception {
+		// the filter removes results of the sub query
+		TupleExpr query = optimize("SELECT * WHERE { ?s :p ?o FILTER (strlen(?o) > 3) } LIMIT 5");
+		Assert.assertTrue(getRemoteQuery(query).getParentNode() instanceof Filter);
+		Assert.assertEquals(-1, getRemoteQuery(query).getLimit());
+	}
+	
+	@Test
+	public void testDistinct() throws Exception {
+		// duplicates do not count for the limit
+		TupleExpr query = optimize("SELECT DISTINCT ?s WHERE { ?s :p ?o } LIMIT 5");
+		Assert.assertEquals(-1, getRemoteQuery(query).getLimit());
+		
+		query = optimize("SELECT REDUCED ?s WHERE { ?s :p ?o } LIMIT 5");
+		Assert.assertEquals(-1, getRemoteQuery(query).getLimit());
+	}
+	
+	@Test
+	public void testOrderExpression() throws Exception {
+		// the sort key is not a variable of the sub query
+		TupleExpr query = optimize("SELECT * WHERE { ?s :p ?o } ORDER BY str(?o) LIMIT 5");
+		RemoteQuery remote = getRemoteQuery(query);
+		Assert.assertNull(remote.getOrder());
+		Assert.assertEquals(-1, remote.getLimit());
+	}
+	
+	@Test
+	public void testLimitCursor() throws Exception {
+		final boolean[] closed = new boolean[1];
+		List<BindingSet> bindings = Collections.nCopies(10, (BindingSet) EmptyBindingSet.getInstance());
+		CloseableIteration<BindingSet, QueryEvaluationException> iter = new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(bindings.iterator()) {
+			@Override
+			protected void handleClose() throws QueryEvaluationException {
+				closed[0] = true;
+				super.handleClose();
+			}
+		};
+		
+		LimitCursor cursor = new LimitCursor(iter, 3);
+		for (int i = 0; i < 3; i++) {
+			Assert.assertTrue(cursor.hasNext());
+			cursor.next();
+		}
+		// the results are closed as soon as the limit is reached
+		Assert.assertTrue(closed[0]);
+		Assert.assertFalse(cursor.hasNext());
+	}
+	
+	@Test
+	public void testOrder() throws Exception {
+		TupleExpr query = optimize("SELECT ?s ?o WHERE { ?s :p ?o } ORDER BY ?o LIMIT 5 OFFSET 2");
+		RemoteQuery remote = getRemoteQuery(query);
+		Assert.assertEquals(7, remote.getLimit());
+		Assert.assertNotNull(remote.getOrder());
+		
+		// the local sort is kept above the sorted sub query
+		Assert.assertTrue(remote.getParentNode() instanceof Order);
+	}
+	
+	@Test
+	public void testOptionalSortKey() throws Exception {
+		TupleExpr query = optimize("SELECT * WHERE { ?s :p ?o OPTIONAL { ?s :q ?x } } ORDER BY ?x LIMIT 5");
+		RemoteQuery remote = getRemoteQuery(query);
+		Assert.assertNull(remote.getOrder());
+		Assert.assertEquals(-1, remote.getLimit());
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Parses the query, replaces the query pattern below the solution
+	 * modifiers with a remote query and applies the optimizer.
+	 */
+	private TupleExpr optimize(String sparql) throws Exception {
+		TupleExpr query = new QueryRoot(new SPARQLParser().parseQuery(PREFIX + sparql, null).getTupleExpr());
+		TupleExpr expr = ((QueryRoot) query).getArg();
+		while (expr instanceof Slice || expr instanceof Projection || expr instanceof Extension || expr instanceof Order
+				|| expr instanceof Distinct || expr instanceof Reduced || expr instanceof Filter) {
+			expr = ((UnaryTupleOperator) expr).getArg();
+		}
+		RemoteQuery remote = new RemoteQuery(expr.clone());
+		expr.replaceWith(remote);
+		
+		new LimitPushdownOptimizer().optimize(query, null, EmptyBindingSet.getInstance());
+		return query;
+	}
+	
+	private RemoteQuery getRemoteQuery(TupleExpr expr) {
+		while (!(expr instanceof RemoteQuery)) {
+			expr = ((UnaryTupleOperator) expr).getArg();
+		}
+		return (RemoteQuery) expr;
+	}
+
+}
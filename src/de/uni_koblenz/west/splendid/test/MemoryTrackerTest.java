@@ -0,0 +1,140 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.ValueFactory;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+
+import de.uni_koblenz.west.splendid.evaluation.DistinctCursor;
+import de.uni_koblenz.west.splendid.evaluation.HashJoinCursor;
+import de.uni_koblenz.west.splendid.evaluation.MemoryTracker;
+
+/**
+ * Tests the memory limits of queries.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class MemoryTrackerTest {
+	
+	private static final ValueFactory vf = ValueFactoryImpl.getInstance();
+	
+	@After
+	public void tearDown() {
+		MemoryTracker.configure(0);
+	}
+	
+	@Test
+	public void testQueryLimit() throws Exception {
+		MemoryTracker memory = new MemoryTracker(1);
+		memory.reserve(600 * 1024);
+		
+		// optional data must leave half of the limit
+		Assert.assertFalse(memory.tryReserve(1));
+		try {
+			memory.reserve(600 * 1024);
+			Assert.fail("memory limit should be exceeded");
+		} catch (QueryEvaluationException e) {
+			// expected
+		}
+		memory.release(600 * 1024);
+		Assert.assertTrue(memory.tryReserve(1024));
+		Assert.assertEquals(600 * 1024, memory.getPeak());
+		
+		memory.close();
+		Assert.assertEquals(0, MemoryTracker.getGlobalReserved());
+	}
+	
+	@Test
+	public void testGlobalLimit() throws Exception {
+		MemoryTracker.configure(1);
+		MemoryTracker first = new MemoryTracker(0);
+		MemoryTracker second = new MemoryTracker(0);
+		first.reserve(700 * 1024);
+		try {
+			second.reserve(700 * 1024);
+			Assert.fail("global memory limit should be exceeded");
+		} catch (QueryEvaluationException e) {
+			// expected
+		}
+		first.close();
+		second.reserve(700 * 1024);
+		second.close();
+		Assert.assertEquals(0, MemoryTracker.getGlobalReserved());
+	}
+	
+	@Test
+	public void testDistinctAbort() throws Exception {
+		MemoryTracker memory = new MemoryTracker(1);
+		CloseableIteration<BindingSet, QueryEvaluationException> distinct = new DistinctCursor(createBindings(100000), memory);
+		try {
+			while (distinct.hasNext()) {
+				distinct.next();
+			}
+			Assert.fail("memory limit should be exceeded");
+		} catch (QueryEvaluationException e) {
+			// expected
+		}
+		distinct.close();
+		Assert.assertEquals(0, memory.getUsed());
+	}
+	
+	@Test
+	public void testHashJoinRelease() throws Exception {
+		MemoryTracker memory = new MemoryTracker(1);
+		CloseableIteration<BindingSet, QueryEvaluationException> join = new HashJoinCursor(
+				createBindings(1000), createBindings(1000), Collections.singleton("x"), memory);
+		int count = 0;
+		while (join.hasNext()) {
+			join.next();
+			count++;
+		}
+		Assert.assertEquals(1000, count);
+		Assert.assertTrue(memory.getPeak() > 0);
+		join.close();
+		Assert.assertEquals(0, memory.getUsed());
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private CloseableIteration<BindingSet, QueryEvaluationException> createBindings(int count) {
+		List<BindingSet> bindings = new ArrayList<BindingSet>(count);
+		for (int i = 0; i < count; i++) {
+			QueryBindingSet binding = new QueryBindingSet();
+			binding.addBinding("x", vf.createURI("http://example.org/resource/" + i));
+			bindings.add(binding);
+		}
+		return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(bindings.iterator());
+	}
+
+}
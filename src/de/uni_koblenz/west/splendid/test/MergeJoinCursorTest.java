@@ -0,0 +1,96 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+
+import de.uni_koblenz.west.splendid.evaluation.MergeJoinCursor;
+
+/**
+ * Tests the merge join of results sorted on the join variable.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class MergeJoinCursorTest {
+	
+	private static final String NS = "http://example.org/";
+	
+	@Test
+	public void testJoin() throws Exception {
+		MergeJoinCursor cursor = new MergeJoinCursor(
+				createIter("l", "a", "b", "b", "c", "d", "f"),
+				createIter("r", "b", "b", "d", "e", "f", "g"), "x");
+		
+		List<String> values = new ArrayList<String>();
+		while (cursor.hasNext()) {
+			values.add(cursor.next().getValue("x").stringValue().substring(NS.length()));
+		}
+		cursor.close();
+		
+		Assert.assertEquals(Arrays.asList("b", "b", "b", "b", "d", "f"), values);
+	}
+	
+	@Test
+	public void testNoMatch() throws Exception {
+		MergeJoinCursor cursor = new MergeJoinCursor(createIter("l", "a", "c", "e"), createIter("r", "b", "d"), "x");
+		Assert.assertFalse(cursor.hasNext());
+		cursor.close();
+	}
+	
+	@Test(expected = QueryEvaluationException.class)
+	public void testUnsorted() throws Exception {
+		MergeJoinCursor cursor = new MergeJoinCursor(createIter("l", "a", "c", "b"), createIter("r", "a", "b", "c"), "x");
+		try {
+			while (cursor.hasNext()) {
+				cursor.next();
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private static CloseableIteration<BindingSet, QueryEvaluationException> createIter(String name, String... values) {
+		List<BindingSet> bindings = new ArrayList<BindingSet>();
+		for (int i = 0; i < values.length; i++) {
+			QueryBindingSet b = new QueryBindingSet();
+			b.addBinding("x", new URIImpl(NS + values[i]));
+			b.addBinding(name, new LiteralImpl(String.valueOf(i)));
+			bindings.add(b);
+		}
+		return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(bindings.iterator());
+	}
+
+}
@@ -0,0 +1,189 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.TupleQueryResult;
+
+import de.uni_koblenz.west.splendid.helpers.NioSparqlClient;
+import de.uni_koblenz.west.splendid.helpers.SparqlResultReader;
+
+/**
+ * Tests the non-blocking SPARQL client against a local HTTP server.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class NioSparqlClientTest {
+	
+	private static final String QUERY = "SELECT ?x WHERE { ?s ?p ?x }";
+	
+	private NioSparqlClient client;
+	private HttpTestServer server;
+	
+	@After
+	public void tearDown() throws IOException {
+		if (client != null)
+			client.shutdown();
+		if (server != null)
+			server.close();
+	}
+	
+	@Test
+	public void testChunked() throws Exception {
+		server = new HttpTestServer() {
+			@Override
+			protected void respond(OutputStream out, int request, String query) throws IOException {
+				byte[] body = createResults(10);
+				out.write(head("Transfer-Encoding: chunked"));
+				for (int pos = 0; pos < body.length; pos += 7) {
+					int length = Math.min(7, body.length - pos);
+					out.write((Integer.toHexString(length) + "\r\n").getBytes("US-ASCII"));
+					out.write(body, pos, length);
+					out.write("\r\n".getBytes("US-ASCII"));
+					out.flush();
+				}
+				out.write("0\r\n\r\n".getBytes("US-ASCII"));
+			}
+		};
+		client = createClient(4, 0, false, 100);
+		
+		Assert.assertEquals(10, count(client.send(server.getUrl(), QUERY, null, 0)));
+	}
+	
+	@Test
+	public void testGzip() throws Exception {
+		server = new HttpTestServer() {
+			@Override
+			protected void respond(OutputStream out, int request, String query) throws IOException {
+				ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+				GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+				gzip.write(createResults(10));
+				gzip.close();
+				out.write(head("Content-Encoding: gzip", "Content-Length: " + compressed.size()));
+				out.write(compressed.toByteArray());
+			}
+		};
+		client = createClient(4, 0, true, 100);
+		
+		Assert.assertEquals(10, count(client.send(server.getUrl(), QUERY, null, 0)));
+	}
+	
+	@Test
+	public void testKeepAlive() throws Exception {
+		server = new HttpTestServer() {
+			@Override
+			protected void respond(OutputStream out, int request, String query) throws IOException {
+				byte[] body = createResults(request);
+				out.write(head("Content-Length: " + body.length));
+				out.write(body);
+			}
+		};
+		client = createClient(4, 0, false, 100);
+		
+		for (int i = 1; i <= 3; i++) {
+			Assert.assertEquals(i, count(client.send(server.getUrl(), QUERY, null, 0)));
+		}
+		Assert.assertEquals(3, server.requests.get());
+		Assert.assertEquals(1, server.connections.get());
+	}
+	
+	@Test
+	public void testBackpressure() throws Exception {
+		server = new HttpTestServer() {
+			@Override
+			protected void respond(OutputStream out, int request, String query) throws IOException {
+				byte[] body = createResults(request == 1 ? 50 : 3);
+				out.write(head("Content-Length: " + body.length));
+				out.write(body, 0, body.length / 2);
+				out.flush();
+				pause(100);
+				out.write(body, body.length / 2, body.length - body.length / 2);
+			}
+		};
+		client = createClient(1, 0, false, 2);
+		
+		// the suspended connection counts against the limit but must not block the second request
+		TupleQueryResult first = client.send(server.getUrl(), QUERY, null, 0);
+		first.getBindingNames();
+		TupleQueryResult second = client.send(server.getUrl(), QUERY, null, 0);
+		Assert.assertEquals(3, count(second));
+		Assert.assertEquals(50, count(first));
+		Assert.assertEquals(1, server.connections.get());
+	}
+	
+	@Test(expected = QueryEvaluationException.class)
+	public void testReadTimeout() throws Exception {
+		server = new HttpTestServer() {
+			@Override
+			protected void respond(OutputStream out, int request, String query) throws IOException {
+				pause(2000);
+			}
+		};
+		client = createClient(4, 200, false, 100);
+		
+		count(client.send(server.getUrl(), QUERY, null, 0));
+	}
+	
+	@Test
+	public void testDeadline() throws Exception {
+		server = new HttpTestServer() {
+			@Override
+			protected void respond(OutputStream out, int request, String query) throws IOException {
+				pause(2000);
+			}
+		};
+		client = createClient(4, 0, false, 100);
+		
+		long start = System.currentTimeMillis();
+		try {
+			count(client.send(server.getUrl(), QUERY, null, 0, start + 200));
+			Assert.fail("request did not time out");
+		} catch (QueryEvaluationException e) {
+			Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private NioSparqlClient createClient(int maxConnections, int readTimeout, boolean compression, int bufferSize) throws IOException {
+		return new NioSparqlClient(maxConnections, 1000, readTimeout, compression, 1024, bufferSize, Arrays.asList(SparqlResultReader.XML));
+	}
+	
+	private int count(TupleQueryResult result) throws QueryEvaluationException {
+		int count = 0;
+		while (result.hasNext()) {
+			Assert.assertEquals("" + count, result.next().getValue("x").stringValue());
+			count++;
+		}
+		result.close();
+		return count;
+	}
+
+}
@@ -0,0 +1,149 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.impl.EmptyBindingSet;
+import org.openrdf.query.parser.sparql.SPARQLParser;
+
+import de.uni_koblenz.west.splendid.evaluation.FederationEvalStrategy;
+import de.uni_koblenz.west.splendid.evaluation.PagedQueryCursor;
+import de.uni_koblenz.west.splendid.index.Graph;
+
+/**
+ * Tests the paged retrieval of large sub query results.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class PagedQueryCursorTest {
+	
+	private static final Pattern OFFSET = Pattern.compile("LIMIT (\\d+) OFFSET (\\d+)");
+	
+	private HttpTestServer server;
+	
+	@After
+	public void tearDown() throws IOException {
+		if (server != null)
+			server.close();
+	}
+	
+	@Test
+	public void testQuery() throws Exception {
+		String query = PagedQueryCursor.createQuery(getExpr());
+		Assert.assertTrue(query, query.startsWith("SELECT DISTINCT ?o ?s WHERE {"));
+		Assert.assertFalse(query, query.contains("[]"));
+		
+		// the anonymous variable is ordered but not projected
+		Matcher matcher = Pattern.compile("ORDER BY \\?o \\?s \\?(\\w+)$").matcher(query);
+		Assert.assertTrue(query, matcher.find());
+		Assert.assertTrue(query, query.contains("?s <http://example.org/p> ?" + matcher.group(1)));
+		new SPARQLParser().parseQuery(query, null);
+	}
+	
+	@Test
+	public void testNoVariables() {
+		TupleExpr expr = new StatementPattern(new Var("s", new URIImpl("http://example.org/s")), new Var("p", new URIImpl("http://example.org/p")), new Var("o", new URIImpl("http://example.org/o")));
+		Assert.assertNull(PagedQueryCursor.createQuery(expr));
+	}
+	
+	@Test
+	public void testPages() throws Exception {
+		final List<String> queries = new Vector<String>();
+		server = new HttpTestServer() {
+			@Override
+			protected void respond(OutputStream out, int request, String query) throws IOException {
+				queries.add(query);
+				Matcher matcher = OFFSET.matcher(query);
+				matcher.find();
+				int limit = Integer.parseInt(matcher.group(1));
+				int offset = Integer.parseInt(matcher.group(2));
+				write(out, 200, createPage(offset, Math.min(limit, 25 - offset)));
+			}
+		};
+		
+		String query = PagedQueryCursor.createQuery(getExpr());
+		PagedQueryCursor cursor = new PagedQueryCursor(new FederationEvalStrategy(ValueFactoryImpl.getInstance()),
+				new Graph(server.getUrl()), query, EmptyBindingSet.getInstance(), 0, 0, 10, 2, 1);
+		Set<String> values = new HashSet<String>();
+		try {
+			while (cursor.hasNext()) {
+				BindingSet bindings = cursor.next();
+				Assert.assertTrue("duplicate result " + bindings, values.add(bindings.getValue("s").stringValue()));
+			}
+		} finally {
+			cursor.close();
+		}
+		Assert.assertEquals(25, values.size());
+		
+		// no more pages are requested after the incomplete third page
+		Assert.assertTrue(queries.toString(), queries.size() >= 3 && queries.size() <= 4);
+		for (String sent : queries) {
+			Assert.assertTrue(sent, sent.startsWith(query));
+		}
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	/**
+	 * Creates a pattern with the anonymous object of the first statement.
+	 */
+	private TupleExpr getExpr() {
+		Var anon = new Var("-anon-1a2b");
+		anon.setAnonymous(true);
+		return new Join(
+				new StatementPattern(new Var("s"), new Var("p", new URIImpl("http://example.org/p")), anon),
+				new StatementPattern(new Var("s"), new Var("q", new URIImpl("http://example.org/q")), new Var("o")));
+	}
+	
+	/**
+	 * Creates a SPARQL XML result document with the values offset to
+	 * offset+count-1 bound to the variables s and o.
+	 */
+	private static byte[] createPage(int offset, int count) throws IOException {
+		StringBuilder xml = new StringBuilder("<?xml version=\"1.0\"?>\n<sparql xmlns=\"http://www.w3.org/2005/sparql-results#\">\n");
+		xml.append("<head><variable name=\"o\"/><variable name=\"s\"/></head>\n<results>\n");
+		for (int i = offset; i < offset + count; i++) {
+			xml.append("<result><binding name=\"o\"><literal>").append(i).append("</literal></binding>");
+			xml.append("<binding name=\"s\"><uri>http://example.org/s").append(i).append("</uri></binding></result>\n");
+		}
+		xml.append("</results>\n</sparql>\n");
+		return xml.toString().getBytes("UTF-8");
+	}
+
+}
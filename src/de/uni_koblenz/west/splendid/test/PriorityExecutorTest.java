@@ -0,0 +1,115 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.uni_koblenz.west.splendid.evaluation.PriorityExecutor;
+
+/**
+ * Tests the request limits of the priority executor.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class PriorityExecutorTest {
+	
+	private PriorityExecutor executor;
+	
+	@Before
+	public void setUp() {
+		executor = new PriorityExecutor(8, 2);
+	}
+	
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+	
+	@Test
+	public void testEndpointLimit() throws Exception {
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int i = 0; i < 10; i++) {
+			final int value = i;
+			futures.add(executor.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					int current = running.incrementAndGet();
+					synchronized (maxRunning) {
+						maxRunning.set(Math.max(maxRunning.get(), current));
+					}
+					Thread.sleep(20);
+					running.decrementAndGet();
+					return value;
+				}
+			}, 0, "http://example.org/sparql"));
+		}
+		
+		for (int i = 0; i < futures.size(); i++) {
+			Assert.assertEquals(Integer.valueOf(i), futures.get(i).get());
+		}
+		Assert.assertTrue("too many concurrent requests: " + maxRunning.get(), maxRunning.get() <= 2);
+	}
+	
+	@Test
+	public void testPriorityOrder() throws Exception {
+		final List<Integer> order = new ArrayList<Integer>();
+		PriorityExecutor serial = new PriorityExecutor(8, 1);
+		
+		// block the endpoint until all tasks are submitted
+		final Object lock = new Object();
+		List<Future<Object>> futures = new ArrayList<Future<Object>>();
+		synchronized (lock) {
+			for (int i = 0; i < 6; i++) {
+				final int value = i;
+				futures.add(serial.submit(new Callable<Object>() {
+					@Override
+					public Object call() throws Exception {
+						synchronized (lock) {
+							order.add(value);
+						}
+						return null;
+					}
+				}, i, "http://example.org/sparql"));
+			}
+		}
+		for (Future<Object> future : futures) {
+			future.get();
+		}
+		serial.shutdown();
+		
+		// the first task was started immediately, the others by priority
+		Assert.assertEquals(Arrays.asList(0, 5, 4, 3, 2, 1), order);
+	}
+
+}
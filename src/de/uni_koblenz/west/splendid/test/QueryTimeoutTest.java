@@ -0,0 +1,109 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import info.aduna.iteration.LookAheadIteration;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.QueryInterruptedException;
+
+import de.uni_koblenz.west.splendid.evaluation.QueryContext;
+
+/**
+ * Tests the timeouts of queries.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class QueryTimeoutTest {
+	
+	@Test
+	public void testDeadline() throws Exception {
+		QueryContext context = new QueryContext();
+		Assert.assertEquals(-1, context.getRemainingTime());
+		context.addRemoteRequests(1);
+		
+		context.setTimeout(50);
+		Assert.assertTrue(context.getRemainingTime() > 0);
+		Assert.assertFalse(context.isExpired());
+		Thread.sleep(80);
+		
+		Assert.assertTrue(context.isExpired());
+		Assert.assertFalse(context.isTimedOut());
+		try {
+			context.addRemoteRequests(1);
+			Assert.fail("query should have timed out");
+		} catch (QueryInterruptedException e) {
+			// expected
+		}
+		Assert.assertTrue(context.isTimedOut());
+		Assert.assertEquals(1, context.getRemoteRequests());
+	}
+	
+	@Test
+	public void testCloseOnTimeout() throws Exception {
+		final CountDownLatch closed = new CountDownLatch(1);
+		LookAheadIteration<BindingSet, QueryEvaluationException> result = new LookAheadIteration<BindingSet, QueryEvaluationException>() {
+			@Override
+			protected BindingSet getNextElement() {
+				return null;
+			}
+			@Override
+			protected void handleClose() {
+				closed.countDown();
+			}
+		};
+		
+		QueryContext context = new QueryContext();
+		context.setTimeout(50);
+		context.closeOnTimeout(result);
+		Assert.assertTrue(closed.await(1, TimeUnit.SECONDS));
+		Assert.assertTrue(context.isTimedOut());
+	}
+	
+	@Test
+	public void testNoTimeoutAfterClose() throws Exception {
+		final CountDownLatch closed = new CountDownLatch(1);
+		LookAheadIteration<BindingSet, QueryEvaluationException> result = new LookAheadIteration<BindingSet, QueryEvaluationException>() {
+			@Override
+			protected BindingSet getNextElement() {
+				return null;
+			}
+			@Override
+			protected void handleClose() {
+				closed.countDown();
+			}
+		};
+		
+		QueryContext context = new QueryContext();
+		context.setTimeout(50);
+		context.closeOnTimeout(result);
+		context.close();
+		Assert.assertFalse(closed.await(100, TimeUnit.MILLISECONDS));
+		Assert.assertFalse(context.isTimedOut());
+	}
+
+}
@@ -0,0 +1,93 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Var;
+
+import de.uni_koblenz.west.splendid.estimation.AbstractCardinalityEstimator;
+import de.uni_koblenz.west.splendid.estimation.SPLENDIDCostEstimator;
+import de.uni_koblenz.west.splendid.model.HashJoin;
+import de.uni_koblenz.west.splendid.model.RemoteQuery;
+
+/**
+ * Tests the cost of hash joins with large hash tables.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class SPLENDIDCostEstimatorTest {
+	
+	private static final double LEFT_CARD = 300000;
+	private static final double RIGHT_CARD = 10;
+	
+	@Test
+	public void testNoMemoryCost() {
+		SPLENDIDCostEstimator estimator = createEstimator();
+		double cost = estimator.process(createJoin(estimator));
+		Assert.assertEquals(SPLENDIDCostEstimator.getHashJoinCost(LEFT_CARD, RIGHT_CARD), cost, 0.001);
+	}
+	
+	@Test
+	public void testMemoryCost() {
+		SPLENDIDCostEstimator estimator = createEstimator();
+		estimator.setUseMemoryCost(true);
+		double cost = estimator.process(createJoin(estimator));
+		Assert.assertEquals(SPLENDIDCostEstimator.getHashJoinCost(LEFT_CARD, RIGHT_CARD) + SPLENDIDCostEstimator.getHashTableCost(LEFT_CARD), cost, 0.001);
+		Assert.assertTrue(SPLENDIDCostEstimator.getHashTableCost(LEFT_CARD) > 0);
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private SPLENDIDCostEstimator createEstimator() {
+		SPLENDIDCostEstimator estimator = new SPLENDIDCostEstimator();
+		estimator.setCardinalityEstimator(new FixedCardinalityEstimator());
+		return estimator;
+	}
+	
+	private TupleExpr createJoin(SPLENDIDCostEstimator estimator) {
+		FixedCardinalityEstimator cardEstim = (FixedCardinalityEstimator) estimator.getCardinalityEstimator();
+		RemoteQuery left = new RemoteQuery(new StatementPattern(new Var("s"), new Var("p", new URIImpl("http://example.org/p")), new Var("o")));
+		RemoteQuery right = new RemoteQuery(new StatementPattern(new Var("s"), new Var("q", new URIImpl("http://example.org/q")), new Var("x")));
+		cardEstim.set(left, LEFT_CARD);
+		cardEstim.set(right, RIGHT_CARD);
+		return new HashJoin(left, right);
+	}
+	
+	/**
+	 * Returns the cardinalities which were set for the sub queries.
+	 */
+	private static class FixedCardinalityEstimator extends AbstractCardinalityEstimator {
+		
+		public void set(TupleExpr expr, double card) {
+			setIndexCard(expr, card);
+		}
+		
+		@Override
+		public String getName() {
+			return "Fixed";
+		}
+	}
+
+}
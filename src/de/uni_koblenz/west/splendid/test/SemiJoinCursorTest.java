@@ -0,0 +1,201 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.Value;
+import org.openrdf.model.impl.BNodeImpl;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.model.impl.ValueFactoryImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.openrdf.query.impl.EmptyBindingSet;
+
+import de.uni_koblenz.west.splendid.evaluation.FederationEvalStrategy;
+import de.uni_koblenz.west.splendid.evaluation.SemiJoinCursor;
+import de.uni_koblenz.west.splendid.helpers.SparqlPrinter;
+import de.uni_koblenz.west.splendid.model.HashJoin;
+
+/**
+ * Tests the semi-join reduction with join value filters.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class SemiJoinCursorTest {
+	
+	private static final String NS = "http://example.org/";
+	
+	private final TupleExpr smallArg = new StatementPattern(new Var("s"), new Var("p", new URIImpl(NS + "p")), new Var("l"));
+	private final TupleExpr largeArg = new StatementPattern(new Var("s"), new Var("q", new URIImpl(NS + "q")), new Var("o"));
+	
+	@Test
+	public void testSingleVariableFilter() {
+		List<List<Value>> keys = new ArrayList<List<Value>>();
+		keys.add(Arrays.<Value>asList(new URIImpl(NS + "a")));
+		keys.add(Arrays.<Value>asList(new LiteralImpl("say \"b\"")));
+		Assert.assertEquals("?s IN (<http://example.org/a>, \"say \\\"b\\\"\")", SemiJoinCursor.createFilter(Arrays.asList("s"), keys));
+	}
+	
+	@Test
+	public void testMultiVariableFilter() {
+		List<List<Value>> keys = new ArrayList<List<Value>>();
+		keys.add(Arrays.<Value>asList(new URIImpl(NS + "a"), new LiteralImpl("x", "en")));
+		keys.add(Arrays.<Value>asList(new URIImpl(NS + "b"), new LiteralImpl("y")));
+		Assert.assertEquals("(sameTerm(?s, <http://example.org/a>) && sameTerm(?o, \"x\"@en))"
+				+ " || (sameTerm(?s, <http://example.org/b>) && sameTerm(?o, \"y\"))",
+				SemiJoinCursor.createFilter(Arrays.asList("s", "o"), keys));
+	}
+	
+	@Test
+	public void testChunks() throws Exception {
+		TestStrategy strategy = new TestStrategy(
+				createBindings("s", "a", "l", "1"), createBindings("s", "b", "l", "2"), createBindings("s", "a", "l", "3"),
+				createBindings("s", "c", "l", "4"), createBindings("s", "d", "l", "5"), createBindings("s", "e", "l", "6"));
+		List<String> results = join(strategy, 2);
+		
+		// five distinct join values are sent in three requests
+		Assert.assertEquals(3, strategy.filters.size());
+		Assert.assertEquals("?s IN (<http://example.org/a>, <http://example.org/b>)", strategy.filters.get(0));
+		Assert.assertEquals("?s IN (<http://example.org/c>, <http://example.org/d>)", strategy.filters.get(1));
+		Assert.assertEquals("?s IN (<http://example.org/e>)", strategy.filters.get(2));
+		Assert.assertEquals(0, strategy.fullRequests);
+		Assert.assertEquals(Arrays.asList("1 a x", "2 b y", "3 a x", "4 c z"), results);
+	}
+	
+	@Test
+	public void testBlankNode() throws Exception {
+		// a blank node cannot restrict the results of another source
+		QueryBindingSet bnode = new QueryBindingSet();
+		bnode.addBinding("s", new BNodeImpl("b"));
+		bnode.addBinding("l", new URIImpl(NS + "2"));
+		TestStrategy strategy = new TestStrategy(createBindings("s", "a", "l", "1"), bnode);
+		List<String> results = join(strategy, 10);
+		
+		Assert.assertEquals(0, strategy.filters.size());
+		Assert.assertEquals(1, strategy.fullRequests);
+		Assert.assertEquals(Arrays.asList("1 a x"), results);
+	}
+	
+	@Test
+	public void testUnboundValue() throws Exception {
+		// the unbound join variable matches all results of the other argument
+		TestStrategy strategy = new TestStrategy(createBindings("s", "a", "l", "1"), createBindings("l", "2"));
+		List<String> results = join(strategy, 10);
+		
+		Assert.assertEquals(0, strategy.filters.size());
+		Assert.assertEquals(1, strategy.fullRequests);
+		Assert.assertEquals(Arrays.asList("1 a x", "2 a x", "2 b y", "2 c z"), results);
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private List<String> join(TestStrategy strategy, int chunkSize) throws QueryEvaluationException {
+		HashJoin join = new HashJoin(smallArg.clone(), largeArg.clone());
+		SemiJoinCursor cursor = new SemiJoinCursor(strategy, join, EmptyBindingSet.getInstance(), true, chunkSize);
+		List<String> results = new ArrayList<String>();
+		try {
+			while (cursor.hasNext()) {
+				BindingSet next = cursor.next();
+				results.add(getName(next, "l") + " " + getName(next, "s") + " " + getName(next, "o"));
+			}
+		} finally {
+			cursor.close();
+		}
+		Collections.sort(results);
+		return results;
+	}
+	
+	private String getName(BindingSet bindings, String name) {
+		return bindings.getValue(name).stringValue().substring(NS.length());
+	}
+	
+	private static BindingSet createBindings(String... namesAndValues) {
+		QueryBindingSet bindings = new QueryBindingSet();
+		for (int i = 0; i < namesAndValues.length; i += 2) {
+			bindings.addBinding(namesAndValues[i], new URIImpl(NS + namesAndValues[i + 1]));
+		}
+		return bindings;
+	}
+	
+	/**
+	 * Returns the rows of the smaller join argument and the (filtered) rows
+	 * of the larger join argument, which is estimated to be much larger.
+	 */
+	private class TestStrategy extends FederationEvalStrategy {
+		
+		private final List<BindingSet> smallRows;
+		private final List<BindingSet> largeRows = Arrays.asList(
+				createBindings("s", "a", "o", "x"),
+				createBindings("s", "b", "o", "y"),
+				createBindings("s", "c", "o", "z"));
+		
+		final List<String> filters = new ArrayList<String>();
+		int fullRequests;
+		
+		public TestStrategy(BindingSet... smallRows) {
+			super(ValueFactoryImpl.getInstance());
+			this.smallRows = Arrays.asList(smallRows);
+		}
+		
+		@Override
+		public double getCardinality(TupleExpr expr) {
+			return expr.equals(largeArg) ? 1000000 : smallRows.size();
+		}
+		
+		@Override
+		public CloseableIteration<BindingSet, QueryEvaluationException> evaluate(TupleExpr expr, BindingSet bindings) {
+			if (expr.equals(smallArg))
+				return createIter(smallRows);
+			fullRequests++;
+			return createIter(largeRows);
+		}
+		
+		@Override
+		public CloseableIteration<BindingSet, QueryEvaluationException> evaluateFiltered(TupleExpr expr, String filter, BindingSet bindings) {
+			filters.add(filter);
+			List<BindingSet> results = new ArrayList<BindingSet>();
+			for (BindingSet row : largeRows) {
+				if (filter.contains(SparqlPrinter.printValue(row.getValue("s"))))
+					results.add(row);
+			}
+			return createIter(results);
+		}
+		
+		private CloseableIteration<BindingSet, QueryEvaluationException> createIter(List<BindingSet> bindings) {
+			return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(bindings.iterator());
+		}
+	}
+
+}
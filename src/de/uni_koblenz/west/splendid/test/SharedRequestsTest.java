@@ -0,0 +1,206 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+import org.openrdf.query.impl.EmptyBindingSet;
+
+import de.uni_koblenz.west.splendid.evaluation.SharedRequests;
+import de.uni_koblenz.west.splendid.index.Graph;
+
+/**
+ * Tests the sharing of identical remote requests.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class SharedRequestsTest {
+	
+	private static final Graph SOURCE = new Graph("http://example.org/sparql");
+	private static final String QUERY = "SELECT * WHERE {?s ?p ?o}";
+	
+	private int requests;
+	
+	private SharedRequests createRequests(int bufferSize) {
+		return new SharedRequests(bufferSize) {
+			@Override
+			protected CloseableIteration<BindingSet, QueryEvaluationException> send(Graph source, String query, BindingSet bindings, double priority, long deadline) {
+				requests++;
+				List<BindingSet> results = new ArrayList<BindingSet>();
+				for (int i = 0; i < 5; i++) {
+					QueryBindingSet result = new QueryBindingSet();
+					result.addBinding("x", new LiteralImpl("" + i));
+					results.add(result);
+				}
+				return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(results.iterator());
+			}
+		};
+	}
+	
+	@Test
+	public void testReplay() throws Exception {
+		SharedRequests shared = createRequests(10);
+		CloseableIteration<BindingSet, QueryEvaluationException> first = shared.get(SOURCE, QUERY, EmptyBindingSet.getInstance(), 0, 0);
+		first.next();
+		first.next();
+		CloseableIteration<BindingSet, QueryEvaluationException> second = shared.get(SOURCE, QUERY, EmptyBindingSet.getInstance(), 0, 0);
+		
+		Assert.assertEquals(1, requests);
+		Assert.assertEquals(3, count(first));
+		Assert.assertEquals(5, count(second));
+		Assert.assertEquals(0, shared.size());
+	}
+	
+	@Test
+	public void testDifferentQueries() throws Exception {
+		SharedRequests shared = createRequests(10);
+		shared.get(SOURCE, QUERY, EmptyBindingSet.getInstance(), 0, 0);
+		shared.get(SOURCE, QUERY + " LIMIT 1", EmptyBindingSet.getInstance(), 0, 0);
+		shared.get(new Graph("http://example.org/other"), QUERY, EmptyBindingSet.getInstance(), 0, 0);
+		Assert.assertEquals(3, requests);
+	}
+	
+	@Test
+	public void testBufferExceeded() throws Exception {
+		SharedRequests shared = createRequests(2);
+		CloseableIteration<BindingSet, QueryEvaluationException> first = shared.get(SOURCE, QUERY, EmptyBindingSet.getInstance(), 0, 0);
+		first.next();
+		first.next();
+		first.next();
+		CloseableIteration<BindingSet, QueryEvaluationException> second = shared.get(SOURCE, QUERY, EmptyBindingSet.getInstance(), 0, 0);
+		
+		Assert.assertEquals(2, requests);
+		Assert.assertEquals(2, count(first));
+		Assert.assertEquals(5, count(second));
+	}
+	
+	@Test
+	public void testDetachUnread() throws Exception {
+		SharedRequests shared = createRequests(2);
+		CloseableIteration<BindingSet, QueryEvaluationException> first = shared.get(SOURCE, QUERY, EmptyBindingSet.getInstance(), 0, 0);
+		CloseableIteration<BindingSet, QueryEvaluationException> second = shared.get(SOURCE, QUERY, EmptyBindingSet.getInstance(), 0, 0);
+		
+		// the unread consumer does not keep the results of the first one
+		Assert.assertEquals(5, count(first));
+		Assert.assertEquals(1, requests);
+		Assert.assertEquals(5, count(second));
+		Assert.assertEquals(2, requests);
+	}
+	
+	@Test
+	public void testBackpressure() throws Exception {
+		SharedRequests shared = createRequests(2);
+		final CloseableIteration<BindingSet, QueryEvaluationException> first = shared.get(SOURCE, QUERY, EmptyBindingSet.getInstance(), 0, 0);
+		final CloseableIteration<BindingSet, QueryEvaluationException> second = shared.get(SOURCE, QUERY, EmptyBindingSet.getInstance(), 0, 0);
+		
+		// the second consumer is read by another thread which stalls
+		Thread lagging = new Thread() {
+			@Override
+			public void run() {
+				try {
+					second.next();
+				} catch (QueryEvaluationException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		lagging.start();
+		lagging.join();
+		
+		final int[] read = new int[1];
+		Thread leading = new Thread() {
+			@Override
+			public void run() {
+				try {
+					while (first.hasNext()) {
+						first.next();
+						read[0]++;
+					}
+				} catch (QueryEvaluationException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		};
+		leading.start();
+		leading.join(200);
+		
+		// the first consumer waits until the buffered results are read
+		Assert.assertTrue(leading.isAlive());
+		Assert.assertEquals(3, read[0]);
+		
+		Assert.assertEquals(4, count(second));
+		leading.join(1000);
+		Assert.assertFalse(leading.isAlive());
+		Assert.assertEquals(5, read[0]);
+		Assert.assertEquals(1, requests);
+	}
+	
+	@Test
+	public void testDeadline() throws Exception {
+		SharedRequests shared = createRequests(10);
+		long deadline = System.currentTimeMillis() + 10000;
+		shared.get(SOURCE, QUERY, EmptyBindingSet.getInstance(), 0, deadline);
+		// the running request would be aborted before the later deadline
+		shared.get(SOURCE, QUERY, EmptyBindingSet.getInstance(), 0, deadline + 1);
+		Assert.assertEquals(2, requests);
+		
+		shared.get(SOURCE, QUERY, EmptyBindingSet.getInstance(), 0, deadline - 1);
+		Assert.assertEquals(2, requests);
+		
+		// a request without deadline can be shared with all queries
+		shared.get(SOURCE, QUERY, EmptyBindingSet.getInstance(), 0, 0);
+		shared.get(SOURCE, QUERY, EmptyBindingSet.getInstance(), 0, deadline);
+		Assert.assertEquals(3, requests);
+	}
+	
+	@Test
+	public void testClose() throws Exception {
+		SharedRequests shared = createRequests(10);
+		CloseableIteration<BindingSet, QueryEvaluationException> first = shared.get(SOURCE, QUERY, EmptyBindingSet.getInstance(), 0, 0);
+		first.next();
+		first.close();
+		Assert.assertEquals(0, shared.size());
+		
+		shared.get(SOURCE, QUERY, EmptyBindingSet.getInstance(), 0, 0);
+		Assert.assertEquals(2, requests);
+	}
+	
+	private int count(CloseableIteration<BindingSet, QueryEvaluationException> iter) throws QueryEvaluationException {
+		int count = 0;
+		while (iter.hasNext()) {
+			iter.next();
+			count++;
+		}
+		iter.close();
+		return count;
+	}
+
+}
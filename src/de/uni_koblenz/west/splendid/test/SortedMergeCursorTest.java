@@ -0,0 +1,139 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import info.aduna.iteration.CloseableIteration;
+import info.aduna.iteration.CloseableIteratorIteration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.Literal;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.algebra.evaluation.QueryBindingSet;
+
+import de.uni_koblenz.west.splendid.evaluation.SortedMergeCursor;
+
+/**
+ * Tests the k-way merge of sorted source results.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class SortedMergeCursorTest {
+	
+	private static final Comparator<BindingSet> COMPARATOR = new Comparator<BindingSet>() {
+		@Override
+		public int compare(BindingSet b1, BindingSet b2) {
+			return ((Literal) b1.getValue("x")).intValue() - ((Literal) b2.getValue("x")).intValue();
+		}
+	};
+	
+	@Test
+	public void testMerge() throws Exception {
+		List<CloseableIteration<BindingSet, QueryEvaluationException>> iters = new ArrayList<CloseableIteration<BindingSet, QueryEvaluationException>>();
+		iters.add(createIter(1, 4, 7));
+		iters.add(createIter());
+		iters.add(createIter(2, 3, 8, 9));
+		iters.add(createIter(3, 5));
+		
+		SortedMergeCursor cursor = new SortedMergeCursor(iters, COMPARATOR);
+		List<Integer> values = new ArrayList<Integer>();
+		while (cursor.hasNext()) {
+			values.add(((Literal) cursor.next().getValue("x")).intValue());
+		}
+		cursor.close();
+		
+		// the duplicate 3 is removed
+		Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5, 7, 8, 9), values);
+	}
+	
+	@Test
+	public void testDuplicatesWithEqualSortKey() throws Exception {
+		List<CloseableIteration<BindingSet, QueryEvaluationException>> iters = new ArrayList<CloseableIteration<BindingSet, QueryEvaluationException>>();
+		iters.add(createPairs("1 a", "2 a", "2 b", "3 a"));
+		iters.add(createPairs("2 c", "2 a", "3 a", "3 b"));
+		
+		SortedMergeCursor cursor = new SortedMergeCursor(iters, COMPARATOR);
+		List<String> values = new ArrayList<String>();
+		while (cursor.hasNext()) {
+			BindingSet next = cursor.next();
+			values.add(next.getValue("x").stringValue() + next.getValue("y").stringValue());
+		}
+		cursor.close();
+		
+		Assert.assertEquals(Arrays.asList("1a", "2a", "2b", "2c", "3a", "3b"), values);
+	}
+	
+	@Test(expected = QueryEvaluationException.class)
+	public void testUnsorted() throws Exception {
+		List<CloseableIteration<BindingSet, QueryEvaluationException>> iters = new ArrayList<CloseableIteration<BindingSet, QueryEvaluationException>>();
+		iters.add(createIter(1, 4));
+		iters.add(createIter(2, 5, 3));
+		
+		SortedMergeCursor cursor = new SortedMergeCursor(iters, COMPARATOR);
+		try {
+			while (cursor.hasNext()) {
+				cursor.next();
+			}
+		} finally {
+			cursor.close();
+		}
+	}
+	
+	@Test
+	public void testEmpty() throws Exception {
+		List<CloseableIteration<BindingSet, QueryEvaluationException>> iters = new ArrayList<CloseableIteration<BindingSet, QueryEvaluationException>>();
+		SortedMergeCursor cursor = new SortedMergeCursor(iters, COMPARATOR);
+		Assert.assertFalse(cursor.hasNext());
+		cursor.close();
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private static CloseableIteration<BindingSet, QueryEvaluationException> createIter(int... values) {
+		List<BindingSet> bindings = new ArrayList<BindingSet>();
+		for (int value : values) {
+			QueryBindingSet b = new QueryBindingSet();
+			b.addBinding("x", new LiteralImpl(String.valueOf(value)));
+			bindings.add(b);
+		}
+		return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(bindings.iterator());
+	}
+	
+	private static CloseableIteration<BindingSet, QueryEvaluationException> createPairs(String... rows) {
+		List<BindingSet> bindings = new ArrayList<BindingSet>();
+		for (String row : rows) {
+			String[] values = row.split(" ");
+			QueryBindingSet b = new QueryBindingSet();
+			b.addBinding("x", new LiteralImpl(values[0]));
+			b.addBinding("y", new LiteralImpl(values[1]));
+			bindings.add(b);
+		}
+		return new CloseableIteratorIteration<BindingSet, QueryEvaluationException>(bindings.iterator());
+	}
+
+}
@@ -0,0 +1,120 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import info.aduna.iteration.CloseableIteration;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+import org.openrdf.query.impl.EmptyBindingSet;
+
+import de.uni_koblenz.west.splendid.helpers.QueryExecutor;
+import de.uni_koblenz.west.splendid.helpers.SparqlEndpointTransport;
+
+/**
+ * Tests the connection limit of the HTTP transport.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class SparqlEndpointTransportTest {
+	
+	private HttpTestServer server;
+	
+	@After
+	public void tearDown() throws IOException {
+		QueryExecutor.setTransport(new SparqlEndpointTransport());
+		if (server != null)
+			server.close();
+	}
+	
+	@Test
+	public void testUnconsumedResults() throws Exception {
+		QueryExecutor.setTransport(new SparqlEndpointTransport(2, 10000, 0, true, 1024));
+		server = new HttpTestServer() {
+			@Override
+			protected void respond(OutputStream out, int request, String query) throws IOException {
+				write(out, 200, createResults(5000));
+			}
+		};
+		
+		// more open results than connections do not block further requests
+		List<CloseableIteration<BindingSet, QueryEvaluationException>> results = new ArrayList<CloseableIteration<BindingSet, QueryEvaluationException>>();
+		for (int i = 0; i < 4; i++) {
+			CloseableIteration<BindingSet, QueryEvaluationException> result = QueryExecutor.eval(server.getUrl(), "SELECT * WHERE { ?s ?p ?x }", EmptyBindingSet.getInstance());
+			Assert.assertTrue(result.hasNext());
+			results.add(result);
+		}
+		for (CloseableIteration<BindingSet, QueryEvaluationException> result : results) {
+			Assert.assertEquals(5000, QueryExecutor.getSize(result));
+		}
+		Assert.assertEquals(4, server.requests.get());
+		Assert.assertTrue("too many connections: " + server.connections.get(), server.connections.get() <= 2);
+	}
+	
+	@Test
+	public void testConnectionTimeout() throws Exception {
+		QueryExecutor.setTransport(new SparqlEndpointTransport(1, 10000, 0, true, 1024));
+		server = new HttpTestServer() {
+			@Override
+			protected void respond(OutputStream out, int request, String query) throws IOException {
+				if (request == 1)
+					pause(1000);
+				write(out, 200, createResults(1));
+			}
+		};
+		
+		final CloseableIteration<BindingSet, QueryEvaluationException> slow = QueryExecutor.eval(server.getUrl(), "SELECT * WHERE { ?s ?p ?x }", EmptyBindingSet.getInstance());
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				QueryExecutor.getSize(slow);
+			}
+		};
+		thread.start();
+		while (server.requests.get() == 0) {
+			Thread.sleep(10);
+		}
+		
+		// the only connection is in use until the deadline
+		long start = System.currentTimeMillis();
+		CloseableIteration<BindingSet, QueryEvaluationException> result = QueryExecutor.eval(server.getUrl(), "SELECT * WHERE { ?s ?p ?x }", EmptyBindingSet.getInstance(), 0, start + 200);
+		try {
+			result.hasNext();
+			Assert.fail("request did not time out");
+		} catch (RuntimeException e) {
+			long time = System.currentTimeMillis() - start;
+			Assert.assertTrue("timed out after " + time + "ms", time < 900);
+		} finally {
+			result.close();
+		}
+		thread.join();
+		Assert.assertEquals(1, server.requests.get());
+	}
+
+}
@@ -0,0 +1,149 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.query.algebra.Projection;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.parser.sparql.SPARQLParser;
+
+import de.uni_koblenz.west.splendid.helpers.SparqlPrinter;
+
+/**
+ * Tests the SPARQL representation of unions, optional parts and filters.
+ * The printed graph patterns must be parsed to the same query model.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class SparqlPrinterTest {
+	
+	private static final String PREFIX = "PREFIX : <http://example.org/>\n";
+	
+	@Test
+	public void testNestedUnion() throws Exception {
+		assertPrinted("{ ?s :p ?o } UNION { { ?s :q ?o } UNION { ?s :r ?o } }",
+				"  {\n" +
+				"  ?s <http://example.org/p> ?o .\n" +
+				"  }\n" +
+				"  UNION\n" +
+				"  {\n" +
+				"  {\n" +
+				"  ?s <http://example.org/q> ?o .\n" +
+				"  }\n" +
+				"  UNION\n" +
+				"  {\n" +
+				"  ?s <http://example.org/r> ?o .\n" +
+				"  }\n" +
+				"  }\n");
+	}
+	
+	@Test
+	public void testOptionalFilter() throws Exception {
+		// the join condition is printed within the optional part
+		assertPrinted("?s :p ?o OPTIONAL { ?s :q ?x FILTER (?x > 3) }",
+				"  ?s <http://example.org/p> ?o .\n" +
+				"  OPTIONAL {\n" +
+				"  ?s <http://example.org/q> ?x .\n" +
+				"  FILTER (?x > \"3\"^^<http://www.w3.org/2001/XMLSchema#integer>)\n" +
+				"  }\n");
+	}
+	
+	@Test
+	public void testOptionalUnion() throws Exception {
+		// the union is enclosed in braces to keep it within the left argument
+		assertPrinted("{ { ?s :p ?o } UNION { ?s :q ?o } } OPTIONAL { ?o :r ?x }",
+				"  {\n" +
+				"  {\n" +
+				"  ?s <http://example.org/p> ?o .\n" +
+				"  }\n" +
+				"  UNION\n" +
+				"  {\n" +
+				"  ?s <http://example.org/q> ?o .\n" +
+				"  }\n" +
+				"  }\n" +
+				"  OPTIONAL {\n" +
+				"  ?o <http://example.org/r> ?x .\n" +
+				"  }\n");
+	}
+	
+	@Test
+	public void testUnionFilter() throws Exception {
+		// the union is enclosed in braces to keep it within the join
+		assertPrinted("?s :p ?o . { ?o :q ?x } UNION { ?o :r ?x OPTIONAL { ?x :t ?y } } FILTER (?o != :a && regex(str(?x), \"a\"))",
+				"  ?s <http://example.org/p> ?o .\n" +
+				"  {\n" +
+				"  {\n" +
+				"  ?o <http://example.org/q> ?x .\n" +
+				"  }\n" +
+				"  UNION\n" +
+				"  {\n" +
+				"  ?o <http://example.org/r> ?x .\n" +
+				"  OPTIONAL {\n" +
+				"  ?x <http://example.org/t> ?y .\n" +
+				"  }\n" +
+				"  }\n" +
+				"  }\n" +
+				"  FILTER ((?o != <http://example.org/a> && regex(str(?x), \"a\")))\n");
+	}
+	
+	@Test
+	public void testNestedOptional() throws Exception {
+		assertPrinted("?s :p ?o OPTIONAL { ?o :q ?x OPTIONAL { ?x :r ?y } } FILTER (!bound(?y) || ?y = \"v\"@en)",
+				"  ?s <http://example.org/p> ?o .\n" +
+				"  OPTIONAL {\n" +
+				"  ?o <http://example.org/q> ?x .\n" +
+				"  OPTIONAL {\n" +
+				"  ?x <http://example.org/r> ?y .\n" +
+				"  }\n" +
+				"  }\n" +
+				"  FILTER ((!(bound(?y)) || ?y = \"v\"@en))\n");
+	}
+	
+	@Test
+	public void testPrintable() throws Exception {
+		Assert.assertTrue(SparqlPrinter.isPrintable(parse("?s :p ?o FILTER (isLiteral(?o) && lang(?o) = \"en\")")));
+		
+		// functions and assignments are not supported
+		Assert.assertFalse(SparqlPrinter.isPrintable(parse("?s :p ?o FILTER (strlen(?o) > 3)")));
+		Assert.assertFalse(SparqlPrinter.isPrintable(parse("?s :p ?o OPTIONAL { ?o :q ?x FILTER (strlen(?x) > 3) }")));
+		Assert.assertFalse(SparqlPrinter.isPrintable(parse("?s :p ?o BIND (?o AS ?x)")));
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private void assertPrinted(String pattern, String expected) throws Exception {
+		TupleExpr expr = parse(pattern);
+		Assert.assertTrue(SparqlPrinter.isPrintable(expr));
+		String sparql = SparqlPrinter.print(expr);
+		Assert.assertEquals(expected, sparql);
+		Assert.assertEquals(expr, parse(sparql));
+	}
+	
+	/**
+	 * Returns the query model of the graph pattern.
+	 */
+	private TupleExpr parse(String pattern) throws Exception {
+		String query = PREFIX + "SELECT * WHERE {\n" + pattern + "}";
+		return ((Projection) new SPARQLParser().parseQuery(query, null).getTupleExpr()).getArg();
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.Literal;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+
+import de.uni_koblenz.west.splendid.helpers.SparqlJsonResultReader;
+import de.uni_koblenz.west.splendid.helpers.SparqlResultReader;
+import de.uni_koblenz.west.splendid.helpers.SparqlTsvResultReader;
+import de.uni_koblenz.west.splendid.helpers.SparqlXmlResultReader;
+
+/**
+ * Tests the incremental parsing of SPARQL JSON and TSV results.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class SparqlResultReaderTest {
+	
+	private static final String JSON = "{ \"head\": { \"vars\": [ \"s\", \"o\" ], \"link\": [] },\n"
+			+ "  \"results\": { \"bindings\": [\n"
+			+ "    { \"s\": { \"type\": \"uri\", \"value\": \"http://example.org/a\" },\n"
+			+ "      \"o\": { \"type\": \"literal\", \"xml:lang\": \"de\", \"value\": \"Gr\\u00FC\\u00DFe & \\\"mehr\\\"\" } },\n"
+			+ "    { \"s\": { \"type\": \"bnode\", \"value\": \"b1\" },\n"
+			+ "      \"o\": { \"type\": \"typed-literal\", \"datatype\": \"http://www.w3.org/2001/XMLSchema#int\", \"value\": \"42\" } },\n"
+			+ "    { \"s\": { \"type\": \"uri\", \"value\": \"http://example.org/c\" } }\n"
+			+ "  ] }\n"
+			+ "}\n";
+	
+	private static final String TSV = "?s\t?o\n"
+			+ "<http://example.org/a>\t\"Gr\u00fc\u00dfe & \\\"mehr\\\"\"@de\r\n"
+			+ "_:b1\t\"42\"^^<http://www.w3.org/2001/XMLSchema#int>\n"
+			+ "<http://example.org/c>\t";
+	
+	@Test
+	public void testFormats() {
+		Assert.assertTrue(SparqlResultReader.create("application/sparql-results+json; charset=utf-8") instanceof SparqlJsonResultReader);
+		Assert.assertTrue(SparqlResultReader.create("text/tab-separated-values") instanceof SparqlTsvResultReader);
+		Assert.assertTrue(SparqlResultReader.create("application/sparql-results+xml") instanceof SparqlXmlResultReader);
+		Assert.assertNull(SparqlResultReader.create("text/html"));
+	}
+	
+	@Test
+	public void testJson() throws Exception {
+		check(new SparqlJsonResultReader(), JSON);
+	}
+	
+	@Test
+	public void testTsv() throws Exception {
+		check(new SparqlTsvResultReader(), TSV);
+	}
+	
+	@Test(expected = QueryEvaluationException.class)
+	public void testIncompleteJson() throws Exception {
+		byte[] bytes = JSON.substring(0, JSON.lastIndexOf(']')).getBytes("UTF-8");
+		SparqlResultReader reader = new SparqlJsonResultReader();
+		reader.feed(bytes, 0, bytes.length);
+		Assert.assertEquals(3, reader.take().size());
+		reader.end();
+	}
+	
+	private void check(SparqlResultReader reader, String document) throws Exception {
+		byte[] bytes = document.getBytes("UTF-8");
+		List<BindingSet> results = new ArrayList<BindingSet>();
+		for (int i = 0; i < bytes.length; i++) {
+			reader.feed(bytes, i, 1);
+			results.addAll(reader.take());
+		}
+		reader.end();
+		results.addAll(reader.take());
+		
+		Assert.assertEquals(Arrays.asList("s", "o"), reader.getBindingNames());
+		Assert.assertEquals(3, results.size());
+		Assert.assertEquals("http://example.org/a", results.get(0).getValue("s").stringValue());
+		Literal literal = (Literal) results.get(0).getValue("o");
+		Assert.assertEquals("Gr\u00fc\u00dfe & \"mehr\"", literal.getLabel());
+		Assert.assertEquals("de", literal.getLanguage());
+		Assert.assertEquals("b1", results.get(1).getValue("s").stringValue());
+		Assert.assertEquals(42, ((Literal) results.get(1).getValue("o")).intValue());
+		Assert.assertEquals("http://example.org/c", results.get(2).getValue("s").stringValue());
+		Assert.assertNull(results.get(2).getValue("o"));
+	}
+
+}
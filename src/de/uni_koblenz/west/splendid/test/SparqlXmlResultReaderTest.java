@@ -0,0 +1,100 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.Literal;
+import org.openrdf.query.BindingSet;
+import org.openrdf.query.QueryEvaluationException;
+
+import de.uni_koblenz.west.splendid.helpers.SparqlXmlResultReader;
+
+/**
+ * Tests the incremental parsing of SPARQL XML results.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class SparqlXmlResultReaderTest {
+	
+	private static final String DOCUMENT = "<?xml version='1.0' encoding='UTF-8'?>\n"
+			+ "<sparql xmlns='http://www.w3.org/2005/sparql-results#'>\n"
+			+ "<head><variable name='s'/><variable name='o'/></head>\n"
+			+ "<results>\n"
+			+ "<!-- first result -->\n"
+			+ "<result><binding name='s'><uri>http://example.org/a</uri></binding>"
+			+ "<binding name='o'><literal xml:lang='de'>Gr\u00fc\u00dfe &amp; &lt;mehr&gt;</literal></binding></result>\n"
+			+ "<result><binding name='s'><bnode>b1</bnode></binding>"
+			+ "<binding name='o'><literal datatype='http://www.w3.org/2001/XMLSchema#int'>42</literal></binding></result>\n"
+			+ "<result><binding name='s'><uri>http://example.org/c</uri></binding>"
+			+ "<binding name='o'><literal/></binding></result>\n"
+			+ "</results>\n"
+			+ "</sparql>\n";
+	
+	@Test
+	public void testSingleChunk() throws Exception {
+		byte[] bytes = DOCUMENT.getBytes("UTF-8");
+		SparqlXmlResultReader reader = new SparqlXmlResultReader();
+		reader.feed(bytes, 0, bytes.length);
+		reader.end();
+		check(reader.take());
+		Assert.assertEquals(Arrays.asList("s", "o"), reader.getBindingNames());
+	}
+	
+	@Test
+	public void testSingleBytes() throws Exception {
+		byte[] bytes = DOCUMENT.getBytes("UTF-8");
+		SparqlXmlResultReader reader = new SparqlXmlResultReader();
+		List<BindingSet> results = new ArrayList<BindingSet>();
+		for (int i = 0; i < bytes.length; i++) {
+			reader.feed(bytes, i, 1);
+			results.addAll(reader.take());
+		}
+		reader.end();
+		results.addAll(reader.take());
+		check(results);
+	}
+	
+	@Test(expected = QueryEvaluationException.class)
+	public void testIncomplete() throws Exception {
+		byte[] bytes = DOCUMENT.substring(0, DOCUMENT.indexOf("</results>")).getBytes("UTF-8");
+		SparqlXmlResultReader reader = new SparqlXmlResultReader();
+		reader.feed(bytes, 0, bytes.length);
+		Assert.assertEquals(3, reader.take().size());
+		reader.end();
+	}
+	
+	private void check(List<BindingSet> results) {
+		Assert.assertEquals(3, results.size());
+		Assert.assertEquals("http://example.org/a", results.get(0).getValue("s").stringValue());
+		Literal literal = (Literal) results.get(0).getValue("o");
+		Assert.assertEquals("Gr\u00fc\u00dfe & <mehr>", literal.getLabel());
+		Assert.assertEquals("de", literal.getLanguage());
+		Assert.assertEquals("b1", results.get(1).getValue("s").stringValue());
+		Assert.assertEquals(42, ((Literal) results.get(1).getValue("o")).intValue());
+		Assert.assertEquals("", results.get(2).getValue("o").stringValue());
+	}
+
+}
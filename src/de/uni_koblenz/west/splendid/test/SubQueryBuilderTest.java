@@ -0,0 +1,283 @@
+/*
+ * This file is part of RDF Federator.
+ * Copyright 2011 Olaf Goerlitz
+ * 
+ * RDF Federator is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * RDF Federator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with RDF Federator.  If not, see <http://www.gnu.org/licenses/>.
+ * 
+ * RDF Federator uses libraries from the OpenRDF Sesame Project licensed 
+ * under the Aduna BSD-style license. 
+ */
+package de.uni_koblenz.west.splendid.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.openrdf.model.Resource;
+import org.openrdf.model.impl.BNodeImpl;
+import org.openrdf.model.impl.GraphImpl;
+import org.openrdf.model.impl.LiteralImpl;
+import org.openrdf.model.impl.URIImpl;
+import org.openrdf.query.algebra.Compare;
+import org.openrdf.query.algebra.Filter;
+import org.openrdf.query.algebra.FunctionCall;
+import org.openrdf.query.algebra.Join;
+import org.openrdf.query.algebra.QueryRoot;
+import org.openrdf.query.algebra.StatementPattern;
+import org.openrdf.query.algebra.TupleExpr;
+import org.openrdf.query.algebra.Union;
+import org.openrdf.query.algebra.ValueConstant;
+import org.openrdf.query.algebra.ValueExpr;
+import org.openrdf.query.algebra.Var;
+import org.openrdf.query.algebra.helpers.StatementPatternCollector;
+import org.openrdf.sail.config.SailConfigException;
+
+import de.uni_koblenz.west.splendid.config.FederationSailSchema;
+import de.uni_koblenz.west.splendid.config.QueryOptimizerConfig;
+import de.uni_koblenz.west.splendid.index.Graph;
+import de.uni_koblenz.west.splendid.model.MappedStatementPattern;
+import de.uni_koblenz.west.splendid.model.RemoteQuery;
+import de.uni_koblenz.west.splendid.model.SubQueryBuilder;
+import de.uni_koblenz.west.splendid.statistics.RDFStatistics;
+
+/**
+ * Tests the grouping of subject stars for sources which partition the subjects
+ * and the split between filters which are applied by the sources and
+ * filters which are applied locally.
+ * 
+ * @author Olaf Goerlitz
+ */
+public class SubQueryBuilderTest {
+	
+	private static final Graph A = new Graph("http://a.org/sparql");
+	private static final Graph B = new Graph("http://b.org/sparql");
+	
+	@Test
+	public void testPartitioned() throws Exception {
+		List<TupleExpr> subQueries = createSubQueries(true, "http://a.org/", "http://b.org/");
+		Assert.assertEquals(subQueries.toString(), 2, subQueries.size());
+		Assert.assertEquals(2, getPatternCount(subQueries.get(0)));
+		Assert.assertEquals(1, getPatternCount(subQueries.get(1)));
+	}
+	
+	@Test
+	public void testDisabled() throws Exception {
+		List<TupleExpr> subQueries = createSubQueries(false, "http://a.org/", "http://b.org/");
+		Assert.assertEquals(subQueries.toString(), 3, subQueries.size());
+	}
+	
+	@Test
+	public void testOverlappingUriSpaces() throws Exception {
+		List<TupleExpr> subQueries = createSubQueries(true, "http://a.org/", "http://a.org/b/");
+		Assert.assertEquals(subQueries.toString(), 3, subQueries.size());
+	}
+	
+	@Test
+	public void testUnknownUriSpace() throws Exception {
+		List<TupleExpr> subQueries = createSubQueries(true, "http://a.org/", null);
+		Assert.assertEquals(subQueries.toString(), 3, subQueries.size());
+	}
+	
+	@Test
+	public void testFilters() throws Exception {
+		List<MappedStatementPattern> patterns = new ArrayList<MappedStatementPattern>();
+		patterns.add(createPattern("s", "http://example.org/p1", "o1", Collections.singleton(A)));
+		patterns.add(createPattern("s", "http://example.org/p2", "o2", Collections.singleton(A)));
+		ValueExpr printable = createCondition("o1", false);
+		ValueExpr local = createCondition("o2", true);
+		
+		List<TupleExpr> subQueries = createBuilder().createSubQueries(patterns, Arrays.asList(printable, local));
+		Assert.assertEquals(subQueries.toString(), 1, subQueries.size());
+		
+		// the filter which cannot be printed is applied on the sub query results
+		Filter filter = (Filter) subQueries.get(0);
+		Assert.assertSame(local, filter.getCondition());
+		RemoteQuery query = (RemoteQuery) filter.getArg();
+		filter = (Filter) query.getArg();
+		Assert.assertSame(printable, filter.getCondition());
+		Assert.assertTrue(filter.getArg() instanceof Join);
+	}
+	
+	@Test
+	public void testExclusivePrintableFilter() throws Exception {
+		// the filtered union of a single source is sent as one sub query
+		ValueExpr condition = createCondition("o", false);
+		QueryRoot root = new QueryRoot(new Filter(createUnion(A, A), condition));
+		createBuilder().createExclusiveQueries(root);
+		
+		RemoteQuery query = (RemoteQuery) root.getArg();
+		Filter filter = (Filter) query.getArg();
+		Assert.assertSame(condition, filter.getCondition());
+		Union union = (Union) filter.getArg();
+		Assert.assertTrue(union.getLeftArg() instanceof MappedStatementPattern);
+		Assert.assertTrue(union.getRightArg() instanceof MappedStatementPattern);
+	}
+	
+	@Test
+	public void testExclusiveLocalFilter() throws Exception {
+		// only the union is sent as one sub query, the filter is applied locally
+		ValueExpr condition = createCondition("o", true);
+		QueryRoot root = new QueryRoot(new Filter(createUnion(A, A), condition));
+		createBuilder().createExclusiveQueries(root);
+		
+		Filter filter = (Filter) root.getArg();
+		Assert.assertSame(condition, filter.getCondition());
+		RemoteQuery query = (RemoteQuery) filter.getArg();
+		Union union = (Union) query.getArg();
+		Assert.assertTrue(union.getLeftArg() instanceof MappedStatementPattern);
+	}
+	
+	@Test
+	public void testNotExclusive() throws Exception {
+		QueryRoot root = new QueryRoot(new Filter(createUnion(A, B), createCondition("o", false)));
+		createBuilder().createExclusiveQueries(root);
+		
+		Union union = (Union) ((Filter) root.getArg()).getArg();
+		Assert.assertTrue(union.getLeftArg() instanceof RemoteQuery);
+		Assert.assertTrue(union.getRightArg() instanceof RemoteQuery);
+	}
+	
+	// -------------------------------------------------------------------------
+	
+	private SubQueryBuilder createBuilder() throws SailConfigException {
+		return new SubQueryBuilder(QueryOptimizerConfig.create(new GraphImpl(), new BNodeImpl("optimizer")));
+	}
+	
+	/**
+	 * Creates a union of two sub queries for the sources.
+	 */
+	private Union createUnion(Graph left, Graph right) {
+		RemoteQuery leftQuery = new RemoteQuery(createPattern("s", "http://example.org/p1", "o", Collections.singleton(left)));
+		RemoteQuery rightQuery = new RemoteQuery(createPattern("s", "http://example.org/p2", "o", Collections.singleton(right)));
+		return new Union(leftQuery, rightQuery);
+	}
+	
+	/**
+	 * Creates a condition on the variable which can be printed as SPARQL
+	 * or which uses a function that cannot be printed.
+	 */
+	private ValueExpr createCondition(String varName, boolean function) {
+		ValueExpr arg = new Var(varName);
+		if (function)
+			arg = new FunctionCall("http://www.w3.org/2005/xpath-functions#string-length", arg);
+		return new Compare(arg, new ValueConstant(new LiteralImpl("v")));
+	}
+	
+	/**
+	 * Creates the sub queries for a subject star with two patterns and a
+	 * third pattern with another subject. All patterns are mapped to both
+	 * sources.
+	 */
+	private List<TupleExpr> createSubQueries(boolean groupByPartition, String uriSpaceA, String uriSpaceB) throws SailConfigException {
+		GraphImpl model = new GraphImpl();
+		Resource implNode = new BNodeImpl("optimizer");
+		model.add(implNode, FederationSailSchema.GROUP_BY_PARTITION, new LiteralImpl(String.valueOf(groupByPartition)));
+		
+		Map<Graph, String> uriSpaces = new HashMap<Graph, String>();
+		uriSpaces.put(A, uriSpaceA);
+		uriSpaces.put(B, uriSpaceB);
+		SubQueryBuilder builder = new SubQueryBuilder(QueryOptimizerConfig.create(model, implNode), new UriSpaceStatistics(uriSpaces));
+		
+		Set<Graph> sources = new HashSet<Graph>(Arrays.asList(A, B));
+		List<MappedStatementPattern> patterns = new ArrayList<MappedStatementPattern>();
+		patterns.add(createPattern("s", "http://example.org/p1", "o1", sources));
+		patterns.add(createPattern("x", "http://example.org/p3", "o3", sources));
+		patterns.add(createPattern("s", "http://example.org/p2", "o2", sources));
+		
+		List<TupleExpr> subQueries = builder.createSubQueries(patterns, new ArrayList<ValueExpr>());
+		for (TupleExpr subQuery : subQueries) {
+			Assert.assertTrue(subQuery.toString(), subQuery instanceof RemoteQuery);
+		}
+		return subQueries;
+	}
+	
+	private MappedStatementPattern createPattern(String subject, String predicate, String object, Set<Graph> sources) {
+		StatementPattern pattern = new StatementPattern(new Var(subject), new Var("-const-" + predicate, new URIImpl(predicate)), new Var(object));
+		return new MappedStatementPattern(pattern, new HashSet<Graph>(sources));
+	}
+	
+	private int getPatternCount(TupleExpr expr) {
+		return StatementPatternCollector.process(expr).size();
+	}
+	
+	/**
+	 * Statistics which only provide the URI spaces of the sources.
+	 */
+	private static class UriSpaceStatistics implements RDFStatistics {
+		
+		private final Map<Graph, String> uriSpaces;
+		
+		public UriSpaceStatistics(Map<Graph, String> uriSpaces) {
+			this.uriSpaces = uriSpaces;
+		}
+		
+		@Override
+		public String getUriSpace(Graph g) {
+			return uriSpaces.get(g);
+		}
+		
+		@Override
+		public Set<Graph> findSources(String sValue, String pValue, String oValue, boolean handleType) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public long getTripleCount(Graph g) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public long getPredicateCount(Graph g, String predicate) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public long getTypeCount(Graph g, String type) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public long getDistinctPredicates(Graph g) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public long getDistinctSubjects(Graph g) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public long getDistinctSubjects(Graph g, String predicate) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public long getDistinctObjects(Graph g) {
+			throw new UnsupportedOperationException();
+		}
+		
+		@Override
+		public long getDistinctObjects(Graph g, String predicate) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+}
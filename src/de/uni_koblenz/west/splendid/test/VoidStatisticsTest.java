@@ -71,7 +71,7 @@ public class VoidStatisticsTest {
 		for (String statFile : STAT_FILES) {
 			URL url = VoidStatisticsTest.class.getResource(statFile);
 			try {
-				voidStats.load(new ValueFactoryImpl().createURI(url.getPath()), null);
+				voidStats.load(new ValueFactoryImpl().createURI(url.toString()), null);
 			} catch (Exception e) {
 				throw new RuntimeException("can not load " + url, e);
 			}
@@ -101,4 +101,14 @@ public class VoidStatisticsTest {
 		Assert.assertTrue(9000 == (Long) voidStats.getTypeCount(sources.iterator().next(), FOAF_PERSON.toString()));
 	}
 	
+	/**
+	 * Test the URI spaces of the sources.
+	 */
+	@Test
+	public void testUriSpace() {
+		Assert.assertEquals("http://example1.org/resource/", voidStats.getUriSpace(new Graph("http://example1.org/sparql")));
+		Assert.assertNull(voidStats.getUriSpace(new Graph("http://example2.org/sparql")));
+		Assert.assertNull(voidStats.getUriSpace(new Graph("http://example3.org/sparql")));
+	}
+	
 }
@@ -36,6 +36,7 @@ public enum VOID2 {
 	// predicates
 	vocabulary,
 	sparqlEndpoint,
+	uriSpace,
 	distinctSubjects,
 	distinctObjects,
 	triples,